@@ -0,0 +1,145 @@
+package jayhorn;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+
+import jayhorn.utils.Stats;
+import soottocfg.util.JobContext;
+
+/**
+ * Verifies a sequence of jobs in one JVM, so that the JVM startup and
+ * the loading of Soot and the solvers are only paid once. Each input
+ * line holds the command-line arguments of one job, e.g.,
+ * "-j path/to/classes -solver spacer -stats". The output of a job is
+ * the same as for a single run of Main, followed by a line that starts
+ * with {@link #jobDoneMarker} and the number of the job (in the order of
+ * the input). An "exit" line or the end of the input stops the server.
+ *
+ * Each job runs in its own {@link JobContext}, so jobs do not see each
+ * other's options, statistics, or Soot scene, and up to -jobs of them
+ * run in parallel. The output of a job is buffered and printed in one
+ * piece when the job is done, so the output of parallel jobs does not
+ * interleave. Jobs can finish in a different order than they were
+ * submitted.
+ */
+public class BatchServer {
+
+	public static final String jobDoneMarker = "JAYHORN_JOB_DONE";
+
+	private final Level initialLogLevel;
+	private final int parallelJobs;
+	private int jobCount = 0;
+
+	public BatchServer() {
+		this(1);
+	}
+
+	/**
+	 * @param parallelJobs
+	 *            the number of jobs that may run at the same time.
+	 */
+	public BatchServer(int parallelJobs) {
+		this.initialLogLevel = Log.v().getLevel();
+		this.parallelJobs = Math.max(1, parallelJobs);
+	}
+
+	public void run(BufferedReader in) {
+		Log.info("Waiting for jobs on stdin.");
+		ExecutorService executor = Executors.newFixedThreadPool(parallelJobs);
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty()) {
+					continue;
+				}
+				if ("exit".equals(line)) {
+					break;
+				}
+				final String[] args = line.split("\\s+");
+				final int job = ++jobCount;
+				executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						runJob(job, args);
+					}
+				});
+			}
+		} catch (IOException e) {
+			Log.error("Cannot read job: " + e.toString());
+		} finally {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Runs a single job in a fresh context and prints its output.
+	 * Failures are reported as UNKNOWN and do not stop the server.
+	 * @param job
+	 * @param args
+	 */
+	void runJob(int job, String[] args) {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		PrintStream out;
+		try {
+			out = new PrintStream(buffer, true, StandardCharsets.UTF_8.name());
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+		JobContext previous = new JobContext(out).bind();
+		try {
+			runJob(args);
+		} finally {
+			JobContext.restore(previous);
+			synchronized (System.out) {
+				System.out.print(new String(buffer.toByteArray(), StandardCharsets.UTF_8));
+				System.out.println(jobDoneMarker + " " + job);
+				System.out.flush();
+			}
+		}
+	}
+
+	private void runJob(String[] args) {
+		if (parallelJobs == 1) {
+			// the log level is shared by all jobs.
+			Log.v().setLevel(initialLogLevel);
+		}
+
+		CmdLineParser parser = new CmdLineParser(Options.v());
+		try {
+			parser.parseArgument(args);
+			if (Options.v().server) {
+				throw new CmdLineException(parser, "-server is not allowed inside a job.", null);
+			}
+			Main.runChecker();
+		} catch (CmdLineException e) {
+			Log.error(e.toString());
+			JobContext.current().out().println("UNKNOWN");
+		} catch (Throwable t) {
+			Log.error(t.toString());
+			Stats.stats().add("Result", "UNKNOWN");
+			Stats.stats().exportStats();
+			if (Options.v().stats) {
+				Stats.stats().printStats();
+			} else {
+				JobContext.current().out().println("UNKNOWN");
+			}
+		}
+	}
+}
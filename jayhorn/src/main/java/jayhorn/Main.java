@@ -1,5 +1,10 @@
 package jayhorn;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
@@ -8,16 +13,27 @@ import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.hash.Hashing;
 
 import jayhorn.checker.EldaricaChecker;
+import jayhorn.checker.PortfolioChecker;
 import jayhorn.checker.SpacerChecker;
 import jayhorn.solver.ProverFactory;
 import jayhorn.solver.princess.PrincessProverFactory;
 import jayhorn.solver.spacer.SpacerProverFactory;
+import jayhorn.utils.ClassDependencies;
+import jayhorn.utils.IncrementalStore;
 import jayhorn.utils.Stats;
+import soot.Scene;
 import soottocfg.cfg.Program;
+import soottocfg.cfg.ast2cfg.Ast2Cfg;
+import soottocfg.cfg.util.ProgramSnapshot;
 import soottocfg.soot.SootToCfg;
 import soottocfg.soot.SootToCfg.MemModel;
+import soottocfg.util.BudgetExceededException;
+import soottocfg.util.JobContext;
+import soottocfg.util.PhaseTimer;
+import soottocfg.util.PhaseTimer.Phase;
 
 public class Main {
 	
@@ -36,24 +52,72 @@ public class Main {
      * @return true if safe, otherwise false
      */
     public static boolean safetyAnalysis(ProverFactory factory){
-    	Log.info("Building CFG  ... ");
-  		SootToCfg soot2cfg = new SootToCfg();
+    	// a program that was written by Cfg2AstPrinter does not need Soot.
+    	final boolean cfgInput = Options.v().getJavaInput().endsWith(".jh");
+    	IncrementalStore incremental = null;
+    	if (Options.v().getIncrementalDir() != null && !cfgInput) {
+    		incremental = new IncrementalStore(Paths.get(Options.v().getIncrementalDir()), Options.v().getJavaInput(),
+    				Options.v().getClasspath());
+    		final Boolean previous = incremental.lookup();
+    		if (previous != null) {
+    			Log.info("No class has changed since the last run, reusing its result.");
+    			reportResult(previous);
+    			return previous;
+    		}
+    	}
   		soottocfg.Options.v().setBuiltInSpecs(Options.v().useSpecs);
   		soottocfg.Options.v().setResolveVirtualCalls(true);
   		soottocfg.Options.v().setMemModel(MemModel.PullPush);
-  		if (Options.v().getOut()!=null) {
-  			Path outDir = Paths.get(Options.v().getOut());
-  			String in = Options.v().getJavaInput();
-  			String outName = in.substring(in.lastIndexOf('/') + 1, in.length()).replace(".java", "").replace(".class", "");
-  			soottocfg.Options.v().setOutDir(outDir);
-  			soottocfg.Options.v().setOutBaseName(outName);
+
+  		ProgramSnapshot snapshot = null;
+  		Program program = null;
+  		String mainClass = null;
+  		if (Options.v().getProgramSnapshot() != null && !cfgInput) {
+  			snapshot = new ProgramSnapshot(Paths.get(Options.v().getProgramSnapshot()));
+  			try {
+  				mainClass = snapshot.readMainClass();
+  				if (mainClass != null) {
+  					program = snapshot.load(programSnapshotKey(mainClass));
+  				}
+  			} catch (IOException e) {
+  				Log.error("Cannot load program snapshot: " + e.toString());
+  			}
+  			Stats.stats().add("ProgramSnapshotHit", String.valueOf(program != null));
+  		}
+  		if (cfgInput) {
+  			Log.info("Loading CFG  ... ");
+  			program = loadProgram(Options.v().getJavaInput());
+  		} else if (program != null) {
+  			Log.info("No class has changed since the snapshot was taken, reusing its CFG.");
+  		} else {
+  			Log.info("Building CFG  ... ");
+  			SootToCfg soot2cfg = new SootToCfg();
+  			if (Options.v().getOut()!=null) {
+  				Path outDir = Paths.get(Options.v().getOut());
+  				String in = Options.v().getJavaInput();
+  				String outName = in.substring(in.lastIndexOf('/') + 1, in.length()).replace(".java", "").replace(".class", "");
+  				soottocfg.Options.v().setOutDir(outDir);
+  				soottocfg.Options.v().setOutBaseName(outName);
+  			}
+
+  			Stopwatch sootTocfgTimer = Stopwatch.createStarted();
+  			Phase phase = PhaseTimer.v().start("SootToCfg");
+  			soot2cfg.run(Options.v().getJavaInput(), Options.v().getClasspath());	
+  			phase.stop();
+
+  			program = soot2cfg.getProgram();
+  			Stats.stats().add("SootToCFG", String.valueOf(sootTocfgTimer.stop()));
+  			// remember the main class before Soot is reset.
+  			mainClass = Scene.v().getMainClass().getName();
+  			if (snapshot != null) {
+  				// before the checker adds its own transformations.
+  				try {
+  					snapshot.save(program, mainClass, programSnapshotKey(mainClass));
+  				} catch (IOException e) {
+  					Log.error("Cannot write program snapshot: " + e.toString());
+  				}
+  			}
   		}
-  	
-  		Stopwatch sootTocfgTimer = Stopwatch.createStarted();
-  		soot2cfg.run(Options.v().getJavaInput(), Options.v().getClasspath());	
-  	
-  		Program program = soot2cfg.getProgram();
-  	    Stats.stats().add("SootToCFG", String.valueOf(sootTocfgTimer.stop()));
   		
   		Log.info("Safety Verification ... ");
 
@@ -61,21 +125,140 @@ public class Main {
   		if ("spacer".equals(Options.v().getSolver())){
   			SpacerChecker spacer = new SpacerChecker(factory);
   			result = spacer.checkProgram(program);
+  		} else if ("portfolio".equals(Options.v().getSolver())){
+  			PortfolioChecker portfolio = new PortfolioChecker(factory, new SpacerProverFactory());
+  			result = portfolio.checkProgram(program);
   		} else{
   			EldaricaChecker eldarica = new EldaricaChecker(factory);
+  			eldarica.setIncrementalStore(incremental);
   			result = eldarica.checkProgram(program);
   		}
+  		if (incremental != null) {
+  			incremental.store(mainClass, result);
+  		}
+  		reportResult(result);
+		return result;
+      }
+
+	/**
+	 * Loads a program from a file that was written by Cfg2AstPrinter, e.g.,
+	 * the .jh file that SootToCfg writes to the output directory.
+	 * @param file
+	 * @return
+	 */
+	private static Program loadProgram(String file) {
+		Stopwatch ast2cfgTimer = Stopwatch.createStarted();
+		Phase phase = PhaseTimer.v().start("Ast2Cfg");
+		Program program = new Program();
+		if (new Ast2Cfg(program).loadFile(new File(file)) == null) {
+			throw new RuntimeException("Cannot load " + file);
+		}
+		phase.stop();
+		Stats.stats().add("Ast2Cfg", String.valueOf(ast2cfgTimer.stop()));
+		return program;
+	}
+
+	/**
+	 * Computes the key of the program snapshot from the fingerprints of the
+	 * classes that the main class depends on, the class path, the code of
+	 * JayHorn, and the options of the translation.
+	 * @param mainClass
+	 * @return
+	 */
+	private static String programSnapshotKey(String mainClass) {
+		final StringBuilder sb = new StringBuilder();
+		try {
+			sb.append(new ClassDependencies(Options.v().getJavaInput(), Options.v().getClasspath()).fingerprints(mainClass));
+		} catch (IOException e) {
+			// a key that never matches.
+			return e.toString();
+		}
+		sb.append('\n');
+		sb.append(Options.v().getClasspath());
+		sb.append('\n');
+		sb.append(ClassDependencies.classpathFingerprint(Options.v().getClasspath()));
+		sb.append('\n');
+		sb.append(ClassDependencies.codeFingerprint());
+		final soottocfg.Options translation = soottocfg.Options.v();
+		for (Object value : new Object[] { translation.useBuiltInSpecs(), translation.memModel(),
+				translation.arrayInv(), translation.exactArrayElements(), translation.memPrecision(),
+				translation.resolveVirtualCalls(), translation.excAsAssert(), translation.getInlineMaxSize(),
+				translation.getInlineCount() }) {
+			sb.append('\n');
+			sb.append(value);
+		}
+		return Hashing.sha256().hashString(sb, StandardCharsets.UTF_8).toString();
+	}
+
+	/**
+	 * Reports the verdict of the safety analysis.
+	 * @param result
+	 */
+	private static void reportResult(boolean result) {
   		String prettyResult = parseResult(Options.v().getSolver(), result);
   		Stats.stats().add("FinalResult", prettyResult);
+  		Stats.stats().exportStats();
 
 		if (Options.v().stats){ 
 			Stats.stats().printStats(); 
 		}else{
-			System.out.println(prettyResult);
+			JobContext.current().out().println(prettyResult);
 		}
-		return result;
-      }
+	}
     
+	/**
+	 * Runs the checker selected in the current {@link Options}.
+	 */
+	static void runChecker() {
+		Options.v().updateSootToCfgOptions();
+		ProverFactory factory = null;
+		if ("spacer".equals(Options.v().getSolver())) {
+			factory = new SpacerProverFactory();
+		} else if ("eldarica".equals(Options.v().getSolver())
+				|| "portfolio".equals(Options.v().getSolver())) {
+			factory = new PrincessProverFactory();
+		} else {
+			throw new RuntimeException("Don't know solver " + Options.v().getSolver() + ". Using Eldarica instead.");
+		}
+
+		if (Options.v().verbose) Log.v().setLevel(Level.INFO);
+		
+		Log.info("\t\t ---   JAYHORN : Static Analayzer for Java Programs ---- ");
+		Log.info("\t Verification : " + Options.v().getChecker());
+		Log.info("\t Solver : " + Options.v().getSolver());
+		
+		if ("safety".equals(Options.v().getChecker())) {			
+			try {
+				safetyAnalysis(factory);
+			} catch (BudgetExceededException e) {
+				reportUnknown(e.getPhase(), e.getMessage());
+			} catch (OutOfMemoryError e) {
+				reportUnknown(PhaseTimer.v().current().getPath(), "Out of memory.");
+			}
+		} else {
+			Log.error(String.format("Checker %s is unknown", Options.v().getChecker()) );
+		}
+	}
+
+	/**
+	 * Reports UNKNOWN for a run that was aborted because a phase
+	 * exceeded its budget.
+	 * @param phase
+	 * @param reason
+	 */
+	private static void reportUnknown(String phase, String reason) {
+		PhaseTimer.v().stopAll();
+		Log.error(reason);
+		Stats.stats().add("Result", "UNKNOWN");
+		Stats.stats().add("BudgetExceeded", phase.isEmpty() ? "n/a" : phase);
+		Stats.stats().exportStats();
+		if (Options.v().stats) {
+			Stats.stats().printStats();
+		} else {
+			JobContext.current().out().println("UNKNOWN");
+		}
+	}
+
 	public static void main(String[] args) {
 		
 		Options options = Options.v();
@@ -89,27 +272,13 @@ public class Main {
 				return;
 			}
 
-			options.updateSootToCfgOptions();
-			ProverFactory factory = null;
-			if ("spacer".equals(Options.v().getSolver())) {
-				factory = new SpacerProverFactory();
-			} else if ("eldarica".equals(Options.v().getSolver())) {
-				factory = new PrincessProverFactory();
-			} else {
-				throw new RuntimeException("Don't know solver " + Options.v().getSolver() + ". Using Eldarica instead.");
+			if (Options.v().server) {
+				BatchServer server = new BatchServer(Options.v().getParallelJobs());
+				server.run(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)));
+				return;
 			}
 
-			if (Options.v().verbose) Log.v().setLevel(Level.INFO);
-			
-			Log.info("\t\t ---   JAYHORN : Static Analayzer for Java Programs ---- ");
-			Log.info("\t Verification : " + Options.v().getChecker());
-			Log.info("\t Solver : " + Options.v().getSolver());
-			
-			if ("safety".equals(Options.v().getChecker())) {			
-				safetyAnalysis(factory);
-			} else {
-				Log.error(String.format("Checker %s is unknown", Options.v().getChecker()) );
-			}
+			runChecker();
 			
 		} catch (CmdLineException e) {
 			Log.error(e.toString());
@@ -119,6 +288,7 @@ public class Main {
 		} catch (Throwable t) {
 			Log.error(t.toString());
 			Stats.stats().add("Result", "UNKNOWN");
+			Stats.stats().exportStats();
 			if (Options.v().stats){ Stats.stats().printStats(); }
 			throw t;	
 		} finally {
@@ -127,7 +297,7 @@ public class Main {
 		}
 	}
 
-	private static String getVersion() {
+	public static String getVersion() {
 	final Package[] packages = Package.getPackages();
 		for (final Package pkg : packages)
 		{
@@ -19,11 +19,17 @@
 
 package jayhorn;
 
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.kohsuke.args4j.Option;
 
+import soottocfg.util.JobContext;
+import soottocfg.util.PhaseTimer;
+
 /**
  * Options
  * 
@@ -49,6 +55,20 @@ public class Options {
 	@Option(name = "-version", usage = "Print version", required = false, help = true)
 	public boolean version = false;
 
+	@Option(name = "-server", usage = "Batch mode: read the arguments of one job per line from stdin and run all jobs in this JVM", required = false, help = true)
+	public boolean server = false;
+
+	@Option(name = "-jobs", usage = "Number of jobs that -server runs in parallel (Default is 1)", required = false)
+	private int parallelJobs = 1;
+
+	public int getParallelJobs() {
+		return parallelJobs;
+	}
+
+	public void setParallelJobs(int jobs) {
+		this.parallelJobs = jobs;
+	}
+
 	@Option(name = "-checker", usage = "Select a checker [inconsistency, or safety]", required = false)
 	// //@Option(name = "-checker", usage = "Select a checker [safety]",
 	// required = false)
@@ -58,7 +78,7 @@ public class Options {
 		return checker;
 	}
 
-	@Option(name = "-solver", usage = "Select a solver [eldarica or spacer]", required = false)
+	@Option(name = "-solver", usage = "Select a solver [eldarica, spacer, or portfolio]", required = false)
 	private String solver = "eldarica";
 
 	public String getSolver() {
@@ -66,7 +86,7 @@ public class Options {
 	}
 	
 
-	@Option(name = "-solverOptions", usage = "Options for the solver [eldarica: abstract, debug]", required = false)
+	@Option(name = "-solverOptions", usage = "Options for the solver [eldarica: abstract, debug, parallel]", required = false)
 	private String solverOptions = "";
 
 	public List<String> getSolverOptions() {
@@ -80,7 +100,7 @@ public class Options {
 	/**
 	 * JAR file
 	 */
-	@Option(name = "-j", usage = "JAR file, class folder, or apk", required = true)
+	@Option(name = "-j", usage = "JAR file, class folder, apk, or .jh file of a CFG", required = true)
 	private String javaInput;
 
 	public String getJavaInput() {
@@ -119,7 +139,29 @@ public class Options {
 	
 	@Option(name = "-stats", usage = "Generate Stats", required = false)
 	public boolean stats = false;
-	
+
+	@Option(name = "-stats-json", usage = "Write the phase timings and counters to a JSON file", required = false)
+	private String statsJson = null;
+
+	public String getStatsJson() {
+		return this.statsJson;
+	}
+
+	public void setStatsJson(String file) {
+		this.statsJson = file;
+	}
+
+	@Option(name = "-stats-csv", usage = "Write the phase timings and counters to a CSV file", required = false)
+	private String statsCsv = null;
+
+	public String getStatsCsv() {
+		return this.statsCsv;
+	}
+
+	public void setStatsCsv(String file) {
+		this.statsCsv = file;
+	}
+
 	@Option(name = "-solution", usage = "Output full solution or counter-example", required = false)
 	public boolean solution = false;
 
@@ -184,6 +226,139 @@ public class Options {
 		this.out = s;
 	}
 
+	@Option(name = "-large-blocks", usage = "Encode straight-line code, also across blocks, as one transition instead of one per statement", required = false)
+	private boolean largeBlocks = false;
+
+	public boolean getLargeBlocks() {
+		return this.largeBlocks;
+	}
+
+	public void setLargeBlocks(boolean b) {
+		this.largeBlocks = b;
+	}
+
+	@Option(name = "-simplify-horn", usage = "Simplify the Horn clauses (inlining, slicing, removing unneeded clauses) before they are passed to the solver", required = false)
+	private boolean simplifyHorn = false;
+
+	public boolean getSimplifyHorn() {
+		return this.simplifyHorn;
+	}
+
+	public void setSimplifyHorn(boolean b) {
+		this.simplifyHorn = b;
+	}
+
+	@Option(name = "-horn-threads", usage = "Number of threads that prepare the Horn encoding of the methods (Default is 1)", required = false)
+	private int hornThreads = 1;
+
+	public int getHornThreads() {
+		return this.hornThreads;
+	}
+
+	public void setHornThreads(int threads) {
+		this.hornThreads = threads;
+	}
+
+	@Option(name = "-split-properties", usage = "Check each assertion separately, with only the Horn clauses it depends on, and report a verdict per source line (Eldarica)", required = false)
+	private boolean splitProperties = false;
+
+	public boolean getSplitProperties() {
+		return this.splitProperties;
+	}
+
+	public void setSplitProperties(boolean b) {
+		this.splitProperties = b;
+	}
+
+	@Option(name = "-property-threads", usage = "Number of assertions that are checked at the same time, each in its own solver (Default is 1)", required = false)
+	private int propertyThreads = 1;
+
+	public int getPropertyThreads() {
+		return this.propertyThreads;
+	}
+
+	public void setPropertyThreads(int threads) {
+		this.propertyThreads = threads;
+	}
+
+	/*
+	 * Result cache
+	 */
+	@Option(name = "-cache-dir", usage = "Directory for caching verification results by Horn clause hash", required = false)
+	private String cacheDir = null;
+
+	public String getCacheDir() {
+		return this.cacheDir;
+	}
+
+	public void setCacheDir(String dir) {
+		this.cacheDir = dir;
+	}
+
+	@Option(name = "-predicate-hints", usage = "File that keeps the solutions of the Horn predicates, which are passed to Eldarica as hints in later runs", required = false)
+	private String predicateHints = null;
+
+	public String getPredicateHints() {
+		return this.predicateHints;
+	}
+
+	public void setPredicateHints(String file) {
+		this.predicateHints = file;
+	}
+
+	@Option(name = "-contract-summaries", usage = "File that keeps the solved method contracts. Unchanged methods are replaced by their cached contracts; all methods are verified again if those do not hold", required = false)
+	private String contractSummaries = null;
+
+	public String getContractSummaries() {
+		return this.contractSummaries;
+	}
+
+	public void setContractSummaries(String file) {
+		this.contractSummaries = file;
+	}
+
+	/*
+	 * Incremental verification
+	 */
+	@Option(name = "-incremental", usage = "Directory for the verdicts of earlier runs, which are reused if no class that the program depends on has changed. Otherwise, Eldarica checks each assertion separately and only solves the assertions whose Horn clauses have changed", required = false)
+	private String incrementalDir = null;
+
+	public String getIncrementalDir() {
+		return this.incrementalDir;
+	}
+
+	public void setIncrementalDir(String dir) {
+		this.incrementalDir = dir;
+	}
+
+	/*
+	 * Program snapshot
+	 */
+	@Option(name = "-program-snapshot", usage = "File for a snapshot of the translated program, which is reused if no class that the program depends on has changed", required = false)
+	private String programSnapshot = null;
+
+	public String getProgramSnapshot() {
+		return this.programSnapshot;
+	}
+
+	public void setProgramSnapshot(String file) {
+		this.programSnapshot = file;
+	}
+
+	/*
+	 * Library snapshot
+	 */
+	@Option(name = "-lib-snapshot", usage = "Directory for snapshots of the resolved library classes", required = false)
+	private String librarySnapshotDir = null;
+
+	public String getLibrarySnapshotDir() {
+		return this.librarySnapshotDir;
+	}
+
+	public void setLibrarySnapshotDir(String dir) {
+		this.librarySnapshotDir = dir;
+	}
+
 	/*
 	 * Memory precision
 	 */
@@ -241,6 +416,65 @@ public class Options {
 		this.timeout = seconds;
 	}
 
+	/*
+	 * Phase budgets
+	 */
+	@Option(name = "-phase-timeout", usage = "Time budget in seconds per phase, e.g., 600 for every phase or SootLoading=60,Inlining=120. Runs that exceed it report UNKNOWN.", required = false)
+	private String phaseTimeout = null;
+
+	public String getPhaseTimeout() {
+		return this.phaseTimeout;
+	}
+
+	public void setPhaseTimeout(String spec) {
+		this.phaseTimeout = spec;
+	}
+
+	@Option(name = "-heap-budget", usage = "Heap budget in MB per phase, same format as -phase-timeout. Bounds the growth of the heap that is in use after garbage collection while the phase runs, including parallel -server jobs. Runs that exceed it report UNKNOWN.", required = false)
+	private String heapBudget = null;
+
+	public String getHeapBudget() {
+		return this.heapBudget;
+	}
+
+	public void setHeapBudget(String spec) {
+		this.heapBudget = spec;
+	}
+
+	/**
+	 * Parses a budget specification of the form "N" (N applies to every
+	 * phase) or "Phase1=N1,Phase2=N2,*=N" and multiplies the values
+	 * with unit.
+	 * @param spec
+	 * @param unit
+	 * @return map from phase name to budget
+	 */
+	static Map<String, Long> parseBudgets(String spec, long unit) {
+		Map<String, Long> budgets = new HashMap<String, Long>();
+		if (spec == null) {
+			return budgets;
+		}
+		for (String entry : spec.split(",")) {
+			entry = entry.trim();
+			if (entry.isEmpty()) {
+				continue;
+			}
+			String phase = PhaseTimer.anyPhase;
+			String value = entry;
+			int eq = entry.indexOf('=');
+			if (eq >= 0) {
+				phase = entry.substring(0, eq).trim();
+				value = entry.substring(eq + 1).trim();
+			}
+			try {
+				budgets.put(phase, Long.parseLong(value) * unit);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid budget " + entry + " in " + spec);
+			}
+		}
+		return budgets;
+	}
+
 	
 	@Option(name = "-rta", usage = "Automatically inserts runtime assertions for Null deref, array bounds, and illegal casts.")
 	private boolean insertRuntimeAssertions = false;
@@ -288,6 +522,11 @@ public class Options {
 		soottocfg.Options.v().setInlineCount(inlineCount);
 		soottocfg.Options.v().setArrayInv(!disableArrayInv);
 		soottocfg.Options.v().setExactArrayElements(exactArrayElements);
+		if (librarySnapshotDir != null) {
+			soottocfg.Options.v().setLibrarySnapshotDir(Paths.get(librarySnapshotDir));
+		}
+		soottocfg.Options.v().setTimeBudgets(parseBudgets(phaseTimeout, 1000L));
+		soottocfg.Options.v().setHeapBudgets(parseBudgets(heapBudget, 1024L * 1024L));
 	}
 	
 	/**
@@ -300,15 +539,15 @@ public class Options {
 		this.classpath = classpath;
 	}
 
-	private static Options options;
 
 	public static void resetInstance() {
-		options = null;
+		JobContext.current().remove(Options.class);
 	}
 
 	public static Options v() {
+		Options options = JobContext.current().get(Options.class);
 		if (null == options) {
-			options = new Options();
+			options = JobContext.current().putIfAbsent(Options.class, new Options());
 		}
 		return options;
 	}
@@ -1,9 +1,19 @@
 package jayhorn.checker;
 
+import java.util.concurrent.TimeUnit;
 
+import com.google.common.base.Verify;
+
+import jayhorn.Log;
+import jayhorn.Options;
 import jayhorn.hornify.HornHelper;
 import jayhorn.hornify.encoder.S2H;
+import jayhorn.utils.GhostRegister;
+import jayhorn.utils.HeapCounterTransformer;
 import soottocfg.cfg.Program;
+import soottocfg.cfg.type.IntType;
+import soottocfg.util.JobContext;
+import soottocfg.util.PhaseTimer;
 
 
 /**
@@ -12,14 +22,58 @@ import soottocfg.cfg.Program;
 
 
 public abstract class Checker {
-	
+
 	public Checker() {
 		S2H.resetInstance();
 		HornHelper.resetInstance();
 	}
-	
+
 	public abstract boolean checkProgram(Program program);
-}
 
+	/**
+	 * Returns the timeout of a solver call in milliseconds, or -1 if
+	 * there is none. This is the -t option, bounded by the time that is
+	 * left in the budgets of the open phases.
+	 * @return
+	 */
+	protected long solverTimeout() {
+		long timeout = -1;
+		if (Options.v().getTimeout() > 0) {
+			timeout = TimeUnit.SECONDS.toMillis(Options.v().getTimeout());
+		}
+		long remaining = PhaseTimer.v().remainingMillis();
+		if (remaining != Long.MAX_VALUE) {
+			remaining = Math.max(1, remaining);
+			timeout = timeout < 0 ? remaining : Math.min(timeout, remaining);
+		}
+		return timeout;
+	}
+
+	/**
+	 * Registers the ghost variables and inserts the heap counter.
+	 * The transformation modifies the program, so it must only be
+	 * applied once per program, even if several checkers encode it.
+	 * @param program
+	 */
+	protected void prepareProgram(Program program) {
+		GhostRegister.reset();
+
+		if (soottocfg.Options.v().memPrecision() >= 2) {
+			GhostRegister.v().ghostVariableMap.put("pushID", IntType.instance());
+		}
+
+		if (Options.v().useCallIDs) {
+			Log.info("Inserting call IDs  ... ");
+			Verify.verify(false, "Don't run this for now!");
+//			CallingContextTransformer cct = new CallingContextTransformer();
+//			cct.transform(program);
+		}
 
+		HeapCounterTransformer hct = new HeapCounterTransformer();
+		hct.transform(program);
 
+		if (Options.v().printCFG) {
+			JobContext.current().out().println(program);
+		}
+	}
+}
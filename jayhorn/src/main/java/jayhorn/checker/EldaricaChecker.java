@@ -1,36 +1,53 @@
 package jayhorn.checker;
 
+import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
-import com.google.common.base.Verify;
 
 import jayhorn.Log;
 import jayhorn.Options;
+import jayhorn.hornify.ContractSummaries;
 import jayhorn.hornify.HornEncoderContext;
 import jayhorn.hornify.HornPredicate;
+import jayhorn.hornify.HornSimplifier;
 import jayhorn.hornify.Hornify;
+import jayhorn.hornify.MethodContract;
+import jayhorn.hornify.encoder.S2H;
 import jayhorn.solver.Prover;
 import jayhorn.solver.ProverExpr;
 import jayhorn.solver.ProverFactory;
+import jayhorn.solver.ProverFun;
 import jayhorn.solver.ProverHornClause;
 import jayhorn.solver.ProverResult;
-import jayhorn.utils.GhostRegister;
-import jayhorn.utils.HeapCounterTransformer;
+import jayhorn.solver.princess.PrincessProver;
+import jayhorn.solver.princess.PrincessProverFactory;
+import jayhorn.utils.IncrementalStore;
+import jayhorn.utils.ResultCache;
 import jayhorn.utils.Stats;
 import soottocfg.cfg.Program;
 import soottocfg.cfg.method.Method;
-import soottocfg.cfg.type.IntType;
 import soottocfg.cfg.variable.ClassVariable;
 import soottocfg.cfg.variable.Variable;
+import soottocfg.util.JobContext;
+import soottocfg.util.PhaseTimer;
+import soottocfg.util.PhaseTimer.Phase;
 
 /**
  * @author teme
@@ -45,45 +62,98 @@ public class EldaricaChecker extends Checker{
 	}
 
 	private List<ProverHornClause> allClauses = new LinkedList<ProverHornClause>();
+	private ProverHornClause entryClause;
+	private HornEncoderContext hornContext;
+	// the clauses of each assertion, by source line, if the properties
+	// are checked separately.
+	private Map<Integer, List<ProverHornClause>> propertyCones = null;
+	// the verdicts of the properties of earlier runs, or null.
+	private IncrementalStore incremental = null;
+	// the cached method contracts of a modular run, or null.
+	private ContractSummaries summaries = null;
+	// the last solution found by the prover, if the contracts are stored.
+	private Map<String, String> lastSolutionTexts = null;
+
+	public Prover getProver(){
+		return prover;
+	}
+
+	/**
+	 * Checks the assertions separately and reuses the verdicts of the
+	 * assertions whose cone has not changed since an earlier run.
+	 * @param store
+	 */
+	public void setIncrementalStore(IncrementalStore store) {
+		this.incremental = store;
+	}
 
 	public boolean checkProgram(Program program) {
 		Preconditions.checkNotNull(program.getEntryPoint(),
 				"The program has no entry points and thus is trivially verified.");	
 
-		GhostRegister.reset();
-		
-		if (soottocfg.Options.v().memPrecision() >= 2) {
-			GhostRegister.v().ghostVariableMap.put("pushID", IntType.instance());
-		}
-		
-		if (Options.v().useCallIDs) {
-			Log.info("Inserting call IDs  ... ");
-			Verify.verify(false, "Don't run this for now!");
-//			CallingContextTransformer cct = new CallingContextTransformer();
-//			cct.transform(program);
-		}
-		
-		HeapCounterTransformer hct = new HeapCounterTransformer();
-		hct.transform(program);
-		
-		if (Options.v().printCFG) {
-			System.out.println(program);
-		}
-		
+		prepareProgram(program);
+		if (Options.v().getContractSummaries() != null) {
+			if (factory instanceof PrincessProverFactory && !Options.v().getSplitProperties() && incremental == null) {
+				return checkModular(program);
+			}
+			Log.info("Contract summaries are only used by Eldarica, and only if the assertions are checked together.");
+		}
+		encode(program);
+		return solve();
+	}
+
+	/**
+	 * Verifies the program with the cached contracts of the methods that
+	 * have not changed since an earlier run (see ContractSummaries). If
+	 * the cached contracts do not hold together with the changed methods,
+	 * all methods are verified again. The contracts of a safe program are
+	 * stored for later runs.
+	 * @param program
+	 * @return true if safe, false if unsafe.
+	 */
+	private boolean checkModular(Program program) {
+		summaries = new ContractSummaries(program, Paths.get(Options.v().getContractSummaries()));
+		encode(program);
+		ProverResult result = solveClauses();
+		if (result != ProverResult.Sat && summaries.hasSummarizedMethods()) {
+			Log.info("The cached contracts do not hold for the changed methods, verifying all methods again.");
+			Stats.stats().add("ContractSummaryFallback", "true");
+			summaries.discardCache();
+			allClauses = new LinkedList<ProverHornClause>();
+			encode(program);
+			result = solveClauses();
+		}
+		if (result == ProverResult.Sat) {
+			if (lastSolutionTexts != null) {
+				summaries.store(lastSolutionTexts);
+			} else {
+				Log.info("No solution to store the contracts from.");
+			}
+		}
+		return verdict(result);
+	}
+
+	/**
+	 * Translates the prepared program into Horn clauses and asserts
+	 * them, together with the entry clause, in a fresh prover.
+	 * @param program
+	 */
+	void encode(Program program) {
 		Log.info("Hornify  ... ");
 		Hornify hf = new Hornify(factory);
 		Stopwatch toHornTimer = Stopwatch.createStarted();
-		HornEncoderContext hornContext = hf.toHorn(program);
+		Phase phase = PhaseTimer.v().start("ToHorn");
+		hornContext = hf.toHorn(program, summaries);
+		phase.stop();
 		Stats.stats().add("ToHorn", String.valueOf(toHornTimer.stop()));
 		prover = hf.getProver();
 		allClauses.addAll(hf.clauses);
 
 		if (Options.v().getPrintHorn()) {
-			System.out.println(hf.writeHorn());
+			JobContext.current().out().println(hf.writeHorn());
 		}
 
-		ProverResult result = ProverResult.Unknown;
-		try {			
+		try {
 			final Method entryPoint = program.getEntryPoint();
 
 			Log.info("Running from entry point: " + entryPoint.getMethodName());
@@ -95,31 +165,251 @@ public class EldaricaChecker extends Checker{
 
 			final ProverExpr entryAtom = entryPred.instPredicate(initialState);
 
-			final ProverHornClause entryClause = prover.mkHornClause(entryAtom, new ProverExpr[0],
-					prover.mkLiteral(true));
+			entryClause = prover.mkHornClause(entryAtom, new ProverExpr[0], prover.mkLiteral(true));
 
 			allClauses.add(entryClause);
 
+			if (summaries != null && summaries.hasSummarizedMethods() && !substituteSummaries()) {
+				// the cached solutions do not fit the clauses of the
+				// changed methods, so encode all methods.
+				Log.info("Cannot use the cached contracts, encoding all methods.");
+				prover.pop();
+				prover.shutdown();
+				summaries.discardCache();
+				allClauses = new LinkedList<ProverHornClause>();
+				encode(program);
+				return;
+			}
+
+			if ((Options.v().getSplitProperties() || incremental != null) && prover instanceof PrincessProver) {
+				propertyCones = propertyCones();
+				if (Options.v().getSimplifyHorn()) {
+					// simplify each cone on its own, since the simplified
+					// clauses cannot be traced back to the assertions.
+					Log.info("Simplifying Horn clauses ... ");
+					Phase simplifyPhase = PhaseTimer.v().start("SimplifyHorn");
+					final HornSimplifier simplifier = new HornSimplifier(prover, keptPredicates());
+					for (Entry<Integer, List<ProverHornClause>> cone : propertyCones.entrySet()) {
+						cone.setValue(simplifier.simplify(cone.getValue()));
+					}
+					simplifyPhase.stop();
+				}
+			} else if (Options.v().getSplitProperties()) {
+				Log.info("Prover " + prover + " cannot check the properties separately.");
+			}
+
+			if (Options.v().getSimplifyHorn() && propertyCones == null) {
+				Log.info("Simplifying Horn clauses ... ");
+				Phase simplifyPhase = PhaseTimer.v().start("SimplifyHorn");
+				allClauses = new HornSimplifier(prover, keptPredicates()).simplify(allClauses);
+				simplifyPhase.stop();
+			}
+
 			Hornify.hornToSMTLIBFile(allClauses, 0, prover);
 			Hornify.hornToFile(allClauses, 0);
 
-			for (ProverHornClause clause : allClauses)
-				prover.addAssertion(clause);
+			// the cones are asserted in their own provers by solveProperties.
+			if (propertyCones == null) {
+				for (ProverHornClause clause : allClauses)
+					prover.addAssertion(clause);
+			}
+		} catch (Throwable t) {
+			prover.shutdown();
+			t.printStackTrace();
+			throw new RuntimeException(t);
+		}
+	}
+
+	/**
+	 * Replaces the contracts of the summarized methods and the heap
+	 * invariants by their cached solutions.
+	 * @return false if the cached solutions do not fit the clauses.
+	 */
+	private boolean substituteSummaries() {
+		final Map<String, String> substitution = summaries.substitution();
+		if (substitution == null) {
+			return false;
+		}
+		final List<ProverHornClause> reduced = ((PrincessProver) prover).substitutePredicates(allClauses, substitution);
+		if (reduced == null) {
+			return false;
+		}
+		Log.info("Replaced the clauses of the unchanged methods by their cached contracts, " + reduced.size()
+				+ " clauses left");
+		allClauses = reduced;
+		// the entry clause is the last one, and it asserts the cached
+		// precondition of the entry point if that is summarized.
+		entryClause = reduced.get(reduced.size() - 1);
+		return true;
+	}
 
+	/**
+	 * Groups the clauses with head false by the source line of their
+	 * assertion, and collects for each line the clauses in the backward
+	 * cone of influence of its clauses, i.e., the clauses that define the
+	 * predicates they depend on. The clauses of a cone are in the order
+	 * of allClauses.
+	 * @return the cones by source line, in the order of the assertions.
+	 */
+	private Map<Integer, List<ProverHornClause>> propertyCones() {
+		final Map<ProverHornClause, Integer> lines = S2H.sh().getPropertyLines();
+		final Map<ProverFun, List<ProverHornClause>> definitions = new HashMap<ProverFun, List<ProverHornClause>>();
+		final Map<Integer, List<ProverHornClause>> properties = new LinkedHashMap<Integer, List<ProverHornClause>>();
+		for (ProverHornClause clause : allClauses) {
+			final ProverFun head = clause.getHeadFun();
+			final List<ProverHornClause> group;
+			if (head == null) {
+				Integer line = lines.get(clause);
+				if (line == null) {
+					line = -1;
+				}
+				if (!properties.containsKey(line)) {
+					properties.put(line, new LinkedList<ProverHornClause>());
+				}
+				group = properties.get(line);
+			} else {
+				if (!definitions.containsKey(head)) {
+					definitions.put(head, new LinkedList<ProverHornClause>());
+				}
+				group = definitions.get(head);
+			}
+			group.add(clause);
+		}
+
+		final Map<Integer, List<ProverHornClause>> cones = new LinkedHashMap<Integer, List<ProverHornClause>>();
+		for (Entry<Integer, List<ProverHornClause>> property : properties.entrySet()) {
+			final Set<ProverHornClause> cone = new HashSet<ProverHornClause>(property.getValue());
+			final Set<ProverFun> reached = new HashSet<ProverFun>();
+			final LinkedList<ProverHornClause> todo = new LinkedList<ProverHornClause>(property.getValue());
+			while (!todo.isEmpty()) {
+				final ProverHornClause clause = todo.removeFirst();
+				for (int i = 0; i < clause.getArity(); i++) {
+					final ProverFun fun = clause.getBodyFun(i);
+					if (reached.add(fun) && definitions.containsKey(fun)) {
+						cone.addAll(definitions.get(fun));
+						todo.addAll(definitions.get(fun));
+					}
+				}
+			}
+			final List<ProverHornClause> clauses = new LinkedList<ProverHornClause>();
+			for (ProverHornClause clause : allClauses) {
+				if (cone.contains(clause)) {
+					clauses.add(clause);
+				}
+			}
+			cones.put(property.getKey(), clauses);
+			PhaseTimer.v().count("propertyConeClauses", clauses.size());
+		}
+		Log.info("Split " + allClauses.size() + " clauses into " + cones.size() + " properties");
+		return cones;
+	}
+
+	/**
+	 * The predicates that the Horn simplification must leave alone: the
+	 * heap invariants if their solution is printed or stored, the method
+	 * contracts if their solutions are stored, and the predicates with a
+	 * stored hint.
+	 * @return
+	 */
+	private List<ProverFun> keptPredicates() {
+		List<ProverFun> kept = new LinkedList<ProverFun>();
+		if (Options.v().solution || summaries != null) {
+			for (Map<Long, HornPredicate> invariants : hornContext.getInvariantPredicates().values()) {
+				for (HornPredicate invariant : invariants.values()) {
+					kept.add(invariant.predicate);
+				}
+			}
+		}
+		if (summaries != null) {
+			for (Method m : hornContext.getProgram().getMethods()) {
+				final MethodContract contract = hornContext.getMethodContract(m);
+				kept.add(contract.precondition.predicate);
+				kept.add(contract.postcondition.predicate);
+			}
+		}
+		if (Options.v().getPredicateHints() != null && prover instanceof PrincessProver) {
+			kept.addAll(((PrincessProver) prover).hintedPredicates());
+		}
+		return kept;
+	}
+
+	/**
+	 * Runs the prover on the clauses asserted by encode.
+	 * @return true if safe, false if unsafe.
+	 */
+	boolean solve() {
+		if (propertyCones != null) {
+			return solveProperties();
+		}
+		return verdict(solveClauses());
+	}
+
+	private static boolean verdict(ProverResult result) {
+		if (result == ProverResult.Sat) {
+			return true;
+		} else if (result == ProverResult.Unsat) {
+			return false;
+		}
+		throw new RuntimeException("Verification failed with prover code " + result);
+	}
+
+	/**
+	 * Runs the prover on the clauses asserted by encode, or looks up
+	 * their result in the result cache.
+	 * @return Sat if safe, Unsat if unsafe, or the result of the prover.
+	 */
+	private ProverResult solveClauses() {
+		ProverResult result = ProverResult.Unknown;
+		lastSolutionTexts = null;
+		try {
 			Stopwatch satTimer = Stopwatch.createStarted();
-			if (jayhorn.Options.v().getTimeout() > 0) {
-				int timeoutInMsec = (int) TimeUnit.SECONDS.toMillis(jayhorn.Options.v().getTimeout());
+			Phase phase = PhaseTimer.v().start("Solving");
+			ResultCache cache = null;
+			String clauseHash = null;
+			if (Options.v().getCacheDir() != null) {
+				cache = new ResultCache(Paths.get(Options.v().getCacheDir()));
+				clauseHash = ResultCache.hash(prover.toString(), Hornify.hornToSMTLIB(allClauses, prover));
+				final ResultCache.CachedResult cached = cache.lookup(clauseHash);
+				ResultCache.addStats();
+				if (cached != null) {
+					Log.info("Found cached result for " + clauseHash);
+					if (Options.v().solution) {
+						Log.info(printHeapInvariants(hornContext, cached.solution));
+					}
+					Stats.stats().add("CachedCheckSatTime", cached.solverMillis + " ms");
+					Stats.stats().add("CheckSatTime", String.valueOf(satTimer.stop()));
+					phase.stop();
+					allClauses.remove(entryClause);
+					prover.pop();
+					return cached.safe ? ProverResult.Sat : ProverResult.Unsat;
+				}
+			}
+
+			final long timeoutInMsec = solverTimeout();
+			if (timeoutInMsec >= 0) {
 				prover.checkSat(false);
 				result = prover.getResult(timeoutInMsec);
 			} else {
 				result = prover.checkSat(true);
 			}
+			if (result != ProverResult.Sat && result != ProverResult.Unsat) {
+				// report which phase ran out of time, if any.
+				PhaseTimer.v().checkBudget();
+			}
 			if (Options.v().solution) {
-				Log.info(printHeapInvariants(hornContext));
+				Log.info(printHeapInvariants(hornContext, prover.getLastSolution()));
+			}
+			if (summaries != null && result == ProverResult.Sat) {
+				lastSolutionTexts = ((PrincessProver) prover).getLastSolutionTexts();
 			}
 			Stats.stats().add("CheckSatTime", String.valueOf(satTimer.stop()));
+			phase.stop();
+			if (cache != null && (result == ProverResult.Sat || result == ProverResult.Unsat)) {
+				cache.store(clauseHash, result == ProverResult.Sat,
+						satTimer.elapsed(TimeUnit.MILLISECONDS), prover.getLastSolution());
+			}
 
-			allClauses.remove(allClauses.size() - 1);
+			allClauses.remove(entryClause);
 			prover.pop();
 		} catch (Throwable t) {
 			t.printStackTrace();
@@ -127,23 +417,163 @@ public class EldaricaChecker extends Checker{
 		} finally {
 			prover.shutdown();
 		}
+		return result;
+	}
+	
+	/**
+	 * Checks the cones collected by encode, each with its own prover and
+	 * timeout, on at most -property-threads threads at the same time, and
+	 * reports a verdict per source line. The result cache is not used, but
+	 * in an incremental run, a cone that was solved before is not solved
+	 * again.
+	 * @return true if all properties hold, false if one does not.
+	 */
+	private boolean solveProperties() {
+		final PrincessProver source = (PrincessProver) prover;
+		final Map<Integer, ProverResult> results = new LinkedHashMap<Integer, ProverResult>();
+		final JobContext context = JobContext.current();
+		// the provers that are currently running, to stop them on interrupt.
+		final Set<Prover> active = new HashSet<Prover>();
+		ExecutorService executor = null;
+		try {
+			Stopwatch satTimer = Stopwatch.createStarted();
+			Phase phase = PhaseTimer.v().start("Solving");
+			if (propertyCones.isEmpty()) {
+				Stats.stats().add("Warning", "No assertions found.");
+				phase.stop();
+				return true;
+			}
+			final int threads = Math.max(1, Math.min(Options.v().getPropertyThreads(), propertyCones.size()));
+			executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "eldarica-property");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			Log.info("Checking " + propertyCones.size() + " properties on " + threads + " threads");
+			final long timeoutInMsec = solverTimeout();
+			final Map<Integer, Future<ProverResult>> futures = new LinkedHashMap<Integer, Future<ProverResult>>();
+			final Map<Integer, String> coneHashes = new HashMap<Integer, String>();
+			final Map<Integer, ProverResult> reused = new HashMap<Integer, ProverResult>();
+			for (final Entry<Integer, List<ProverHornClause>> cone : propertyCones.entrySet()) {
+				if (incremental != null) {
+					final String coneHash = ResultCache.hash(prover.toString(),
+							Hornify.hornToSMTLIB(cone.getValue(), prover));
+					final Boolean previous = incremental.lookupProperty(coneHash);
+					if (previous != null) {
+						reused.put(cone.getKey(), previous ? ProverResult.Sat : ProverResult.Unsat);
+						PhaseTimer.v().count("reusedProperties", 1);
+						continue;
+					}
+					coneHashes.put(cone.getKey(), coneHash);
+				}
+				futures.put(cone.getKey(), executor.submit(new Callable<ProverResult>() {
+					@Override
+					public ProverResult call() {
+						JobContext previous = context.bind();
+						final PrincessProver p = source.copyHornPredicates();
+						synchronized (active) {
+							active.add(p);
+						}
+						try {
+							for (ProverHornClause clause : cone.getValue()) {
+								p.addAssertion(clause);
+							}
+							final ProverResult result;
+							if (timeoutInMsec >= 0) {
+								p.checkSat(false);
+								result = p.getResult(timeoutInMsec);
+							} else {
+								result = p.checkSat(true);
+							}
+							if (result == ProverResult.Sat && Options.v().solution) {
+								Log.info(printHeapInvariants(hornContext, p.getLastSolution()));
+							}
+							return result;
+						} finally {
+							synchronized (active) {
+								active.remove(p);
+							}
+							p.shutdown();
+							JobContext.restore(previous);
+						}
+					}
+				}));
+			}
+			if (incremental != null) {
+				Log.info("Reusing the verdicts of " + reused.size() + " unchanged properties");
+			}
+			for (Integer line : propertyCones.keySet()) {
+				ProverResult result = reused.get(line);
+				if (result == null) {
+					try {
+						result = futures.get(line).get();
+					} catch (ExecutionException e) {
+						Log.error("Checking the property at line " + line + " failed: " + e.getCause());
+						result = ProverResult.Unknown;
+					}
+					if (incremental != null && (result == ProverResult.Sat || result == ProverResult.Unsat)) {
+						incremental.storeProperty(coneHashes.get(line), result == ProverResult.Sat);
+					}
+				}
+				results.put(line, result);
+				// Eldarica answers Sat if the clauses have a solution,
+				// i.e., if the assertion holds.
+				final String verdict;
+				if (result == ProverResult.Sat) {
+					verdict = "SAFE";
+				} else if (result == ProverResult.Unsat) {
+					verdict = "UNSAFE";
+				} else {
+					verdict = "UNKNOWN";
+				}
+				Stats.stats().add("Property@Line" + line, verdict);
+				PhaseTimer.v().count(verdict.toLowerCase() + "Properties", 1);
+			}
+			if (results.containsValue(ProverResult.Unknown)) {
+				PhaseTimer.v().checkBudget();
+			}
+			Stats.stats().add("CheckSatTime", String.valueOf(satTimer.stop()));
+			phase.stop();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Checking properties interrupted.");
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+			synchronized (active) {
+				for (Prover p : active) {
+					p.stop();
+				}
+			}
+			allClauses.remove(entryClause);
+			prover.pop();
+			prover.shutdown();
+		}
 
-		if (result == ProverResult.Sat) {
-			return true;
-		} else if (result == ProverResult.Unsat) {
+		if (results.containsValue(ProverResult.Unsat)) {
 			return false;
 		}
-		throw new RuntimeException("Verification failed with prover code " + result);
+		for (Entry<Integer, ProverResult> entry : results.entrySet()) {
+			if (entry.getValue() != ProverResult.Sat) {
+				throw new RuntimeException("Verification failed with prover code " + entry.getValue()
+						+ " for the property at line " + entry.getKey());
+			}
+		}
+		return true;
 	}
-	
-	private String printHeapInvariants(HornEncoderContext hornContext) {
+
+	private String printHeapInvariants(HornEncoderContext hornContext, Map<String, String> solution) {
 		StringBuilder sb = new StringBuilder();
-		if (prover.getLastSolution()!=null) {			
+		if (solution!=null) {			
 			sb.append("No assertion can fail using the following heap invariants:\n");
 			
 			Map<ClassVariable, TreeMap<Long,String>> heapInvariants = new LinkedHashMap<ClassVariable, TreeMap<Long,String>>();
 			
-			for (Entry<String, String> entry : prover.getLastSolution().entrySet()) {
+			for (Entry<String, String> entry : solution.entrySet()) {
 				boolean found = false;
 				for (Entry<ClassVariable, Map<Long, HornPredicate>> pentry : hornContext.getInvariantPredicates().entrySet()) {
 					
@@ -0,0 +1,126 @@
+package jayhorn.checker;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+
+import jayhorn.Log;
+import jayhorn.solver.Prover;
+import jayhorn.solver.ProverFactory;
+import jayhorn.utils.Stats;
+import soottocfg.cfg.Program;
+
+/**
+ * Runs Eldarica and Spacer in parallel on the same program and
+ * returns the first definitive answer. The backend that loses the
+ * race is stopped.
+ *
+ * The program is transformed once and then encoded once per backend,
+ * because the clauses are built from prover-specific expressions.
+ * The encoding runs sequentially since it uses the shared
+ * HornHelper and S2H instances. Only the solving is done in parallel.
+ */
+public class PortfolioChecker extends Checker {
+
+	private final EldaricaChecker eldarica;
+	private final SpacerChecker spacer;
+
+	public PortfolioChecker(ProverFactory eldaricaFactory, ProverFactory spacerFactory) {
+		this.eldarica = new EldaricaChecker(eldaricaFactory);
+		this.spacer = new SpacerChecker(spacerFactory);
+	}
+
+	public boolean checkProgram(Program program) {
+		Preconditions.checkNotNull(program.getEntryPoint(),
+				"The program has no entry points and thus is trivially verified.");
+
+		prepareProgram(program);
+
+		final Map<String, Callable<Boolean>> backends = new LinkedHashMap<String, Callable<Boolean>>();
+		final Map<String, Prover> provers = new LinkedHashMap<String, Prover>();
+		try {
+			eldarica.encode(program);
+			provers.put("eldarica", eldarica.getProver());
+			backends.put("eldarica", new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					return eldarica.solve();
+				}
+			});
+		} catch (Throwable t) {
+			Log.error("Portfolio: cannot encode for eldarica. " + t.toString());
+		}
+		try {
+			spacer.encode(program);
+			provers.put("spacer", spacer.getProver());
+			backends.put("spacer", new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					return spacer.solve();
+				}
+			});
+		} catch (Throwable t) {
+			Log.error("Portfolio: cannot encode for spacer. " + t.toString());
+		}
+		if (backends.isEmpty()) {
+			throw new RuntimeException("Portfolio: no solver backend is available.");
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(backends.size(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				// a stuck backend must not keep the JVM alive
+				Thread t = new Thread(r, "portfolio");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		final CompletionService<Boolean> completion = new ExecutorCompletionService<Boolean>(executor);
+		final Map<Future<Boolean>, String> running = new LinkedHashMap<Future<Boolean>, String>();
+		Stopwatch portfolioTimer = Stopwatch.createStarted();
+		try {
+			for (Entry<String, Callable<Boolean>> entry : backends.entrySet()) {
+				running.put(completion.submit(entry.getValue()), entry.getKey());
+			}
+			while (!running.isEmpty()) {
+				final Future<Boolean> done = completion.take();
+				final String name = running.remove(done);
+				try {
+					final Boolean result = done.get();
+					Log.info("Portfolio: " + name + " answered first.");
+					Stats.stats().add("PortfolioWinner", name);
+					return result;
+				} catch (ExecutionException e) {
+					Log.info("Portfolio: " + name + " gave no definitive answer. " + e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Portfolio interrupted.");
+		} finally {
+			for (Entry<Future<Boolean>, String> entry : running.entrySet()) {
+				Log.info("Portfolio: stopping " + entry.getValue());
+				entry.getKey().cancel(true);
+				try {
+					provers.get(entry.getValue()).stop();
+				} catch (Throwable t) {
+					// the loser may already be shutting down.
+				}
+			}
+			executor.shutdownNow();
+			Stats.stats().add("PortfolioTime", String.valueOf(portfolioTimer.stop()));
+		}
+		throw new RuntimeException("Verification failed: no solver in the portfolio gave a definitive answer.");
+	}
+}
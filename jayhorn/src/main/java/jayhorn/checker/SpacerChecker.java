@@ -4,14 +4,21 @@
 package jayhorn.checker;
 
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
-import com.google.common.base.Verify;
 
 import jayhorn.Log;
 import jayhorn.Options;
@@ -24,13 +31,14 @@ import jayhorn.solver.ProverExpr;
 import jayhorn.solver.ProverFactory;
 import jayhorn.solver.ProverHornClause;
 import jayhorn.solver.ProverResult;
-import jayhorn.utils.GhostRegister;
-import jayhorn.utils.HeapCounterTransformer;
+import jayhorn.solver.spacer.SpacerProver;
 import jayhorn.utils.Stats;
 import soottocfg.cfg.Program;
 import soottocfg.cfg.method.Method;
-import soottocfg.cfg.type.IntType;
 import soottocfg.cfg.variable.Variable;
+import soottocfg.util.JobContext;
+import soottocfg.util.PhaseTimer;
+import soottocfg.util.PhaseTimer.Phase;
 
 /**
  * @author teme
@@ -44,9 +52,10 @@ public class SpacerChecker extends Checker{
 		this.factory = factory;
 	}
 	
-	// Collect all the results
-	private Map<ProverExpr, ProverResult> results = new HashMap<ProverExpr, ProverResult>();
+	// Collect all the results, in the order of errorStates
+	private Map<ProverExpr, ProverResult> results = new LinkedHashMap<ProverExpr, ProverResult>();
 	private List<ProverHornClause> allClauses = new LinkedList<ProverHornClause>();
+	private Map<ProverExpr, Integer> errorStates = new LinkedHashMap<ProverExpr, Integer>();
 	
 	public Prover getProver(){
 		return prover;
@@ -56,38 +65,39 @@ public class SpacerChecker extends Checker{
 		Preconditions.checkNotNull(program.getEntryPoint(),
 				"The program has no entry points and thus is trivially verified.");	
 
-		GhostRegister.reset();
-		
-		if (soottocfg.Options.v().memPrecision() >= 2) {
-			GhostRegister.v().ghostVariableMap.put("pushID", IntType.instance());
-		}
-		
-		if (Options.v().useCallIDs) {
-			Log.info("Inserting call IDs  ... ");
-			Verify.verify(false, "Don't run this for now!");
-//			CallingContextTransformer cct = new CallingContextTransformer();
-//			cct.transform(program);
-		}
-		
-		HeapCounterTransformer hct = new HeapCounterTransformer();
-		hct.transform(program);
-		
-		if (Options.v().printCFG) {
-			System.out.println(program);
-		}
-		
+		prepareProgram(program);
+		encode(program);
+		return solve();
+	}
+
+	/**
+	 * Translates the prepared program into Horn clauses and adds
+	 * them, together with the entry clause, as rules to a fresh prover.
+	 * @param program
+	 */
+	void encode(Program program) {
+		// other checkers may share S2H, so only remember the
+		// error states produced by this encoding.
+		Set<ProverExpr> knownErrorStates = new HashSet<ProverExpr>(S2H.sh().getErrorState().keySet());
+
 		Log.info("Hornify  ... ");
 		Hornify hf = new Hornify(factory);
 		Stopwatch toHornTimer = Stopwatch.createStarted();
+		Phase phase = PhaseTimer.v().start("ToHorn");
 		HornEncoderContext hornContext = hf.toHorn(program);
+		phase.stop();
 		Stats.stats().add("CfgToHorn", String.valueOf(toHornTimer.stop()));
 		prover = hf.getProver();
 		//tsClauses = S2H.sh().getTransitionRelationClause();
 		//propertyClauses = S2H.sh().getPropertyClause();
 		allClauses.addAll(hf.clauses);
-				
 
-		ProverResult result = ProverResult.Unknown;
+		for (Map.Entry<ProverExpr, Integer> entry : S2H.sh().getErrorState().entrySet()) {
+			if (!knownErrorStates.contains(entry.getKey())) {
+				errorStates.put(entry.getKey(), entry.getValue());
+			}
+		}
+
 		try {			
 			final Method entryPoint = program.getEntryPoint();
 			Log.info("Running from entry point: " + entryPoint.getMethodName());
@@ -106,7 +116,19 @@ public class SpacerChecker extends Checker{
 				//System.out.println(hf.writeHorn());
 				prover.printRules();
 			}
-			
+		} catch (Throwable t) {
+			prover.shutdown();
+			t.printStackTrace();
+			throw new RuntimeException(t);
+		}
+	}
+
+	/**
+	 * Queries the reachability of each error state added by encode.
+	 * @return true if safe, false if unsafe.
+	 */
+	boolean solve() {
+		try {			
 			// Bounds Check
 //			if (Options.v().getHeapLimit() > -1) {
 //				HeapBoundsCheck bc = new HeapBoundsCheck(prover);
@@ -125,37 +147,41 @@ public class SpacerChecker extends Checker{
 //			}
 			Log.info("Checking properties");
 			Stopwatch satTimer = Stopwatch.createStarted();
-			if (S2H.sh().getErrorState().isEmpty()){
+			Phase phase = PhaseTimer.v().start("Solving");
+			if (errorStates.isEmpty()){
 				Stats.stats().add("Warning", "No assertions found.");
+				phase.stop();
 				return true;
 			}
 			
 
-			for (Map.Entry<ProverExpr, Integer> props : S2H.sh().getErrorState().entrySet()) {
-			    ProverExpr prop = props.getKey();
-			    if (jayhorn.Options.v().getTimeout() > 0) {
-					int timeoutInMsec = (int) TimeUnit.SECONDS.toMillis(jayhorn.Options.v().getTimeout());
-					prover.query(prop, true);
-					result = prover.getResult(timeoutInMsec);
-				} else {
-					result = prover.query(prop, false);
+			final int threads = Options.v().getPropertyThreads();
+			if (threads > 1 && errorStates.size() > 1 && prover instanceof SpacerProver) {
+				queryInParallel((SpacerProver) prover, threads);
+				for (Map.Entry<ProverExpr, Integer> props : errorStates.entrySet()) {
+					reportProperty(props.getValue(), results.get(props.getKey()));
+				}
+				if (results.values().contains(ProverResult.Unknown)) {
+					PhaseTimer.v().checkBudget();
+				}
+			} else {
+				for (Map.Entry<ProverExpr, Integer> props : errorStates.entrySet()) {
+					ProverExpr prop = props.getKey();
+					final ProverResult result = query(prover, prop);
+					if (result != ProverResult.Sat && result != ProverResult.Unsat) {
+						PhaseTimer.v().checkBudget();
+					}
+					reportProperty(props.getValue(), result);
+					if (result == ProverResult.Sat && Options.v().solution) {
+						cex(prover);
+					}
+					results.put(prop, result);
 				}
-			    String propLine = "Property@Line"+props.getValue();
-			    if (result == ProverResult.Unsat) {
-			    	Stats.stats().add(propLine, "SAFE");
-			    } else if (result == ProverResult.Sat){
-			    	Stats.stats().add(propLine, "UNSAFE");
-			    	if (Options.v().solution){
-			    		cex();
-			    	}
-			    } else {
-			    	Stats.stats().add(propLine, "ERROR");
-			    }
-				results.put(prop, result);
 			}
 
 			
 			Stats.stats().add("CheckSatTime", String.valueOf(satTimer.stop()));
+			phase.stop();
 			
 		} catch (Throwable t) {
 			
@@ -166,20 +192,141 @@ public class SpacerChecker extends Checker{
 		}
 		
 
-		for (ProverResult res : results.values()) {
-			if (res == ProverResult.Sat){
-				return false;
-			}else if(res != ProverResult.Unsat){
-				throw new RuntimeException("Verification failed with prover code " + result);
+		// one reachable error state makes the program unsafe, no matter
+		// in which order the properties were checked.
+		if (results.containsValue(ProverResult.Sat)) {
+			return false;
+		}
+		for (Map.Entry<ProverExpr, ProverResult> entry : results.entrySet()) {
+			if (entry.getValue() != ProverResult.Unsat) {
+				throw new RuntimeException("Verification failed with prover code " + entry.getValue()
+						+ " for the property at line " + errorStates.get(entry.getKey()));
 			}
 		}
-
 		return true;
 	}
 
-	private void cex(){
+	/**
+	 * Queries the reachability of one error state.
+	 * @param p
+	 * @param prop
+	 * @return Sat if the error state is reachable, Unsat if not, and
+	 *         Unknown otherwise.
+	 */
+	private ProverResult query(Prover p, ProverExpr prop) {
+		final long timeoutInMsec = solverTimeout();
+		ProverResult result;
+		if (timeoutInMsec >= 0) {
+			p.query(prop, true);
+			result = p.getResult(timeoutInMsec);
+		} else {
+			result = p.query(prop, false);
+		}
+		if (result != ProverResult.Sat && result != ProverResult.Unsat) {
+			result = ProverResult.Unknown;
+		}
+		return result;
+	}
+
+	/**
+	 * Queries all error states at the same time, each with its own copy
+	 * of the rules of source, on at most threads threads. The results
+	 * are put in results in the order of errorStates, and a query that
+	 * fails counts as Unknown.
+	 * @param source
+	 * @param threads
+	 */
+	private void queryInParallel(final SpacerProver source, int threads) {
+		final JobContext context = JobContext.current();
+		// the copies that are currently queried, to stop them on interrupt.
+		final Set<SpacerProver> active = new HashSet<SpacerProver>();
+		final Map<ProverExpr, Future<ProverResult>> futures = new LinkedHashMap<ProverExpr, Future<ProverResult>>();
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, errorStates.size()),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "spacer-property");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		Log.info("Checking " + errorStates.size() + " properties on " + threads + " threads");
+		try {
+			for (final ProverExpr prop : errorStates.keySet()) {
+				futures.put(prop, executor.submit(new Callable<ProverResult>() {
+					@Override
+					public ProverResult call() {
+						JobContext previous = context.bind();
+						try {
+							final SpacerProver copy;
+							final ProverExpr target;
+							// copying reads the context of source, which is
+							// not thread-safe.
+							synchronized (source) {
+								copy = source.copyRules();
+								target = copy.importExpr(prop);
+							}
+							synchronized (active) {
+								active.add(copy);
+							}
+							try {
+								ProverResult result = query(copy, target);
+								if (result == ProverResult.Sat && Options.v().solution) {
+									cex(copy);
+								}
+								return result;
+							} finally {
+								synchronized (active) {
+									active.remove(copy);
+								}
+								copy.shutdown();
+							}
+						} finally {
+							JobContext.restore(previous);
+						}
+					}
+				}));
+			}
+			for (Map.Entry<ProverExpr, Future<ProverResult>> entry : futures.entrySet()) {
+				ProverResult result;
+				try {
+					result = entry.getValue().get();
+				} catch (ExecutionException e) {
+					Log.error("Checking the property at line " + errorStates.get(entry.getKey()) + " failed: "
+							+ e.getCause());
+					result = ProverResult.Unknown;
+				}
+				results.put(entry.getKey(), result);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Checking properties interrupted.");
+		} finally {
+			executor.shutdownNow();
+			synchronized (active) {
+				for (SpacerProver copy : active) {
+					copy.stop();
+				}
+			}
+		}
+	}
+
+	private void reportProperty(int line, ProverResult result) {
+		final String verdict;
+		if (result == ProverResult.Unsat) {
+			verdict = "SAFE";
+		} else if (result == ProverResult.Sat) {
+			verdict = "UNSAFE";
+		} else {
+			verdict = "UNKNOWN";
+		}
+		Stats.stats().add("Property@Line" + line, verdict);
+		PhaseTimer.v().count(verdict.toLowerCase() + "Properties", 1);
+	}
+
+	private void cex(Prover p){
 		//work in progress
-		System.out.println(prover.getCex());
+		JobContext.current().out().println(p.getCex());
 	}
 	
 //	private void removeUnreachableMethods(Program program) {
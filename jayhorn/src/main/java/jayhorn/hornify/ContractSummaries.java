@@ -0,0 +1,402 @@
+package jayhorn.hornify;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.jgrapht.DirectedGraph;
+import org.jgrapht.alg.StrongConnectivityInspector;
+import org.jgrapht.graph.DefaultEdge;
+
+import com.google.common.hash.Hashing;
+
+import jayhorn.Log;
+import jayhorn.utils.ClassDependencies;
+import jayhorn.utils.GhostRegister;
+import jayhorn.utils.IncrementalStore;
+import jayhorn.utils.PredicateHintStore;
+import jayhorn.utils.Stats;
+import soottocfg.cfg.Program;
+import soottocfg.cfg.method.CfgBlock;
+import soottocfg.cfg.method.Method;
+import soottocfg.cfg.statement.PullStatement;
+import soottocfg.cfg.statement.PushStatement;
+import soottocfg.cfg.statement.Statement;
+import soottocfg.cfg.type.Type;
+import soottocfg.cfg.variable.ClassVariable;
+import soottocfg.cfg.variable.Variable;
+
+/**
+ * Modular verification with the method contracts solved in earlier runs.
+ * The methods are visited bottom-up over the strongly connected
+ * components of the call graph. The methods of a component are
+ * summarized, i.e., not encoded again, if the store has the solutions of
+ * their pre- and postconditions under the key of the component.
+ *
+ * All methods share the pull/push heap invariants, so a contract only
+ * holds together with the solution of the invariants that it was solved
+ * with. The key of a component is therefore the hash of
+ * - the layout of the heap: the code of JayHorn, the options, the class
+ *   ids, and the fields of the classes and the ghost fields,
+ * - the stored solution of the heap invariants,
+ * - the CFGs of its methods and the pushes that each of their pulls reads,
+ * - the contracts of the methods that it calls.
+ * The clauses of a summarized component are then the same as in the run
+ * that solved them, and the cached solutions still satisfy them.
+ *
+ * The checker replaces the contracts of the summarized methods and the
+ * heap invariants by their cached solutions in the clauses of the other
+ * methods (see PrincessProver.substitutePredicates). This also checks the
+ * cached solutions against the changed methods: calls must establish the
+ * cached preconditions and pushes the cached invariants. If the result is
+ * not safe, the checker discards the cache and encodes all methods.
+ */
+public class ContractSummaries {
+
+	private static final String invariantPrefix = "inv.";
+
+	private final Program program;
+	private final PredicateHintStore store;
+	private final Map<Method, Set<Method>> componentOf = new HashMap<Method, Set<Method>>();
+	// the components, callees before callers.
+	private final List<Set<Method>> components = new ArrayList<Set<Method>>();
+
+	private HornEncoderContext hornContext = null;
+	private String heapKey = null;
+	private boolean useCache = true;
+	// the methods whose clauses are replaced by their cached contracts.
+	private final Set<Method> summarized = new HashSet<Method>();
+	// the cached solutions of their contracts and of the heap invariants,
+	// by predicate name, and the hash of the invariants.
+	private final Map<String, String> cachedSolution = new HashMap<String, String>();
+	private String invariantsHash = null;
+
+	/**
+	 * @param program
+	 * @param file
+	 *            the store of the contract summaries.
+	 */
+	public ContractSummaries(Program program, Path file) {
+		this.program = program;
+		this.store = new PredicateHintStore(file);
+		final DirectedGraph<Method, DefaultEdge> callGraph = program.getCallGraph();
+		for (Set<Method> component : new StrongConnectivityInspector<Method, DefaultEdge>(callGraph)
+				.stronglyConnectedSets()) {
+			for (Method m : component) {
+				componentOf.put(m, component);
+			}
+		}
+		final Set<Set<Method>> visited = new HashSet<Set<Method>>();
+		for (Method m : program.getMethods()) {
+			orderComponents(componentOf.get(m), visited);
+		}
+	}
+
+	private void orderComponents(Set<Method> component, Set<Set<Method>> visited) {
+		if (!visited.add(component)) {
+			return;
+		}
+		for (Set<Method> callee : callees(component)) {
+			orderComponents(callee, visited);
+		}
+		components.add(component);
+	}
+
+	private Set<Set<Method>> callees(Set<Method> component) {
+		final DirectedGraph<Method, DefaultEdge> callGraph = program.getCallGraph();
+		final Set<Set<Method>> res = new HashSet<Set<Method>>();
+		for (Method m : component) {
+			for (DefaultEdge e : callGraph.outgoingEdgesOf(m)) {
+				final Set<Method> callee = componentOf.get(callGraph.getEdgeTarget(e));
+				if (callee != component) {
+					res.add(callee);
+				}
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Looks up the summaries of the components bottom-up. A component is
+	 * only summarized if all components that it calls are.
+	 * @param hornContext
+	 *            the context with the method contracts.
+	 */
+	public void lookup(HornEncoderContext hornContext) {
+		this.hornContext = hornContext;
+		this.heapKey = heapKey(hornContext);
+		summarized.clear();
+		cachedSolution.clear();
+		invariantsHash = null;
+		if (!useCache) {
+			return;
+		}
+		final Map<String, String> stored = store.load();
+		final String invariants = stored.get(invariantPrefix + heapKey);
+		if (invariants == null) {
+			Stats.stats().add("ContractSummaryHits", "0");
+			return;
+		}
+		final Map<String, String> invariantSolution = new HashMap<String, String>();
+		final String prefix = invariantPrefix + invariants + ".";
+		for (Entry<String, String> entry : stored.entrySet()) {
+			if (entry.getKey().startsWith(prefix)) {
+				invariantSolution.put(entry.getKey().substring(prefix.length()), entry.getValue());
+			}
+		}
+		if (!invariants.equals(hashOf(invariantSolution))) {
+			Log.info("The stored heap invariants are incomplete.");
+			Stats.stats().add("ContractSummaryHits", "0");
+			return;
+		}
+		for (Set<Method> component : components) {
+			final String key = componentKey(component, invariants, cachedSolution);
+			if (key == null) {
+				continue;
+			}
+			final Map<String, String> contracts = new HashMap<String, String>();
+			for (Method m : component) {
+				final MethodContract contract = hornContext.getMethodContract(m);
+				final String pre = stored.get(key + "_" + m.getMethodName() + "_pre");
+				final String post = stored.get(key + "_" + m.getMethodName() + "_post");
+				if (pre == null || post == null) {
+					break;
+				}
+				contracts.put(contract.precondition.name, pre);
+				contracts.put(contract.postcondition.name, post);
+			}
+			if (contracts.size() == 2 * component.size()) {
+				summarized.addAll(component);
+				cachedSolution.putAll(contracts);
+			}
+		}
+		if (!summarized.isEmpty()) {
+			invariantsHash = invariants;
+			cachedSolution.putAll(invariantSolution);
+		}
+		Stats.stats().add("ContractSummaryHits", String.valueOf(summarized.size()));
+	}
+
+	/**
+	 * Returns true if the clauses of the method are replaced by its cached
+	 * contract.
+	 * @param m
+	 * @return
+	 */
+	public boolean isSummarized(Method m) {
+		return summarized.contains(m);
+	}
+
+	public boolean hasSummarizedMethods() {
+		return !summarized.isEmpty();
+	}
+
+	/**
+	 * Returns the cached solutions of the contracts of the summarized
+	 * methods and of the heap invariants, by predicate name, or null if
+	 * the clauses use a heap invariant that has no cached solution. Must
+	 * be called after the other methods have been encoded.
+	 * @return
+	 */
+	public Map<String, String> substitution() {
+		for (String name : invariantNames()) {
+			if (!cachedSolution.containsKey(name)) {
+				Log.info("No stored solution for the heap invariant " + name);
+				return null;
+			}
+		}
+		return new HashMap<String, String>(cachedSolution);
+	}
+
+	/**
+	 * Stops using the cached contracts, e.g., because they do not hold
+	 * for the changed methods. The next lookup summarizes no method.
+	 */
+	public void discardCache() {
+		useCache = false;
+		summarized.clear();
+		cachedSolution.clear();
+		invariantsHash = null;
+	}
+
+	/**
+	 * Stores the contracts of the components that are not summarized,
+	 * after the clauses were found to be safe with the given solution.
+	 * If no method was summarized, the solution of the heap invariants is
+	 * stored as well, and becomes the one that later runs build on.
+	 * @param solution
+	 *            the solution in the text format of PredicateHints, by
+	 *            predicate name.
+	 */
+	public void store(Map<String, String> solution) {
+		final Map<String, String> entries = new HashMap<String, String>();
+		String invariants = invariantsHash;
+		if (invariants == null) {
+			final Map<String, String> invariantSolution = new HashMap<String, String>();
+			for (String name : invariantNames()) {
+				if (!solution.containsKey(name)) {
+					Log.info("No solution for the heap invariant " + name + ", not storing contracts.");
+					return;
+				}
+				invariantSolution.put(name, solution.get(name));
+			}
+			invariants = hashOf(invariantSolution);
+			for (Entry<String, String> entry : invariantSolution.entrySet()) {
+				entries.put(invariantPrefix + invariants + "." + entry.getKey(), entry.getValue());
+			}
+			entries.put(invariantPrefix + heapKey, invariants);
+		}
+		final Map<String, String> all = new HashMap<String, String>(cachedSolution);
+		all.putAll(solution);
+		int stored = 0;
+		for (Set<Method> component : components) {
+			if (summarized.containsAll(component)) {
+				continue;
+			}
+			final String key = componentKey(component, invariants, all);
+			if (key == null) {
+				continue;
+			}
+			for (Method m : component) {
+				final MethodContract contract = hornContext.getMethodContract(m);
+				final String pre = all.get(contract.precondition.name);
+				final String post = all.get(contract.postcondition.name);
+				if (pre != null && post != null) {
+					entries.put(key + "_" + m.getMethodName() + "_pre", pre);
+					entries.put(key + "_" + m.getMethodName() + "_post", post);
+					stored++;
+				}
+			}
+		}
+		store.update(entries);
+		Stats.stats().add("ContractSummariesStored", String.valueOf(stored));
+	}
+
+	/**
+	 * The predicates of the heap invariants that the encoded clauses use.
+	 */
+	private Set<String> invariantNames() {
+		final Set<String> res = new HashSet<String>();
+		for (Map<Long, HornPredicate> invariants : hornContext.getInvariantPredicates().values()) {
+			for (HornPredicate invariant : invariants.values()) {
+				res.add(invariant.name);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Computes the key of a component, or returns null if the contract of
+	 * a method that it calls is not in the given solution.
+	 */
+	private String componentKey(Set<Method> component, String invariants, Map<String, String> solution) {
+		final DirectedGraph<Method, DefaultEdge> callGraph = program.getCallGraph();
+		final List<String> cfgs = new ArrayList<String>();
+		final List<String> callees = new ArrayList<String>();
+		for (Method m : component) {
+			cfgs.add(m.toString() + readPushes(m));
+			for (DefaultEdge e : callGraph.outgoingEdgesOf(m)) {
+				final Method callee = callGraph.getEdgeTarget(e);
+				if (component.contains(callee)) {
+					continue;
+				}
+				final MethodContract contract = hornContext.getMethodContract(callee);
+				final String pre = solution.get(contract.precondition.name);
+				final String post = solution.get(contract.postcondition.name);
+				if (pre == null || post == null) {
+					return null;
+				}
+				callees.add(callee.getMethodName() + "\n" + pre + "\n" + post);
+			}
+		}
+		// the order of the methods and calls does not matter.
+		Collections.sort(cfgs);
+		Collections.sort(callees);
+		final StringBuilder sb = new StringBuilder();
+		sb.append(heapKey);
+		sb.append('\n');
+		sb.append(invariants);
+		sb.append('\n');
+		for (String cfg : cfgs) {
+			sb.append(cfg);
+			sb.append('\n');
+		}
+		for (String callee : callees) {
+			sb.append(callee);
+			sb.append('\n');
+		}
+		return Hashing.sha256().hashString(sb, StandardCharsets.UTF_8).toString();
+	}
+
+	/**
+	 * The pushes that the pulls of a method read from, which the CFG does
+	 * not show, but which decide the invariants that the pulls assume.
+	 */
+	private static String readPushes(Method m) {
+		final List<String> res = new ArrayList<String>();
+		for (CfgBlock b : m.vertexSet()) {
+			for (Statement s : b.getStatements()) {
+				if (s instanceof PullStatement) {
+					final List<String> pushes = new ArrayList<String>();
+					for (PushStatement push : ((PullStatement) s).getAffectingPushes()) {
+						pushes.add(push.getClassSignature().getName() + ":" + push.getID());
+					}
+					Collections.sort(pushes);
+					res.add(s + " <- " + pushes);
+				}
+			}
+		}
+		Collections.sort(res);
+		return res.toString();
+	}
+
+	/**
+	 * Hashes everything that the invariant predicates and the clauses of
+	 * an unchanged method depend on, apart from the CFG of the method.
+	 */
+	private static String heapKey(HornEncoderContext hornContext) {
+		final StringBuilder sb = new StringBuilder();
+		sb.append(ClassDependencies.codeFingerprint());
+		sb.append('\n');
+		sb.append(IncrementalStore.optionsKey());
+		sb.append('\n');
+		for (Entry<ClassVariable, Integer> entry : hornContext.getTypeIds().entrySet()) {
+			sb.append(entry.getKey().getName());
+			sb.append('=');
+			sb.append(entry.getValue());
+			for (Variable field : entry.getKey().getAssociatedFields()) {
+				sb.append(' ');
+				sb.append(field.getName());
+				sb.append(':');
+				sb.append(field.getType());
+			}
+			sb.append('\n');
+		}
+		for (Entry<String, Type> entry : GhostRegister.v().ghostVariableMap.entrySet()) {
+			sb.append(entry.getKey());
+			sb.append(':');
+			sb.append(entry.getValue());
+			sb.append('\n');
+		}
+		return Hashing.sha256().hashString(sb, StandardCharsets.UTF_8).toString();
+	}
+
+	private static String hashOf(Map<String, String> solution) {
+		final StringBuilder sb = new StringBuilder();
+		for (Entry<String, String> entry : new TreeMap<String, String>(solution).entrySet()) {
+			sb.append(entry.getKey());
+			sb.append('\n');
+			sb.append(entry.getValue());
+			sb.append('\n');
+		}
+		return Hashing.sha256().hashString(sb, StandardCharsets.UTF_8).toString();
+	}
+}
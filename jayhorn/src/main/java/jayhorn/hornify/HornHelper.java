@@ -21,20 +21,21 @@ import soottocfg.cfg.type.ReferenceType;
 import soottocfg.cfg.type.Type;
 import soottocfg.cfg.type.TypeType;
 import soottocfg.cfg.variable.Variable;
+import soottocfg.util.JobContext;
 
 public class HornHelper {
 
 	public static final int NullValue = 0;
 	
-	private static HornHelper hh;
 	
 	public static void resetInstance() {
-		hh = null;
+		JobContext.current().remove(HornHelper.class);
 	}
 
 	public static HornHelper hh() {
+		HornHelper hh = JobContext.current().get(HornHelper.class);
 		if (null == hh) {
-			hh = new HornHelper();
+			hh = JobContext.current().putIfAbsent(HornHelper.class, new HornHelper());
 		}
 		return hh;
 	}
@@ -0,0 +1,563 @@
+package jayhorn.hornify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jayhorn.Log;
+import jayhorn.solver.Prover;
+import jayhorn.solver.ProverExpr;
+import jayhorn.solver.ProverFun;
+import jayhorn.solver.ProverHornClause;
+import jayhorn.solver.ProverType;
+import jayhorn.utils.Stats;
+import soottocfg.util.PhaseTimer;
+
+/**
+ * Simplifies a set of Horn clauses before it is handed to the solver.
+ * The clauses are only taken apart and rebuilt through the Prover
+ * interface, so this works for every prover that implements the
+ * accessors of ProverHornClause. The simplifications are:
+ * <ul>
+ * <li>clauses whose body cannot be derived from the facts, or whose head
+ * cannot contribute to a clause with head false, are dropped;</li>
+ * <li>predicates that are defined by a single non-recursive clause are
+ * inlined into the clauses that use them;</li>
+ * <li>arguments that no clause looks at are removed from the
+ * predicates;</li>
+ * <li>clauses that are equal up to the names of their variables are
+ * merged.</li>
+ * </ul>
+ * The result is satisfiable iff the input is satisfiable. Predicates
+ * that are passed as kept are neither inlined nor sliced, so their
+ * solutions can still be read off the solver.
+ */
+public class HornSimplifier {
+
+	/**
+	 * A clause that is taken apart into its head, body, and constraint.
+	 * headFun is null if the head is false.
+	 */
+	private static class Clause {
+		final ProverFun headFun;
+		final ProverExpr[] headArgs;
+		final List<ProverFun> bodyFuns;
+		final List<ProverExpr[]> bodyArgs;
+		final ProverExpr constraint;
+
+		Clause(ProverFun headFun, ProverExpr[] headArgs, List<ProverFun> bodyFuns, List<ProverExpr[]> bodyArgs,
+				ProverExpr constraint) {
+			this.headFun = headFun;
+			this.headArgs = headArgs;
+			this.bodyFuns = bodyFuns;
+			this.bodyArgs = bodyArgs;
+			this.constraint = constraint;
+		}
+	}
+
+	private final Prover p;
+	private final Set<ProverFun> keep;
+	private int freshVars = 0;
+	// the sizes reported in Stats, summed over all calls of simplify.
+	private int clausesBefore = 0, clausesAfter = 0, predicatesBefore = 0, predicatesAfter = 0;
+
+	/**
+	 * @param p
+	 *            the prover that created the clauses.
+	 * @param keep
+	 *            predicates that must not be inlined or sliced.
+	 */
+	public HornSimplifier(Prover p, Collection<ProverFun> keep) {
+		this.p = p;
+		this.keep = new HashSet<ProverFun>(keep);
+	}
+
+	/**
+	 * Simplifies clauses and reports the number of clauses and predicates
+	 * before and after in Stats, summed over all calls on this simplifier.
+	 * If the prover does not support taking clauses apart, the clauses are
+	 * returned unchanged.
+	 * @param clauses
+	 * @return the simplified clauses.
+	 */
+	public List<ProverHornClause> simplify(List<ProverHornClause> clauses) {
+		List<Clause> current = new LinkedList<Clause>();
+		try {
+			for (ProverHornClause clause : clauses) {
+				current.add(decompose(clause));
+			}
+		} catch (UnsupportedOperationException e) {
+			Log.info("Prover " + p + " cannot take Horn clauses apart. Not simplifying.");
+			return clauses;
+		}
+		final int predicatesIn = predicates(current).size();
+
+		current = prune(current);
+		current = inline(current);
+		current = prune(current);
+		current = sliceArguments(current);
+		current = mergeEquivalent(current);
+
+		final List<ProverHornClause> result = new LinkedList<ProverHornClause>();
+		for (Clause clause : current) {
+			result.add(compose(clause));
+		}
+		final int predicatesOut = predicates(current).size();
+		clausesBefore += clauses.size();
+		clausesAfter += result.size();
+		predicatesBefore += predicatesIn;
+		predicatesAfter += predicatesOut;
+		Stats.stats().add("HornClausesBefore", String.valueOf(clausesBefore));
+		Stats.stats().add("HornClausesAfter", String.valueOf(clausesAfter));
+		Stats.stats().add("HornPredicatesBefore", String.valueOf(predicatesBefore));
+		Stats.stats().add("HornPredicatesAfter", String.valueOf(predicatesAfter));
+		PhaseTimer.v().count("clausesRemoved", clauses.size() - result.size());
+		PhaseTimer.v().count("predicatesRemoved", predicatesIn - predicatesOut);
+		return result;
+	}
+
+	private Clause decompose(ProverHornClause clause) {
+		final List<ProverFun> bodyFuns = new ArrayList<ProverFun>();
+		final List<ProverExpr[]> bodyArgs = new ArrayList<ProverExpr[]>();
+		for (int i = 0; i < clause.getArity(); i++) {
+			bodyFuns.add(clause.getBodyFun(i));
+			bodyArgs.add(clause.getBodyArgs(i));
+		}
+		final ProverFun headFun = clause.getHeadFun();
+		return new Clause(headFun, headFun == null ? null : clause.getHeadArgs(), bodyFuns, bodyArgs,
+				clause.getConstraint());
+	}
+
+	private ProverHornClause compose(Clause clause) {
+		final ProverExpr head = clause.headFun == null ? p.mkLiteral(false) : clause.headFun.mkExpr(clause.headArgs);
+		final ProverExpr[] body = new ProverExpr[clause.bodyFuns.size()];
+		for (int i = 0; i < body.length; i++) {
+			body[i] = clause.bodyFuns.get(i).mkExpr(clause.bodyArgs.get(i));
+		}
+		return p.mkHornClause(head, body, clause.constraint);
+	}
+
+	private static Set<ProverFun> predicates(List<Clause> clauses) {
+		final Set<ProverFun> predicates = new HashSet<ProverFun>();
+		for (Clause clause : clauses) {
+			if (clause.headFun != null) {
+				predicates.add(clause.headFun);
+			}
+			predicates.addAll(clause.bodyFuns);
+		}
+		return predicates;
+	}
+
+	/**
+	 * Drops the clauses with a body predicate that cannot be derived
+	 * from the facts, and the clauses whose head is not needed to derive
+	 * false.
+	 * @param clauses
+	 * @return
+	 */
+	private List<Clause> prune(List<Clause> clauses) {
+		// forward: the predicates that can be derived.
+		final Set<ProverFun> derivable = new HashSet<ProverFun>();
+		final Map<ProverFun, List<Clause>> uses = new HashMap<ProverFun, List<Clause>>();
+		final Map<Clause, Integer> missing = new IdentityHashMap<Clause, Integer>();
+		final List<ProverFun> derived = new LinkedList<ProverFun>();
+		for (Clause clause : clauses) {
+			final Set<ProverFun> bodyFuns = new HashSet<ProverFun>(clause.bodyFuns);
+			for (ProverFun fun : bodyFuns) {
+				if (!uses.containsKey(fun)) {
+					uses.put(fun, new LinkedList<Clause>());
+				}
+				uses.get(fun).add(clause);
+			}
+			missing.put(clause, bodyFuns.size());
+			if (bodyFuns.isEmpty() && clause.headFun != null && derivable.add(clause.headFun)) {
+				derived.add(clause.headFun);
+			}
+		}
+		while (!derived.isEmpty()) {
+			final List<Clause> users = uses.get(derived.remove(0));
+			if (users == null) {
+				continue;
+			}
+			for (Clause clause : users) {
+				final int left = missing.get(clause) - 1;
+				missing.put(clause, left);
+				if (left == 0 && clause.headFun != null && derivable.add(clause.headFun)) {
+					derived.add(clause.headFun);
+				}
+			}
+		}
+		// backward: the predicates from which false can be derived.
+		final Set<ProverFun> relevant = new HashSet<ProverFun>();
+		final List<Clause> todo = new LinkedList<Clause>();
+		final Map<ProverFun, List<Clause>> definitions = new HashMap<ProverFun, List<Clause>>();
+		for (Clause clause : clauses) {
+			if (!derivable.containsAll(clause.bodyFuns)) {
+				continue;
+			}
+			if (clause.headFun == null) {
+				todo.add(clause);
+			} else {
+				if (!definitions.containsKey(clause.headFun)) {
+					definitions.put(clause.headFun, new LinkedList<Clause>());
+				}
+				definitions.get(clause.headFun).add(clause);
+			}
+		}
+		while (!todo.isEmpty()) {
+			final Clause clause = todo.remove(0);
+			for (ProverFun fun : clause.bodyFuns) {
+				if (relevant.add(fun) && definitions.containsKey(fun)) {
+					todo.addAll(definitions.get(fun));
+				}
+			}
+		}
+
+		final List<Clause> result = new LinkedList<Clause>();
+		for (Clause clause : clauses) {
+			if (derivable.containsAll(clause.bodyFuns)
+					&& (clause.headFun == null || relevant.contains(clause.headFun))) {
+				result.add(clause);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Inlines the predicates that are defined by exactly one clause. To
+	 * keep the clauses linear, only definitions with at most one body
+	 * literal are inlined, and never into themselves.
+	 * @param clauses
+	 * @return
+	 */
+	private List<Clause> inline(List<Clause> clauses) {
+		final Map<ProverFun, Integer> definitionCount = new HashMap<ProverFun, Integer>();
+		for (Clause clause : clauses) {
+			if (clause.headFun != null) {
+				Integer count = definitionCount.get(clause.headFun);
+				definitionCount.put(clause.headFun, count == null ? 1 : count + 1);
+			}
+		}
+		// clauses keep their slot when literals are inlined into them.
+		final List<Clause> slots = new ArrayList<Clause>(clauses);
+		final Map<ProverFun, Integer> definitions = new LinkedHashMap<ProverFun, Integer>();
+		final Map<ProverFun, Set<Integer>> uses = new HashMap<ProverFun, Set<Integer>>();
+		for (int i = 0; i < slots.size(); i++) {
+			final Clause clause = slots.get(i);
+			if (clause.headFun != null && definitionCount.get(clause.headFun) == 1
+					&& !keep.contains(clause.headFun) && clause.bodyFuns.size() <= 1
+					&& !clause.bodyFuns.contains(clause.headFun)) {
+				definitions.put(clause.headFun, i);
+			}
+			addUses(uses, clause, i);
+		}
+
+		int inlined = 0;
+		for (Map.Entry<ProverFun, Integer> entry : definitions.entrySet()) {
+			final ProverFun fun = entry.getKey();
+			final int slot = entry.getValue();
+			// the definition may have changed by inlining others into it.
+			final Clause definition = slots.get(slot);
+			if (definition.bodyFuns.contains(fun)) {
+				continue;
+			}
+			final Set<Integer> users = uses.remove(fun);
+			if (users != null) {
+				for (Integer user : users) {
+					Clause resolved = slots.get(user);
+					int pos;
+					while ((pos = resolved.bodyFuns.indexOf(fun)) >= 0) {
+						resolved = resolve(resolved, pos, definition);
+					}
+					slots.set(user, resolved);
+					addUses(uses, resolved, user);
+				}
+			}
+			for (ProverFun bodyFun : definition.bodyFuns) {
+				if (uses.containsKey(bodyFun)) {
+					uses.get(bodyFun).remove(slot);
+				}
+			}
+			slots.set(slot, null);
+			inlined++;
+		}
+		PhaseTimer.v().count("inlinedPredicates", inlined);
+
+		final List<Clause> result = new LinkedList<Clause>();
+		for (Clause clause : slots) {
+			if (clause != null) {
+				result.add(clause);
+			}
+		}
+		return result;
+	}
+
+	private static void addUses(Map<ProverFun, Set<Integer>> uses, Clause clause, int slot) {
+		for (ProverFun fun : clause.bodyFuns) {
+			if (!uses.containsKey(fun)) {
+				uses.put(fun, new LinkedHashSet<Integer>());
+			}
+			uses.get(fun).add(slot);
+		}
+	}
+
+	/**
+	 * Replaces the body literal pos of clause with the body and
+	 * constraint of definition, whose variables are renamed apart.
+	 * @param clause
+	 * @param pos
+	 * @param definition
+	 * @return
+	 */
+	private Clause resolve(Clause clause, int pos, Clause definition) {
+		final ProverExpr[] args = clause.bodyArgs.get(pos);
+
+		// head arguments that are distinct variables are replaced by
+		// the arguments of the literal, all other variables are renamed.
+		final Map<ProverExpr, ProverExpr> renaming = new LinkedHashMap<ProverExpr, ProverExpr>();
+		final List<ProverExpr> equations = new LinkedList<ProverExpr>();
+		for (int i = 0; i < definition.headArgs.length; i++) {
+			final ProverExpr headArg = definition.headArgs[i];
+			if (isVariable(headArg) && !renaming.containsKey(headArg)) {
+				renaming.put(headArg, args[i]);
+			}
+		}
+		final Set<ProverExpr> vars = new LinkedHashSet<ProverExpr>();
+		vars.addAll(Arrays.asList(p.freeVariables(definition.constraint)));
+		for (ProverExpr headArg : definition.headArgs) {
+			vars.addAll(Arrays.asList(p.freeVariables(headArg)));
+		}
+		for (ProverExpr[] bodyArgs : definition.bodyArgs) {
+			for (ProverExpr arg : bodyArgs) {
+				vars.addAll(Arrays.asList(p.freeVariables(arg)));
+			}
+		}
+		for (ProverExpr var : vars) {
+			if (!renaming.containsKey(var)) {
+				renaming.put(var, p.mkHornVariable("inl_" + (freshVars++), var.getType()));
+			}
+		}
+		final ProverExpr[] from = renaming.keySet().toArray(new ProverExpr[renaming.size()]);
+		final ProverExpr[] to = renaming.values().toArray(new ProverExpr[renaming.size()]);
+		for (int i = 0; i < definition.headArgs.length; i++) {
+			final ProverExpr headArg = substitute(definition.headArgs[i], from, to);
+			if (!headArg.equals(args[i])) {
+				equations.add(p.mkEq(args[i], headArg));
+			}
+		}
+
+		final List<ProverFun> bodyFuns = new ArrayList<ProverFun>(clause.bodyFuns);
+		final List<ProverExpr[]> bodyArgs = new ArrayList<ProverExpr[]>(clause.bodyArgs);
+		bodyFuns.remove(pos);
+		bodyArgs.remove(pos);
+		for (int i = 0; i < definition.bodyFuns.size(); i++) {
+			bodyFuns.add(pos + i, definition.bodyFuns.get(i));
+			bodyArgs.add(pos + i, substitute(definition.bodyArgs.get(i), from, to));
+		}
+		ProverExpr constraint = p.mkAnd(clause.constraint, substitute(definition.constraint, from, to));
+		for (ProverExpr eq : equations) {
+			constraint = p.mkAnd(constraint, eq);
+		}
+		return new Clause(clause.headFun, clause.headArgs, bodyFuns, bodyArgs, constraint);
+	}
+
+	/**
+	 * Removes the arguments of predicates that are unconstrained
+	 * variables wherever the predicate is used in a body.
+	 * @param clauses
+	 * @return
+	 */
+	private List<Clause> sliceArguments(List<Clause> clauses) {
+		final Map<ProverFun, boolean[]> used = new LinkedHashMap<ProverFun, boolean[]>();
+		final Map<ProverFun, ProverType[]> types = new HashMap<ProverFun, ProverType[]>();
+		for (Clause clause : clauses) {
+			if (clause.headFun != null && !types.containsKey(clause.headFun)) {
+				final ProverType[] argTypes = new ProverType[clause.headArgs.length];
+				for (int i = 0; i < argTypes.length; i++) {
+					argTypes[i] = clause.headArgs[i].getType();
+				}
+				types.put(clause.headFun, argTypes);
+				used.put(clause.headFun, new boolean[argTypes.length]);
+			}
+		}
+		for (Clause clause : clauses) {
+			final Map<ProverExpr, Integer> occurrences = occurrences(clause);
+			for (int i = 0; i < clause.bodyFuns.size(); i++) {
+				final boolean[] usedArgs = used.get(clause.bodyFuns.get(i));
+				if (usedArgs == null) {
+					continue;
+				}
+				final ProverExpr[] args = clause.bodyArgs.get(i);
+				for (int j = 0; j < args.length; j++) {
+					if (!usedArgs[j] && !(isVariable(args[j]) && occurrences.get(args[j]) == 1)) {
+						usedArgs[j] = true;
+					}
+				}
+			}
+		}
+
+		final Map<ProverFun, ProverFun> sliced = new HashMap<ProverFun, ProverFun>();
+		int removedArgs = 0;
+		for (Map.Entry<ProverFun, boolean[]> entry : used.entrySet()) {
+			if (keep.contains(entry.getKey())) {
+				continue;
+			}
+			final List<ProverType> argTypes = new ArrayList<ProverType>();
+			for (int i = 0; i < entry.getValue().length; i++) {
+				if (entry.getValue()[i]) {
+					argTypes.add(types.get(entry.getKey())[i]);
+				}
+			}
+			if (argTypes.size() < entry.getValue().length) {
+				removedArgs += entry.getValue().length - argTypes.size();
+				sliced.put(entry.getKey(), p.mkHornPredicate(entry.getKey() + "_sliced",
+						argTypes.toArray(new ProverType[argTypes.size()])));
+			}
+		}
+		PhaseTimer.v().count("slicedArguments", removedArgs);
+		if (sliced.isEmpty()) {
+			return clauses;
+		}
+
+		final List<Clause> result = new LinkedList<Clause>();
+		for (Clause clause : clauses) {
+			ProverFun headFun = clause.headFun;
+			ProverExpr[] headArgs = clause.headArgs;
+			if (sliced.containsKey(headFun)) {
+				headArgs = usedArgs(headArgs, used.get(headFun));
+				headFun = sliced.get(headFun);
+			}
+			final List<ProverFun> bodyFuns = new ArrayList<ProverFun>();
+			final List<ProverExpr[]> bodyArgs = new ArrayList<ProverExpr[]>();
+			for (int i = 0; i < clause.bodyFuns.size(); i++) {
+				final ProverFun fun = clause.bodyFuns.get(i);
+				if (sliced.containsKey(fun)) {
+					bodyFuns.add(sliced.get(fun));
+					bodyArgs.add(usedArgs(clause.bodyArgs.get(i), used.get(fun)));
+				} else {
+					bodyFuns.add(fun);
+					bodyArgs.add(clause.bodyArgs.get(i));
+				}
+			}
+			result.add(new Clause(headFun, headArgs, bodyFuns, bodyArgs, clause.constraint));
+		}
+		return result;
+	}
+
+	private static ProverExpr[] usedArgs(ProverExpr[] args, boolean[] used) {
+		final List<ProverExpr> result = new ArrayList<ProverExpr>();
+		for (int i = 0; i < args.length; i++) {
+			if (used[i]) {
+				result.add(args[i]);
+			}
+		}
+		return result.toArray(new ProverExpr[result.size()]);
+	}
+
+	/**
+	 * Counts for each variable of clause in how many arguments and
+	 * constraints it occurs.
+	 * @param clause
+	 * @return
+	 */
+	private Map<ProverExpr, Integer> occurrences(Clause clause) {
+		final List<ProverExpr> parts = new ArrayList<ProverExpr>();
+		if (clause.headArgs != null) {
+			parts.addAll(Arrays.asList(clause.headArgs));
+		}
+		for (ProverExpr[] args : clause.bodyArgs) {
+			parts.addAll(Arrays.asList(args));
+		}
+		parts.add(clause.constraint);
+		final Map<ProverExpr, Integer> occurrences = new HashMap<ProverExpr, Integer>();
+		for (ProverExpr part : parts) {
+			for (ProverExpr var : new HashSet<ProverExpr>(Arrays.asList(p.freeVariables(part)))) {
+				final Integer count = occurrences.get(var);
+				occurrences.put(var, count == null ? 1 : count + 1);
+			}
+		}
+		return occurrences;
+	}
+
+	/**
+	 * Merges clauses that only differ in the names of their variables.
+	 * The variables of each clause are renamed in the order in which
+	 * they occur, and clauses that become equal are merged.
+	 * @param clauses
+	 * @return
+	 */
+	private List<Clause> mergeEquivalent(List<Clause> clauses) {
+		final Map<ProverHornClause, Clause> canonical = new LinkedHashMap<ProverHornClause, Clause>();
+		final Map<ProverType, List<ProverExpr>> canonicalVars = new HashMap<ProverType, List<ProverExpr>>();
+		for (Clause clause : clauses) {
+			final Set<ProverExpr> vars = new LinkedHashSet<ProverExpr>();
+			if (clause.headArgs != null) {
+				for (ProverExpr arg : clause.headArgs) {
+					vars.addAll(Arrays.asList(p.freeVariables(arg)));
+				}
+			}
+			for (ProverExpr[] args : clause.bodyArgs) {
+				for (ProverExpr arg : args) {
+					vars.addAll(Arrays.asList(p.freeVariables(arg)));
+				}
+			}
+			vars.addAll(Arrays.asList(p.freeVariables(clause.constraint)));
+
+			final ProverExpr[] from = vars.toArray(new ProverExpr[vars.size()]);
+			final ProverExpr[] to = new ProverExpr[from.length];
+			final Map<ProverType, Integer> used = new HashMap<ProverType, Integer>();
+			for (int i = 0; i < from.length; i++) {
+				final ProverType type = from[i].getType();
+				if (!canonicalVars.containsKey(type)) {
+					canonicalVars.put(type, new ArrayList<ProverExpr>());
+				}
+				final List<ProverExpr> typeVars = canonicalVars.get(type);
+				final int n = used.containsKey(type) ? used.get(type) : 0;
+				if (typeVars.size() <= n) {
+					typeVars.add(p.mkHornVariable("c_" + type + "_" + n, type));
+				}
+				to[i] = typeVars.get(n);
+				used.put(type, n + 1);
+			}
+			final List<ProverExpr[]> bodyArgs = new ArrayList<ProverExpr[]>();
+			for (ProverExpr[] args : clause.bodyArgs) {
+				bodyArgs.add(substitute(args, from, to));
+			}
+			final Clause renamed = new Clause(clause.headFun,
+					clause.headArgs == null ? null : substitute(clause.headArgs, from, to), clause.bodyFuns, bodyArgs,
+					substitute(clause.constraint, from, to));
+			final ProverHornClause key = compose(renamed);
+			if (!canonical.containsKey(key)) {
+				canonical.put(key, clause);
+			}
+		}
+		PhaseTimer.v().count("mergedClauses", clauses.size() - canonical.size());
+		return new LinkedList<Clause>(canonical.values());
+	}
+
+	private boolean isVariable(ProverExpr expr) {
+		final ProverExpr[] vars = p.freeVariables(expr);
+		return vars.length == 1 && vars[0].equals(expr);
+	}
+
+	private ProverExpr substitute(ProverExpr expr, ProverExpr[] from, ProverExpr[] to) {
+		return from.length == 0 ? expr : p.substitute(expr, from, to);
+	}
+
+	private ProverExpr[] substitute(ProverExpr[] exprs, ProverExpr[] from, ProverExpr[] to) {
+		final ProverExpr[] result = new ProverExpr[exprs.length];
+		for (int i = 0; i < exprs.length; i++) {
+			result[i] = substitute(exprs[i], from, to);
+		}
+		return result;
+	}
+}
@@ -4,10 +4,17 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import jayhorn.Log;
 import jayhorn.hornify.encoder.MethodEncoder;
@@ -16,7 +23,11 @@ import jayhorn.solver.ProverFactory;
 import jayhorn.solver.ProverFun;
 import jayhorn.solver.ProverHornClause;
 import soottocfg.cfg.Program;
+import soottocfg.cfg.method.CfgBlock;
 import soottocfg.cfg.method.Method;
+import soottocfg.util.JobContext;
+import soottocfg.util.PhaseTimer;
+import soottocfg.util.PhaseTimer.Phase;
 
 /**
  * Class to hornify Java program
@@ -42,6 +53,17 @@ public class Hornify {
 	 * @param program
 	 */
 	public HornEncoderContext toHorn(Program program){
+		return toHorn(program, null);
+	}
+
+	/**
+	 * Encodes the program into Horn clauses, except for the methods that
+	 * are summarized by their cached contracts.
+	 * @param program
+	 * @param summaries
+	 *            the contract summaries of a modular run, or null.
+	 */
+	public HornEncoderContext toHorn(Program program, ContractSummaries summaries){
 		prover = factory.spawn();
 		prover.setHornLogic(true);
 		
@@ -49,14 +71,127 @@ public class Hornify {
 
 		Log.info("Transform Program Methods into Horn Clauses ... ");
 
+		final List<Method> methods = new ArrayList<Method>();
+		final List<MethodEncoder> encoders = new ArrayList<MethodEncoder>();
+		if (summaries != null) {
+			summaries.lookup(hornContext);
+		}
 		for (Method method : program.getMethods()) {
-			final MethodEncoder encoder = new MethodEncoder(prover, method, hornContext);
-			clauses.addAll(encoder.encode());		
+			if (summaries != null && summaries.isSummarized(method)) {
+				continue;
+			}
+			methods.add(method);
+			encoders.add(new MethodEncoder(prover, method, hornContext));
+		}
+		if (summaries != null) {
+			PhaseTimer.v().count("summarizedMethods", program.getMethods().length - methods.size());
+		}
+		final int threads = jayhorn.Options.v().getHornThreads();
+		if (threads > 1) {
+			final Phase phase = PhaseTimer.v().start("LiveVariables");
+			prepareInParallel(encoders, threads);
+			PhaseTimer.v().count("threads", threads);
+			phase.stop();
 		}
+
+		int i = 0;
+		for (Method method : methods) {
+			final Phase phase = PhaseTimer.v().start(method.getMethodName());
+			PhaseTimer.v().checkBudget();
+			final MethodEncoder encoder = encoders.get(i++);
+			final List<ProverHornClause> methodClauses = encoder.encode();
+			clauses.addAll(methodClauses);		
+			long statements = 0;
+			for (CfgBlock b : method.vertexSet()) {
+				statements += b.getStatements().size();
+			}
+			PhaseTimer.v().count("statements", statements);
+			PhaseTimer.v().count("clauses", methodClauses.size());
+			phase.stop();
+		}
+		countClauses(clauses);
 		
 		return hornContext;
 	}
 
+	/**
+	 * Computes the live variables of all methods on a fork-join pool.
+	 * The prover implementations are not thread-safe, so the clauses
+	 * themselves are still created on the calling thread, in the order
+	 * of the methods. This keeps the names of variables and predicates,
+	 * and the order of the clauses, the same as in a sequential run.
+	 * @param encoders
+	 * @param threads
+	 */
+	private static void prepareInParallel(List<MethodEncoder> encoders, int threads) {
+		final JobContext context = JobContext.current();
+		final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (final MethodEncoder encoder : encoders) {
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					JobContext previous = context.bind();
+					try {
+						encoder.prepare();
+					} finally {
+						JobContext.restore(previous);
+					}
+					return null;
+				}
+			});
+		}
+		final ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			for (Future<Void> f : pool.invokeAll(tasks)) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Adds the number of clauses and predicates, and the largest
+	 * predicate arity, to the counters of the current phase. The
+	 * predicates are only counted if the prover can take its clauses
+	 * apart.
+	 * @param clauses
+	 */
+	public static void countClauses(List<ProverHornClause> clauses) {
+		PhaseTimer.v().count("clauses", clauses.size());
+		Map<ProverFun, Integer> arities = new HashMap<ProverFun, Integer>();
+		try {
+			for (ProverHornClause clause : clauses) {
+				if (clause.getHeadFun() != null) {
+					arities.put(clause.getHeadFun(), clause.getHeadArgs().length);
+				}
+				for (int i = 0; i < clause.getArity(); ++i) {
+					arities.put(clause.getBodyFun(i), clause.getBodyArgs(i).length);
+				}
+			}
+		} catch (UnsupportedOperationException e) {
+			// e.g., Spacer cannot take its clauses apart.
+			return;
+		}
+		long maxArity = 0;
+		for (Integer arity : arities.values()) {
+			maxArity = Math.max(maxArity, arity);
+		}
+		PhaseTimer.v().count("predicates", arities.size());
+		PhaseTimer.v().max("maxPredicateArity", maxArity);
+	}
+
 	/**
 	 * Return the current prover object
 	 * @return prover
@@ -110,35 +245,42 @@ public class Hornify {
 
 			Log.info("Writing Horn clauses to " + file);
 
-			LinkedList<String> it = new LinkedList<String>();
+			writeToFile(file, hornToSMTLIB(clauses, prover));
+		}
+	}
 
-			it.add("(set-info :origin \"Horn clauses generated by JayHorn\")");
-			it.add("(set-logic HORN)");
+	/**
+	 * Translate Horn clauses to the lines of an SMT-LIB script
+	 */
+	public static List<String> hornToSMTLIB(List<ProverHornClause> clauses,
+			Prover prover) {
+		LinkedList<String> it = new LinkedList<String>();
 
-			it.add("");
+		it.add("(set-info :origin \"Horn clauses generated by JayHorn\")");
+		it.add("(set-logic HORN)");
 
-			Set<ProverFun> predicates = new LinkedHashSet<ProverFun>();
-			for (ProverHornClause clause : clauses) {
-				// null indicates that the head of the clause is "false"
-				if (clause.getHeadFun() != null)
-					predicates.add(clause.getHeadFun());
-				for (int i = 0; i < clause.getArity(); ++i)
-					predicates.add(clause.getBodyFun(i));
-			}
+		it.add("");
 
-			for (ProverFun fun : predicates)
-				it.add(prover.toSMTLIBDeclaration(fun));
+		Set<ProverFun> predicates = new LinkedHashSet<ProverFun>();
+		for (ProverHornClause clause : clauses) {
+			// null indicates that the head of the clause is "false"
+			if (clause.getHeadFun() != null)
+				predicates.add(clause.getHeadFun());
+			for (int i = 0; i < clause.getArity(); ++i)
+				predicates.add(clause.getBodyFun(i));
+		}
 
-			it.add("");
+		for (ProverFun fun : predicates)
+			it.add(prover.toSMTLIBDeclaration(fun));
 
-			for (ProverHornClause clause : clauses)
-				it.add("(assert " + prover.toSMTLIBFormula(clause) + ")");
+		it.add("");
 
-			it.add("");
-			it.add("(check-sat)");
+		for (ProverHornClause clause : clauses)
+			it.add("(assert " + prover.toSMTLIBFormula(clause) + ")");
 
-			writeToFile(file, it);
-		}
+		it.add("");
+		it.add("(check-sat)");
+		return it;
 	}
 
 	private static void writeToFile(Path file, List<String> it) {
@@ -36,6 +36,41 @@ public class MethodEncoder {
 	private final List<ProverHornClause> tsClauses = new LinkedList<ProverHornClause>(); // keep track of 
 	private final ExpressionEncoder expEnc;
 
+	/*
+	 * The sorted live variables at the entry of each block and after
+	 * each statement, computed by prepare().
+	 */
+	private Map<CfgBlock, List<Variable>> blockEntryVars = null;
+	private final Map<CfgBlock, Map<Statement, List<Variable>>> statementExitVars = new HashMap<CfgBlock, Map<Statement, List<Variable>>>();
+
+	/*
+	 * If true, straight-line statements are merged into one transition
+	 * and predicates are only introduced at block entries and before
+	 * calls, pulls, and pushes.
+	 */
+	private final boolean largeBlocks;
+
+	/**
+	 * The open transition at the end of a block in the large-block
+	 * encoding: it starts in atom, the variables have the values in
+	 * varMap, and guard (null for true) is the constraint collected
+	 * so far. block is the last block that was merged into the
+	 * transition.
+	 */
+	private static class BlockExit {
+		final CfgBlock block;
+		final ProverExpr atom;
+		final Map<Variable, ProverExpr> varMap;
+		final ProverExpr guard;
+
+		BlockExit(CfgBlock block, ProverExpr atom, Map<Variable, ProverExpr> varMap, ProverExpr guard) {
+			this.block = block;
+			this.atom = atom;
+			this.varMap = varMap;
+			this.guard = guard;
+		}
+	}
+
 	public MethodEncoder(Prover p, Method method, HornEncoderContext hornContext) {
 		this.p = p;
 		this.method = method;
@@ -44,6 +79,37 @@ public class MethodEncoder {
 		this.precondition = mc.precondition;
 		this.postcondition = mc.postcondition;		
 		this.expEnc = new ExpressionEncoder(p, hornContext);
+		this.largeBlocks = jayhorn.Options.v().getLargeBlocks();
+	}
+
+	/**
+	 * Computes the live variables of all blocks and statements. This
+	 * does not use the prover or any other shared state, so it can
+	 * run for several methods in parallel before they are encoded.
+	 */
+	public void prepare() {
+		if (blockEntryVars != null) {
+			return;
+		}
+		LiveVars<CfgBlock> liveVariables = method.computeBlockLiveVariables();
+		Map<CfgBlock, List<Variable>> entryVars = new LinkedHashMap<CfgBlock, List<Variable>>();
+		for (Entry<CfgBlock, Set<Variable>> entry : liveVariables.liveIn.entrySet()) {
+			// sort the list of variables by name to make access
+			// and reading easier.
+			entryVars.put(entry.getKey(), HornHelper.hh().setToSortedList(entry.getValue()));
+		}
+		for (CfgBlock block : method.vertexSet()) {
+			if (block.getStatements().isEmpty()) {
+				continue;
+			}
+			Map<Statement, List<Variable>> exitVars = new HashMap<Statement, List<Variable>>();
+			for (Entry<Statement, Set<Variable>> entry : computeLiveAfterVariables(block,
+					liveVariables.liveOut.get(block)).entrySet()) {
+				exitVars.put(entry.getKey(), HornHelper.hh().setToSortedList(entry.getValue()));
+			}
+			statementExitVars.put(block, exitVars);
+		}
+		blockEntryVars = entryVars;
 	}
 
 	/**
@@ -52,8 +118,8 @@ public class MethodEncoder {
 	public List<ProverHornClause> encode() {
 		this.clauses.clear();
 
-		LiveVars<CfgBlock> liveVariables = method.computeBlockLiveVariables();
-		makeBlockPredicates(liveVariables);
+		prepare();
+		makeBlockPredicates();
 
 		if (method.getSource() == null) {
 			encodeEmptyMethod();
@@ -61,7 +127,7 @@ public class MethodEncoder {
 		}
 
 		makeEntryPredicate();
-		blocksToHorn(liveVariables);
+		blocksToHorn();
 		S2H.sh().addClause((Statement)null, tsClauses);
 
 		return clauses;
@@ -112,21 +178,39 @@ public class MethodEncoder {
 	 * in precondition.variables. So the arity of the prover fun is
 	 * |precondition.variables| + |sortedVars|
 	 * 
+	 * In the large-block encoding, blocks that are merged into their
+	 * predecessor get no predicate.
+	 * 
 	 * @param p
 	 * @param method
 	 */
-	private void makeBlockPredicates(LiveVars<CfgBlock> liveVariables) {
-		for (Entry<CfgBlock, Set<Variable>> entry : liveVariables.liveIn.entrySet()) {
-			Set<Variable> allLive = new HashSet<Variable>();
-			allLive.addAll(entry.getValue());
-			// sort the list of variables by name to make access
-			// and reading easier.
-			List<Variable> sortedVars = new LinkedList<Variable>();
-			
-			sortedVars.addAll(HornHelper.hh().setToSortedList(allLive));
+	private void makeBlockPredicates() {
+		for (Entry<CfgBlock, List<Variable>> entry : blockEntryVars.entrySet()) {
+			if (largeBlocks && isMergedIntoPredecessor(entry.getKey())) {
+				continue;
+			}
 			blockPredicates.put(entry.getKey(),
-                                            freshHornPredicate(method.getMethodName() + "_" + entry.getKey().getLabel(), sortedVars));
+                                            freshHornPredicate(blockPredicateName(entry.getKey()), entry.getValue()));
+		}
+	}
+
+	private String blockPredicateName(CfgBlock block) {
+		return method.getMethodName() + "_" + block.getLabel();
+	}
+
+	/**
+	 * Returns true if the large-block encoding merges block into the
+	 * transition of its predecessor, i.e., if the block is only entered
+	 * from a block that has no other successor.
+	 * @param block
+	 * @return
+	 */
+	private boolean isMergedIntoPredecessor(CfgBlock block) {
+		if (block == method.getSource() || method.inDegreeOf(block) != 1) {
+			return false;
 		}
+		final CfgBlock pred = method.getEdgeSource(method.incomingEdgesOf(block).iterator().next());
+		return pred != block && method.outDegreeOf(pred) == 1;
 	}
 	
 	/**
@@ -152,10 +236,8 @@ public class MethodEncoder {
 	
 	/**
 	 * Creates Horn clauses for all CfgBlocks in a method.
-	 * @param liveVariables
-	 * @param preVars
 	 */
-	private void blocksToHorn(LiveVars<CfgBlock> liveVariables) {
+	private void blocksToHorn() {
 		List<CfgBlock> todo = new LinkedList<CfgBlock>();
 		todo.add(method.getSource());
 		Set<CfgBlock> done = new HashSet<CfgBlock>();
@@ -166,11 +248,20 @@ public class MethodEncoder {
 			/*
 			 * Translate the body of the CfgBlock using blockToHorn.
 			 * This gives us the exitPred which is the last predicate
-			 * used in this basic block.
+			 * used in this basic block. In the large-block encoding,
+			 * the transition from that predicate is still open and
+			 * is closed by the clauses below.
 			 */
-			final HornPredicate exitPred = blockToHorn(current, liveVariables.liveOut.get(current));
+			final BlockExit blockExit = largeBlocks ? composeBlock(current) : null;
+			final HornPredicate exitPred = largeBlocks ? null : blockToHorn(current);
+			if (largeBlocks) {
+				// continue with the last block of the merged chain.
+				current = blockExit.block;
+				done.add(current);
+			}
 			//reset the varMap here. 
-			Map<Variable, ProverExpr> varMap = new HashMap<Variable, ProverExpr>();
+			Map<Variable, ProverExpr> varMap = largeBlocks ? blockExit.varMap : new HashMap<Variable, ProverExpr>();
+			final ProverExpr guard = largeBlocks ? blockExit.guard : null;
 			/*
 			 * Now distinguish two cases: 
 			 * THEN-CASE: Our block has no successors and leaves the method.
@@ -187,24 +278,28 @@ public class MethodEncoder {
 			if (method.outgoingEdgesOf(current).isEmpty()) {
 				// block ends with a return
 				final ProverExpr postAtom =  postcondition.instPredicate(varMap);
-				final ProverExpr exitAtom = exitPred.instPredicate(varMap);
-				ProverHornClause clause = p.mkHornClause(postAtom, new ProverExpr[] { exitAtom }, p.mkLiteral(true));
+				final ProverExpr exitAtom = largeBlocks ? blockExit.atom : exitPred.instPredicate(varMap);
+				ProverHornClause clause = p.mkHornClause(postAtom, new ProverExpr[] { exitAtom },
+						guard == null ? p.mkLiteral(true) : guard);
 				tsClauses.add(clause);
 				S2H.sh().addClause((Statement)null, tsClauses);
 				clauses.add(clause);
 			} else {
 				// link to the successor blocks
-				final ProverExpr exitAtom = exitPred.instPredicate(varMap);						
+				final ProverExpr exitAtom = largeBlocks ? blockExit.atom : exitPred.instPredicate(varMap);
 				for (CfgEdge edge : method.outgoingEdgesOf(current)) {
 					CfgBlock succ = method.getEdgeTarget(edge);
 					if (!todo.contains(succ) && !done.contains(succ)) {
 						todo.add(succ);
 					}
-					final ProverExpr exitCondExpr;
+					ProverExpr exitCondExpr;
 					if (edge.getLabel().isPresent()) {
 						exitCondExpr = expEnc.exprToProverExpr(edge.getLabel().get(), varMap);
+						if (guard != null) {
+							exitCondExpr = p.mkAnd(guard, exitCondExpr);
+						}
 					} else {
-						exitCondExpr = p.mkLiteral(true);
+						exitCondExpr = guard == null ? p.mkLiteral(true) : guard;
 					}
 					final ProverExpr succAtom = blockPredicates.get(succ).instPredicate(varMap); 
 					ProverHornClause clause = p.mkHornClause(succAtom, new ProverExpr[] { exitAtom }, exitCondExpr);
@@ -220,10 +315,9 @@ public class MethodEncoder {
 	/**
 	 * Creates the Horn clauses for the statements in a single block.
 	 * @param block The block that is to be translated.
-	 * @param liveOutVars The set of variables that are live after the block.
 	 * @return 
 	 */
-	private HornPredicate blockToHorn(CfgBlock block, Set<Variable> liveOutVars) {
+	private HornPredicate blockToHorn(CfgBlock block) {
 		//get the predicate that is associated with the entry of the block.
 		final HornPredicate initPred = blockPredicates.get(block);
 
@@ -231,7 +325,7 @@ public class MethodEncoder {
 			return initPred;
 		}
 		
-		Map<Statement, Set<Variable>> liveAfter = computeLiveAfterVariables(block, liveOutVars);
+		Map<Statement, List<Variable>> liveAfter = statementExitVars.get(block);
 
 		final String initName = initPred.name;
 		HornPredicate prePred = initPred;
@@ -243,8 +337,7 @@ public class MethodEncoder {
 		for (int i = 0; i < stmts.size(); ++i) {
             final Statement s = stmts.get(i);
 			final String postName = initName + "_" + (++counter);
-			final List<Variable> interVarList = HornHelper.hh().setToSortedList(liveAfter.get(s));
-			final HornPredicate postPred = freshHornPredicate(postName, interVarList);
+			final HornPredicate postPred = freshHornPredicate(postName, liveAfter.get(s));
 			this.clauses.addAll(senc.statementToClause(s, prePred, postPred, this.method));
 
 			prePred = postPred;
@@ -253,6 +346,81 @@ public class MethodEncoder {
 		return prePred;
 	}
 	
+	/**
+	 * Creates the Horn clauses for the statements in a single block in
+	 * the large-block encoding. Assignments, allocations, assumptions,
+	 * and assertions are merged into one transition. A new predicate is
+	 * only introduced before each call, pull, and push, which are encoded
+	 * as in blockToHorn. If the block has a single successor that cannot
+	 * be entered from anywhere else, the successor is merged into the
+	 * same transition, and so on.
+	 * @param block The block that is to be translated.
+	 * @return The transition that leaves the last merged block.
+	 */
+	private BlockExit composeBlock(CfgBlock block) {
+		final StatementEncoder senc = new StatementEncoder(p, this.expEnc);
+
+		HornPredicate prePred = blockPredicates.get(block);
+		Map<Variable, ProverExpr> varMap = new HashMap<Variable, ProverExpr>();
+		ProverExpr preAtom = prePred.instPredicate(varMap);
+		ProverExpr guard = null;
+		// true if the transition since preAtom is not the identity.
+		boolean open = false;
+
+		final Set<CfgBlock> merged = new HashSet<CfgBlock>();
+		CfgBlock current = block;
+		while (true) {
+			merged.add(current);
+			final String initName = blockPredicateName(current);
+			final Map<Statement, List<Variable>> liveAfter = statementExitVars.get(current);
+			List<Statement> stmts = current.getStatements();
+			for (int i = 0; i < stmts.size(); ++i) {
+				final Statement s = stmts.get(i);
+				if (StatementEncoder.isComposable(s)) {
+					guard = senc.composeStatement(s, preAtom, guard, varMap, this.clauses);
+					open = true;
+					continue;
+				}
+				if (open) {
+					// close the transition in a predicate right before s.
+					final List<Variable> liveBefore = i == 0 ? blockEntryVars.get(current)
+							: liveAfter.get(stmts.get(i - 1));
+					final HornPredicate midPred = freshHornPredicate(initName + "_" + i, liveBefore);
+					final ProverExpr midAtom = midPred.instPredicate(varMap);
+					final ProverHornClause clause = p.mkHornClause(midAtom, new ProverExpr[] { preAtom },
+							guard == null ? p.mkLiteral(true) : guard);
+					tsClauses.add(clause);
+					this.clauses.add(clause);
+					prePred = midPred;
+				}
+				final HornPredicate postPred = freshHornPredicate(initName + "_" + (i + 1), liveAfter.get(s));
+				this.clauses.addAll(senc.statementToClause(s, prePred, postPred, this.method));
+
+				prePred = postPred;
+				varMap = new HashMap<Variable, ProverExpr>();
+				preAtom = prePred.instPredicate(varMap);
+				guard = null;
+				open = false;
+			}
+
+			if (method.outDegreeOf(current) != 1) {
+				break;
+			}
+			final CfgEdge edge = method.outgoingEdgesOf(current).iterator().next();
+			final CfgBlock succ = method.getEdgeTarget(edge);
+			if (!isMergedIntoPredecessor(succ) || merged.contains(succ)) {
+				break;
+			}
+			if (edge.getLabel().isPresent()) {
+				final ProverExpr cond = expEnc.exprToProverExpr(edge.getLabel().get(), varMap);
+				guard = guard == null ? cond : p.mkAnd(guard, cond);
+				open = true;
+			}
+			current = succ;
+		}
+		return new BlockExit(current, preAtom, varMap, guard);
+	}
+
 	/**
 	 * Compute for each statement the set of variables
 	 * that are live after the statement.
@@ -14,6 +14,7 @@ import soottocfg.cfg.method.Method;
 import soottocfg.cfg.statement.AssertStatement;
 import soottocfg.cfg.statement.Statement;
 import soottocfg.cfg.variable.Variable;
+import soottocfg.util.JobContext;
 
 public class S2H {
 	
@@ -21,15 +22,15 @@ public class S2H {
 	private final Map<ProverExpr, Integer> errorLineNumber = new LinkedHashMap<ProverExpr, Integer>();
 	private final Map<Method, Entry<Variable, Variable>> methodHeapBounds = new HashMap<Method, Entry<Variable, Variable>>();
 	
-	private static S2H sh;
 
 	public static void resetInstance() {
-		sh = null;
+		JobContext.current().remove(S2H.class);
 	}
 	
 	public static S2H sh() {
+		S2H sh = JobContext.current().get(S2H.class);
 		if (null == sh) {
-			sh = new S2H();
+			sh = JobContext.current().putIfAbsent(S2H.class, new S2H());
 		}
 		return sh;
 	}
@@ -67,6 +68,22 @@ public class S2H {
 		return clause;
 	}
 	
+	/**
+	 * Maps the clauses of each assertion to its source line.
+	 * @return
+	 */
+	public Map<ProverHornClause, Integer> getPropertyLines(){
+		Map<ProverHornClause, Integer> lines = new HashMap<ProverHornClause, Integer>();
+		for (Entry<Statement, List<ProverHornClause>> entry : this.statToClause.entrySet()) {
+			if (entry.getKey() instanceof AssertStatement) {
+				for (ProverHornClause clause : entry.getValue()) {
+					lines.put(clause, entry.getKey().getJavaSourceLine());
+				}
+			}
+		}
+		return lines;
+	}
+
 	public void setErrorState(ProverExpr errorState, int i){
 		this.errorLineNumber.put(errorState, i);
 	}
@@ -133,6 +133,65 @@ public class StatementEncoder {
 		throw new RuntimeException("Statement type " + s + " not implemented!");
 	}
 
+	/**
+	 * Returns true if s can be merged with the statements around it into
+	 * a single transition, i.e., if it neither calls a method nor reads or
+	 * writes an invariant.
+	 * @param s
+	 * @return
+	 */
+	public static boolean isComposable(Statement s) {
+		return s instanceof AssignStatement || s instanceof NewStatement || s instanceof AssumeStatement
+				|| s instanceof AssertStatement;
+	}
+
+	/**
+	 * Adds the effect of the composable statement s to a transition that
+	 * starts in preAtom and has the constraint guard so far. Assignments
+	 * update varMap, assumptions strengthen the guard, and assertions add
+	 * a clause into the error state to clauses.
+	 * 
+	 * @param s
+	 *            A statement for which isComposable holds.
+	 * @param preAtom
+	 *            The atom at the start of the transition.
+	 * @param guard
+	 *            The constraint of the transition before s, or null if
+	 *            there is none yet.
+	 * @param varMap
+	 *            The values of the variables before s, updated to the
+	 *            values after s.
+	 * @param clauses
+	 *            Receives the clauses for assertions.
+	 * @return The constraint of the transition after s, or null.
+	 */
+	public ProverExpr composeStatement(Statement s, ProverExpr preAtom, ProverExpr guard,
+			Map<Variable, ProverExpr> varMap, List<ProverHornClause> clauses) {
+		if (s instanceof AssertStatement) {
+			final AssertStatement as = (AssertStatement) s;
+			final ProverExpr cond = expEncoder.exprToProverExpr(as.getExpression(), varMap);
+			final List<ProverHornClause> clause = new LinkedList<ProverHornClause>();
+			clause.add(mkErrorClause(as, preAtom, conjoin(guard, p.mkNot(cond))));
+			S2H.sh().addClause(s, clause);
+			clauses.addAll(clause);
+			return guard;
+		} else if (s instanceof AssumeStatement) {
+			final ProverExpr cond = expEncoder.exprToProverExpr(((AssumeStatement) s).getExpression(), varMap);
+			return conjoin(guard, cond);
+		} else if (s instanceof AssignStatement) {
+			applyAssign((AssignStatement) s, varMap);
+			return guard;
+		} else if (s instanceof NewStatement) {
+			applyNew((NewStatement) s, varMap);
+			return guard;
+		}
+		throw new IllegalArgumentException("Statement " + s + " cannot be composed.");
+	}
+
+	private ProverExpr conjoin(ProverExpr guard, ProverExpr cond) {
+		return guard == null ? cond : p.mkAnd(guard, cond);
+	}
+
 	/**
 	 * for "assert(cond)"
 	 * create two Horn clauses
@@ -151,6 +210,22 @@ public class StatementEncoder {
 		List<ProverHornClause> clauses = new LinkedList<ProverHornClause>();
 		final ProverExpr cond = expEncoder.exprToProverExpr(as.getExpression(), varMap); 
 
+		clauses.add(mkErrorClause(as, preAtom, p.mkNot(cond)));
+		final ProverExpr postAtom = postPred.instPredicate(varMap);
+		clauses.add(p.mkHornClause(postAtom, new ProverExpr[] { preAtom }, p.mkLiteral(true)));
+		return clauses;
+	}
+
+	/**
+	 * Creates the Horn clause
+	 * pre(...) && constraint -> error
+	 * for the assertion as.
+	 * @param as
+	 * @param preAtom
+	 * @param constraint
+	 * @return
+	 */
+	private ProverHornClause mkErrorClause(AssertStatement as, ProverExpr preAtom, ProverExpr constraint) {
 		final ProverExpr errorState; // For now depending on the solver we use false or a predicate
 		String tag = "ErrorState@line" + as.getJavaSourceLine();
 		final ProverFun errorPredicate = p.mkHornPredicate(tag, new ProverType[] {});
@@ -161,10 +236,7 @@ public class StatementEncoder {
 		}else{
 			errorState = p.mkLiteral(false);
 		}
-		clauses.add(p.mkHornClause(errorState, new ProverExpr[] { preAtom }, p.mkNot(cond)));
-		final ProverExpr postAtom = postPred.instPredicate(varMap);
-		clauses.add(p.mkHornClause(postAtom, new ProverExpr[] { preAtom }, p.mkLiteral(true)));
-		return clauses;
+		return p.mkHornClause(errorState, new ProverExpr[] { preAtom }, constraint);
 	}
 	/**
 	 * for "assume(cond)"
@@ -190,6 +262,20 @@ public class StatementEncoder {
 			Map<Variable, ProverExpr> varMap) {
 		List<ProverHornClause> clauses = new LinkedList<ProverHornClause>();
 
+		applyAssign(as, varMap);
+
+		final ProverExpr postAtom = postPred.instPredicate(varMap);
+		clauses.add(p.mkHornClause(postAtom, new ProverExpr[] { preAtom }, p.mkLiteral(true)));
+
+		return clauses;
+	}
+
+	/**
+	 * Maps the left-hand side of as to the value of its right-hand side.
+	 * @param as
+	 * @param varMap
+	 */
+	private void applyAssign(AssignStatement as, Map<Variable, ProverExpr> varMap) {
 		Verify.verify(as.getLeft() instanceof IdentifierExpression,
 				"only assignments to variables are supported, not to " + as.getLeft());
 		final IdentifierExpression idLhs = (IdentifierExpression) as.getLeft();
@@ -220,11 +306,6 @@ public class StatementEncoder {
 		}
 
 		varMap.put(idLhs.getVariable(), right);
-
-		final ProverExpr postAtom = postPred.instPredicate(varMap);
-		clauses.add(p.mkHornClause(postAtom, new ProverExpr[] { preAtom }, p.mkLiteral(true)));
-
-		return clauses;
 	}
 
 	
@@ -232,6 +313,20 @@ public class StatementEncoder {
 			Map<Variable, ProverExpr> varMap) {
 		List<ProverHornClause> clauses = new LinkedList<ProverHornClause>();
 
+		applyNew(ns, varMap);
+
+		final ProverExpr postAtom = postPred.instPredicate(varMap);
+		clauses.add(p.mkHornClause(postAtom, new ProverExpr[] { preAtom }, p.mkLiteral(true)));
+
+		return clauses;
+	}
+
+	/**
+	 * Maps the left-hand side of ns to a fresh object.
+	 * @param ns
+	 * @param varMap
+	 */
+	private void applyNew(NewStatement ns, Map<Variable, ProverExpr> varMap) {
 		Verify.verify(ns.getLeft() instanceof IdentifierExpression,
 				"only assignments to variables are supported, not to " + ns.getLeft());
 		final IdentifierExpression idLhs = (IdentifierExpression) ns.getLeft();
@@ -260,11 +355,6 @@ public class StatementEncoder {
 		// varMap);
 		// // set the ref to the current heap counter.
 		// varMap.put(idLhs.getVariable(), ctr);
-
-		final ProverExpr postAtom = postPred.instPredicate(varMap);
-		clauses.add(p.mkHornClause(postAtom, new ProverExpr[] { preAtom }, p.mkLiteral(true)));
-
-		return clauses;
 	}
 
 	/**
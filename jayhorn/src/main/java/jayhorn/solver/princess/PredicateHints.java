@@ -0,0 +1,240 @@
+package jayhorn.solver.princess;
+
+import java.io.StringReader;
+import java.nio.file.Paths;
+import java.util.HashMap;
+
+import ap.SimpleAPI;
+import ap.parser.ConstantSubstVisitor$;
+import ap.parser.IBinFormula;
+import ap.parser.IBinJunctor;
+import ap.parser.IBoolLit;
+import ap.parser.IConstant;
+import ap.parser.IFormula;
+import ap.parser.ITerm;
+import ap.parser.IVariable;
+import ap.parser.SMTLineariser$;
+import ap.parser.SymbolCollector$;
+import ap.parser.VariableSubstVisitor$;
+import ap.terfor.ConstantTerm;
+import ap.terfor.preds.Predicate;
+import jayhorn.Log;
+import jayhorn.Options;
+import jayhorn.utils.PredicateHintStore;
+import jayhorn.utils.Stats;
+import scala.Tuple2;
+import scala.collection.Iterator;
+import scala.collection.Seq;
+import scala.collection.immutable.List;
+import scala.collection.immutable.Map;
+import scala.collection.mutable.ArrayBuffer;
+
+/**
+ * Translates the solutions that Eldarica finds for the Horn predicates
+ * to and from the text kept in a {@link PredicateHintStore}. A solution
+ * is a formula over the arguments of the predicate (the variables
+ * <code>_0, _1, ...</code>), which is stored as one SMT-LIB assertion per
+ * conjunct over the constants <code>hint_arg_0, hint_arg_1, ...</code>.
+ * When the clauses are solved again, the conjuncts are handed to
+ * Eldarica as initial predicates for the abstraction of each predicate
+ * with the same name and arity.
+ *
+ * The last solution is also kept in this text format, so that
+ * ContractSummaries can store the solved method contracts and heap
+ * invariants (see PrincessProver.getLastSolutionTexts).
+ */
+final class PredicateHints {
+
+	private static final String ARG_PREFIX = "hint_arg_";
+
+	private final Map<Predicate, Seq<IFormula>> formulas;
+	// the text of each predicate in the last stored solution, by name.
+	private volatile java.util.Map<String, String> solutionTexts = null;
+
+	/**
+	 * Reads the stored solutions of the given predicates, if a store is
+	 * given in the options.
+	 * @param preds
+	 */
+	PredicateHints(Iterable<Predicate> preds) {
+		formulas = load(preds);
+	}
+
+	/**
+	 * The hints in the form that is passed to Eldarica.
+	 */
+	Map<Predicate, Seq<IFormula>> formulas() {
+		return formulas;
+	}
+
+	/**
+	 * Returns true if the solutions of the predicates should be stored, in
+	 * which case they have to be computed even if they are not printed.
+	 */
+	boolean storesSolutions() {
+		return Options.v().getPredicateHints() != null || Options.v().getContractSummaries() != null;
+	}
+
+	/**
+	 * Reads the stored solutions of the given predicates. Hints that cannot
+	 * be parsed, or that do not fit the predicate, are ignored.
+	 */
+	private Map<Predicate, Seq<IFormula>> load(Iterable<Predicate> preds) {
+		Map<Predicate, Seq<IFormula>> hints = scala.collection.immutable.Map$.MODULE$.<Predicate, Seq<IFormula>> empty();
+		if (!storesSolutions()) {
+			return hints;
+		}
+		final java.util.Map<String, String> byName = load(Options.v().getPredicateHints());
+		if (byName.isEmpty()) {
+			return hints;
+		}
+		int count = 0;
+		final SimpleAPI api = SimpleAPI.spawn();
+		try {
+			for (Predicate pred : preds) {
+				final String text = byName.get(pred.name());
+				if (text == null) {
+					continue;
+				}
+				try {
+					final Seq<IFormula> formulas = parse(api, text, pred.arity());
+					if (formulas != null && !formulas.isEmpty()) {
+						hints = hints.$plus(new Tuple2<Predicate, Seq<IFormula>>(pred, formulas));
+						count += formulas.size();
+					}
+				} catch (Exception e) {
+					Log.info("Ignoring the hint for " + pred.name() + ": " + e.toString());
+				}
+			}
+		} finally {
+			api.shutDown();
+		}
+		Stats.stats().add("PredicateHints", String.valueOf(count));
+		return hints;
+	}
+
+	/**
+	 * The names of the predicates that have a hint in the store of
+	 * predicate hints, if one is given in the options.
+	 */
+	static java.util.Set<String> storedNames() {
+		return load(Options.v().getPredicateHints()).keySet();
+	}
+
+	private static java.util.Map<String, String> load(String file) {
+		if (file == null) {
+			return new HashMap<String, String>();
+		}
+		return new PredicateHintStore(Paths.get(file)).load();
+	}
+
+	/**
+	 * The text of each predicate in the last solution passed to store, by
+	 * name, or null if there is none.
+	 */
+	java.util.Map<String, String> solutionTexts() {
+		return solutionTexts;
+	}
+
+	/**
+	 * Adds the solutions to the store.
+	 */
+	void store(Map<Predicate, IFormula> solution) {
+		if (!storesSolutions()) {
+			return;
+		}
+		final java.util.Map<String, String> byName = new HashMap<String, String>();
+		final Iterator<Tuple2<Predicate, IFormula>> it = solution.iterator();
+		while (it.hasNext()) {
+			final Tuple2<Predicate, IFormula> p = it.next();
+			final String name = p._1().name();
+			try {
+				final String text = print(p._1(), p._2());
+				byName.put(name, text);
+			} catch (Exception e) {
+				Log.info("Cannot store the solution of " + name + ": " + e.toString());
+			}
+		}
+		solutionTexts = byName;
+		if (Options.v().getPredicateHints() != null) {
+			new PredicateHintStore(Paths.get(Options.v().getPredicateHints())).update(byName);
+		}
+	}
+
+	private static String print(Predicate pred, IFormula solution) {
+		final ArrayBuffer<ITerm> args = new ArrayBuffer<ITerm>();
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < pred.arity(); ++i) {
+			args.$plus$eq(new IConstant(new ConstantTerm(ARG_PREFIX + i)));
+			sb.append("(declare-fun " + ARG_PREFIX + i + " () Int)\n");
+		}
+		final IFormula f = (IFormula) VariableSubstVisitor$.MODULE$.apply(solution,
+				new Tuple2<List<ITerm>, Object>(args.toList(), 0));
+		final java.util.List<IFormula> conjuncts = new java.util.ArrayList<IFormula>();
+		collectConjuncts(f, conjuncts);
+		for (IFormula c : conjuncts) {
+			sb.append("(assert " + SMTLineariser$.MODULE$.asString(c) + ")\n");
+		}
+		return sb.toString();
+	}
+
+	private static void collectConjuncts(IFormula f, java.util.List<IFormula> conjuncts) {
+		if (f instanceof IBinFormula && ((IBinFormula) f).j().equals(IBinJunctor.And())) {
+			collectConjuncts(((IBinFormula) f).f1(), conjuncts);
+			collectConjuncts(((IBinFormula) f).f2(), conjuncts);
+		} else {
+			conjuncts.add(f);
+		}
+	}
+
+	/**
+	 * Parses the solution of a predicate from text, as the conjunction of
+	 * its assertions. Returns null if the text does not fit the predicate.
+	 */
+	static IFormula parseSolution(SimpleAPI api, Predicate pred, String text) {
+		final Seq<IFormula> conjuncts = parse(api, text, pred.arity());
+		if (conjuncts == null) {
+			return null;
+		}
+		IFormula res = new IBoolLit(true);
+		final Iterator<IFormula> it = conjuncts.iterator();
+		while (it.hasNext()) {
+			res = res.$amp(it.next());
+		}
+		return res;
+	}
+
+	/**
+	 * Parses the assertions in text and replaces the constants with the
+	 * arguments of the predicate. Returns null if a constant does not
+	 * belong to an argument of a predicate of the given arity.
+	 */
+	private static Seq<IFormula> parse(SimpleAPI api, String text, int arity) {
+		api.push();
+		try {
+			final Seq<IFormula> parsed = api.extractSMTLIBAssertionsSymbols(new StringReader(text))._1();
+			final ArrayBuffer<IFormula> res = new ArrayBuffer<IFormula>();
+			final Iterator<IFormula> it = parsed.iterator();
+			while (it.hasNext()) {
+				final IFormula f = it.next();
+				final scala.collection.mutable.HashMap<ConstantTerm, ITerm> subst = new scala.collection.mutable.HashMap<ConstantTerm, ITerm>();
+				final Iterator<ConstantTerm> consts = SymbolCollector$.MODULE$.varsConstsPreds(f)._2().iterator();
+				while (consts.hasNext()) {
+					final ConstantTerm c = consts.next();
+					if (!c.name().startsWith(ARG_PREFIX)) {
+						return null;
+					}
+					final int i = Integer.parseInt(c.name().substring(ARG_PREFIX.length()));
+					if (i >= arity) {
+						return null;
+					}
+					subst.put(c, new IVariable(i));
+				}
+				res.$plus$eq(ConstantSubstVisitor$.MODULE$.apply(f, subst));
+			}
+			return res.toList();
+		} finally {
+			api.pop();
+		}
+	}
+}
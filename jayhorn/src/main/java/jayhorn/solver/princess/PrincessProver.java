@@ -7,11 +7,16 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -43,6 +48,7 @@ import ap.parser.ITermITE;
 import ap.parser.IVariable;
 import ap.parser.PredicateSubstVisitor$;
 import ap.parser.SymbolCollector$;
+import ap.parser.VariableSubstVisitor$;
 import ap.terfor.ConstantTerm;
 import ap.terfor.preds.Predicate;
 import jayhorn.Log;
@@ -59,10 +65,14 @@ import jayhorn.solver.ProverResult;
 import jayhorn.solver.ProverTupleExpr;
 import jayhorn.solver.ProverTupleType;
 import jayhorn.solver.ProverType;
+import lazabs.GlobalParameters;
+import lazabs.GlobalParameters$;
+import lazabs.horn.abstractions.StaticAbstractionBuilder$AbstractionType$;
 import lazabs.horn.bottomup.HornClauses;
 import lazabs.horn.bottomup.HornClauses.Clause;
 import lazabs.horn.bottomup.SimpleWrapper;
 import lazabs.horn.bottomup.Util.Dag;
+import scala.Function0;
 import scala.Tuple2;
 import scala.collection.Iterator;
 import scala.collection.Seq;
@@ -70,6 +80,7 @@ import scala.collection.immutable.List;
 import scala.collection.immutable.Map;
 import scala.collection.immutable.Set;
 import scala.collection.mutable.ArrayBuffer;
+import scala.runtime.BoxedUnit;
 import scala.util.Either;
 
 public class PrincessProver implements Prover {
@@ -381,20 +392,34 @@ public class PrincessProver implements Prover {
         return lastCEX[0];
     }
 
+    private PredicateHints lastHints = null;
+
+    /**
+     * Returns the last solution in the text format of the predicate hint
+     * store, by predicate name, or null if it was not kept. It is only
+     * kept if -predicate-hints or -contract-summaries is given.
+     */
+    public java.util.Map<String, String> getLastSolutionTexts() {
+        return lastHints == null ? null : lastHints.solutionTexts();
+    }
+
     public ProverResult checkSat(boolean block) {
         if (assertedClauses.isEmpty()) {
             return translateRes(api.checkSat(block));
         } else {
             lastSolution = new HashMap<String, String>();
             lastCEX = new Dag[1];
+            final PredicateHints hints = new PredicateHints(fullHornTypes.keySet());
+            lastHints = hints;
             if (block) {
-                return runEldarica(assertedClauses, fullHornTypes,
+                return runEldarica(assertedClauses, fullHornTypes, hints,
                                    lastSolution, lastCEX);
             } else {
                 this.executor = Executors.newSingleThreadExecutor();
                 this.thread =
                     new PrincessSolverThread(assertedClauses,
                                              fullHornTypes,
+                                             hints,
                                              lastSolution,
                                              lastCEX);
                 this.futureProverResult = executor.submit(this.thread);
@@ -405,24 +430,199 @@ public class PrincessProver implements Prover {
 
     private static ProverResult runEldarica(ArrayList<HornExpr> assertedClauses,
                                             java.util.Map<Predicate, ProverType[]> fullHornTypes,
+                                            PredicateHints hints,
                                             java.util.Map<String, String> lastSolution,
                                             Dag<Tuple2<ProverFun, ProverExpr[]>>[] lastCEXAr) {
+        if (Options.v().getSolverOptions().contains("parallel"))
+            return runParallelEldarica(assertedClauses, fullHornTypes, hints,
+                                       lastSolution, lastCEXAr);
+        return runEldarica(assertedClauses, fullHornTypes, hints, lastSolution, lastCEXAr,
+                           new EldaricaConfig(Options.v().getSolverOptions().contains("abstract"), null));
+    }
+
+    /**
+     * Settings that differ between the Eldarica runs started
+     * by <code>runParallelEldarica</code>.
+     */
+    static class EldaricaConfig {
+        final boolean useTemplates;
+        /** Kind of abstraction templates, or null for Eldarica's default. */
+        final scala.Enumeration.Value abstractionType;
+        /**
+         * Set when another run has answered first. Eldarica polls it
+         * through its timeout checker and gives up.
+         */
+        volatile boolean stopped = false;
+
+        EldaricaConfig(boolean useTemplates, scala.Enumeration.Value abstractionType) {
+            this.useTemplates = useTemplates;
+            this.abstractionType = abstractionType;
+        }
+
+        @Override
+        public String toString() {
+            if (!useTemplates)
+                return "no-abstract";
+            return "abstract" + (abstractionType == null ? "" : "/" + abstractionType);
+        }
+    }
+
+    /**
+     * Thrown by the timeout checker of an Eldarica run that was stopped.
+     */
+    private static class EldaricaStoppedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Runs Eldarica without abstraction templates and with each kind of
+     * templates that Eldarica offers, on a bounded thread pool. The first
+     * conclusive answer is returned. The other runs are stopped through
+     * Eldarica's timeout checker, which polls <code>stopped</code>.
+     */
+    private static ProverResult runParallelEldarica(final ArrayList<HornExpr> assertedClauses,
+                                                    final java.util.Map<Predicate, ProverType[]> fullHornTypes,
+                                                    final PredicateHints hints,
+                                                    java.util.Map<String, String> lastSolution,
+                                                    Dag<Tuple2<ProverFun, ProverExpr[]>>[] lastCEXAr) {
+        final java.util.List<EldaricaConfig> configs = new ArrayList<EldaricaConfig>();
+        final StaticAbstractionBuilder$AbstractionType$ types =
+            StaticAbstractionBuilder$AbstractionType$.MODULE$;
+        configs.add(new EldaricaConfig(false, null));
+        for (scala.Enumeration.Value type : new scala.Enumeration.Value[] {
+                 types.Term(), types.Octagon(), types.RelationalEqs()})
+            configs.add(new EldaricaConfig(true, type));
+
+        final int poolSize = Math.max(1, Math.min(configs.size(),
+                                                  Runtime.getRuntime().availableProcessors()));
+        final ExecutorService pool = Executors.newFixedThreadPool(poolSize, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "eldarica");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        final CompletionService<ProverResult> completion =
+            new ExecutorCompletionService<ProverResult>(pool);
+        final java.util.Map<Future<ProverResult>, EldaricaConfig> runs =
+            new LinkedHashMap<Future<ProverResult>, EldaricaConfig>();
+        final java.util.Map<Future<ProverResult>, java.util.Map<String, String>> solutions =
+            new HashMap<Future<ProverResult>, java.util.Map<String, String>>();
+        final java.util.Map<Future<ProverResult>, Dag<Tuple2<ProverFun, ProverExpr[]>>[]> cexs =
+            new HashMap<Future<ProverResult>, Dag<Tuple2<ProverFun, ProverExpr[]>>[]>();
+
+        try {
+            for (final EldaricaConfig config : configs) {
+                final java.util.Map<String, String> solution = new HashMap<String, String>();
+                @SuppressWarnings("unchecked")
+                final Dag<Tuple2<ProverFun, ProverExpr[]>>[] cex = new Dag[1];
+                final Future<ProverResult> run = completion.submit(new Callable<ProverResult>() {
+                        @Override
+                        public ProverResult call() {
+                            return runEldarica(assertedClauses, fullHornTypes, hints,
+                                               solution, cex, config);
+                        }
+                    });
+                runs.put(run, config);
+                solutions.put(run, solution);
+                cexs.put(run, cex);
+            }
+
+            while (!runs.isEmpty()) {
+                final Future<ProverResult> done = completion.take();
+                final EldaricaConfig config = runs.remove(done);
+                ProverResult result;
+                try {
+                    result = done.get();
+                } catch (ExecutionException e) {
+                    Log.info("Eldarica run " + config + " failed: " + e.getCause());
+                    continue;
+                }
+                if (result == ProverResult.Sat || result == ProverResult.Unsat) {
+                    if (Options.v().getSolverOptions().contains("debug"))
+                        Log.info("Eldarica run " + config + " answered first.");
+                    lastSolution.putAll(solutions.get(done));
+                    lastCEXAr[0] = cexs.get(done)[0];
+                    return result;
+                }
+            }
+            return ProverResult.Unknown;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ProverResult.Unknown;
+        } finally {
+            // stop the runs that are still going, so that they neither
+            // store their solutions nor keep the threads busy. Eldarica
+            // ignores the interrupt, but its timeout checker sees the flag.
+            for (java.util.Map.Entry<Future<ProverResult>, EldaricaConfig> run : runs.entrySet()) {
+                if (Options.v().getSolverOptions().contains("debug"))
+                    Log.info("Stopping Eldarica run " + run.getValue());
+                run.getValue().stopped = true;
+                run.getKey().cancel(false);
+            }
+            pool.shutdownNow();
+        }
+    }
+
+    private static ProverResult runEldarica(ArrayList<HornExpr> assertedClauses,
+                                            final java.util.Map<Predicate, ProverType[]> fullHornTypes,
+                                            final PredicateHints hints,
+                                            final java.util.Map<String, String> lastSolution,
+                                            final Dag<Tuple2<ProverFun, ProverExpr[]>>[] lastCEXAr,
+                                            final EldaricaConfig config) {
+        // every run gets its own copy of Eldarica's settings, with a
+        // timeout checker that gives up once the run has been stopped
+        final GlobalParameters params = GlobalParameters$.MODULE$.get().clone();
+        params.assertions_$eq(false);
+        if (config.abstractionType != null)
+            params.templateBasedInterpolationType_$eq(config.abstractionType);
+        final Function0<BoxedUnit> outerChecker = params.timeoutChecker();
+        params.timeoutChecker_$eq(new scala.runtime.AbstractFunction0<BoxedUnit>() {
+                public BoxedUnit apply() {
+                    if (config.stopped)
+                        throw new EldaricaStoppedException();
+                    return outerChecker.apply();
+                }
+            });
+
         final ArrayBuffer<HornClauses.Clause> clauses = new ArrayBuffer<HornClauses.Clause>();
         for (HornExpr clause : assertedClauses)
             clauses.$plus$eq(clause.clause);
 
-        lazabs.GlobalParameters$.MODULE$.get().assertions_$eq(false);
+        try {
+            return GlobalParameters$.MODULE$.parameters().withValue(params,
+                new scala.runtime.AbstractFunction0<ProverResult>() {
+                    public ProverResult apply() {
+                        return runEldarica(clauses, fullHornTypes, hints,
+                                           lastSolution, lastCEXAr, config);
+                    }
+                });
+        } catch (EldaricaStoppedException e) {
+            return ProverResult.Unknown;
+        }
+    }
+
+    private static ProverResult runEldarica(ArrayBuffer<HornClauses.Clause> clauses,
+                                            final java.util.Map<Predicate, ProverType[]> fullHornTypes,
+                                            PredicateHints hints,
+                                            java.util.Map<String, String> lastSolution,
+                                            Dag<Tuple2<ProverFun, ProverExpr[]>>[] lastCEXAr,
+                                            EldaricaConfig config) {
 				
-        if (Options.v().solution) {
+        // the solutions are also needed to update the predicate hints
+        if (Options.v().solution || hints.storesSolutions()) {
                                 	               	
             final Either<Map<Predicate, IFormula>, Dag<Tuple2<IAtom, Clause>>> result =
                 SimpleWrapper.solve(clauses,
-                                    scala.collection.immutable.Map$.MODULE$.<Predicate, Seq<IFormula>> empty(),
-                                    Options.v().getSolverOptions().contains("abstract"),
+                                    hints.formulas(),
+                                    config.useTemplates,
                                     Options.v().getSolverOptions().contains("debug"),
                                     Options.v().dotCEX);
             
             if (result.isLeft()) {
+                if (!config.stopped)
+                    hints.store(result.left().get());
                 StringBuffer sol = new StringBuffer();
                 sol.append("Solution:\n");
                 List<Tuple2<Predicate, IFormula>> ar = result.left().get().toList();
@@ -477,7 +677,8 @@ public class PrincessProver implements Prover {
                                 }
                             }
                         });
-                Log.info("Counterexample:\n"
+                if (Options.v().solution)
+                    Log.info("Counterexample:\n"
                          + DialogUtil$.MODULE$.asString(new scala.runtime.AbstractFunction0<Integer>() {
                                  public Integer apply() {
                                      prettyCEX.prettyPrint();
@@ -488,8 +689,8 @@ public class PrincessProver implements Prover {
             }
         } else {
             if (SimpleWrapper.isSat(clauses,
-                                    scala.collection.immutable.Map$.MODULE$.<Predicate, Seq<IFormula>> empty(),
-                                    Options.v().getSolverOptions().contains("abstract"),
+                                    hints.formulas(),
+                                    config.useTemplates,
                                     Options.v().getSolverOptions().contains("debug")))
                 return ProverResult.Sat;
             else
@@ -502,14 +703,17 @@ public class PrincessProver implements Prover {
         private final java.util.Map<String, String> lastSolution;
         private final Dag<Tuple2<ProverFun, ProverExpr[]>>[] lastCEX;
         private final java.util.Map<Predicate, ProverType[]> fullHornTypes;
+        private final PredicateHints hints;
         private ProverResult status;
 
         public PrincessSolverThread(ArrayList<HornExpr> clauses,
                                     java.util.Map<Predicate, ProverType[]> fullHornTypes,
+                                    PredicateHints hints,
                                     java.util.Map<String, String> lastSolution,
                                     Dag<Tuple2<ProverFun, ProverExpr[]>>[] lastCEX) {
             this.hornClauses = clauses;
             this.fullHornTypes = fullHornTypes;
+            this.hints = hints;
             this.lastSolution = lastSolution;
             this.lastCEX = lastCEX;
         }
@@ -517,7 +721,7 @@ public class PrincessProver implements Prover {
         @Override
         public void run() {
             status = ProverResult.Running;
-            status = runEldarica(hornClauses, fullHornTypes,
+            status = runEldarica(hornClauses, fullHornTypes, hints,
                                  lastSolution, lastCEX);
         }
 
@@ -581,6 +785,17 @@ public class PrincessProver implements Prover {
 	}
 
 	public ProverResult stop() {
+		if (futureProverResult != null) {
+			// a non-blocking Eldarica run is in progress
+			final ProverResult result;
+			if (futureProverResult.isDone() && thread != null) {
+				result = thread.getStatus();
+			} else {
+				result = ProverResult.Unknown;
+			}
+			killThread();
+			return result;
+		}
 		return translateRes(api.stop());
 	}
 
@@ -721,6 +936,85 @@ public class PrincessProver implements Prover {
         private final java.util.Map<Predicate, ProverType[]> fullHornTypes =
           new HashMap<Predicate, ProverType[]> ();
 
+    /**
+     * Returns the Horn predicates with a hint in the store of predicate
+     * hints.
+     */
+    public java.util.List<ProverFun> hintedPredicates() {
+        final java.util.Set<String> stored = PredicateHints.storedNames();
+        final java.util.List<ProverFun> res = new ArrayList<ProverFun>();
+        for (java.util.Map.Entry<Predicate, ProverType[]> entry : fullHornTypes.entrySet()) {
+            if (stored.contains(entry.getKey().name())) {
+                res.add(new PredicateFun(entry.getKey(), entry.getValue()));
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Replaces the predicates that have a solution, given as text in the
+     * format of the predicate hint store by predicate name, by their
+     * solutions. A body literal of such a predicate becomes part of the
+     * constraint. A clause with such a predicate in the head becomes a
+     * clause with head false, which asserts that the solution holds.
+     * @return the new clauses, or null if a solution cannot be parsed.
+     */
+    public java.util.List<ProverHornClause> substitutePredicates(java.util.List<ProverHornClause> clauses,
+                                                                 java.util.Map<String, String> solutions) {
+        final java.util.Map<Predicate, IFormula> formulas = new HashMap<Predicate, IFormula>();
+        for (Predicate pred : fullHornTypes.keySet()) {
+            final String text = solutions.get(pred.name());
+            if (text == null)
+                continue;
+            final IFormula f;
+            try {
+                f = PredicateHints.parseSolution(api, pred, text);
+            } catch (Exception e) {
+                Log.info("Cannot parse the solution of " + pred.name() + ": " + e.toString());
+                return null;
+            }
+            if (f == null)
+                return null;
+            formulas.put(pred, f);
+        }
+
+        final java.util.List<ProverHornClause> res = new ArrayList<ProverHornClause>();
+        for (ProverHornClause c : clauses) {
+            final HornClauses.Clause clause = ((HornExpr) c).clause;
+            IFormula constraint = clause.constraint();
+            boolean changed = false;
+            final ArrayBuffer<IAtom> body = new ArrayBuffer<IAtom>();
+            final Iterator<IAtom> it = clause.body().iterator();
+            while (it.hasNext()) {
+                final IAtom atom = it.next();
+                if (formulas.containsKey(atom.pred())) {
+                    constraint = constraint.$amp(instantiate(formulas.get(atom.pred()), atom));
+                    changed = true;
+                } else {
+                    body.$plus$eq(atom);
+                }
+            }
+            IAtom head = clause.head();
+            if (formulas.containsKey(head.pred())) {
+                constraint = constraint.$amp(instantiate(formulas.get(head.pred()), head).unary_$bang());
+                head = SimpleWrapper.FALSEAtom();
+                changed = true;
+            }
+            // keep the clauses without solved predicates as they are.
+            res.add(changed ? new HornExpr(SimpleWrapper.clause(head, body.toList(), constraint)) : c);
+        }
+        return res;
+    }
+
+    /**
+     * Replaces the variables <code>_0, _1, ...</code> of a solution by
+     * the arguments of the atom.
+     */
+    private static IFormula instantiate(IFormula solution, IAtom atom) {
+        return (IFormula) VariableSubstVisitor$.MODULE$.apply(solution,
+                new Tuple2<List<ITerm>, Object>(atom.args().toList(), 0));
+    }
+
     public ProverExpr mkHornVariable(String name, ProverType type) {
         if (type instanceof ProverTupleType) {
             final ProverTupleType tt = (ProverTupleType)type;
@@ -742,6 +1036,17 @@ public class PrincessProver implements Prover {
         return new PredicateFun(pred, argCopy);
     }
 
+    /**
+     * Creates a prover that knows the Horn predicates of this prover, so
+     * that clauses created by this prover can be asserted and checked in
+     * it, e.g., on another thread while this prover is in use.
+     */
+    public PrincessProver copyHornPredicates() {
+        final PrincessProver copy = new PrincessProver();
+        copy.fullHornTypes.putAll(this.fullHornTypes);
+        return copy;
+    }
+
 	/**
 	 * The head literal can either be constructed using
 	 * <code>mkHornPredicate</code>, or be the formula <code>false</code>.
@@ -26,6 +26,7 @@ import com.microsoft.z3.BoolExpr;
 import com.microsoft.z3.Context;
 import com.microsoft.z3.Expr;
 import com.microsoft.z3.Fixedpoint;
+import com.microsoft.z3.FuncDecl;
 import com.microsoft.z3.IntExpr;
 import com.microsoft.z3.InterpolationContext;
 import com.microsoft.z3.Model;
@@ -61,6 +62,8 @@ public class SpacerProver implements Prover {
 	
 	private HashMap<String, String> cfg = new HashMap<String, String>();
 	private Fixedpoint fx;
+	// the relations registered with fx, in the order of registration.
+	private final List<FuncDecl> relations = new LinkedList<FuncDecl>();
 
 	static class SpacerSolverThread implements Runnable {
 		private final Fixedpoint fx;
@@ -771,8 +774,14 @@ public class SpacerProver implements Prover {
 
 	@Override
 	public ProverResult stop() {
-		// TODO: what is this used for?
-		ProverResult res = getResult(false);
+		ProverResult res = ProverResult.Unknown;
+		if (future != null) {
+			res = getResult(false);
+		}
+		if (res == ProverResult.Running || res == ProverResult.Unknown) {
+			// also aborts queries that block in another thread.
+			this.ctx.interrupt();
+		}
 		killThread();
 		if (res == ProverResult.Running)
 			return ProverResult.Unknown;
@@ -1007,6 +1016,7 @@ public class SpacerProver implements Prover {
 		try {
 			SpacerFun fun = this.mkUnintFunction(this.replaceName(name), argTypes, this.getBooleanType());
 			this.fx.registerRelation(fun.getFun());
+			this.relations.add(fun.getFun());
 			return fun;
 		} catch (Z3Exception e) {
 			throw new RuntimeException(e.getMessage());
@@ -1102,6 +1112,52 @@ public class SpacerProver implements Prover {
 	}
 	
 	
+	/**
+	 * Creates a prover with its own Z3 context that has the relations
+	 * and rules of this prover. The copy can be queried on another
+	 * thread while this prover is used, but copies must not be created
+	 * concurrently, since that reads the context of this prover.
+	 * @return
+	 */
+	public SpacerProver copyRules() {
+		final SpacerProver copy = new SpacerProver();
+		try {
+			for (FuncDecl relation : this.relations) {
+				// FuncDecl.translate does not give a FuncDecl, so translate
+				// an application and take its declaration.
+				final Sort[] domain = relation.getDomain();
+				final Expr[] args = new Expr[domain.length];
+				for (int i = 0; i < domain.length; i++) {
+					args[i] = this.ctx.mkConst("x" + i, domain[i]);
+				}
+				final FuncDecl translated = this.ctx.mkApp(relation, args).translate(copy.ctx).getFuncDecl();
+				copy.fx.registerRelation(translated);
+				copy.relations.add(translated);
+			}
+			for (BoolExpr rule : this.fx.getRules()) {
+				copy.fx.addRule((BoolExpr) rule.translate(copy.ctx), null);
+			}
+		} catch (Z3Exception e) {
+			copy.shutdown();
+			throw new RuntimeException(e.getMessage());
+		}
+		return copy;
+	}
+
+	/**
+	 * Translates an expression of another SpacerProver, e.g., the one
+	 * this prover was copied from, into the context of this prover.
+	 * @param expr
+	 * @return
+	 */
+	public ProverExpr importExpr(ProverExpr expr) {
+		try {
+			return pack(unpack(expr).translate(this.ctx));
+		} catch (Z3Exception e) {
+			throw new RuntimeException(e.getMessage());
+		}
+	}
+
 	/**
 	 * Query Rechability
 	 */
@@ -0,0 +1,320 @@
+/**
+ *
+ */
+package jayhorn.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+import jayhorn.Main;
+
+/**
+ * Computes the fingerprints of the class files that a class depends on,
+ * i.e., the classes that are named in its constant pool, and so on. A
+ * class can only call, instantiate, extend, or access the fields of the
+ * classes that its constant pool names, so if none of the fingerprints
+ * of the closure from the main class has changed, neither has the
+ * program that is verified. Classes that are not part of the input, e.g.,
+ * library classes, are looked up on the class path and then with the
+ * class loader of JayHorn, but the classes that they depend on are not
+ * followed. Classes that are found nowhere get the fingerprint
+ * {@link #ABSENT}, so that adding such a class to the input is noticed
+ * as well.
+ */
+public class ClassDependencies {
+
+	public static final String ABSENT = "absent";
+
+	private static String codeFingerprint = null;
+
+	private final String input;
+	private final List<String> classpath = new ArrayList<String>();
+
+	/**
+	 * @param input
+	 *            the class folder or jar file given with -j.
+	 * @param classpath
+	 *            the class path given with -cp, or null.
+	 */
+	public ClassDependencies(String input, String classpath) {
+		this.input = input;
+		if (classpath != null) {
+			for (String entry : classpath.split(File.pathSeparator)) {
+				if (!entry.isEmpty()) {
+					this.classpath.add(entry);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the fingerprints of all classes that the main class depends
+	 * on, including the main class itself, by class name.
+	 * @param mainClass
+	 * @return
+	 * @throws IOException
+	 */
+	public Map<String, String> fingerprints(String mainClass) throws IOException {
+		final Map<String, String> res = new TreeMap<String, String>();
+		final LinkedList<String> todo = new LinkedList<String>();
+		todo.add(mainClass.replace('.', '/'));
+		ZipFile jar = null;
+		try {
+			if (Files.isRegularFile(Paths.get(input))) {
+				jar = new ZipFile(input);
+			}
+			while (!todo.isEmpty()) {
+				final String name = todo.removeFirst();
+				if (res.containsKey(name)) {
+					continue;
+				}
+				final byte[] bytes = read(jar, input, name);
+				if (bytes == null) {
+					res.put(name, libraryFingerprint(name));
+					continue;
+				}
+				res.put(name, Hashing.sha256().hashBytes(bytes).toString());
+				for (String referenced : referencedClasses(bytes)) {
+					if (!res.containsKey(referenced)) {
+						todo.add(referenced);
+					}
+				}
+			}
+		} finally {
+			if (jar != null) {
+				jar.close();
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Returns the fingerprint of a class that is not part of the input,
+	 * from the first class path entry that contains it, or else from the
+	 * class loader of JayHorn, which also has the built-in specs and the
+	 * classes of the JDK.
+	 * @param name
+	 * @return
+	 * @throws IOException
+	 */
+	private String libraryFingerprint(String name) throws IOException {
+		for (String entry : classpath) {
+			byte[] bytes = null;
+			if (Files.isRegularFile(Paths.get(entry))) {
+				try (ZipFile jar = new ZipFile(entry)) {
+					bytes = read(jar, entry, name);
+				}
+			} else {
+				bytes = read(null, entry, name);
+			}
+			if (bytes != null) {
+				return Hashing.sha256().hashBytes(bytes).toString();
+			}
+		}
+		final ClassLoader loader = ClassDependencies.class.getClassLoader();
+		try (InputStream in = loader.getResourceAsStream(name + ".class")) {
+			if (in != null) {
+				return Hashing.sha256().hashBytes(ByteStreams.toByteArray(in)).toString();
+			}
+		}
+		return ABSENT;
+	}
+
+	private static byte[] read(ZipFile jar, String dir, String name) throws IOException {
+		if (jar != null) {
+			final ZipEntry entry = jar.getEntry(name + ".class");
+			if (entry == null) {
+				return null;
+			}
+			try (InputStream in = jar.getInputStream(entry)) {
+				return ByteStreams.toByteArray(in);
+			}
+		}
+		final Path file = Paths.get(dir, name + ".class");
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+		return Files.readAllBytes(file);
+	}
+
+	/**
+	 * Returns a fingerprint of the code of JayHorn and soottocfg, i.e., the
+	 * version and the hash of the jar files or class folders that they are
+	 * loaded from, so that results of an older build are not reused.
+	 * @return
+	 */
+	public static synchronized String codeFingerprint() {
+		if (codeFingerprint == null) {
+			final Hasher hasher = Hashing.sha256().newHasher();
+			hasher.putUnencodedChars(String.valueOf(Main.getVersion()));
+			try {
+				for (Class<?> clazz : new Class<?>[] { Main.class, soottocfg.Options.class }) {
+					hashCodeSource(Paths.get(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()),
+							hasher);
+				}
+				codeFingerprint = hasher.hash().toString();
+			} catch (IOException | URISyntaxException | RuntimeException e) {
+				// a fingerprint that never matches.
+				return e.toString();
+			}
+		}
+		return codeFingerprint;
+	}
+
+	/**
+	 * Returns a fingerprint of the jar files and class folders on a class
+	 * path, so that a change in a class that the input only reaches through
+	 * another library class is noticed as well.
+	 * @param classpath
+	 *            the class path given with -cp, or null.
+	 * @return
+	 */
+	public static String classpathFingerprint(String classpath) {
+		final Hasher hasher = Hashing.sha256().newHasher();
+		for (String entry : new ClassDependencies(null, classpath).classpath) {
+			hasher.putUnencodedChars(entry);
+			final Path location = Paths.get(entry);
+			if (Files.exists(location)) {
+				try {
+					hashCodeSource(location, hasher);
+				} catch (IOException e) {
+					// a fingerprint that never matches.
+					return e.toString();
+				}
+			}
+		}
+		return hasher.hash().toString();
+	}
+
+	private static void hashCodeSource(final Path location, final Hasher hasher) throws IOException {
+		if (Files.isRegularFile(location)) {
+			hasher.putBytes(Files.readAllBytes(location));
+			return;
+		}
+		final Map<String, Path> files = new TreeMap<String, Path>();
+		Files.walkFileTree(location, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				files.put(location.relativize(file).toString(), file);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		for (Map.Entry<String, Path> entry : files.entrySet()) {
+			hasher.putUnencodedChars(entry.getKey());
+			hasher.putBytes(Files.readAllBytes(entry.getValue()));
+		}
+	}
+
+	/**
+	 * Returns the internal names of the classes named in the constant
+	 * pool of a class file, either directly or in the type descriptors
+	 * of the fields and methods that it references.
+	 * @param classFile
+	 * @return
+	 * @throws IOException
+	 */
+	public static Set<String> referencedClasses(byte[] classFile) throws IOException {
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+		if (in.readInt() != 0xCAFEBABE) {
+			throw new IOException("Not a class file.");
+		}
+		in.readUnsignedShort(); // minor version
+		in.readUnsignedShort(); // major version
+		final int count = in.readUnsignedShort();
+		final String[] utf8 = new String[count];
+		final Set<Integer> classNames = new HashSet<Integer>();
+		final Set<Integer> descriptors = new HashSet<Integer>();
+		for (int i = 1; i < count; i++) {
+			final int tag = in.readUnsignedByte();
+			switch (tag) {
+			case 1: // Utf8
+				utf8[i] = in.readUTF();
+				break;
+			case 7: // Class
+				classNames.add(in.readUnsignedShort());
+				break;
+			case 16: // MethodType
+				descriptors.add(in.readUnsignedShort());
+				break;
+			case 12: // NameAndType
+				in.readUnsignedShort();
+				descriptors.add(in.readUnsignedShort());
+				break;
+			case 3: // Integer
+			case 4: // Float
+			case 9: // Fieldref
+			case 10: // Methodref
+			case 11: // InterfaceMethodref
+			case 17: // Dynamic
+			case 18: // InvokeDynamic
+				in.readInt();
+				break;
+			case 5: // Long
+			case 6: // Double
+				in.readLong();
+				// takes two entries of the pool
+				i++;
+				break;
+			case 8: // String
+			case 19: // Module
+			case 20: // Package
+				in.readUnsignedShort();
+				break;
+			case 15: // MethodHandle
+				in.readUnsignedByte();
+				in.readUnsignedShort();
+				break;
+			default:
+				throw new IOException("Unknown constant pool tag " + tag);
+			}
+		}
+		final Set<String> res = new HashSet<String>();
+		for (int i : classNames) {
+			final String name = utf8[i];
+			if (name.startsWith("[")) {
+				addDescriptorClasses(name, res);
+			} else {
+				res.add(name);
+			}
+		}
+		for (int i : descriptors) {
+			addDescriptorClasses(utf8[i], res);
+		}
+		return res;
+	}
+
+	private static void addDescriptorClasses(String descriptor, Set<String> res) {
+		int start = descriptor.indexOf('L');
+		while (start >= 0) {
+			final int end = descriptor.indexOf(';', start);
+			if (end < 0) {
+				break;
+			}
+			res.add(descriptor.substring(start + 1, end));
+			start = descriptor.indexOf('L', end);
+		}
+	}
+}
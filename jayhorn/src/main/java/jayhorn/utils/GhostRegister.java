@@ -7,6 +7,7 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 
 import soottocfg.cfg.type.Type;
+import soottocfg.util.JobContext;
 
 /**
  * @author schaef
@@ -17,18 +18,17 @@ public class GhostRegister {
 	public final Map<String, Type> ghostVariableMap = new LinkedHashMap<String, Type>();
 
 	public static GhostRegister v() {
-		if (instance==null) {
-			instance = new GhostRegister();
+		GhostRegister instance = JobContext.current().get(GhostRegister.class);
+		if (null == instance) {
+			instance = JobContext.current().putIfAbsent(GhostRegister.class, new GhostRegister());
 		}
 		return instance;
 	}
 	
 	public static void reset() {
-		instance = null;
+		JobContext.current().remove(GhostRegister.class);
 	}
 	
-	private static GhostRegister instance = null;
-	
 	private GhostRegister() {
 	}
 
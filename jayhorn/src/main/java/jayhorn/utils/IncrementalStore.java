@@ -0,0 +1,239 @@
+/**
+ *
+ */
+package jayhorn.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.kohsuke.args4j.Option;
+
+import com.google.common.hash.Hashing;
+
+import jayhorn.Log;
+import jayhorn.Options;
+
+/**
+ * Keeps the verdict of the last run on an input together with the
+ * fingerprints of the classes that its main class depends on (see
+ * {@link ClassDependencies}). A later run with the same options can reuse
+ * the verdict without running Soot if none of these classes has changed.
+ * The entries are keyed by the hash of the input path, the options, the
+ * code of JayHorn, and the class path.
+ * <p>
+ * If a class has changed, the store also keeps the verdict of each
+ * assertion that EldaricaChecker checks on its own. Such a property entry
+ * is keyed by the hash of the backward cone of the assertion, i.e., the
+ * Horn clauses of all methods and heap invariants that the assertion
+ * depends on, so only the assertions whose cone has changed are solved
+ * again.
+ */
+public class IncrementalStore {
+
+	private static final String mainKey = "main";
+	private static final String resultKey = "result";
+	private static final String classPrefix = "class.";
+	private static final String propertyDir = "properties";
+
+	private final Path dir;
+	private final String input;
+	private final String classpath;
+
+	/**
+	 * @param dir
+	 *            the directory of the entries.
+	 * @param input
+	 *            the class folder or jar file given with -j.
+	 * @param classpath
+	 *            the class path given with -cp, or null.
+	 */
+	public IncrementalStore(Path dir, String input, String classpath) {
+		this.dir = dir;
+		this.input = input;
+		this.classpath = classpath;
+	}
+
+	/**
+	 * Returns the verdict of the last run, or null if there is none or if
+	 * one of the classes that the program depends on has changed since.
+	 * @return true if safe, false if unsafe, or null.
+	 */
+	public Boolean lookup() {
+		final Path file = entryFile();
+		if (!Files.isRegularFile(file)) {
+			Stats.stats().add("IncrementalHit", "false");
+			return null;
+		}
+		final Properties props = new Properties();
+		try (InputStream in = Files.newInputStream(file)) {
+			props.load(in);
+		} catch (IOException e) {
+			Log.error("Cannot read incremental entry " + file + ": " + e.toString());
+			Stats.stats().add("IncrementalHit", "false");
+			return null;
+		}
+		final String result = props.getProperty(resultKey);
+		final String mainClass = props.getProperty(mainKey);
+		Map<String, String> current = null;
+		if (mainClass != null) {
+			try {
+				current = new ClassDependencies(input, classpath).fingerprints(mainClass);
+			} catch (IOException e) {
+				Log.info("Cannot read the classes of " + input + ": " + e.toString());
+			}
+		}
+		if (current == null || !("SAFE".equals(result) || "UNSAFE".equals(result))
+				|| !current.equals(fingerprints(props))) {
+			Stats.stats().add("IncrementalHit", "false");
+			return null;
+		}
+		Stats.stats().add("IncrementalHit", "true");
+		Stats.stats().add("IncrementalClasses", String.valueOf(current.size()));
+		return "SAFE".equals(result);
+	}
+
+	/**
+	 * Stores the verdict of a run together with the fingerprints of the
+	 * classes that the main class depends on. The entry is written to a
+	 * temporary file first and then moved, so concurrent runs never see a
+	 * partial entry.
+	 * @param mainClass
+	 * @param safe
+	 */
+	public void store(String mainClass, boolean safe) {
+		final Properties props = new Properties();
+		props.setProperty(mainKey, mainClass);
+		props.setProperty(resultKey, safe ? "SAFE" : "UNSAFE");
+		final Path file = entryFile();
+		try {
+			for (Entry<String, String> entry : new ClassDependencies(input, classpath).fingerprints(mainClass).entrySet()) {
+				props.setProperty(classPrefix + entry.getKey(), entry.getValue());
+			}
+			Files.createDirectories(dir);
+			final Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+			try (OutputStream out = Files.newOutputStream(tmp)) {
+				props.store(out, "JayHorn incremental verification");
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Log.error("Cannot write incremental entry " + file + ": " + e.toString());
+		}
+	}
+
+	/**
+	 * Returns the verdict of a property whose cone had the given hash
+	 * (see ResultCache.hash) in an earlier run, or null if there is none.
+	 * @param coneHash
+	 * @return true if the assertion holds, false if it fails, or null.
+	 */
+	public Boolean lookupProperty(String coneHash) {
+		final Path file = propertyFile(coneHash);
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+		final Properties props = new Properties();
+		try (InputStream in = Files.newInputStream(file)) {
+			props.load(in);
+		} catch (IOException e) {
+			Log.error("Cannot read incremental entry " + file + ": " + e.toString());
+			return null;
+		}
+		final String result = props.getProperty(resultKey);
+		if (!"SAFE".equals(result) && !"UNSAFE".equals(result)) {
+			return null;
+		}
+		return "SAFE".equals(result);
+	}
+
+	/**
+	 * Stores the verdict of a property under the hash of its cone.
+	 * @param coneHash
+	 * @param safe
+	 */
+	public void storeProperty(String coneHash, boolean safe) {
+		final Properties props = new Properties();
+		props.setProperty(resultKey, safe ? "SAFE" : "UNSAFE");
+		final Path file = propertyFile(coneHash);
+		try {
+			Files.createDirectories(file.getParent());
+			final Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+			try (OutputStream out = Files.newOutputStream(tmp)) {
+				props.store(out, "JayHorn incremental verification");
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Log.error("Cannot write incremental entry " + file + ": " + e.toString());
+		}
+	}
+
+	private static Map<String, String> fingerprints(Properties props) {
+		final Map<String, String> res = new TreeMap<String, String>();
+		for (String key : props.stringPropertyNames()) {
+			if (key.startsWith(classPrefix)) {
+				res.put(key.substring(classPrefix.length()), props.getProperty(key));
+			}
+		}
+		return res;
+	}
+
+	private Path entryFile() {
+		final StringBuilder sb = new StringBuilder();
+		sb.append(Paths.get(input).toAbsolutePath().normalize());
+		sb.append('\n');
+		sb.append(optionsKey());
+		sb.append('\n');
+		sb.append(ClassDependencies.codeFingerprint());
+		sb.append('\n');
+		sb.append(ClassDependencies.classpathFingerprint(classpath));
+		return dir.resolve(Hashing.sha256().hashString(sb, StandardCharsets.UTF_8).toString() + ".incremental");
+	}
+
+	/**
+	 * The cone already fixes the encoding, so unlike the key of a whole
+	 * program, the key of a property leaves out the options.
+	 */
+	private Path propertyFile(String coneHash) {
+		final StringBuilder sb = new StringBuilder();
+		sb.append(coneHash);
+		sb.append('\n');
+		sb.append(ClassDependencies.codeFingerprint());
+		return dir.resolve(propertyDir)
+				.resolve(Hashing.sha256().hashString(sb, StandardCharsets.UTF_8).toString() + ".property");
+	}
+
+	/**
+	 * Returns the values of all command-line options, except the ones
+	 * that name the stores of earlier runs, because these do not change
+	 * the verdict.
+	 * @return
+	 */
+	public static String optionsKey() {
+		final Map<String, String> values = new TreeMap<String, String>();
+		for (Field field : Options.class.getDeclaredFields()) {
+			final Option option = field.getAnnotation(Option.class);
+			if (option == null || option.name().equals("-incremental") || option.name().equals("-cache-dir")
+					|| option.name().equals("-predicate-hints") || option.name().equals("-contract-summaries")
+					|| option.name().equals("-program-snapshot")) {
+				continue;
+			}
+			try {
+				field.setAccessible(true);
+				values.put(option.name(), String.valueOf(field.get(Options.v())));
+			} catch (IllegalAccessException e) {
+				values.put(option.name(), "?");
+			}
+		}
+		return values.toString();
+	}
+}
@@ -0,0 +1,95 @@
+/**
+ *
+ */
+package jayhorn.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+
+import jayhorn.Log;
+
+/**
+ * On-disk store of the solutions of Horn predicates, keyed by the name
+ * of the predicate. The solutions are kept as text in the format of the
+ * solver that found them, e.g., SMT-LIB. A solver can pass them back as
+ * hints when the same, or a slightly edited, program is verified again;
+ * predicates that no longer exist or have changed are simply not used.
+ */
+public class PredicateHintStore {
+
+	// the store is shared by all jobs of the JVM.
+	private static final Object lock = new Object();
+
+	private final Path file;
+
+	public PredicateHintStore(Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * Returns the stored solutions, or an empty map if there are none.
+	 * @return
+	 */
+	public Map<String, String> load() {
+		synchronized (lock) {
+			return read();
+		}
+	}
+
+	/**
+	 * Adds the solutions to the store. Solutions of predicates with the
+	 * same name are replaced. The file is written to a temporary file
+	 * first and then moved, so concurrent runs never see a partial store.
+	 * @param solutions
+	 */
+	public void update(Map<String, String> solutions) {
+		if (solutions.isEmpty()) {
+			return;
+		}
+		synchronized (lock) {
+			Map<String, String> merged = read();
+			merged.putAll(solutions);
+			Properties props = new Properties();
+			for (Entry<String, String> entry : merged.entrySet()) {
+				props.setProperty(entry.getKey(), entry.getValue());
+			}
+			try {
+				Path dir = file.toAbsolutePath().getParent();
+				Files.createDirectories(dir);
+				Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+				try (OutputStream out = Files.newOutputStream(tmp)) {
+					props.store(out, "JayHorn predicate hints");
+				}
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				Log.error("Cannot write predicate hints " + file + ": " + e.toString());
+			}
+		}
+	}
+
+	private Map<String, String> read() {
+		Map<String, String> res = new LinkedHashMap<String, String>();
+		if (!Files.isRegularFile(file)) {
+			return res;
+		}
+		Properties props = new Properties();
+		try (InputStream in = Files.newInputStream(file)) {
+			props.load(in);
+		} catch (IOException e) {
+			Log.error("Cannot read predicate hints " + file + ": " + e.toString());
+			return res;
+		}
+		for (String key : props.stringPropertyNames()) {
+			res.put(key, props.getProperty(key));
+		}
+		return res;
+	}
+}
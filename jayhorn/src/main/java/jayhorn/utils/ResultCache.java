@@ -0,0 +1,181 @@
+/**
+ *
+ */
+package jayhorn.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.hash.Hashing;
+
+import jayhorn.Log;
+import soottocfg.util.JobContext;
+
+/**
+ * Content-addressed on-disk cache of verification results. The key is
+ * the hash of the SMT-LIB text of the Horn clauses (see
+ * Hornify.hornToSMTLIB), so identical clause sets share one entry.
+ * Each entry is a properties file that stores the verdict, the solver
+ * time, and the solution returned by Prover.getLastSolution().
+ */
+public class ResultCache {
+
+	private static final String resultKey = "result";
+	private static final String timeKey = "solverMillis";
+	private static final String solutionPrefix = "solution.";
+
+	/**
+	 * Hit and miss counters of the current job, kept in its
+	 * {@link JobContext} so that -server jobs count separately.
+	 */
+	private static final class Counters {
+		final AtomicInteger hits = new AtomicInteger(0);
+		final AtomicInteger misses = new AtomicInteger(0);
+	}
+
+	private static Counters counters() {
+		Counters counters = JobContext.current().get(Counters.class);
+		if (null == counters) {
+			counters = JobContext.current().putIfAbsent(Counters.class, new Counters());
+		}
+		return counters;
+	}
+
+	public static class CachedResult {
+		public final boolean safe;
+		public final long solverMillis;
+		public final Map<String, String> solution;
+
+		public CachedResult(boolean safe, long solverMillis, Map<String, String> solution) {
+			this.safe = safe;
+			this.solverMillis = solverMillis;
+			this.solution = solution;
+		}
+	}
+
+	private final Path cacheDir;
+
+	public ResultCache(Path cacheDir) {
+		this.cacheDir = cacheDir;
+	}
+
+	/**
+	 * Hashes the lines of an SMT-LIB script together with the name of
+	 * the solver. Leading and trailing whitespace and empty lines are
+	 * ignored.
+	 * @param solver
+	 * @param smtlib
+	 * @return
+	 */
+	public static String hash(String solver, List<String> smtlib) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(solver);
+		sb.append('\n');
+		for (String line : smtlib) {
+			String normalized = line.trim();
+			if (!normalized.isEmpty()) {
+				sb.append(normalized);
+				sb.append('\n');
+			}
+		}
+		return Hashing.sha256().hashString(sb, StandardCharsets.UTF_8).toString();
+	}
+
+	/**
+	 * Returns the cached result for the given hash or null
+	 * if there is none.
+	 * @param hash
+	 * @return
+	 */
+	public CachedResult lookup(String hash) {
+		Path file = entryFile(hash);
+		if (!Files.isRegularFile(file)) {
+			counters().misses.incrementAndGet();
+			return null;
+		}
+		Properties props = new Properties();
+		try (InputStream in = Files.newInputStream(file)) {
+			props.load(in);
+		} catch (IOException e) {
+			Log.error("Cannot read cache entry " + file + ": " + e.toString());
+			counters().misses.incrementAndGet();
+			return null;
+		}
+		String result = props.getProperty(resultKey);
+		if (!"SAFE".equals(result) && !"UNSAFE".equals(result)) {
+			counters().misses.incrementAndGet();
+			return null;
+		}
+		Map<String, String> solution = new LinkedHashMap<String, String>();
+		for (String key : props.stringPropertyNames()) {
+			if (key.startsWith(solutionPrefix)) {
+				solution.put(key.substring(solutionPrefix.length()), props.getProperty(key));
+			}
+		}
+		long millis = Long.parseLong(props.getProperty(timeKey, "0"));
+		counters().hits.incrementAndGet();
+		return new CachedResult("SAFE".equals(result), millis, solution);
+	}
+
+	/**
+	 * Stores a definitive result. The entry is written to a temporary
+	 * file first and then moved, so concurrent runs never see a partial
+	 * entry.
+	 * @param hash
+	 * @param safe
+	 * @param solverMillis
+	 * @param solution
+	 */
+	public void store(String hash, boolean safe, long solverMillis, Map<String, String> solution) {
+		Properties props = new Properties();
+		props.setProperty(resultKey, safe ? "SAFE" : "UNSAFE");
+		props.setProperty(timeKey, String.valueOf(solverMillis));
+		if (solution != null) {
+			for (Entry<String, String> entry : solution.entrySet()) {
+				props.setProperty(solutionPrefix + entry.getKey(), entry.getValue());
+			}
+		}
+		Path file = entryFile(hash);
+		try {
+			Files.createDirectories(cacheDir);
+			Path tmp = Files.createTempFile(cacheDir, hash, ".tmp");
+			try (OutputStream out = Files.newOutputStream(tmp)) {
+				props.store(out, "JayHorn verification result");
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Log.error("Cannot write cache entry " + file + ": " + e.toString());
+		}
+	}
+
+	private Path entryFile(String hash) {
+		return cacheDir.resolve(hash + ".result");
+	}
+
+	public static int getHits() {
+		return counters().hits.get();
+	}
+
+	public static int getMisses() {
+		return counters().misses.get();
+	}
+
+	/**
+	 * Adds the hit and miss counters to the stats.
+	 */
+	public static void addStats() {
+		Stats.stats().add("ResultCacheHits", String.valueOf(getHits()));
+		Stats.stats().add("ResultCacheMisses", String.valueOf(getMisses()));
+	}
+}
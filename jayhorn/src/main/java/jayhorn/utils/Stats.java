@@ -1,49 +1,251 @@
 package jayhorn.utils;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
 
+import jayhorn.Log;
+import soottocfg.util.JobContext;
+import soottocfg.util.PhaseTimer;
+import soottocfg.util.PhaseTimer.Phase;
 
+/**
+ * Statistics of a run. Besides the flat key/value pairs that are printed
+ * with the BRUNCH_STAT prefix, this exposes the phase tree of
+ * {@link PhaseTimer} (time, allocation, heap high-water mark, and
+ * counters per phase). Both can be exported as JSON or CSV.
+ */
 public class Stats {
-	
+
 	final static String tag = "BRUNCH_STAT ";
-	
-	private static Stats stats;
+
 
 	public static void resetInstance() {
-		stats = null;	
+		JobContext.current().remove(Stats.class);
+		PhaseTimer.resetInstance();
 	}
-	
+
 	private Map<String, String> statsMap = new LinkedHashMap<String, String>();
-	
+
 
 	public static Stats stats() {
+		Stats stats = JobContext.current().get(Stats.class);
 		if (null == stats) {
-			stats = new Stats();
+			stats = JobContext.current().putIfAbsent(Stats.class, new Stats());
 		}
 		return stats;
 	}
-	
-	public void add(String Key, String Val) {
+
+	public synchronized void add(String Key, String Val) {
 		statsMap.put(Key, Val);
 	}
-	
+
+	/**
+	 * Returns the phase timer that collects the hierarchical
+	 * statistics of this run.
+	 * @return
+	 */
+	public PhaseTimer phases() {
+		return PhaseTimer.v();
+	}
+
 	private Stats(){}
-	
+
 	public void printStats(){
-		System.out.println(this.toString());
+		JobContext.current().out().println(this.toString());
 	}
-	
-	@Override 
-	public String toString() {
+
+	@Override
+	public synchronized String toString() {
 		StringBuilder sb = new StringBuilder();
 		for (Entry<String, String> entry: statsMap.entrySet()){
 			sb.append(tag + entry.getKey() + " " + entry.getValue());
 			sb.append("\n");
-		}	
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the JSON and CSV files requested in the options, if any.
+	 */
+	public void exportStats() {
+		String json = jayhorn.Options.v().getStatsJson();
+		if (json != null) {
+			writeFile(Paths.get(json), Collections.singletonList(toJson()));
+		}
+		String csv = jayhorn.Options.v().getStatsCsv();
+		if (csv != null) {
+			writeFile(Paths.get(csv), toCsv());
+		}
+	}
+
+	/**
+	 * Returns the statistics as a JSON object with the members "stats"
+	 * (the flat key/value pairs), "counters" (counters that were
+	 * reported outside of any phase), and "phases" (the phase tree).
+	 * @return
+	 */
+	public synchronized String toJson() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\n  \"stats\": {");
+		String sep = "";
+		for (Entry<String, String> entry : statsMap.entrySet()) {
+			sb.append(sep).append("\n    ");
+			sb.append(jsonString(entry.getKey())).append(": ").append(jsonString(entry.getValue()));
+			sep = ",";
+		}
+		sb.append("\n  },\n  \"counters\": ");
+		Phase root = phases().getRoot();
+		appendCounters(sb, root.getCounters());
+		sb.append(",\n  \"heapPeakBytes\": ").append(phases().heapPeakBytes());
+		sb.append(",\n  \"phases\": ");
+		appendPhases(sb, root.getChildren(), "  ");
+		sb.append("\n}");
+		return sb.toString();
+	}
+
+	private static void appendPhases(StringBuilder sb, List<Phase> phases, String indent) {
+		sb.append("[");
+		String sep = "";
+		for (Phase p : phases) {
+			String inner = indent + "    ";
+			sb.append(sep).append("\n").append(indent).append("  {\n");
+			sb.append(inner).append("\"name\": ").append(jsonString(p.getName())).append(",\n");
+			sb.append(inner).append("\"invocations\": ").append(p.getInvocations()).append(",\n");
+			sb.append(inner).append("\"millis\": ").append(TimeUnit.NANOSECONDS.toMillis(p.getNanos())).append(",\n");
+			sb.append(inner).append("\"allocatedBytes\": ").append(p.getAllocatedBytes()).append(",\n");
+			sb.append(inner).append("\"allocationRateMBps\": ").append(formatRate(p.getAllocationRate())).append(",\n");
+			sb.append(inner).append("\"heapPeakBytes\": ").append(p.getHeapPeakBytes()).append(",\n");
+			sb.append(inner).append("\"counters\": ");
+			appendCounters(sb, p.getCounters());
+			sb.append(",\n").append(inner).append("\"children\": ");
+			appendPhases(sb, p.getChildren(), inner);
+			sb.append("\n").append(indent).append("  }");
+			sep = ",";
+		}
+		if (!phases.isEmpty()) {
+			sb.append("\n").append(indent);
+		}
+		sb.append("]");
+	}
+
+	private static void appendCounters(StringBuilder sb, Map<String, Long> counters) {
+		sb.append("{");
+		String sep = "";
+		for (Entry<String, Long> entry : counters.entrySet()) {
+			sb.append(sep).append(jsonString(entry.getKey())).append(": ").append(entry.getValue());
+			sep = ", ";
+		}
+		sb.append("}");
+	}
+
+	private static String jsonString(String s) {
+		StringBuilder sb = new StringBuilder("\"");
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					sb.append(String.format("\\u%04x", (int) c));
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	/**
+	 * Returns the statistics as CSV lines in long format with the
+	 * columns kind, name, key, and value. Flat stats have the kind
+	 * "stat", phases the kind "phase" and their path as name, and
+	 * counters the kind "counter" and the path of their phase as name
+	 * (empty for counters outside of any phase).
+	 * @return
+	 */
+	public synchronized List<String> toCsv() {
+		List<String> lines = new LinkedList<String>();
+		lines.add("kind,name,key,value");
+		for (Entry<String, String> entry : statsMap.entrySet()) {
+			lines.add(csvLine("stat", entry.getKey(), "value", entry.getValue()));
+		}
+		lines.add(csvLine("stat", "", "heapPeakBytes", String.valueOf(phases().heapPeakBytes())));
+		appendCsv(lines, phases().getRoot());
+		return lines;
+	}
+
+	private static void appendCsv(List<String> lines, Phase phase) {
+		String path = phase.getPath();
+		if (phase.getParent() != null) {
+			lines.add(csvLine("phase", path, "invocations", String.valueOf(phase.getInvocations())));
+			lines.add(csvLine("phase", path, "millis",
+					String.valueOf(TimeUnit.NANOSECONDS.toMillis(phase.getNanos()))));
+			lines.add(csvLine("phase", path, "allocatedBytes", String.valueOf(phase.getAllocatedBytes())));
+			lines.add(csvLine("phase", path, "allocationRateMBps", formatRate(phase.getAllocationRate())));
+			lines.add(csvLine("phase", path, "heapPeakBytes", String.valueOf(phase.getHeapPeakBytes())));
+		}
+		for (Entry<String, Long> entry : phase.getCounters().entrySet()) {
+			lines.add(csvLine("counter", path, entry.getKey(), String.valueOf(entry.getValue())));
+		}
+		for (Phase child : phase.getChildren()) {
+			appendCsv(lines, child);
+		}
+	}
+
+	private static String csvLine(String... cells) {
+		StringBuilder sb = new StringBuilder();
+		String sep = "";
+		for (String cell : cells) {
+			sb.append(sep);
+			if (cell.indexOf(',') >= 0 || cell.indexOf('"') >= 0 || cell.indexOf('\n') >= 0) {
+				sb.append('"').append(cell.replace("\"", "\"\"")).append('"');
+			} else {
+				sb.append(cell);
+			}
+			sep = ",";
+		}
 		return sb.toString();
 	}
-	
+
+	private static String formatRate(double rate) {
+		return String.format(Locale.ROOT, "%.2f", rate);
+	}
+
+	private static void writeFile(Path file, List<String> lines) {
+		try {
+			Path parent = file.toAbsolutePath().getParent();
+			if (parent != null) {
+				Files.createDirectories(parent);
+			}
+			Files.write(file, lines, StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			Log.error("Cannot write stats to " + file + ": " + e.toString());
+		}
+	}
 
 }
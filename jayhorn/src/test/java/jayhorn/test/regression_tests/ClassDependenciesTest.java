@@ -0,0 +1,138 @@
+/**
+ *
+ */
+package jayhorn.test.regression_tests;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+import jayhorn.test.Util;
+import jayhorn.utils.ClassDependencies;
+import jayhorn.utils.IncrementalStore;
+
+public class ClassDependenciesTest {
+
+	@Test
+	public void testReferencedClasses() throws Exception {
+		byte[] bytes;
+		try (InputStream in = ClassDependencies.class.getResourceAsStream("ClassDependencies.class")) {
+			bytes = ByteStreams.toByteArray(in);
+		}
+		Set<String> referenced = ClassDependencies.referencedClasses(bytes);
+		Assert.assertTrue(referenced.contains("com/google/common/hash/Hashing"));
+		Assert.assertTrue(referenced.contains("java/util/zip/ZipFile"));
+		// only named in the descriptor of a method
+		Assert.assertTrue(referenced.contains("java/util/Set"));
+	}
+
+	@Test
+	public void testFingerprints() throws Exception {
+		String input = Paths.get(ClassDependencies.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+				.toString();
+		Map<String, String> fingerprints = new ClassDependencies(input, null).fingerprints(ClassDependencies.class.getName());
+		Assert.assertNotEquals(ClassDependencies.ABSENT, fingerprints.get("jayhorn/utils/ClassDependencies"));
+		// library classes are fingerprinted, but not followed.
+		Assert.assertNotEquals(ClassDependencies.ABSENT, fingerprints.get("java/util/zip/ZipFile"));
+		Set<String> reached = new HashSet<String>();
+		for (String name : fingerprints.keySet()) {
+			Path file = Paths.get(input, name + ".class");
+			if (Files.isRegularFile(file)) {
+				reached.add(name);
+				reached.addAll(ClassDependencies.referencedClasses(Files.readAllBytes(file)));
+			}
+		}
+		Assert.assertEquals(reached, fingerprints.keySet());
+		Assert.assertEquals(fingerprints, new ClassDependencies(input, null).fingerprints(ClassDependencies.class.getName()));
+	}
+
+	@Test
+	public void testChangedDependencyInvalidatesEntry() throws Exception {
+		Path input = Files.createTempDirectory("jayhorn_input");
+		input.toFile().deleteOnExit();
+		Path store = Files.createTempDirectory("jayhorn_incremental");
+		store.toFile().deleteOnExit();
+		compileInto(input, 1);
+		IncrementalStore incremental = new IncrementalStore(store, input.toString(), null);
+		Assert.assertNull(incremental.lookup());
+		incremental.store("Entry", true);
+		Assert.assertEquals(Boolean.TRUE, incremental.lookup());
+
+		// the main class is the same, but the class that it calls is not.
+		byte[] entry = Files.readAllBytes(input.resolve("Entry.class"));
+		compileInto(input, 2);
+		Assert.assertArrayEquals(entry, Files.readAllBytes(input.resolve("Entry.class")));
+		Assert.assertNull(incremental.lookup());
+	}
+
+	@Test
+	public void testChangedClasspathInvalidatesEntry() throws Exception {
+		Path input = Files.createTempDirectory("jayhorn_input");
+		input.toFile().deleteOnExit();
+		Path library = Files.createTempDirectory("jayhorn_library");
+		library.toFile().deleteOnExit();
+		Path store = Files.createTempDirectory("jayhorn_incremental");
+		store.toFile().deleteOnExit();
+		compileInto(input, 1);
+		// move the callee to the class path.
+		Files.move(input.resolve("Dependency.class"), library.resolve("Dependency.class"));
+		IncrementalStore incremental = new IncrementalStore(store, input.toString(), library.toString());
+		incremental.store("Entry", true);
+		Assert.assertEquals(Boolean.TRUE, incremental.lookup());
+
+		compileInto(library, 2);
+		Files.delete(library.resolve("Entry.class"));
+		Assert.assertNull(incremental.lookup());
+	}
+
+	@Test
+	public void testPropertyEntries() throws Exception {
+		Path store = Files.createTempDirectory("jayhorn_incremental");
+		store.toFile().deleteOnExit();
+		IncrementalStore incremental = new IncrementalStore(store, store.toString(), null);
+		Assert.assertNull(incremental.lookupProperty("cone1"));
+		incremental.storeProperty("cone1", true);
+		incremental.storeProperty("cone2", false);
+		Assert.assertEquals(Boolean.TRUE, incremental.lookupProperty("cone1"));
+		Assert.assertEquals(Boolean.FALSE, incremental.lookupProperty("cone2"));
+		Assert.assertNull(incremental.lookupProperty("cone3"));
+		// the verdicts of properties are not the verdict of the program.
+		Assert.assertNull(incremental.lookup());
+	}
+
+	/**
+	 * Compiles a main class Entry that calls a class Dependency, whose
+	 * body depends on the version, and copies the class files into dir.
+	 */
+	private static void compileInto(Path dir, int version) throws Exception {
+		File source = new File(Files.createTempDirectory("jayhorn_src").toFile(), "Entry.java");
+		source.getParentFile().deleteOnExit();
+		source.deleteOnExit();
+		try (PrintWriter out = new PrintWriter(source, StandardCharsets.UTF_8.name())) {
+			out.println("public class Entry {");
+			out.println("  public static void main(String[] args) { assert Dependency.get() == 1; }");
+			out.println("}");
+			out.println("class Dependency {");
+			out.println("  static int get() { return " + version + "; }");
+			out.println("}");
+		}
+		File classDir = Util.compileJavaFile(source);
+		Assert.assertNotNull(classDir);
+		for (String name : new String[] { "Entry.class", "Dependency.class" }) {
+			Files.copy(new File(classDir, name).toPath(), dir.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
@@ -5,6 +5,7 @@ package jayhorn.test.regression_tests;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
@@ -15,11 +16,13 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 
 import jayhorn.checker.EldaricaChecker;
+import jayhorn.checker.PortfolioChecker;
 import jayhorn.checker.SpacerChecker;
 import jayhorn.solver.ProverFactory;
 import jayhorn.solver.princess.PrincessProverFactory;
 import jayhorn.solver.spacer.SpacerProverFactory;
 import jayhorn.test.Util;
+import jayhorn.utils.IncrementalStore;
 import scala.actors.threadpool.Arrays;
 import soottocfg.cfg.Program;
 import soottocfg.soot.SootToCfg;
@@ -97,6 +100,178 @@ public class HornRegressionTest {
 		}
 	}
 	
+	@Test
+	public void testWithSplitProperties() {
+		PrincessProverFactory factory = new PrincessProverFactory();
+		Program program = getCFG(factory);
+		if (program != null){
+			jayhorn.Options.v().setSplitProperties(true);
+			try {
+				EldaricaChecker eldarica = new EldaricaChecker(factory);
+				boolean result = eldarica.checkProgram(program);
+				boolean expected = this.sourceFile.getName().startsWith("Sat");
+				Assert.assertTrue("For "+this.sourceFile.getName()+": expected "+expected + " but got "+result, expected==result);
+			} finally {
+				jayhorn.Options.v().setSplitProperties(false);
+			}
+		} else {
+			Assert.fail();
+		}
+	}
+
+	@Test
+	public void testWithIncrementalProperties() throws IOException {
+		File store = Files.createTempDirectory("jayhorn_incremental").toFile();
+		store.deleteOnExit();
+		boolean expected = this.sourceFile.getName().startsWith("Sat");
+		// the second run reuses the verdicts of the properties of the first.
+		for (int run = 0; run < 2; run++) {
+			PrincessProverFactory factory = new PrincessProverFactory();
+			Program program = getCFG(factory);
+			if (program == null) {
+				Assert.fail();
+			}
+			EldaricaChecker eldarica = new EldaricaChecker(factory);
+			eldarica.setIncrementalStore(new IncrementalStore(store.toPath(), this.sourceFile.getPath(), null));
+			boolean result = eldarica.checkProgram(program);
+			Assert.assertTrue("For "+this.sourceFile.getName()+" in run "+run+": expected "+expected + " but got "+result, expected==result);
+		}
+	}
+
+	@Test
+	public void testWithPredicateHints() throws IOException {
+		File hints = new File(Files.createTempDirectory("jayhorn_hints").toFile(), "hints");
+		hints.deleteOnExit();
+		jayhorn.Options.v().setPredicateHints(hints.getAbsolutePath());
+		try {
+			boolean expected = this.sourceFile.getName().startsWith("Sat");
+			boolean first = eldaricaVerdict();
+			Assert.assertTrue("For "+this.sourceFile.getName()+": expected "+expected + " but got "+first, expected==first);
+			if (expected) {
+				Assert.assertTrue("No hints stored for "+this.sourceFile.getName(), hints.isFile());
+			}
+			// the second run starts from the hints stored by the first one.
+			boolean second = eldaricaVerdict();
+			Assert.assertEquals("For "+this.sourceFile.getName()+" with hints", first, second);
+		} finally {
+			jayhorn.Options.v().setPredicateHints(null);
+		}
+	}
+
+	@Test
+	public void testWithContractSummaries() throws IOException {
+		File summaries = new File(Files.createTempDirectory("jayhorn_summaries").toFile(), "summaries");
+		summaries.deleteOnExit();
+		jayhorn.Options.v().setContractSummaries(summaries.getAbsolutePath());
+		// the simplification must keep the method contracts.
+		jayhorn.Options.v().setSimplifyHorn(true);
+		try {
+			boolean expected = this.sourceFile.getName().startsWith("Sat");
+			boolean first = eldaricaVerdict();
+			Assert.assertTrue("For "+this.sourceFile.getName()+": expected "+expected + " but got "+first, expected==first);
+			if (expected) {
+				Assert.assertTrue("No summaries stored for "+this.sourceFile.getName(), summaries.isFile());
+			}
+			// the second run starts from the summaries stored by the first one.
+			boolean second = eldaricaVerdict();
+			Assert.assertEquals("For "+this.sourceFile.getName()+" with summaries", first, second);
+		} finally {
+			jayhorn.Options.v().setContractSummaries(null);
+			jayhorn.Options.v().setSimplifyHorn(false);
+		}
+	}
+
+	private boolean eldaricaVerdict() {
+		PrincessProverFactory factory = new PrincessProverFactory();
+		Program program = getCFG(factory);
+		if (program == null) {
+			Assert.fail();
+		}
+		return new EldaricaChecker(factory).checkProgram(program);
+	}
+
+	@Test
+	public void testWithSpacerPropertyThreads() {
+		// checking the properties in parallel must give the same verdict
+		// as checking them one after the other.
+		boolean expected = this.sourceFile.getName().startsWith("Sat");
+		for (int threads : new int[] { 1, 4 }) {
+			boolean result = spacerVerdict(threads);
+			Assert.assertTrue("For "+this.sourceFile.getName()+" with "+threads+" threads: expected "+expected + " but got "+result, expected==result);
+		}
+	}
+
+	private boolean spacerVerdict(int threads) {
+		SpacerProverFactory factory = new SpacerProverFactory();
+		Program program = getCFG(factory);
+		if (program == null) {
+			Assert.fail();
+		}
+		jayhorn.Options.v().setPropertyThreads(threads);
+		try {
+			SpacerChecker spacer = new SpacerChecker(factory);
+			return spacer.checkProgram(program);
+		} finally {
+			jayhorn.Options.v().setPropertyThreads(1);
+		}
+	}
+
+	@Test
+	public void testWithPortfolio() {
+		PrincessProverFactory factory = new PrincessProverFactory();
+		Program program = getCFG(factory);
+		if (program != null){
+			PortfolioChecker portfolio = new PortfolioChecker(factory, new SpacerProverFactory());
+			boolean result = portfolio.checkProgram(program);
+			boolean expected = this.sourceFile.getName().startsWith("Sat");
+			Assert.assertTrue("For "+this.sourceFile.getName()+": expected "+expected + " but got "+result, expected==result);
+		} else {
+			Assert.fail();
+		}
+	}
+
+	@Test
+	public void testWithParallelEldarica() {
+		PrincessProverFactory factory = new PrincessProverFactory();
+		Program program = getCFG(factory);
+		if (program != null){
+			jayhorn.Options.v().setSolverOptions("parallel");
+			try {
+				EldaricaChecker eldarica = new EldaricaChecker(factory);
+				boolean result = eldarica.checkProgram(program);
+				boolean expected = this.sourceFile.getName().startsWith("Sat");
+				Assert.assertTrue("For "+this.sourceFile.getName()+": expected "+expected + " but got "+result, expected==result);
+			} finally {
+				jayhorn.Options.v().setSolverOptions("");
+			}
+			// the runs that lost the race must not keep the JVM alive
+			for (Thread t : Thread.getAllStackTraces().keySet()) {
+				Assert.assertFalse("Eldarica thread is not a daemon", t.getName().equals("eldarica") && !t.isDaemon());
+			}
+		} else {
+			Assert.fail();
+		}
+	}
+
+	@Test
+	public void testWithLargeBlocks() {
+		PrincessProverFactory factory = new PrincessProverFactory();
+		Program program = getCFG(factory);
+		if (program != null){
+			jayhorn.Options.v().setLargeBlocks(true);
+			try {
+				EldaricaChecker eldarica = new EldaricaChecker(factory);
+				boolean result = eldarica.checkProgram(program);
+				boolean expected = this.sourceFile.getName().startsWith("Sat");
+				Assert.assertTrue("For "+this.sourceFile.getName()+": expected "+expected + " but got "+result, expected==result);
+			} finally {
+				jayhorn.Options.v().setLargeBlocks(false);
+			}
+		} else {
+			Assert.fail();
+		}
+	}
+
 	protected Program getCFG(ProverFactory factory) {
 		jayhorn.Options.v().setTimeout(60);
 		System.out.println("\nRunning test " + this.sourceFile.getName() + " with "+factory.getClass()+"\n");
@@ -0,0 +1,140 @@
+/**
+ *
+ */
+package jayhorn.test.regression_tests;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import jayhorn.hornify.HornSimplifier;
+import jayhorn.hornify.Hornify;
+import jayhorn.solver.Prover;
+import jayhorn.solver.ProverExpr;
+import jayhorn.solver.ProverFun;
+import jayhorn.solver.ProverHornClause;
+import jayhorn.solver.ProverResult;
+import jayhorn.solver.ProverType;
+import jayhorn.solver.princess.PrincessProverFactory;
+import jayhorn.solver.spacer.SpacerHornExpr;
+import jayhorn.utils.Stats;
+import soottocfg.util.PhaseTimer;
+import soottocfg.util.PhaseTimer.Phase;
+
+public class HornSimplifierTest {
+
+	@After
+	public void tearDown() {
+		Stats.resetInstance();
+	}
+
+	/**
+	 * init(0). loop(x) :- init(x). loop(x+1) :- loop(x), x < 10.
+	 * false :- loop(x), x < 0. plus clauses that cannot be derived
+	 * (dead) or do not lead to false (other).
+	 * @param p
+	 * @param unsafe
+	 *            if true, the fact init(-1) is added.
+	 * @return
+	 */
+	private List<ProverHornClause> mkClauses(Prover p, boolean unsafe) {
+		final ProverType[] intArg = new ProverType[] { p.getIntType() };
+		final ProverFun init = p.mkHornPredicate("init", intArg);
+		final ProverFun loop = p.mkHornPredicate("loop", new ProverType[] { p.getIntType(), p.getIntType() });
+		final ProverFun dead = p.mkHornPredicate("dead", intArg);
+		final ProverFun other = p.mkHornPredicate("other", intArg);
+		final ProverExpr x = p.mkHornVariable("x", p.getIntType());
+		final ProverExpr y = p.mkHornVariable("y", p.getIntType());
+		final ProverExpr z = p.mkHornVariable("z", p.getIntType());
+		final ProverExpr[] none = new ProverExpr[0];
+
+		List<ProverHornClause> clauses = new LinkedList<ProverHornClause>();
+		clauses.add(p.mkHornClause(init.mkExpr(new ProverExpr[] { p.mkLiteral(0) }), none, p.mkLiteral(true)));
+		if (unsafe) {
+			clauses.add(p.mkHornClause(init.mkExpr(new ProverExpr[] { p.mkLiteral(-1) }), none, p.mkLiteral(true)));
+		}
+		// the second argument of loop is never looked at.
+		clauses.add(p.mkHornClause(loop.mkExpr(new ProverExpr[] { x, y }),
+				new ProverExpr[] { init.mkExpr(new ProverExpr[] { x }) }, p.mkLiteral(true)));
+		clauses.add(p.mkHornClause(loop.mkExpr(new ProverExpr[] { p.mkPlus(x, p.mkLiteral(1)), x }),
+				new ProverExpr[] { loop.mkExpr(new ProverExpr[] { x, y }) }, p.mkLt(x, p.mkLiteral(10))));
+		// the same clause with other variable names.
+		clauses.add(p.mkHornClause(loop.mkExpr(new ProverExpr[] { p.mkPlus(z, p.mkLiteral(1)), z }),
+				new ProverExpr[] { loop.mkExpr(new ProverExpr[] { z, y }) }, p.mkLt(z, p.mkLiteral(10))));
+		clauses.add(p.mkHornClause(p.mkLiteral(false), new ProverExpr[] { loop.mkExpr(new ProverExpr[] { x, y }) },
+				p.mkLt(x, p.mkLiteral(0))));
+		clauses.add(p.mkHornClause(dead.mkExpr(new ProverExpr[] { x }),
+				new ProverExpr[] { dead.mkExpr(new ProverExpr[] { x }) }, p.mkLiteral(true)));
+		clauses.add(p.mkHornClause(p.mkLiteral(false), new ProverExpr[] { dead.mkExpr(new ProverExpr[] { x }) },
+				p.mkLiteral(true)));
+		clauses.add(p.mkHornClause(other.mkExpr(new ProverExpr[] { x }),
+				new ProverExpr[] { loop.mkExpr(new ProverExpr[] { x, y }) }, p.mkLiteral(true)));
+		return clauses;
+	}
+
+	private ProverResult check(Prover p, List<ProverHornClause> clauses) {
+		p.push();
+		for (ProverHornClause clause : clauses) {
+			p.addAssertion(clause);
+		}
+		ProverResult result = p.checkSat(true);
+		p.pop();
+		return result;
+	}
+
+	@Test
+	public void testSimplify() {
+		Stats.resetInstance();
+		Prover p = new PrincessProverFactory().spawn();
+		p.setHornLogic(true);
+		try {
+			for (boolean unsafe : new boolean[] { false, true }) {
+				List<ProverHornClause> clauses = mkClauses(p, unsafe);
+				List<ProverHornClause> simplified = new HornSimplifier(p, Collections.<ProverFun> emptyList())
+						.simplify(clauses);
+				// dead, other, and the duplicate are gone, and init is inlined
+				// unless it has two definitions.
+				Assert.assertEquals(unsafe ? 5 : 3, simplified.size());
+				for (ProverHornClause clause : simplified) {
+					for (int i = 0; i < clause.getArity(); i++) {
+						Assert.assertEquals(1, clause.getBodyArgs(i).length);
+					}
+				}
+				Assert.assertEquals(String.valueOf(clauses.size()), statValue("HornClausesBefore"));
+				Assert.assertEquals(String.valueOf(simplified.size()), statValue("HornClausesAfter"));
+				ProverResult expected = unsafe ? ProverResult.Unsat : ProverResult.Sat;
+				Assert.assertEquals(expected, check(p, clauses));
+				Assert.assertEquals(expected, check(p, simplified));
+			}
+		} finally {
+			p.shutdown();
+		}
+	}
+
+	@Test
+	public void testCountClausesThatCannotBeTakenApart() {
+		// Spacer clauses do not give access to their predicates.
+		List<ProverHornClause> clauses = Collections
+				.<ProverHornClause> singletonList(new SpacerHornExpr(null, new ProverExpr[0], null));
+		PhaseTimer.resetInstance();
+		final Phase phase = PhaseTimer.v().start("Hornify");
+		Hornify.countClauses(clauses);
+		phase.stop();
+		Assert.assertEquals(Long.valueOf(1), phase.getCounters().get("clauses"));
+		Assert.assertFalse(phase.getCounters().containsKey("predicates"));
+	}
+
+	private static String statValue(String key) {
+		for (String line : Stats.stats().toString().split("\n")) {
+			String[] parts = line.split(" ");
+			if (parts.length == 3 && parts[1].equals(key)) {
+				return parts[2];
+			}
+		}
+		return null;
+	}
+}
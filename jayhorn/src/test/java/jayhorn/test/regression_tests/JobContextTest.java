@@ -0,0 +1,65 @@
+/**
+ *
+ */
+package jayhorn.test.regression_tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import jayhorn.utils.Stats;
+import soottocfg.util.JobContext;
+import soottocfg.util.PhaseTimer;
+
+public class JobContextTest {
+
+	@Test
+	public void testSingletonsAreIsolated() {
+		jayhorn.Options defaultOptions = jayhorn.Options.v();
+		soot.G defaultGlobals = soot.G.v();
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		JobContext previous = new JobContext(new PrintStream(buffer, true)).bind();
+		try {
+			Assert.assertNotSame(defaultOptions, jayhorn.Options.v());
+			Assert.assertNotSame(defaultGlobals, soot.G.v());
+			jayhorn.Options.v().setTimeout(42);
+			Stats.stats().add("Result", "SAFE");
+			Stats.stats().printStats();
+		} finally {
+			JobContext.restore(previous);
+		}
+		Assert.assertSame(defaultOptions, jayhorn.Options.v());
+		Assert.assertSame(defaultGlobals, soot.G.v());
+		Assert.assertNotEquals(42, jayhorn.Options.v().getTimeout());
+		Assert.assertTrue(buffer.toString().contains("Result SAFE"));
+	}
+
+	@Test
+	public void testThreadsInheritContext() throws InterruptedException {
+		final JobContext context = new JobContext(System.out);
+		JobContext previous = context.bind();
+		final PhaseTimer timer = PhaseTimer.v();
+		final AtomicReference<JobContext> seen = new AtomicReference<JobContext>();
+		final AtomicReference<PhaseTimer> seenTimer = new AtomicReference<PhaseTimer>();
+		try {
+			Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					seen.set(JobContext.current());
+					seenTimer.set(PhaseTimer.v());
+				}
+			});
+			worker.start();
+			worker.join();
+		} finally {
+			JobContext.restore(previous);
+		}
+		Assert.assertSame(context, seen.get());
+		Assert.assertSame(timer, seenTimer.get());
+		Assert.assertNotSame(timer, PhaseTimer.v());
+	}
+}
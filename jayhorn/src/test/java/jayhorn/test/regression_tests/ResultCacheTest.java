@@ -0,0 +1,72 @@
+/**
+ * 
+ */
+package jayhorn.test.regression_tests;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import jayhorn.utils.ResultCache;
+import soottocfg.util.JobContext;
+
+public class ResultCacheTest {
+
+	@Test
+	public void testStoreAndLookup() throws Exception {
+		File dir = Files.createTempDirectory("jayhorn_cache").toFile();
+		dir.deleteOnExit();
+		ResultCache cache = new ResultCache(dir.toPath());
+
+		String hash = ResultCache.hash("eldarica", Arrays.asList("(set-logic HORN)", "(assert true)"));
+		int misses = ResultCache.getMisses();
+		Assert.assertNull(cache.lookup(hash));
+		Assert.assertEquals(misses + 1, ResultCache.getMisses());
+
+		Map<String, String> solution = new HashMap<String, String>();
+		solution.put("inv_A", "(_0 >= 1)");
+		cache.store(hash, false, 42, solution);
+
+		int hits = ResultCache.getHits();
+		ResultCache.CachedResult cached = cache.lookup(hash);
+		Assert.assertNotNull(cached);
+		Assert.assertEquals(hits + 1, ResultCache.getHits());
+		Assert.assertFalse(cached.safe);
+		Assert.assertEquals(42, cached.solverMillis);
+		Assert.assertEquals(solution, cached.solution);
+	}
+
+	@Test
+	public void testCountersPerJob() throws Exception {
+		File dir = Files.createTempDirectory("jayhorn_cache").toFile();
+		dir.deleteOnExit();
+		ResultCache cache = new ResultCache(dir.toPath());
+		String hash = ResultCache.hash("eldarica", Arrays.asList("(assert false)"));
+		int misses = ResultCache.getMisses();
+
+		JobContext previous = new JobContext(System.out).bind();
+		try {
+			Assert.assertEquals(0, ResultCache.getMisses());
+			Assert.assertNull(cache.lookup(hash));
+			Assert.assertEquals(1, ResultCache.getMisses());
+		} finally {
+			JobContext.restore(previous);
+		}
+		// the lookup of the other job is not counted here.
+		Assert.assertEquals(misses, ResultCache.getMisses());
+	}
+
+	@Test
+	public void testHashNormalization() {
+		String a = ResultCache.hash("eldarica", Arrays.asList("(set-logic HORN)", "", "  (assert true)"));
+		String b = ResultCache.hash("eldarica", Arrays.asList("(set-logic HORN)", "(assert true)  "));
+		String c = ResultCache.hash("spacer", Arrays.asList("(set-logic HORN)", "(assert true)"));
+		Assert.assertEquals(a, b);
+		Assert.assertNotEquals(a, c);
+	}
+}
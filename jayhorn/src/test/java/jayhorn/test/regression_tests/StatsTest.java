@@ -0,0 +1,182 @@
+/**
+ *
+ */
+package jayhorn.test.regression_tests;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import jayhorn.utils.Stats;
+import soottocfg.util.BudgetExceededException;
+import soottocfg.util.JobContext;
+import soottocfg.util.PhaseTimer;
+import soottocfg.util.PhaseTimer.Phase;
+
+public class StatsTest {
+
+	@After
+	public void tearDown() {
+		Stats.resetInstance();
+		soottocfg.Options.resetInstance();
+	}
+
+	@Test
+	public void testNestedPhases() {
+		Stats.resetInstance();
+		Phase outer = PhaseTimer.v().start("Outer");
+		for (int i = 0; i < 3; i++) {
+			Phase inner = PhaseTimer.v().start("Inner");
+			PhaseTimer.v().count("statements", 2);
+			PhaseTimer.v().max("maxArity", i);
+			inner.stop();
+		}
+		outer.stop();
+
+		Assert.assertEquals(1, PhaseTimer.v().getRoot().getChildren().size());
+		Assert.assertEquals(1, outer.getInvocations());
+		Phase inner = outer.getChildren().get(0);
+		Assert.assertEquals("Outer/Inner", inner.getPath());
+		Assert.assertEquals(3, inner.getInvocations());
+		Assert.assertEquals(Long.valueOf(6), inner.getCounters().get("statements"));
+		Assert.assertEquals(Long.valueOf(2), inner.getCounters().get("maxArity"));
+		Assert.assertTrue(outer.getNanos() >= inner.getNanos());
+	}
+
+	@Test
+	public void testStopClosesOpenChildren() {
+		Stats.resetInstance();
+		Phase outer = PhaseTimer.v().start("Outer");
+		PhaseTimer.v().start("Forgotten");
+		outer.stop();
+		Assert.assertSame(PhaseTimer.v().getRoot(), PhaseTimer.v().current());
+		Assert.assertEquals(1, outer.getChildren().get(0).getInvocations());
+	}
+
+	@Test
+	public void testExport() {
+		Stats.resetInstance();
+		Stats.stats().add("FinalResult", "SAFE");
+		Stats.stats().add("Quoted \"key\"", "a,b");
+		Phase phase = PhaseTimer.v().start("ToHorn");
+		PhaseTimer.v().start("main, with comma").stop();
+		PhaseTimer.v().count("clauses", 7);
+		phase.stop();
+
+		JsonObject json = new JsonParser().parse(Stats.stats().toJson()).getAsJsonObject();
+		Assert.assertEquals("SAFE", json.getAsJsonObject("stats").get("FinalResult").getAsString());
+		Assert.assertEquals("a,b", json.getAsJsonObject("stats").get("Quoted \"key\"").getAsString());
+		JsonArray phases = json.getAsJsonArray("phases");
+		Assert.assertEquals(1, phases.size());
+		JsonObject toHorn = phases.get(0).getAsJsonObject();
+		Assert.assertEquals("ToHorn", toHorn.get("name").getAsString());
+		Assert.assertEquals(7, toHorn.getAsJsonObject("counters").get("clauses").getAsLong());
+		Assert.assertEquals("main, with comma",
+				toHorn.getAsJsonArray("children").get(0).getAsJsonObject().get("name").getAsString());
+
+		List<String> csv = Stats.stats().toCsv();
+		Assert.assertEquals("kind,name,key,value", csv.get(0));
+		Assert.assertTrue(csv.contains("stat,FinalResult,value,SAFE"));
+		Assert.assertTrue(csv.contains("stat,\"Quoted \"\"key\"\"\",value,\"a,b\""));
+		Assert.assertTrue(csv.contains("counter,ToHorn,clauses,7"));
+		Assert.assertTrue(csv.contains("phase,\"ToHorn/main, with comma\",invocations,1"));
+	}
+
+	@Test
+	public void testTimeBudget() throws InterruptedException {
+		Stats.resetInstance();
+		Map<String, Long> budgets = new HashMap<String, Long>();
+		budgets.put("Slow", 1L);
+		soottocfg.Options.v().setTimeBudgets(budgets);
+		Phase outer = PhaseTimer.v().start("Outer");
+		PhaseTimer.v().checkBudget();
+		PhaseTimer.v().start("Slow");
+		PhaseTimer.v().start("Inner");
+		Thread.sleep(20);
+		Assert.assertEquals(0, PhaseTimer.v().remainingMillis());
+		try {
+			PhaseTimer.v().checkBudget();
+			Assert.fail("Budget of Slow not enforced.");
+		} catch (BudgetExceededException e) {
+			Assert.assertEquals("Outer/Slow", e.getPhase());
+		}
+		outer.stop();
+		PhaseTimer.v().checkBudget();
+	}
+
+	@Test
+	public void testHeapBudget() throws InterruptedException {
+		Stats.resetInstance();
+		Map<String, Long> budgets = new HashMap<String, Long>();
+		budgets.put("Alloc", 16L * 1024 * 1024);
+		soottocfg.Options.v().setHeapBudgets(budgets);
+		List<byte[]> retained = new ArrayList<byte[]>();
+		try {
+			System.gc();
+			Phase alloc = PhaseTimer.v().start("Alloc");
+			// short-lived garbage does not count.
+			for (int i = 0; i < 64; i++) {
+				garbage = new byte[1024 * 1024];
+			}
+			garbage = null;
+			System.gc();
+			PhaseTimer.v().checkBudget();
+			// memory that is still in use does, even if another thread
+			// allocated it.
+			Thread other = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					garbage = new byte[64 * 1024 * 1024];
+				}
+			});
+			other.start();
+			other.join();
+			retained.add(garbage);
+			System.gc();
+			try {
+				PhaseTimer.v().checkBudget();
+				Assert.fail("Budget of Alloc not enforced.");
+			} catch (BudgetExceededException e) {
+				Assert.assertEquals("Alloc", e.getPhase());
+			}
+			try {
+				alloc.stop();
+			} catch (BudgetExceededException e) {
+				// stop reports the exceeded budget again.
+			}
+		} finally {
+			retained.clear();
+			garbage = null;
+			soottocfg.Options.v().setHeapBudgets(new HashMap<String, Long>());
+		}
+	}
+
+	@Test
+	public void testHeapPeakWithOtherJobs() {
+		Stats.resetInstance();
+		PhaseTimer first = PhaseTimer.v();
+		garbage = new byte[64 * 1024 * 1024];
+		long peak = first.heapPeakBytes();
+		garbage = null;
+		System.gc();
+		// a job that starts later must not reset the peak of this one.
+		JobContext previous = new JobContext(System.out).bind();
+		try {
+			PhaseTimer.v().start("Other").stop();
+		} finally {
+			JobContext.restore(previous);
+		}
+		Assert.assertTrue(first.heapPeakBytes() >= peak);
+	}
+
+	private static volatile byte[] garbage;
+}
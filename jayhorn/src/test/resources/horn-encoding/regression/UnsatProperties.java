@@ -0,0 +1,9 @@
+class UnsatProperties {
+  public static void main(String[] args)  { 
+    int x = args.length;
+    int y = x + 1;
+    assert y - 1 == x;
+    assert y != x;
+    assert y == 1;
+  }
+}
@@ -1,8 +1,11 @@
 package soottocfg;
 
 import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
 
 import soottocfg.soot.SootToCfg.MemModel;
+import soottocfg.util.JobContext;
 
 /**
  * @author schaef
@@ -196,19 +199,67 @@ public class Options {
 
 	private int inlineCount = -1;
 	
+	/*
+	 * Directory for snapshots of the library classes (null disables them).
+	 */
+	private Path librarySnapshotDir = null;
+
+	public Path getLibrarySnapshotDir() {
+		return librarySnapshotDir;
+	}
+
+	public void setLibrarySnapshotDir(Path dir) {
+		this.librarySnapshotDir = dir;
+	}
+
+	/*
+	 * Budgets per phase name (see PhaseTimer). The key "*" applies to
+	 * every phase. Phases that exceed their budget are aborted with a
+	 * BudgetExceededException.
+	 */
+	private Map<String, Long> timeBudgets = new HashMap<String, Long>();
+
+	private Map<String, Long> heapBudgets = new HashMap<String, Long>();
+
+	/**
+	 * Time budgets in milliseconds by phase name.
+	 * @return
+	 */
+	public Map<String, Long> getTimeBudgets() {
+		return timeBudgets;
+	}
+
+	public void setTimeBudgets(Map<String, Long> budgets) {
+		this.timeBudgets = budgets;
+	}
+
+	/**
+	 * Heap budgets in bytes by phase name. A budget bounds how much the
+	 * heap that is in use after garbage collection grows while the phase
+	 * is open.
+	 * @return
+	 */
+	public Map<String, Long> getHeapBudgets() {
+		return heapBudgets;
+	}
+
+	public void setHeapBudgets(Map<String, Long> budgets) {
+		this.heapBudgets = budgets;
+	}
+
 	/*
 	 * Singleton
 	 */
 
-	private static Options options;
 
 	public static void resetInstance() {
-		options = null;
+		JobContext.current().remove(Options.class);
 	}
 
 	public static Options v() {
+		Options options = JobContext.current().get(Options.class);
 		if (null == options) {
-			options = new Options();
+			options = JobContext.current().putIfAbsent(Options.class, new Options());
 		}
 		return options;
 	}
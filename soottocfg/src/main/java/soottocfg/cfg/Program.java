@@ -3,6 +3,7 @@
  */
 package soottocfg.cfg;
 
+import java.io.Serializable;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -21,6 +22,7 @@ import soottocfg.cfg.method.Method;
 import soottocfg.cfg.statement.CallStatement;
 import soottocfg.cfg.statement.Statement;
 import soottocfg.cfg.type.Type;
+import soottocfg.cfg.util.CfgChangeLog;
 import soottocfg.cfg.variable.ClassVariable;
 import soottocfg.cfg.variable.Variable;
 
@@ -28,14 +30,17 @@ import soottocfg.cfg.variable.Variable;
  * @author schaef
  *
  */
-public class Program {
+public class Program implements Serializable {
+
+	private static final long serialVersionUID = -3318404924307462286L;
 
 	private final Map<String, Variable> globalVariables = new LinkedHashMap<String, Variable>();
 	private final Map<String, Method> methods = new LinkedHashMap<String, Method>();
 
 	private Method entryPoint;
 
-	private DirectedGraph<Method, DefaultEdge> callGraph;
+	// computed on demand.
+	private transient DirectedGraph<Method, DefaultEdge> callGraph;
 	private final DirectedGraph<ClassVariable, DefaultEdge> typeGraph = new DefaultDirectedGraph<ClassVariable, DefaultEdge>(
 			DefaultEdge.class);;
 
@@ -97,6 +102,9 @@ public class Program {
 		callGraph = null;
 		for (Method m : methods) {
 			this.methods.remove(m.getMethodName());
+			for (CfgBlock b : m.vertexSet()) {
+				CfgChangeLog.v().blockRemoved(b);
+			}
 		}
 	}
 
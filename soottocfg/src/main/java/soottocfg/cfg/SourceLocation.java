@@ -3,12 +3,16 @@
  */
 package soottocfg.cfg;
 
+import java.io.Serializable;
+
 /**
  * @author schaef
  *
  */
-public class SourceLocation {
+public class SourceLocation implements Serializable {
 	
+	private static final long serialVersionUID = 5304286526470135337L;
+
 	private final String sourceFileName;
 	private final int lineNumber;
 	
@@ -1,5 +1,5 @@
 /**
- * 
+ *
  */
 package soottocfg.cfg.ast2cfg;
 
@@ -10,8 +10,11 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -19,51 +22,191 @@ import java.util.Set;
 
 import com.google.common.base.Verify;
 
+import soottocfg.Options;
 import soottocfg.ast.Yylex;
 import soottocfg.ast.parser;
+import soottocfg.ast.Absyn.Asg;
+import soottocfg.ast.Absyn.Asme;
+import soottocfg.ast.Absyn.Asrt;
 import soottocfg.ast.Absyn.BasicType;
 import soottocfg.ast.Absyn.BuiltIn;
+import soottocfg.ast.Absyn.Cal;
+import soottocfg.ast.Absyn.Cep;
 import soottocfg.ast.Absyn.ClassType;
+import soottocfg.ast.Absyn.CommaExp;
+import soottocfg.ast.Absyn.CommaExpList;
+import soottocfg.ast.Absyn.CommaId;
+import soottocfg.ast.Absyn.CommaIdentList;
 import soottocfg.ast.Absyn.Decl;
 import soottocfg.ast.Absyn.DeclBody;
+import soottocfg.ast.Absyn.DeclName;
 import soottocfg.ast.Absyn.Dvar;
+import soottocfg.ast.Absyn.Ebitand;
+import soottocfg.ast.Absyn.Ebitexor;
+import soottocfg.ast.Absyn.Ebitor;
+import soottocfg.ast.Absyn.Econdition;
+import soottocfg.ast.Absyn.Econst;
+import soottocfg.ast.Absyn.Ediv;
+import soottocfg.ast.Absyn.Eeq;
+import soottocfg.ast.Absyn.Efalse;
+import soottocfg.ast.Absyn.Efld;
+import soottocfg.ast.Absyn.Ege;
+import soottocfg.ast.Absyn.Egrthen;
+import soottocfg.ast.Absyn.Eint;
+import soottocfg.ast.Absyn.Eland;
+import soottocfg.ast.Absyn.Ele;
+import soottocfg.ast.Absyn.Eleft;
+import soottocfg.ast.Absyn.Elor;
+import soottocfg.ast.Absyn.Elthen;
+import soottocfg.ast.Absyn.Eminus;
+import soottocfg.ast.Absyn.Emod;
+import soottocfg.ast.Absyn.Eneq;
+import soottocfg.ast.Absyn.Epreop;
+import soottocfg.ast.Absyn.Eplus;
+import soottocfg.ast.Absyn.Eright;
+import soottocfg.ast.Absyn.Especname;
+import soottocfg.ast.Absyn.Etimes;
+import soottocfg.ast.Absyn.Etrip;
+import soottocfg.ast.Absyn.Etrue;
+import soottocfg.ast.Absyn.Etype;
+import soottocfg.ast.Absyn.Evar;
+import soottocfg.ast.Absyn.Exp;
 import soottocfg.ast.Absyn.FieldDeclaration;
+import soottocfg.ast.Absyn.Glabel;
+import soottocfg.ast.Absyn.Grd;
+import soottocfg.ast.Absyn.Hps;
+import soottocfg.ast.Absyn.IBody;
+import soottocfg.ast.Absyn.Ifone;
 import soottocfg.ast.Absyn.JhPrg;
+import soottocfg.ast.Absyn.Jmp;
+import soottocfg.ast.Absyn.LV;
+import soottocfg.ast.Absyn.LVar;
+import soottocfg.ast.Absyn.LVarStatement;
+import soottocfg.ast.Absyn.LVarf;
+import soottocfg.ast.Absyn.Lbl;
+import soottocfg.ast.Absyn.ListCommaExpList;
+import soottocfg.ast.Absyn.ListCommaIdentList;
 import soottocfg.ast.Absyn.ListFieldDeclaration;
+import soottocfg.ast.Absyn.ListLVarStatement;
 import soottocfg.ast.Absyn.ListTupleEntry;
 import soottocfg.ast.Absyn.ListVarDecl;
+import soottocfg.ast.Absyn.Logicalneg;
+import soottocfg.ast.Absyn.MBody;
+import soottocfg.ast.Absyn.MDecl;
+import soottocfg.ast.Absyn.Mth;
+import soottocfg.ast.Absyn.Mth2;
 import soottocfg.ast.Absyn.NamedTpl;
+import soottocfg.ast.Absyn.Negative;
+import soottocfg.ast.Absyn.NewSt;
+import soottocfg.ast.Absyn.Param;
+import soottocfg.ast.Absyn.Parameter;
+import soottocfg.ast.Absyn.Pfinal;
+import soottocfg.ast.Absyn.Plus;
 import soottocfg.ast.Absyn.ProgramFile;
+import soottocfg.ast.Absyn.PullSt;
+import soottocfg.ast.Absyn.PushSt;
+import soottocfg.ast.Absyn.SSnull;
+import soottocfg.ast.Absyn.Statem;
+import soottocfg.ast.Absyn.Stm;
 import soottocfg.ast.Absyn.TDecl;
 import soottocfg.ast.Absyn.TDecl2;
 import soottocfg.ast.Absyn.TDeclBody;
 import soottocfg.ast.Absyn.TDeclBody2;
+import soottocfg.ast.Absyn.TList1;
+import soottocfg.ast.Absyn.TList2;
+import soottocfg.ast.Absyn.TNames;
 import soottocfg.ast.Absyn.TVoid;
 import soottocfg.ast.Absyn.Tboolean;
-import soottocfg.ast.Absyn.Tdouble;
-import soottocfg.ast.Absyn.Tfloat;
 import soottocfg.ast.Absyn.Tint;
-import soottocfg.ast.Absyn.Tlong;
+import soottocfg.ast.Absyn.Tplvar;
 import soottocfg.ast.Absyn.TupleEntry;
+import soottocfg.ast.Absyn.TypeList;
+import soottocfg.ast.Absyn.Types;
 import soottocfg.ast.Absyn.UDvar;
 import soottocfg.ast.Absyn.UNamedTpl;
 import soottocfg.ast.Absyn.VDecl;
 import soottocfg.ast.Absyn.VarDecl;
 import soottocfg.cfg.Program;
+import soottocfg.cfg.SourceLocation;
+import soottocfg.cfg.expression.BinaryExpression;
+import soottocfg.cfg.expression.BinaryExpression.BinaryOperator;
+import soottocfg.cfg.expression.Expression;
+import soottocfg.cfg.expression.IdentifierExpression;
+import soottocfg.cfg.expression.IteExpression;
+import soottocfg.cfg.expression.TupleAccessExpression;
+import soottocfg.cfg.expression.UnaryExpression;
+import soottocfg.cfg.expression.UnaryExpression.UnaryOperator;
+import soottocfg.cfg.expression.literal.BooleanLiteral;
+import soottocfg.cfg.expression.literal.IntegerLiteral;
+import soottocfg.cfg.expression.literal.NullLiteral;
+import soottocfg.cfg.method.CfgBlock;
+import soottocfg.cfg.method.CfgEdge;
+import soottocfg.cfg.method.Method;
+import soottocfg.cfg.statement.AssertStatement;
+import soottocfg.cfg.statement.AssignStatement;
+import soottocfg.cfg.statement.AssumeStatement;
+import soottocfg.cfg.statement.CallStatement;
+import soottocfg.cfg.statement.NewStatement;
+import soottocfg.cfg.statement.PullStatement;
+import soottocfg.cfg.statement.PushStatement;
+import soottocfg.cfg.statement.Statement;
 import soottocfg.cfg.type.BoolType;
 import soottocfg.cfg.type.IntType;
 import soottocfg.cfg.type.ReferenceType;
+import soottocfg.cfg.type.Type;
+import soottocfg.cfg.type.TypeType;
 import soottocfg.cfg.variable.ClassVariable;
 import soottocfg.cfg.variable.Variable;
+import soottocfg.soot.SootToCfg;
+import soottocfg.soot.memory_model.PushIdentifierAdder;
+import soottocfg.soot.util.FlowBasedPointsToAnalysis;
+import soottocfg.soot.util.SootTranslationHelpers;
 
 /**
- * @author schaef
+ * Loads a Program from the textual CFG language that {@link Cfg2AstPrinter}
+ * writes, so that a program can be verified without running Soot.
+ *
+ * Class declarations are collected until the first method, because they
+ * may refer to each other. The class GLOBALS declares the global
+ * variables. A method is declared by its prototype (a method without
+ * body) before its first call, and its definition lists the locals, the
+ * out parameters as final variables, and the blocks. A block starts with
+ * its label and ends with its outgoing edges, which are written as
+ * "if (e) goto L;" for an edge with guard e, and as "goto L1, L2;" for
+ * edges without guard. The first block is the source. The string after
+ * "implements" holds the attributes of a method, i.e., "entry" for the
+ * entry point of the program, "stub" for a stub, and "this=x" if the local
+ * x holds the current instance. Receivers and arguments of calls and pulls
+ * may be padded with NONE (see {@link AstNames#PaddingName}).
  *
+ * @author schaef
  */
 public class Ast2Cfg {
 
+	public static final String EntryAttribute = "entry";
+	public static final String StubAttribute = "stub";
+	public static final String ThisAttribute = "this=";
+
 	protected final Program program;
 
+	private SourceLocation loc = SourceLocation.ANALYSIS;
+	private final Map<String, Decl> classDecls = new LinkedHashMap<String, Decl>();
+	private Decl globalsDecl = null;
+	private Map<String, ClassVariable> resolvedTypes = null;
+	// types are compared by identity, so there is one per class. The map is
+	// by identity as well, because the hash code of a class changes while its
+	// fields are resolved.
+	private final Map<ClassVariable, ReferenceType> referenceTypes = new IdentityHashMap<ClassVariable, ReferenceType>();
+	private final TypeType typeType = new TypeType();
+
+	// the method that is translated.
+	private Method method;
+	private Map<String, Variable> scope;
+	private Map<String, CfgBlock> blocks;
+	private List<PendingEdge> edges;
+	private CfgBlock currentBlock;
+	private boolean blockClosed;
+
 	/**
 	 * @param args
 	 */
@@ -83,9 +226,19 @@ public class Ast2Cfg {
 		this.program = prog;
 	}
 
+	/**
+	 * Loads the declarations of the file into the program.
+	 *
+	 * @param f
+	 * @return The parse tree, or null if the file cannot be parsed or
+	 *         translated.
+	 */
 	public ProgramFile loadFile(File f) {
 		ProgramFile parse_tree = null;
 		try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));) {
+			// expressions look up the memory model of the program.
+			SootTranslationHelpers.initialize(program);
+			loc = new SourceLocation(f.getName(), -1);
 			Yylex lexer = new Yylex(br);
 			parser p = new parser(lexer);
 			parse_tree = p.pProgramFile();
@@ -93,154 +246,653 @@ public class Ast2Cfg {
 		} catch (IOException e) {
 			// TODO lexer failed.
 			e.printStackTrace();
+			return null;
 		} catch (Exception e) {
 			// TODO parser failed.
 			e.printStackTrace();
+			return null;
 		}
 		return parse_tree;
 	}
 
 	protected void iterateParseTree(ProgramFile tree) {
-		tree.<Boolean, Program>accept(new GlobalVisitor(), this.program);
+		for (Decl d : ((JhPrg) tree).listdecl_) {
+			translateDecl(d);
+		}
+		resolveClasses();
+		if (program.getEntryPoint() != null) {
+			// recompute which pushes can affect which pulls, with the alias
+			// information that SootToCfg uses to shadow pushes.
+			FlowBasedPointsToAnalysis pta = new FlowBasedPointsToAnalysis();
+			if (Options.v().memPrecision() >= Options.MEMPREC_PTA) {
+				pta.run(program);
+			}
+			SootToCfg.setPointsToAnalysis(pta);
+			new PushIdentifierAdder().addIDs(program);
+		}
 	}
 
-	public static class GlobalVisitor implements ProgramFile.Visitor<Boolean, Program> {
+	protected void translateDecl(Decl d) {
+		if (d instanceof TDecl || d instanceof TDecl2) {
+			Verify.verify(resolvedTypes == null, "Classes must be declared before all methods.");
+			String name = getDeclName(d);
+			if (AstNames.GlobalsClassName.equals(name)) {
+				globalsDecl = d;
+			} else {
+				Verify.verify(!classDecls.containsKey(name), "Class declared twice: " + name);
+				classDecls.put(name, d);
+			}
+		} else if (d instanceof MDecl) {
+			resolveClasses();
+			translateMethod((MDecl) d);
+		} else {
+			throw new RuntimeException("Not implemented " + d);
+		}
+	}
 
-		@Override
-		public Boolean visit(JhPrg p, Program arg) {
-			Map<String, Decl> declMap = new LinkedHashMap<String, Decl>();
-			// collect all declarations
-			for (Decl x : p.listdecl_) {
-				if (x instanceof TDecl || x instanceof TDecl2) {
-					declMap.put(getDeclName(x), x);
-				}
+	/**
+	 * Creates the class variables of all class declarations and the global
+	 * variables, unless that has been done already.
+	 */
+	private void resolveClasses() {
+		if (resolvedTypes != null) {
+			return;
+		}
+		resolvedTypes = new LinkedHashMap<String, ClassVariable>();
+		for (Entry<String, Decl> entry : classDecls.entrySet()) {
+			resolveType(entry.getKey(), new HashSet<String>());
+		}
+		// the hash code of a class depends on its fields, so they are added
+		// to the type graph once all are resolved, in the order of the file
+		// which gives the type IDs.
+		for (String name : classDecls.keySet()) {
+			program.addClassVariable(resolvedTypes.get(name));
+		}
+		classDecls.clear();
+		if (globalsDecl != null) {
+			Verify.verify(globalsDecl instanceof TDecl, "%s cannot extend a class.", AstNames.GlobalsClassName);
+			for (Variable v : resolveFields(((TDecl) globalsDecl).declbody_)) {
+				program.getGlobalsMap().put(v.getName(), new Variable(v.getName(), v.getType(), true, true));
 			}
+			globalsDecl = null;
+		}
+	}
 
-			Map<String, ClassVariable> resolvedTypes = new LinkedHashMap<String, ClassVariable>();
+	private ClassVariable resolveType(String tname, Set<String> processed) {
+		if (resolvedTypes.containsKey(tname)) {
+			return resolvedTypes.get(tname);
+		}
+		Verify.verify(!processed.contains(tname), "Recursive inheritance is illegal!");
+		Decl d = classDecls.get(tname);
+		Verify.verifyNotNull(d, "Unknown class %s", tname);
+		Collection<ClassVariable> parents = new ArrayList<ClassVariable>();
+		DeclBody dbody;
+		if (d instanceof TDecl) {
+			dbody = ((TDecl) d).declbody_;
+		} else if (d instanceof TDecl2) {
+			dbody = ((TDecl2) d).declbody_;
+			// recursively resolve the parent.
+			Set<String> processed_ = new HashSet<String>(processed);
+			processed_.add(tname);
+			parents.add(resolveType(AstNames.unescape(((TDecl2) d).ident_2), processed_));
+		} else {
+			throw new RuntimeException(tname + " : " + d);
+		}
+		ClassVariable cv = new ClassVariable(tname, parents);
+		resolvedTypes.put(tname, cv);
+		cv.addFields(resolveFields(dbody));
+		return cv;
+	}
 
-			for (Entry<String, Decl> entry : declMap.entrySet()) {
-				resolveType(entry.getKey(), arg, declMap, resolvedTypes, new HashSet<String>());
+	/**
+	 * Returns the fields of a class body. The fields in the tuple are
+	 * inlineable, and fields that only occur in the tuple are added at the
+	 * end.
+	 *
+	 * @param db
+	 * @return
+	 */
+	private List<Variable> resolveFields(DeclBody db) {
+		ListFieldDeclaration fields;
+		Map<String, TupleEntry> tuple = new LinkedHashMap<String, TupleEntry>();
+		if (db instanceof TDeclBody) {
+			fields = ((TDeclBody) db).listfielddeclaration_;
+		} else if (db instanceof TDeclBody2) {
+			fields = ((TDeclBody2) db).listfielddeclaration_;
+			for (TupleEntry tentry : (ListTupleEntry) ((TDeclBody2) db).listtupleentry_) {
+				tuple.put(AstNames.unescape(tupleEntryName(tentry)), tentry);
 			}
+		} else {
+			throw new RuntimeException();
+		}
+		List<Variable> bodyVariables = new ArrayList<Variable>();
+		for (FieldDeclaration fd : fields) {
+			boolean isUnique = false;
+			ListVarDecl varnames;
+			soottocfg.ast.Absyn.Type fType;
 
-			return true;
+			if (fd instanceof Dvar) {
+				isUnique = false;
+				varnames = ((Dvar) fd).listvardecl_;
+				fType = ((Dvar) fd).type_;
+			} else if (fd instanceof UDvar) {
+				isUnique = true;
+				varnames = ((UDvar) fd).listvardecl_;
+				fType = ((UDvar) fd).type_;
+			} else {
+				throw new RuntimeException();
+			}
+			for (VarDecl vd : varnames) {
+				String name = AstNames.unescape(((VDecl) vd).ident_);
+				boolean isInlineable = tuple.remove(name) != null;
+				bodyVariables.add(new Variable(name, resolveAstType(fType), isInlineable, isUnique));
+			}
 		}
+		for (Entry<String, TupleEntry> entry : tuple.entrySet()) {
+			TupleEntry tentry = entry.getValue();
+			if (tentry instanceof UNamedTpl) {
+				bodyVariables.add(new Variable(entry.getKey(), resolveAstType(((UNamedTpl) tentry).type_), true, true));
+			} else {
+				bodyVariables.add(new Variable(entry.getKey(), resolveAstType(((NamedTpl) tentry).type_), true, false));
+			}
+		}
+		return bodyVariables;
+	}
+
+	private static String tupleEntryName(TupleEntry tentry) {
+		if (tentry instanceof UNamedTpl) {
+			return ((UNamedTpl) tentry).ident_;
+		} else if (tentry instanceof NamedTpl) {
+			return ((NamedTpl) tentry).ident_;
+		}
+		throw new RuntimeException();
+	}
+
+	private Type resolveAstType(soottocfg.ast.Absyn.Type astType) {
+		if (astType instanceof BuiltIn) {
+			BasicType bt = ((BuiltIn) astType).basictype_;
+			if (bt instanceof Tboolean) {
+				return BoolType.instance();
+			} else if (bt instanceof Tint) {
+				return IntType.instance();
+			}
+		} else if (astType instanceof ClassType) {
+			String name = ((ClassType) astType).ident_;
+			if (AstNames.TypeTypeName.equals(name)) {
+				return typeType;
+			} else if (AstNames.NullTypeName.equals(name)) {
+				return ReferenceType.instance();
+			}
+			return referenceType(resolveClass(name));
+		}
+		throw new RuntimeException("Cannot resolve type " + astType);
+	}
+
+	private ClassVariable resolveClass(String ident) {
+		String name = AstNames.unescape(ident);
+		if (classDecls.containsKey(name)) {
+			// still resolving the classes.
+			return resolveType(name, new HashSet<String>());
+		}
+		ClassVariable cv = resolvedTypes.get(name);
+		Verify.verifyNotNull(cv, "Unknown class %s", name);
+		return cv;
+	}
+
+	private ReferenceType referenceType(ClassVariable cv) {
+		if (!referenceTypes.containsKey(cv)) {
+			referenceTypes.put(cv, new ReferenceType(cv));
+		}
+		return referenceTypes.get(cv);
+	}
+
+	private String getDeclName(Decl d) {
+		if (d instanceof TDecl) {
+			return AstNames.unescape(((TDecl) d).ident_);
+		} else if (d instanceof TDecl2) {
+			return AstNames.unescape(((TDecl2) d).ident_1);
+		} else {
+			throw new RuntimeException("Not implemented");
+		}
+	}
 
-		private ClassVariable resolveType(String tname, Program prog, Map<String, Decl> declMap,
-				Map<String, ClassVariable> resolvedTypes, Set<String> processed) {
-			if (resolvedTypes.containsKey(tname)) {
-				return resolvedTypes.get(tname);
+	private List<Type> resolveTypeList(TypeList tl) {
+		List<Type> types = new LinkedList<Type>();
+		if (tl instanceof TList1) {
+			soottocfg.ast.Absyn.Type t = ((TList1) tl).type_;
+			if (!(t instanceof BuiltIn && ((BuiltIn) t).basictype_ instanceof TVoid)) {
+				types.add(resolveAstType(t));
+			}
+		} else {
+			for (Types t : ((TList2) tl).listtypes_) {
+				types.add(resolveAstType(((TNames) t).type_));
 			}
-			Verify.verify(!processed.contains(tname), "Recursive inheritance is illegal!");
-			Decl d = declMap.get(tname);
-			Collection<ClassVariable> parents = new ArrayList<ClassVariable>();
-			DeclBody dbody;
-			if (d instanceof TDecl) {
-				dbody = ((TDecl) d).declbody_;
-			} else if (d instanceof TDecl2) {
-				dbody = ((TDecl2) d).declbody_;
-				// recursively resolve the parent.
-				Set<String> processed_ = new HashSet<String>(processed);
-				processed_.add(tname);
-				resolveType(((TDecl2) d).ident_2, prog, declMap, resolvedTypes, processed_);
-				parents.add(resolvedTypes.get(((TDecl2) d).ident_2));
+		}
+		return types;
+	}
+
+	private void translateMethod(MDecl d) {
+		final DeclName declName;
+		final List<Parameter> parameters;
+		String attributes = "";
+		if (d.methoddecl_ instanceof Mth2) {
+			Mth2 mth = (Mth2) d.methoddecl_;
+			declName = (DeclName) mth.declaratorname_;
+			parameters = mth.listparameter_;
+			attributes = mth.string_;
+		} else {
+			Mth mth = (Mth) d.methoddecl_;
+			declName = (DeclName) mth.declaratorname_;
+			parameters = mth.listparameter_;
+		}
+		final String name = AstNames.unescape(declName.ident_);
+		List<Type> returnTypes = resolveTypeList(d.typelist_);
+		List<Variable> params = new LinkedList<Variable>();
+		for (Parameter p : parameters) {
+			if (p instanceof Param) {
+				params.add(new Variable(AstNames.unescape(((DeclName) ((Param) p).declaratorname_).ident_),
+						resolveAstType(((Param) p).type_)));
 			} else {
-				throw new RuntimeException(tname +" : " +d);
+				params.add(new Variable(AstNames.unescape(((DeclName) ((Pfinal) p).declaratorname_).ident_),
+						resolveAstType(((Pfinal) p).type_)));
 			}
-			ClassVariable cv = new ClassVariable(tname, parents);
-			prog.addClassVariable(cv);
-			resolvedTypes.put(tname, cv);
-			resolveDeclBody(dbody, cv, prog, declMap, resolvedTypes, processed);
+		}
 
-			return resolvedTypes.get(tname);
+		Method m = program.lookupMethod(name);
+		if (m == null) {
+			m = Method.createMethodWithReturnTypes(program, name, params, returnTypes, loc);
+		} else {
+			// the definition of a method that has a prototype.
+			Verify.verify(params.equals(m.getInParams()) && returnTypes.equals(m.getReturnType()),
+					"Definition of %s does not match its prototype.", name);
+		}
+		String thisName = null;
+		for (String attribute : attributes.split(" ")) {
+			if (EntryAttribute.equals(attribute)) {
+				program.setEntryPoint(m);
+				m.isProgramEntryPoint(true);
+			} else if (StubAttribute.equals(attribute)) {
+				m.setStub(true);
+			} else if (attribute.startsWith(ThisAttribute)) {
+				thisName = AstNames.unescape(attribute.substring(ThisAttribute.length()));
+			} else {
+				Verify.verify(attribute.isEmpty(), "Unknown attribute %s of %s", attribute, name);
+			}
+		}
+		if (d.methodbody_ instanceof MBody) {
+			Verify.verify(m.vertexSet().isEmpty(), "Method defined twice: %s", name);
+			translateBody(m, ((soottocfg.ast.Absyn.XBody) ((MBody) d.methodbody_).body_).listlvarstatement_,
+					thisName);
+		} else {
+			Verify.verify(d.methodbody_ instanceof IBody);
+		}
+	}
+
+	private void translateBody(Method m, ListLVarStatement body, String thisName) {
+		method = m;
+		scope = new HashMap<String, Variable>();
+		blocks = new HashMap<String, CfgBlock>();
+		edges = new LinkedList<PendingEdge>();
+		currentBlock = null;
+		blockClosed = false;
+		for (Variable v : m.getInParams()) {
+			scope.put(v.getName(), v);
+		}
+		List<Variable> outParams = new LinkedList<Variable>();
+		translateStatements(body, outParams);
+		if (!outParams.isEmpty()) {
+			m.setOutParam(outParams);
+		}
+		if (thisName != null) {
+			Verify.verify(scope.containsKey(thisName), "Unknown this-variable %s of %s", thisName,
+					m.getMethodName());
+			m.setThisVariable(scope.get(thisName));
+		}
+		for (PendingEdge pending : edges) {
+			CfgBlock target = blocks.get(pending.target);
+			Verify.verifyNotNull(target, "Unknown label %s in %s", pending.target, m.getMethodName());
+			CfgEdge edge = m.addEdge(pending.source, target);
+			if (pending.guard != null) {
+				m.setEdgeLabel(edge, pending.guard);
+			}
 		}
+		method = null;
+		scope = null;
+		blocks = null;
+		edges = null;
+		currentBlock = null;
+	}
 
-		private void resolveDeclBody(DeclBody db, ClassVariable cv, Program prog, Map<String, Decl> declMap,
-				Map<String, ClassVariable> resolvedTypes, Set<String> processed) {
-			ListFieldDeclaration fields;
-			List<Variable> bodyVariables = new ArrayList<Variable>();
-			if (db instanceof TDeclBody) {
-				fields = ((TDeclBody) db).listfielddeclaration_;
-			} else if (db instanceof TDeclBody2) {
-				fields = ((TDeclBody2) db).listfielddeclaration_;
-				for (TupleEntry tentry : (ListTupleEntry) ((TDeclBody2) db).listtupleentry_) {
-					String name;
-					soottocfg.ast.Absyn.Type tplType;
-					boolean isUnique = false;
-					if (tentry instanceof UNamedTpl) {
-						UNamedTpl ntpl = (UNamedTpl) tentry;
-						name = ntpl.ident_;
-						tplType = ntpl.type_;
-						isUnique = true;
-					} else if (tentry instanceof NamedTpl) {
-						NamedTpl ntpl = (NamedTpl) tentry;
-						name = ntpl.ident_;
-						tplType = ntpl.type_;
-					} else {
-						throw new RuntimeException();
+	private void translateStatements(ListLVarStatement body, List<Variable> outParams) {
+		for (LVarStatement s : body) {
+			if (s instanceof LVar) {
+				Type t = resolveAstType(((LVar) s).type_);
+				for (VarDecl vd : ((LVar) s).listvardecl_) {
+					Variable v = declareVariable(AstNames.unescape(((VDecl) vd).ident_), t);
+					if (!method.getLocals().contains(v)) {
+						method.addLocalVariable(v);
 					}
-					soottocfg.cfg.type.Type cfgType = resolveAstTyple(tplType, prog, declMap, resolvedTypes, processed);
-					bodyVariables.add(new Variable(name, cfgType, true, isUnique));
+				}
+			} else if (s instanceof LVarf) {
+				Type t = resolveAstType(((LVarf) s).type_);
+				for (VarDecl vd : ((LVarf) s).listvardecl_) {
+					outParams.add(declareVariable(AstNames.unescape(((VDecl) vd).ident_), t));
 				}
 			} else {
-				throw new RuntimeException();
+				translateStatement(((Statem) s).stm_, outParams);
 			}
-			for (FieldDeclaration fd : fields) {
-				boolean isUnique = false;
-				ListVarDecl varnames;
-				soottocfg.ast.Absyn.Type fType;
-
-				if (fd instanceof Dvar) {
-					isUnique = false;
-					varnames = ((Dvar) fd).listvardecl_;
-					fType = ((Dvar) fd).type_;
-				} else if (fd instanceof UDvar) {
-					isUnique = true;
-					varnames = ((UDvar) fd).listvardecl_;
-					fType = ((UDvar) fd).type_;
-				} else {
-					throw new RuntimeException();
-				}
-				for (VarDecl vd : varnames) {
-					String name = ((VDecl) vd).ident_;
-					soottocfg.cfg.type.Type cfgType = resolveAstTyple(fType, prog, declMap, resolvedTypes, processed);
-					bodyVariables.add(new Variable(name, cfgType, true, isUnique));
-				}
+		}
+	}
+
+	/**
+	 * Returns the variable with the given name, which is created if the
+	 * method does not have one yet. A local may also be declared as out
+	 * parameter.
+	 */
+	private Variable declareVariable(String name, Type t) {
+		Variable v = scope.get(name);
+		if (v == null) {
+			v = new Variable(name, t);
+			scope.put(name, v);
+		}
+		Verify.verify(v.getType() == t, "Variable %s declared with different types.", name);
+		return v;
+	}
+
+	private void translateStatement(Stm s, List<Variable> outParams) {
+		if (s instanceof Lbl) {
+			String label = AstNames.unescape(((Lbl) s).ident_);
+			Verify.verify(!blocks.containsKey(label), "Label declared twice: %s", label);
+			startBlock(new CfgBlock(method, label));
+			blocks.put(label, currentBlock);
+		} else if (s instanceof LV) {
+			translateStatements(((LV) s).listlvarstatement_, outParams);
+		} else if (s instanceof Jmp && ((Jmp) s).jumpstm_ instanceof Glabel) {
+			CfgBlock b = currentBlock();
+			for (CommaIdentList id : ((Glabel) ((Jmp) s).jumpstm_).listcommaidentlist_) {
+				edges.add(new PendingEdge(b, AstNames.unescape(((CommaId) id).ident_), null));
 			}
-			cv.addFields(bodyVariables);
-		}
-
-		private soottocfg.cfg.type.Type resolveAstTyple(soottocfg.ast.Absyn.Type astType, Program prog,
-				Map<String, Decl> declMap, Map<String, ClassVariable> resolvedTypes, Set<String> processed) {
-			if (astType instanceof BuiltIn) {
-				BasicType bt = ((BuiltIn) astType).basictype_;
-				if (bt instanceof Tboolean) {
-					return BoolType.instance();
-				} else if (bt instanceof Tdouble) {
-				} else if (bt instanceof Tfloat) {
-				} else if (bt instanceof Tint) {
-					return IntType.instance();
-				} else if (bt instanceof Tlong) {
-				} else if (bt instanceof TVoid) {
-				} else {
-					throw new RuntimeException();
-				}
-			} else if (astType instanceof ClassType) {
-				ClassVariable cv = resolveType(((ClassType) astType).ident_, prog, declMap, resolvedTypes, processed);
-				return new ReferenceType(cv);
+			blockClosed = true;
+		} else if (s instanceof soottocfg.ast.Absyn.Sel && ((soottocfg.ast.Absyn.Sel) s).selectionstm_ instanceof Ifone) {
+			Ifone ifone = (Ifone) ((soottocfg.ast.Absyn.Sel) s).selectionstm_;
+			Verify.verify(ifone.listelseif_.isEmpty() && ifone.stm_ instanceof Jmp
+					&& ((Jmp) ifone.stm_).jumpstm_ instanceof Glabel
+					&& ((Glabel) ((Jmp) ifone.stm_).jumpstm_).listcommaidentlist_.size() == 1,
+					"Only \"if (e) goto L;\" is supported.");
+			CfgBlock b = currentBlock();
+			CommaId id = (CommaId) ((Glabel) ((Jmp) ifone.stm_).jumpstm_).listcommaidentlist_.getFirst();
+			edges.add(new PendingEdge(b, AstNames.unescape(id.ident_), translateExpression(ifone.exp_)));
+			blockClosed = true;
+		} else {
+			Verify.verify(!blockClosed, "Statement after the edges of a block.");
+			currentBlock().addStatement(translateSimpleStatement(s));
+		}
+	}
+
+	private void startBlock(CfgBlock b) {
+		if (method.vertexSet().size() == 1) {
+			method.setSource(b);
+		}
+		currentBlock = b;
+		blockClosed = false;
+	}
+
+	private CfgBlock currentBlock() {
+		if (currentBlock == null) {
+			startBlock(new CfgBlock(method));
+		}
+		return currentBlock;
+	}
+
+	private Statement translateSimpleStatement(Stm s) {
+		if (s instanceof Asg) {
+			Asg asg = (Asg) s;
+			return new AssignStatement(loc, lookupVariable(asg.ident_).mkExp(loc), translateExpression(asg.exp_));
+		} else if (s instanceof NewSt) {
+			NewSt ns = (NewSt) s;
+			Verify.verify(ns.type_ instanceof ClassType, "Cannot create a new %s", ns.type_);
+			return new NewStatement(loc, lookupVariable(ns.ident_).mkExp(loc),
+					resolveClass(((ClassType) ns.type_).ident_));
+		} else if (s instanceof Cal) {
+			Cal cal = (Cal) s;
+			Method callee = program.lookupMethod(AstNames.unescape(cal.ident_));
+			Verify.verifyNotNull(callee, "Unknown method %s", cal.ident_);
+			List<Expression> receivers = new LinkedList<Expression>();
+			for (IdentifierExpression ide : translateIdentifiers(cal.listcommaidentlist_)) {
+				receivers.add(ide);
 			}
-			throw new RuntimeException("Cannot resolve type " + astType);
+			List<Expression> args = new ArrayList<Expression>();
+			if (!isPadding(cal.listcommaexplist_)) {
+				args = translateExpressions(cal.listcommaexplist_);
+			}
+			return new CallStatement(loc, callee, args, receivers);
+		} else if (s instanceof Grd) {
+			if (((Grd) s).guardstm_ instanceof Asrt) {
+				return new AssertStatement(loc, translateExpression(((Asrt) ((Grd) s).guardstm_).exp_));
+			}
+			return new AssumeStatement(loc, translateExpression(((Asme) ((Grd) s).guardstm_).exp_));
+		} else if (s instanceof Hps && ((Hps) s).heapstm_ instanceof PullSt) {
+			PullSt pull = (PullSt) ((Hps) s).heapstm_;
+			List<Expression> args = translateExpressions(pull.listcommaexplist_);
+			Verify.verify(args.size() >= 2, "pull needs a class and an object.");
+			return new PullStatement(loc, classOf(args.get(0)), identifierOf(args.get(1)),
+					translateIdentifiers(pull.listcommaidentlist_), args.subList(2, args.size()));
+		} else if (s instanceof Hps && ((Hps) s).heapstm_ instanceof PushSt) {
+			List<Expression> args = translateExpressions(((PushSt) ((Hps) s).heapstm_).listcommaexplist_);
+			Verify.verify(args.size() >= 3 && args.get(2) instanceof IntegerLiteral,
+					"push needs a class, an object, and an id.");
+			ClassVariable cv = classOf(args.get(0));
+			int fields = cv.getAssociatedFields().length;
+			Verify.verify(args.size() >= 3 + fields, "push of %s needs %s values.", cv.getName(), fields);
+			return new PushStatement(loc, cv, identifierOf(args.get(1)), args.subList(3, 3 + fields),
+					args.subList(3 + fields, args.size()), ((IntegerLiteral) args.get(2)).getValue().intValue());
 		}
+		throw new RuntimeException("Statement not supported: " + soottocfg.ast.PrettyPrinter.print(s));
+	}
 
-		private String getDeclName(Decl d) {
-			if (d instanceof TDecl) {
-				return ((TDecl) d).ident_;
-			} else if (d instanceof TDecl2) {
-				return ((TDecl2) d).ident_1;
-			} else {
-				throw new RuntimeException("Not implemented");
+	private ClassVariable classOf(Expression e) {
+		Verify.verify(e instanceof IdentifierExpression
+				&& ((IdentifierExpression) e).getVariable() instanceof ClassVariable, "Expected a class but found %s", e);
+		return (ClassVariable) ((IdentifierExpression) e).getVariable();
+	}
+
+	private IdentifierExpression identifierOf(Expression e) {
+		Verify.verify(e instanceof IdentifierExpression, "Expected a variable but found %s", e);
+		return (IdentifierExpression) e;
+	}
+
+	/**
+	 * Translates the receivers of a call or pull, without the padding
+	 * (see {@link AstNames#PaddingName}).
+	 */
+	private List<IdentifierExpression> translateIdentifiers(ListCommaIdentList ids) {
+		List<IdentifierExpression> res = new LinkedList<IdentifierExpression>();
+		for (CommaIdentList id : ids) {
+			if (!AstNames.PaddingName.equals(((CommaId) id).ident_)) {
+				res.add(lookupVariable(((CommaId) id).ident_).mkExp(loc));
 			}
 		}
+		return res;
+	}
 
+	/**
+	 * True if exps is the argument list of a call without arguments.
+	 */
+	private static boolean isPadding(ListCommaExpList exps) {
+		if (exps.size() != 1) {
+			return false;
+		}
+		Exp e = ((CommaExp) exps.getFirst()).exp_;
+		return e instanceof Evar && AstNames.PaddingName.equals(((Evar) e).ident_);
+	}
+
+	private List<Expression> translateExpressions(ListCommaExpList exps) {
+		List<Expression> res = new ArrayList<Expression>();
+		for (CommaExpList e : exps) {
+			res.add(translateExpression(((CommaExp) e).exp_));
+		}
+		return res;
+	}
+
+	/**
+	 * Looks up a name in the method, then in the globals, and then in the
+	 * classes.
+	 */
+	private Variable lookupVariable(String ident) {
+		String name = AstNames.unescape(ident);
+		Variable v = scope.get(name);
+		if (v == null) {
+			v = program.getGlobalsMap().get(name);
+		}
+		if (v == null) {
+			v = resolvedTypes.get(name);
+		}
+		Verify.verifyNotNull(v, "Unknown variable %s in %s", name, method.getMethodName());
+		return v;
+	}
+
+	private Expression translateExpression(Exp e) {
+		if (e instanceof Evar) {
+			return lookupVariable(((Evar) e).ident_).mkExp(loc);
+		} else if (e instanceof Econst) {
+			soottocfg.ast.Absyn.Constant c = ((Econst) e).constant_;
+			if (c instanceof Eint) {
+				return new IntegerLiteral(loc, ((Eint) c).integer_);
+			} else if (c instanceof Etrue) {
+				return new BooleanLiteral(loc, true);
+			} else if (c instanceof Efalse) {
+				return new BooleanLiteral(loc, false);
+			}
+		} else if (e instanceof Especname && ((Especname) e).specname_ instanceof SSnull) {
+			return new NullLiteral(loc);
+		} else if (e instanceof Efld) {
+			Tplvar tpl = (Tplvar) ((Efld) e).tupleacc_;
+			if (tpl.specexp_ instanceof Cep) {
+				IdentifierExpression ide = identifierOf(translateExpression(((Cep) tpl.specexp_).exp_));
+				return new TupleAccessExpression(loc, ide.getVariable(), AstNames.unescape(tpl.ident_));
+			}
+		} else if (e instanceof Epreop) {
+			Epreop pre = (Epreop) e;
+			Expression inner = translateExpression(pre.exp_);
+			if (pre.unary_operator_ instanceof Negative) {
+				// negative literals are written as -n.
+				if (inner instanceof IntegerLiteral) {
+					return new IntegerLiteral(loc, -((IntegerLiteral) inner).getValue());
+				}
+				return new UnaryExpression(loc, UnaryOperator.Neg, inner);
+			} else if (pre.unary_operator_ instanceof Logicalneg) {
+				return new UnaryExpression(loc, UnaryOperator.LNot, inner);
+			} else if (pre.unary_operator_ instanceof Plus) {
+				return inner;
+			}
+		} else if (e instanceof Econdition) {
+			Econdition ite = (Econdition) e;
+			return new IteExpression(loc, translateExpression(ite.exp_1), translateExpression(ite.exp_2),
+					translateExpression(ite.exp_3));
+		} else if (e instanceof Etype) {
+			Etype et = (Etype) e;
+			Verify.verify(et.type_ instanceof ClassType, "Expected a class but found %s", et.type_);
+			return new BinaryExpression(loc, BinaryOperator.PoLeq, translateExpression(et.exp_),
+					resolveClass(((ClassType) et.type_).ident_).mkExp(loc));
+		} else if (e instanceof Eplus) {
+			Long value = bigLiteral((Eplus) e);
+			if (value != null) {
+				return new IntegerLiteral(loc, value);
+			}
+			return mkBinary(BinaryOperator.Plus, ((Eplus) e).exp_1, ((Eplus) e).exp_2);
+		} else if (e instanceof Eminus) {
+			return mkBinary(BinaryOperator.Minus, ((Eminus) e).exp_1, ((Eminus) e).exp_2);
+		} else if (e instanceof Etimes) {
+			return mkBinary(BinaryOperator.Mul, ((Etimes) e).exp_1, ((Etimes) e).exp_2);
+		} else if (e instanceof Ediv) {
+			return mkBinary(BinaryOperator.Div, ((Ediv) e).exp_1, ((Ediv) e).exp_2);
+		} else if (e instanceof Emod) {
+			return mkBinary(BinaryOperator.Mod, ((Emod) e).exp_1, ((Emod) e).exp_2);
+		} else if (e instanceof Eland) {
+			return mkBinary(BinaryOperator.And, ((Eland) e).exp_1, ((Eland) e).exp_2);
+		} else if (e instanceof Elor) {
+			return mkBinary(BinaryOperator.Or, ((Elor) e).exp_1, ((Elor) e).exp_2);
+		} else if (e instanceof Ebitexor) {
+			return mkBinary(BinaryOperator.Xor, ((Ebitexor) e).exp_1, ((Ebitexor) e).exp_2);
+		} else if (e instanceof Ebitor) {
+			return mkBinary(BinaryOperator.BOr, ((Ebitor) e).exp_1, ((Ebitor) e).exp_2);
+		} else if (e instanceof Ebitand) {
+			return mkBinary(BinaryOperator.BAnd, ((Ebitand) e).exp_1, ((Ebitand) e).exp_2);
+		} else if (e instanceof Eeq) {
+			return mkBinary(BinaryOperator.Eq, ((Eeq) e).exp_1, ((Eeq) e).exp_2);
+		} else if (e instanceof Eneq) {
+			return mkBinary(BinaryOperator.Ne, ((Eneq) e).exp_1, ((Eneq) e).exp_2);
+		} else if (e instanceof Egrthen) {
+			return mkBinary(BinaryOperator.Gt, ((Egrthen) e).exp_1, ((Egrthen) e).exp_2);
+		} else if (e instanceof Ege) {
+			return mkBinary(BinaryOperator.Ge, ((Ege) e).exp_1, ((Ege) e).exp_2);
+		} else if (e instanceof Elthen) {
+			return mkBinary(BinaryOperator.Lt, ((Elthen) e).exp_1, ((Elthen) e).exp_2);
+		} else if (e instanceof Ele) {
+			return mkBinary(BinaryOperator.Le, ((Ele) e).exp_1, ((Ele) e).exp_2);
+		} else if (e instanceof Eleft) {
+			return mkBinary(BinaryOperator.Shl, ((Eleft) e).exp_1, ((Eleft) e).exp_2);
+		} else if (e instanceof Eright) {
+			return mkBinary(BinaryOperator.Shr, ((Eright) e).exp_1, ((Eright) e).exp_2);
+		} else if (e instanceof Etrip) {
+			return mkBinary(BinaryOperator.Ushr, ((Etrip) e).exp_1, ((Etrip) e).exp_2);
+		}
+		throw new RuntimeException("Expression not supported: " + soottocfg.ast.PrettyPrinter.print(e));
+	}
+
+	private Expression mkBinary(BinaryOperator op, Exp left, Exp right) {
+		return new BinaryExpression(loc, op, translateExpression(left), translateExpression(right));
+	}
+
+	/**
+	 * Returns the value of a literal that Cfg2AstPrinter wrote as
+	 * ((high * base + mid) * base + low) because it does not fit into an
+	 * int, and null for any other sum, which is kept as it is.
+	 */
+	private static Long bigLiteral(Eplus e) {
+		if (!(e.exp_1 instanceof Etimes) || !(((Etimes) e.exp_1).exp_1 instanceof Eplus)) {
+			return null;
+		}
+		Etimes outer = (Etimes) e.exp_1;
+		Eplus sum = (Eplus) outer.exp_1;
+		if (!(sum.exp_1 instanceof Etimes)) {
+			return null;
+		}
+		Etimes inner = (Etimes) sum.exp_1;
+		final Long base = Long.valueOf(AstNames.LiteralBase);
+		Long high = intLiteral(inner.exp_1);
+		Long mid = intLiteral(sum.exp_2);
+		Long low = intLiteral(e.exp_2);
+		if (high == null || mid == null || low == null || !base.equals(intLiteral(inner.exp_2))
+				|| !base.equals(intLiteral(outer.exp_2))) {
+			return null;
+		}
+		return (high * base + mid) * base + low;
+	}
+
+	private static Long intLiteral(Exp e) {
+		if (e instanceof Econst && ((Econst) e).constant_ instanceof Eint) {
+			return ((Eint) ((Econst) e).constant_).integer_.longValue();
+		} else if (e instanceof Epreop && ((Epreop) e).unary_operator_ instanceof Negative) {
+			Long value = intLiteral(((Epreop) e).exp_);
+			return value == null ? null : -value;
+		}
+		return null;
+	}
+
+	/**
+	 * An edge whose target label may not have been read yet.
+	 */
+	private static class PendingEdge {
+		final CfgBlock source;
+		final String target;
+		final Expression guard;
+
+		PendingEdge(CfgBlock source, String target, Expression guard) {
+			this.source = source;
+			this.target = target;
+			this.guard = guard;
+		}
 	}
 
 }
@@ -0,0 +1,110 @@
+/**
+ *
+ */
+package soottocfg.cfg.ast2cfg;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Maps the names of a Program to identifiers of the textual CFG language and
+ * back. Names like {@literal <init>} or {@literal java.lang.Object} are not
+ * identifiers of the language, so such names, and names that clash with a
+ * keyword, are written as {@literal E'} followed by the name, where every
+ * character other than a letter, digit, or underscore is replaced by
+ * {@literal '} and its four hex digits. Plain names never contain a
+ * {@literal '}, so the encoding cannot clash with them.
+ */
+final class AstNames {
+
+	/**
+	 * Class that declares the global variables of the program.
+	 */
+	static final String GlobalsClassName = "GLOBALS";
+	/**
+	 * Name of the type of class variables.
+	 */
+	static final String TypeTypeName = "TYPE";
+	/**
+	 * Name of the type of the null constant.
+	 */
+	static final String NullTypeName = "NULLTYPE";
+
+	/**
+	 * Pads the receivers of calls and pulls, and the arguments of calls.
+	 * The grammar needs at least one argument, and a single receiver would
+	 * be read as the start of an assignment, so receivers are padded to at
+	 * least two and an empty argument list is written as this name.
+	 */
+	static final String PaddingName = "NONE";
+
+	/**
+	 * Base in which literals that do not fit into an int are written, i.e.,
+	 * as ((high * LiteralBase + mid) * LiteralBase + low).
+	 */
+	static final long LiteralBase = 1L << 21;
+
+	private static final String escapePrefix = "E'";
+
+	private static final Set<String> reserved = new HashSet<String>(Arrays.asList("assert", "assume", "boolean",
+			"class", "do", "double", "else", "extends", "false", "final", "float", "goto", "havoc", "if", "implements",
+			"instanceof", "int", "long", "new", "null", "pull", "push", "return", "true", "unique", "void", "while",
+			GlobalsClassName, TypeTypeName, NullTypeName, PaddingName));
+
+	private AstNames() {
+	}
+
+	static String escape(String name) {
+		if (isPlain(name)) {
+			return name;
+		}
+		StringBuilder sb = new StringBuilder(escapePrefix);
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (isPlainChar(c)) {
+				sb.append(c);
+			} else {
+				sb.append(String.format("'%04x", (int) c));
+			}
+		}
+		return sb.toString();
+	}
+
+	static String unescape(String ident) {
+		if (!ident.startsWith(escapePrefix)) {
+			return ident;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (int i = escapePrefix.length(); i < ident.length(); i++) {
+			char c = ident.charAt(i);
+			if (c == '\'') {
+				sb.append((char) Integer.parseInt(ident.substring(i + 1, i + 5), 16));
+				i += 4;
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	private static boolean isPlain(String name) {
+		if (name.isEmpty() || reserved.contains(name) || !isLetter(name.charAt(0))) {
+			return false;
+		}
+		for (int i = 1; i < name.length(); i++) {
+			if (!isPlainChar(name.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isLetter(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	private static boolean isPlainChar(char c) {
+		return isLetter(c) || (c >= '0' && c <= '9') || c == '_';
+	}
+}
@@ -1,5 +1,5 @@
 /**
- * 
+ *
  */
 package soottocfg.cfg.ast2cfg;
 
@@ -8,77 +8,549 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
-import java.util.Map.Entry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import com.google.common.base.Verify;
 
 import soottocfg.cfg.Program;
+import soottocfg.cfg.expression.BinaryExpression;
+import soottocfg.cfg.expression.Expression;
+import soottocfg.cfg.expression.IdentifierExpression;
+import soottocfg.cfg.expression.IteExpression;
+import soottocfg.cfg.expression.TupleAccessExpression;
+import soottocfg.cfg.expression.UnaryExpression;
+import soottocfg.cfg.expression.literal.BooleanLiteral;
+import soottocfg.cfg.expression.literal.IntegerLiteral;
+import soottocfg.cfg.expression.literal.NullLiteral;
+import soottocfg.cfg.method.CfgBlock;
+import soottocfg.cfg.method.CfgEdge;
+import soottocfg.cfg.method.Method;
+import soottocfg.cfg.statement.AssertStatement;
+import soottocfg.cfg.statement.AssignStatement;
+import soottocfg.cfg.statement.AssumeStatement;
+import soottocfg.cfg.statement.CallStatement;
+import soottocfg.cfg.statement.NewStatement;
+import soottocfg.cfg.statement.PullStatement;
+import soottocfg.cfg.statement.PushStatement;
+import soottocfg.cfg.statement.Statement;
+import soottocfg.cfg.type.BoolType;
+import soottocfg.cfg.type.IntType;
 import soottocfg.cfg.type.ReferenceType;
 import soottocfg.cfg.type.Type;
+import soottocfg.cfg.type.TypeType;
 import soottocfg.cfg.variable.ClassVariable;
 import soottocfg.cfg.variable.Variable;
 
 /**
- * @author schaef Prints a Program in AST format.
+ * @author schaef Prints a Program in AST format, such that {@link Ast2Cfg}
+ *         can load it again. The program is written as the classes, a class
+ *         GLOBALS with the global variables, the prototypes of all methods,
+ *         and then the bodies of all methods. Each body declares its
+ *         variables, and then lists the blocks as labeled sequences of
+ *         statements that end with their outgoing edges (see
+ *         {@link Ast2Cfg}).
  */
 public class Cfg2AstPrinter {
 
+	private final Program program;
+	private final Writer out;
+	/**
+	 * Names of the globals and classes, which a local must not hide.
+	 */
+	private final Set<String> globalNames = new HashSet<String>();
+	/**
+	 * Names of the variables of the method that is printed.
+	 */
+	private Map<Variable, String> localNames = new LinkedHashMap<Variable, String>();
+	private final Set<Variable> globals;
+
+	private Cfg2AstPrinter(Program program, Writer out) {
+		this.program = program;
+		this.out = out;
+		this.globals = new HashSet<Variable>(program.getGlobalVariables());
+		for (Variable v : program.getGlobalVariables()) {
+			globalNames.add(AstNames.escape(v.getName()));
+		}
+		for (ClassVariable cv : program.getClassVariables()) {
+			globalNames.add(AstNames.escape(cv.getName()));
+		}
+	}
+
 	public static void printProgramToFile(Program program, File outFile) {
 		try (Writer out = new BufferedWriter(
 				new OutputStreamWriter(new FileOutputStream(outFile), StandardCharsets.UTF_8));) {
-			out.write(printProgramToString(program));
+			printProgram(program, out);
 		} catch (IOException e) {
 			throw new RuntimeException(e.toString());
 		}
 	}
 
 	public static String printProgramToString(Program program) {
-		StringBuilder sb = new StringBuilder();
+		StringWriter out = new StringWriter();
+		try {
+			printProgram(program, out);
+		} catch (IOException e) {
+			throw new RuntimeException(e.toString());
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Writes the program method by method, so the text of the program is
+	 * never held in memory as a whole.
+	 *
+	 * @param program
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void printProgram(Program program, Writer out) throws IOException {
+		new Cfg2AstPrinter(program, out).print();
+	}
+
+	private void print() throws IOException {
 		for (ClassVariable cv : program.getClassVariables()) {
-			sb.append(printClassVariable(cv));
-			sb.append("\n");
+			out.write(printClassVariable(cv));
+			out.write("\n");
 		}
-		return sb.toString();
+		if (!program.getGlobalVariables().isEmpty()) {
+			out.write("class ");
+			out.write(AstNames.GlobalsClassName);
+			out.write(" {\n");
+			for (Variable v : program.getGlobalVariables()) {
+				out.write("\t");
+				out.write(printType(v.getType()));
+				out.write(" ");
+				out.write(AstNames.escape(v.getName()));
+				out.write(";\n");
+			}
+			out.write("}\n\n");
+		}
+		final Method[] methods = program.getMethods();
+		for (Method m : methods) {
+			nameVariables(m);
+			out.write(printMethodHeader(m));
+			out.write(";\n");
+		}
+		for (Method m : methods) {
+			if (!m.vertexSet().isEmpty()) {
+				out.write("\n");
+				printMethodBody(m);
+			}
+		}
+		out.flush();
 	}
 
 	protected static String printClassVariable(ClassVariable cv) {
 		StringBuilder sb = new StringBuilder();
-		ReferenceType ref = new ReferenceType(cv);
 		sb.append("class ");
-		sb.append(cv.getName());
-		if (!ref.getElementTypes().isEmpty()) {
-			sb.append("<");
+		sb.append(AstNames.escape(cv.getName()));
+		if (!cv.getParents().isEmpty()) {
+			Verify.verify(cv.getParents().size() == 1);
+			sb.append(" extends ");
+			sb.append(AstNames.escape(cv.getParents().iterator().next().getName()));
+		}
+		if (cv.getInlineableFields().length > 0) {
+			sb.append(" <");
 			String comma = "";
-			for (Entry<String, Type> entry : ref.getElementTypes().entrySet()) {
+			for (Variable v : cv.getInlineableFields()) {
 				sb.append(comma);
 				comma = ", ";
-				sb.append(entry.getKey());
+				sb.append(AstNames.escape(v.getName()));
 				sb.append(" : ");
-				sb.append(entry.getValue().toString()); //TODO is toString right?
+				sb.append(printType(v.getType()));
 			}
 			sb.append(">");
-		} else {
-			throw new RuntimeException("Unexpected!");
-		}
-
-		if (!cv.getParents().isEmpty()) {
-			Verify.verify(cv.getParents().size()==1);
-			sb.append(" extends ");
-			sb.append(cv.getParents().iterator().next().getName());
-			sb.append(" ");
 		}
-		sb.append("{\n");
+		sb.append(" {\n");
 		for (Variable v : cv.getAssociatedFields()) {
 			sb.append("\t");
-			sb.append(v.getType());
+			if (v.isUnique()) {
+				sb.append("unique ");
+			}
+			sb.append(printType(v.getType()));
 			sb.append(" ");
-			sb.append(v.getName());
+			sb.append(AstNames.escape(v.getName()));
 			sb.append(";\n");
 		}
 		sb.append("}\n");
 		return sb.toString();
 	}
 
+	protected static String printType(Type t) {
+		if (t == IntType.instance()) {
+			return "int";
+		} else if (t == BoolType.instance()) {
+			return "boolean";
+		} else if (t instanceof TypeType) {
+			return AstNames.TypeTypeName;
+		} else if (t instanceof ReferenceType) {
+			ClassVariable cv = ((ReferenceType) t).getClassVariable();
+			if (cv == null) {
+				return AstNames.NullTypeName;
+			}
+			return AstNames.escape(cv.getName());
+		}
+		throw new RuntimeException("Cannot print type " + t);
+	}
+
+	/**
+	 * Gives each parameter, out parameter, and local of the method a name
+	 * that is unique in the method and does not hide a global. Variables
+	 * that are used in the body but not declared (e.g., the havoced values
+	 * of the pushes that PushIdentifierAdder adds) are named as well.
+	 *
+	 * @param m
+	 */
+	private void nameVariables(Method m) {
+		localNames = new LinkedHashMap<Variable, String>();
+		final Set<String> taken = new HashSet<String>(globalNames);
+		final Set<Variable> vars = new LinkedHashSet<Variable>(m.getInParams());
+		vars.addAll(m.getLocals());
+		vars.addAll(m.getOutParams());
+		if (m.getThisVariable() != null) {
+			// Hornify needs it even if it is not used.
+			vars.add(m.getThisVariable());
+		}
+		final List<Variable> undeclared = new ArrayList<Variable>();
+		for (Variable v : usedVariables(m)) {
+			if (!vars.contains(v) && !globals.contains(v) && !(v instanceof ClassVariable)) {
+				undeclared.add(v);
+			}
+		}
+		Collections.sort(undeclared, new Comparator<Variable>() {
+			@Override
+			public int compare(Variable a, Variable b) {
+				int cmp = a.getName().compareTo(b.getName());
+				return cmp != 0 ? cmp : a.getType().toString().compareTo(b.getType().toString());
+			}
+		});
+		vars.addAll(undeclared);
+		for (Variable v : vars) {
+			String name = AstNames.escape(v.getName());
+			for (int i = 1; taken.contains(name); i++) {
+				name = AstNames.escape(v.getName() + "#" + i);
+			}
+			taken.add(name);
+			localNames.put(v, name);
+		}
+	}
+
+	private static Set<Variable> usedVariables(Method m) {
+		Set<Variable> used = new HashSet<Variable>();
+		for (CfgBlock b : m.vertexSet()) {
+			for (Statement s : b.getStatements()) {
+				used.addAll(s.getAllVariables());
+			}
+		}
+		for (CfgEdge e : m.edgeSet()) {
+			if (e.getLabel().isPresent()) {
+				used.addAll(e.getLabel().get().getUseVariables());
+			}
+		}
+		return used;
+	}
+
+	private String printMethodHeader(Method m) {
+		StringBuilder sb = new StringBuilder();
+		List<Type> returnTypes = m.getReturnType();
+		if (returnTypes.isEmpty()) {
+			sb.append("void");
+		} else if (returnTypes.size() == 1) {
+			sb.append(printType(returnTypes.get(0)));
+		} else {
+			sb.append("<");
+			String comma = "";
+			for (Type t : returnTypes) {
+				sb.append(comma);
+				comma = ", ";
+				sb.append(printType(t));
+			}
+			sb.append(">");
+		}
+		sb.append(" ");
+		sb.append(AstNames.escape(m.getMethodName()));
+		sb.append("(");
+		String comma = "";
+		for (Variable v : m.getInParams()) {
+			sb.append(comma);
+			comma = ", ";
+			sb.append(printType(v.getType()));
+			sb.append(" ");
+			sb.append(localNames.get(v));
+		}
+		sb.append(")");
+		List<String> attributes = new LinkedList<String>();
+		if (m == program.getEntryPoint() || m.isProgramEntryPoint()) {
+			attributes.add(Ast2Cfg.EntryAttribute);
+		}
+		if (m.isStub()) {
+			attributes.add(Ast2Cfg.StubAttribute);
+		}
+		if (m.getThisVariable() != null) {
+			attributes.add(Ast2Cfg.ThisAttribute + localNames.get(m.getThisVariable()));
+		}
+		if (!attributes.isEmpty()) {
+			sb.append(" implements \"");
+			String space = "";
+			for (String attribute : attributes) {
+				sb.append(space);
+				space = " ";
+				sb.append(attribute);
+			}
+			sb.append("\"");
+		}
+		return sb.toString();
+	}
+
+	private void printMethodBody(Method m) throws IOException {
+		nameVariables(m);
+		out.write(printMethodHeader(m));
+		out.write(" {\n");
+		Set<Variable> params = new HashSet<Variable>(m.getInParams());
+		Set<Variable> outParams = new HashSet<Variable>(m.getOutParams());
+		for (Map.Entry<Variable, String> entry : localNames.entrySet()) {
+			Variable v = entry.getKey();
+			if (!params.contains(v) && (!outParams.contains(v) || m.getLocals().contains(v))) {
+				out.write("\t" + printType(v.getType()) + " " + entry.getValue() + ";\n");
+			}
+		}
+		for (Variable v : m.getOutParams()) {
+			out.write("\tfinal " + printType(v.getType()) + " " + localNames.get(v) + ";\n");
+		}
+
+		// the source comes first, because Ast2Cfg makes the first block the
+		// source.
+		List<CfgBlock> blocks = new ArrayList<CfgBlock>(m.vertexSet());
+		CfgBlock source = m.getSource();
+		if (source != null) {
+			blocks.remove(source);
+			blocks.add(0, source);
+		}
+		Map<CfgBlock, String> labels = new HashMap<CfgBlock, String>();
+		Set<String> takenLabels = new HashSet<String>();
+		for (CfgBlock b : blocks) {
+			String label = AstNames.escape(b.getLabel());
+			for (int i = 1; takenLabels.contains(label); i++) {
+				label = AstNames.escape(b.getLabel() + "#" + i);
+			}
+			takenLabels.add(label);
+			labels.put(b, label);
+		}
+		for (CfgBlock b : blocks) {
+			StringBuilder sb = new StringBuilder();
+			sb.append(labels.get(b));
+			sb.append(":\n");
+			for (Statement s : b.getStatements()) {
+				sb.append("\t");
+				sb.append(printStatement(s));
+				sb.append("\n");
+			}
+			List<String> targets = new LinkedList<String>();
+			for (CfgEdge e : m.outgoingEdgesOf(b)) {
+				if (e.getLabel().isPresent()) {
+					sb.append("\tif (");
+					sb.append(printExpression(e.getLabel().get()));
+					sb.append(") goto ");
+					sb.append(labels.get(m.getEdgeTarget(e)));
+					sb.append(";\n");
+				} else {
+					targets.add(labels.get(m.getEdgeTarget(e)));
+				}
+			}
+			if (!targets.isEmpty()) {
+				sb.append("\tgoto ");
+				String comma = "";
+				for (String target : targets) {
+					sb.append(comma);
+					comma = ", ";
+					sb.append(target);
+				}
+				sb.append(";\n");
+			}
+			out.write(sb.toString());
+		}
+		out.write("}\n");
+	}
+
+	private String printStatement(Statement s) {
+		StringBuilder sb = new StringBuilder();
+		if (s instanceof AssignStatement) {
+			AssignStatement as = (AssignStatement) s;
+			sb.append(printIdentifier(as.getLeft()));
+			sb.append(" = ");
+			sb.append(printExpression(as.getRight()));
+			sb.append(";");
+		} else if (s instanceof AssertStatement) {
+			sb.append("assert(");
+			sb.append(printExpression(((AssertStatement) s).getExpression()));
+			sb.append(");");
+		} else if (s instanceof AssumeStatement) {
+			sb.append("assume(");
+			sb.append(printExpression(((AssumeStatement) s).getExpression()));
+			sb.append(");");
+		} else if (s instanceof CallStatement) {
+			CallStatement cs = (CallStatement) s;
+			printReceivers(cs.getReceiver(), sb);
+			sb.append(AstNames.escape(cs.getCallTarget().getMethodName()));
+			sb.append("(");
+			if (cs.getArguments().isEmpty()) {
+				sb.append(AstNames.PaddingName);
+			} else {
+				printExpressions(cs.getArguments(), sb);
+			}
+			sb.append(");");
+		} else if (s instanceof NewStatement) {
+			NewStatement ns = (NewStatement) s;
+			sb.append(printIdentifier(ns.getLeft()));
+			sb.append(" = new ");
+			sb.append(AstNames.escape(ns.getClassVariable().getName()));
+			sb.append(";");
+		} else if (s instanceof PullStatement) {
+			PullStatement pull = (PullStatement) s;
+			printReceivers(pull.getLeft(), sb);
+			sb.append("pull(");
+			List<Expression> args = new LinkedList<Expression>();
+			args.add(new IdentifierExpression(null, pull.getClassSignature()));
+			args.add(pull.getObject());
+			args.addAll(pull.getGhostExpressions());
+			printExpressions(args, sb);
+			sb.append(");");
+		} else if (s instanceof PushStatement) {
+			PushStatement push = (PushStatement) s;
+			sb.append("push(");
+			List<Expression> args = new LinkedList<Expression>();
+			args.add(new IdentifierExpression(null, push.getClassSignature()));
+			args.add(push.getObject());
+			args.add(new IntegerLiteral(null, push.getID()));
+			args.addAll(push.getRight());
+			args.addAll(push.getGhostExpressions());
+			printExpressions(args, sb);
+			sb.append(");");
+		} else {
+			throw new RuntimeException("Cannot print statement " + s);
+		}
+		return sb.toString();
+	}
+
+	private void printReceivers(List<? extends Expression> receivers, StringBuilder sb) {
+		List<String> names = new LinkedList<String>();
+		for (Expression e : receivers) {
+			names.add(printIdentifier(e));
+		}
+		while (names.size() < 2) {
+			names.add(0, AstNames.PaddingName);
+		}
+		String comma = "";
+		for (String name : names) {
+			sb.append(comma);
+			comma = ", ";
+			sb.append(name);
+		}
+		sb.append(" = ");
+	}
+
+	private void printExpressions(List<Expression> expressions, StringBuilder sb) {
+		String comma = "";
+		for (Expression e : expressions) {
+			sb.append(comma);
+			comma = ", ";
+			sb.append(printExpression(e));
+		}
+	}
+
+	private String printIdentifier(Expression e) {
+		Verify.verify(e instanceof IdentifierExpression, "Expected a variable but found " + e);
+		return printVariable(((IdentifierExpression) e).getVariable());
+	}
+
+	private String printVariable(Variable v) {
+		String name = localNames.get(v);
+		if (name == null) {
+			Verify.verify(v instanceof ClassVariable || globals.contains(v),
+					"Undeclared variable " + v);
+			name = AstNames.escape(v.getName());
+		}
+		return name;
+	}
+
+	/**
+	 * Prints an expression with parentheses around every operation, so
+	 * that the precedences of the grammar do not matter.
+	 *
+	 * @param e
+	 * @return
+	 */
+	private String printExpression(Expression e) {
+		if (e instanceof IdentifierExpression) {
+			return printVariable(((IdentifierExpression) e).getVariable());
+		} else if (e instanceof IntegerLiteral) {
+			return printInteger(((IntegerLiteral) e).getValue());
+		} else if (e instanceof BooleanLiteral) {
+			return ((BooleanLiteral) e).getValue() ? "true" : "false";
+		} else if (e instanceof NullLiteral) {
+			return "null";
+		} else if (e instanceof TupleAccessExpression) {
+			TupleAccessExpression tae = (TupleAccessExpression) e;
+			ReferenceType rt = (ReferenceType) tae.getVariable().getType();
+			String key = new ArrayList<String>(rt.getElementTypes().keySet()).get(tae.getAccessPosition());
+			return "(" + printVariable(tae.getVariable()) + ")." + AstNames.escape(key);
+		} else if (e instanceof UnaryExpression) {
+			UnaryExpression ue = (UnaryExpression) e;
+			return ue.getOp() + "(" + printExpression(ue.getExpression()) + ")";
+		} else if (e instanceof IteExpression) {
+			IteExpression ite = (IteExpression) e;
+			return "((" + printExpression(ite.getCondition()) + ") ? (" + printExpression(ite.getThenExpr()) + ") : ("
+					+ printExpression(ite.getElseExpr()) + "))";
+		} else if (e instanceof BinaryExpression) {
+			BinaryExpression be = (BinaryExpression) e;
+			String left = printExpression(be.getLeft());
+			String right = printExpression(be.getRight());
+			switch (be.getOp()) {
+			case Implies:
+				return "(!(" + left + ") || " + right + ")";
+			case PoLeq:
+				Verify.verify(be.getRight() instanceof IdentifierExpression
+						&& ((IdentifierExpression) be.getRight()).getVariable() instanceof ClassVariable,
+						"Expected a class but found " + be.getRight());
+				return "((" + left + ") instanceof " + right + ")";
+			case Ushr:
+				return "(" + left + " >>> " + right + ")";
+			default:
+				return "(" + left + " " + be.getOp() + " " + right + ")";
+			}
+		}
+		throw new RuntimeException("Cannot print expression " + e);
+	}
+
+	/**
+	 * The parser only reads int literals, so larger literals are written as
+	 * arithmetic over int literals in a fixed shape, which {@link Ast2Cfg}
+	 * folds again.
+	 *
+	 * @param value
+	 * @return
+	 */
+	private static String printInteger(long value) {
+		if (value > Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+			return Long.toString(value);
+		}
+		final long base = AstNames.LiteralBase;
+		long low = value & (base - 1);
+		long mid = (value >> 21) & (base - 1);
+		long high = value >> 42;
+		return "((" + high + " * " + base + " + " + mid + ") * " + base + " + " + low + ")";
+	}
 }
@@ -49,7 +49,7 @@ public class BinaryExpression extends Expression {
 		}
 	}
 
-	private Expression left, right;
+	private final Expression left, right;
 	private final BinaryOperator op;
 
 	public BinaryExpression(SourceLocation loc, BinaryOperator op, Expression left, Expression right) {
@@ -163,17 +163,37 @@ public class BinaryExpression extends Expression {
 		}
 	}
 
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (other instanceof BinaryExpression && other.hashCode() == hashCode()) {
+			BinaryExpression o = (BinaryExpression) other;
+			return op == o.op && left.equals(o.left) && right.equals(o.right);
+		}
+		return false;
+	}
+
+	@Override
+	protected int computeHashCode() {
+		int result = op.hashCode();
+		result = 37 * result + left.hashCode();
+		result = 37 * result + right.hashCode();
+		return result;
+	}
+
 	@Override
 	public BinaryExpression deepCopy() {		
 		return new BinaryExpression(getSourceLocation(), op, left.deepCopy(), right.deepCopy());
 	}
 
 	public BinaryExpression substitute(Map<Variable, Variable> subs) {
-		return new BinaryExpression(getSourceLocation(), op, left.substitute(subs), right.substitute(subs));
+		return intern(new BinaryExpression(getSourceLocation(), op, left.substitute(subs), right.substitute(subs)));
 	}
 
 	public BinaryExpression substituteVarWithExpression(Map<Variable, Expression> subs) {
-		return new BinaryExpression(getSourceLocation(), op, left.substituteVarWithExpression(subs), right.substituteVarWithExpression(subs));
+		return intern(new BinaryExpression(getSourceLocation(), op, left.substituteVarWithExpression(subs), right.substituteVarWithExpression(subs)));
 	}
 
 }
@@ -8,6 +8,9 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
 import soottocfg.cfg.Node;
 import soottocfg.cfg.SourceLocation;
 import soottocfg.cfg.expression.BinaryExpression.BinaryOperator;
@@ -18,10 +21,16 @@ import soottocfg.cfg.type.IntType;
 import soottocfg.cfg.type.Type;
 import soottocfg.cfg.variable.Variable;
 import soottocfg.soot.util.SootTranslationHelpers;
+import soottocfg.util.JobContext;
 
 /**
  * @author schaef
- *
+ * 
+ *         Expressions are immutable and compared structurally, i.e., two
+ *         expressions are equal if they are built from equal parts, no matter
+ *         where in the source they come from. The hash codes are cached, and
+ *         substitute returns canonical (hash-consed) expressions of the
+ *         current job, so equal subexpressions are shared.
  */
 public abstract class Expression implements Node, Serializable {
 
@@ -40,8 +49,19 @@ public abstract class Expression implements Node, Serializable {
 		return res;
 	}
 
+	/**
+	 * The canonical expressions of a job. Jobs do not share expressions,
+	 * but the threads of a job do, so the interner must be thread safe.
+	 */
+	private static final class Canonical {
+		final Interner<Expression> interner = Interners.newWeakInterner();
+	}
+
 	private final SourceLocation sourceLocation;
 
+	// 0 if not computed yet.
+	private transient int hash;
+
 	public Expression(SourceLocation loc) {
 		this.sourceLocation = loc;
 	}
@@ -90,6 +110,51 @@ public abstract class Expression implements Node, Serializable {
 		return true;
 	}
 	
+	@Override
+	public abstract boolean equals(Object other);
+
+	@Override
+	public final int hashCode() {
+		int h = hash;
+		if (h == 0) {
+			h = computeHashCode();
+			hash = h;
+		}
+		return h;
+	}
+
+	/**
+	 * Computes the hash code, which is cached by hashCode. It must only
+	 * depend on the parts that are compared in equals.
+	 * 
+	 * @return
+	 */
+	protected abstract int computeHashCode();
+
+	/**
+	 * Returns the canonical expression that is equal to e, i.e., the first
+	 * equal expression that was interned in the current job and is still
+	 * alive.
+	 * 
+	 * @param e
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T extends Expression> T intern(T e) {
+		Canonical canonical = JobContext.current().get(Canonical.class);
+		if (canonical == null) {
+			canonical = JobContext.current().putIfAbsent(Canonical.class, new Canonical());
+		}
+		// equal expressions are of the same class.
+		return (T) canonical.interner.intern(e);
+	}
+
+	/**
+	 * Returns a new expression that is equal to this one and has the
+	 * same source location.
+	 * 
+	 * @return
+	 */
 	public abstract Expression deepCopy();
 	
 	/**
@@ -63,6 +63,24 @@ public class IdentifierExpression extends Expression {
 		return variable.getType();
 	}
 
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (other instanceof IdentifierExpression && other.hashCode() == hashCode()) {
+			return variable.equals(((IdentifierExpression) other).variable);
+		}
+		return false;
+	}
+
+	@Override
+	protected int computeHashCode() {
+		// not variable.hashCode, which depends on the type of the variable
+		// and, for class variables, on their fields. Both can change later.
+		return variable.getName().hashCode();
+	}
+
 	@Override
 	public IdentifierExpression deepCopy() {		
 		return new IdentifierExpression(getSourceLocation(), variable);
@@ -70,17 +88,17 @@ public class IdentifierExpression extends Expression {
 	
 	public IdentifierExpression substitute(Map<Variable, Variable> subs) {
 		if (subs.containsKey(variable)) {
-			return new IdentifierExpression(getSourceLocation(), subs.get(variable));
+			return intern(new IdentifierExpression(getSourceLocation(), subs.get(variable)));
 		}
-		return new IdentifierExpression(getSourceLocation(), variable);
+		return intern(this);
 	}
 	
 	@Override
 	public Expression substituteVarWithExpression(Map<Variable, Expression> subs) {
 		if (subs.containsKey(variable)) {
-			return subs.get(variable).deepCopy();
+			return intern(subs.get(variable));
 		}
-		return this.deepCopy();
+		return intern(this);
 	}
 
 
@@ -18,7 +18,7 @@ import soottocfg.cfg.variable.Variable;
 public class IteExpression extends Expression {
 
 	private static final long serialVersionUID = -7138261822713810587L;
-	private Expression condition, thenExpr, elseExpr;
+	private final Expression condition, thenExpr, elseExpr;
 
 	public Expression getCondition() {
 		return condition;
@@ -74,6 +74,26 @@ public class IteExpression extends Expression {
 		return thenExpr.getType();
 	}
 
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (other instanceof IteExpression && other.hashCode() == hashCode()) {
+			IteExpression o = (IteExpression) other;
+			return condition.equals(o.condition) && thenExpr.equals(o.thenExpr) && elseExpr.equals(o.elseExpr);
+		}
+		return false;
+	}
+
+	@Override
+	protected int computeHashCode() {
+		int result = condition.hashCode();
+		result = 37 * result + thenExpr.hashCode();
+		result = 37 * result + elseExpr.hashCode();
+		return result;
+	}
+
 	@Override
 	public IteExpression deepCopy() {		
 		return new IteExpression(getSourceLocation(), condition.deepCopy(), thenExpr.deepCopy(), elseExpr.deepCopy());
@@ -81,12 +101,12 @@ public class IteExpression extends Expression {
 
 	@Override
 	public IteExpression substitute(Map<Variable, Variable> subs) {
-		return new IteExpression(getSourceLocation(), condition.substitute(subs), thenExpr.substitute(subs), elseExpr.substitute(subs));
+		return intern(new IteExpression(getSourceLocation(), condition.substitute(subs), thenExpr.substitute(subs), elseExpr.substitute(subs)));
 	}
 
 	@Override
 	public IteExpression substituteVarWithExpression(Map<Variable, Expression> subs) {
-		return new IteExpression(getSourceLocation(), condition.substituteVarWithExpression(subs), thenExpr.substituteVarWithExpression(subs), elseExpr.substituteVarWithExpression(subs));
+		return intern(new IteExpression(getSourceLocation(), condition.substituteVarWithExpression(subs), thenExpr.substituteVarWithExpression(subs), elseExpr.substituteVarWithExpression(subs)));
 	}
 	
 }
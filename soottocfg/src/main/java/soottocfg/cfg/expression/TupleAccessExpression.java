@@ -101,6 +101,24 @@ public class TupleAccessExpression extends Expression {
 		return sb.toString();
 	}
 
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (other instanceof TupleAccessExpression && other.hashCode() == hashCode()) {
+			TupleAccessExpression o = (TupleAccessExpression) other;
+			return tupleKey.equals(o.tupleKey) && tupleVariable.equals(o.tupleVariable);
+		}
+		return false;
+	}
+
+	@Override
+	protected int computeHashCode() {
+		// see IdentifierExpression.computeHashCode
+		return 37 * tupleVariable.getName().hashCode() + tupleKey.hashCode();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -119,9 +137,9 @@ public class TupleAccessExpression extends Expression {
 	@Override
 	public Expression substitute(Map<Variable, Variable> subs) {
 		if (subs.containsKey(tupleVariable)) {
-			return new TupleAccessExpression(this.getSourceLocation(), subs.get(tupleVariable), tupleKey);
+			return intern(new TupleAccessExpression(this.getSourceLocation(), subs.get(tupleVariable), tupleKey));
 		}
-		return new TupleAccessExpression(this.getSourceLocation(), tupleVariable, tupleKey);
+		return intern(this);
 	}
 
 	@Override
@@ -130,7 +148,7 @@ public class TupleAccessExpression extends Expression {
 //			return new TupleAccessExpression(this.getSourceLocation(), subs.get(tupleVariable), tupleKey);
 //			throw new RuntimeException("Not expected! " + subs.get(tupleVariable));
 		}
-		return this.deepCopy();
+		return intern(this);
 	}
 	
 }
@@ -19,7 +19,7 @@ import soottocfg.cfg.variable.Variable;
 public class UnaryExpression extends Expression {
 
 	private static final long serialVersionUID = -3534248180235954114L;
-	private Expression expression;
+	private final Expression expression;
 	private final UnaryOperator op;
 
 	public enum UnaryOperator {
@@ -89,6 +89,23 @@ public class UnaryExpression extends Expression {
 		throw new RuntimeException("Unknown case " + op);
 	}
 
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (other instanceof UnaryExpression && other.hashCode() == hashCode()) {
+			UnaryExpression o = (UnaryExpression) other;
+			return op == o.op && expression.equals(o.expression);
+		}
+		return false;
+	}
+
+	@Override
+	protected int computeHashCode() {
+		return 37 * op.hashCode() + expression.hashCode();
+	}
+
 	@Override
 	public UnaryExpression deepCopy() {		
 		return new UnaryExpression(getSourceLocation(), op, expression.deepCopy());
@@ -96,12 +113,12 @@ public class UnaryExpression extends Expression {
 
 	@Override
 	public UnaryExpression substitute(Map<Variable, Variable> subs) {
-		return new UnaryExpression(getSourceLocation(), op, expression.substitute(subs));
+		return intern(new UnaryExpression(getSourceLocation(), op, expression.substitute(subs)));
 	}
 
 	@Override
 	public UnaryExpression substituteVarWithExpression(Map<Variable, Expression> subs) {
-		return new UnaryExpression(getSourceLocation(), op, expression.substituteVarWithExpression(subs));
+		return intern(new UnaryExpression(getSourceLocation(), op, expression.substituteVarWithExpression(subs)));
 	}
 	
 }
@@ -76,7 +76,7 @@ public class BooleanLiteral extends Expression implements Literal{
 	}
 
 	@Override
-	public int hashCode() {
+	protected int computeHashCode() {
 		// same hash code as Boolean.hashCode
 		return value ? 1231 : 1237;
 	}
@@ -88,12 +88,12 @@ public class BooleanLiteral extends Expression implements Literal{
 	
 	@Override
 	public Expression substitute(Map<Variable, Variable> subs) {
-		return this.deepCopy();
+		return intern(this);
 	}
 
 	@Override
 	public Expression substituteVarWithExpression(Map<Variable, Expression> subs) {
-		return this.deepCopy();
+		return intern(this);
 	}
 
 }
@@ -21,6 +21,7 @@ import com.google.common.base.Preconditions;
 import soottocfg.cfg.LiveVars;
 import soottocfg.cfg.Node;
 import soottocfg.cfg.statement.Statement;
+import soottocfg.cfg.util.CfgChangeLog;
 import soottocfg.cfg.variable.Variable;
 import soottocfg.util.SetOperations;
 
@@ -45,6 +46,7 @@ public class CfgBlock implements Node, Serializable {
 		this.statements = new LinkedList<Statement>();
 		this.method = m;
 		this.method.addVertex(this);
+		CfgChangeLog.v().blockChanged(this);
 	}
 
 	/**
@@ -56,7 +58,8 @@ public class CfgBlock implements Node, Serializable {
 		this.label = label;
 		this.statements = new LinkedList<Statement>();
 		this.method = m;
-		this.method.addVertex(this);		
+		this.method.addVertex(this);
+		CfgChangeLog.v().blockChanged(this);
 	}
 
 	
@@ -74,6 +77,7 @@ public class CfgBlock implements Node, Serializable {
 	 */
 	public void addStatement(Statement s) {
 		this.statements.add(s);
+		CfgChangeLog.v().blockChanged(this);
 	}
 
 	/**
@@ -87,10 +91,12 @@ public class CfgBlock implements Node, Serializable {
 	public void addStatement(int position, Statement s) {
 		Preconditions.checkNotNull(s);
 		this.statements.add(position, s);
+		CfgChangeLog.v().blockChanged(this);
 	}
 	
 	/**
-	 * Get the {@link Statement} list of this block.
+	 * Get the {@link Statement} list of this block. Changes made
+	 * directly to this list are not recorded in the {@link CfgChangeLog}.
 	 * @return The {@link Statement} list
 	 */
 	public List<Statement> getStatements() {
@@ -99,14 +105,17 @@ public class CfgBlock implements Node, Serializable {
 	
 	public void removeStatement(Statement toRemove) {
 		this.statements.remove(toRemove);
+		CfgChangeLog.v().blockChanged(this);
 	}
 	
 	public void removeStatements(Collection<Statement> toRemove) {
 		this.statements.removeAll(toRemove);
+		CfgChangeLog.v().blockChanged(this);
 	}
 	
 	public void swapStatements(int i, int j) {
 		Collections.swap(this.statements, i, j);
+		CfgChangeLog.v().blockChanged(this);
 	}
 
 	/**
@@ -116,6 +125,7 @@ public class CfgBlock implements Node, Serializable {
 	 */
 	public void setStatements(Collection<Statement> statements) {
 		this.statements = new LinkedList<Statement>(statements);
+		CfgChangeLog.v().blockChanged(this);
 	}
 
 	@Override
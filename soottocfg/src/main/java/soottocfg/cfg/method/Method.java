@@ -37,10 +37,13 @@ import soottocfg.cfg.expression.Expression;
 import soottocfg.cfg.expression.IdentifierExpression;
 import soottocfg.cfg.statement.AssignStatement;
 import soottocfg.cfg.type.Type;
+import soottocfg.cfg.util.BitVectorDataFlow;
+import soottocfg.cfg.util.BitVectorDataFlow.Direction;
+import soottocfg.cfg.util.CfgChangeLog;
+import soottocfg.cfg.util.DenseNumbering;
 import soottocfg.cfg.variable.Variable;
 import soottocfg.soot.transformers.ArrayTransformer;
 import soottocfg.soot.util.SootTranslationHelpers;
-import soottocfg.util.SetOperations;
 
 /**
  * @author schaef extends DefaultDirectedGraph<Statement, DefaultEdge>
@@ -52,8 +55,7 @@ public class Method extends AbstractBaseGraph<CfgBlock, CfgEdge> implements Node
 	 */
 	private static final long serialVersionUID = 3367382274895641548L;
 
-	private final transient SourceLocation location; // TODO remove the
-														// transient
+	private final SourceLocation location;
 	private final String methodName;
 	private final List<Type> returnTypes;
 	private Variable thisVariable;
@@ -87,6 +89,15 @@ public class Method extends AbstractBaseGraph<CfgBlock, CfgEdge> implements Node
 	public Variable getThisVariable() {
 		return this.thisVariable;
 	}
+
+	/**
+	 * Sets the this-variable of a method whose body is built without
+	 * calling initialize, i.e., when the method is loaded from a file.
+	 * @param thisVariable the local that holds the current instance.
+	 */
+	public void setThisVariable(Variable thisVariable) {
+		this.thisVariable = thisVariable;
+	}
 	
 	/**
 	 * ONLY USE THIS METHOD DURING TESTING
@@ -99,12 +110,26 @@ public class Method extends AbstractBaseGraph<CfgBlock, CfgEdge> implements Node
 	 */
 	public static Method createMethodForTestingOnly(Program p, String uniqueName, List<Variable> params, List<Type> outTypes,
 			SourceLocation sourceLocation) {
+		return createMethodWithReturnTypes(p, uniqueName, params, outTypes, sourceLocation);
+	}
+
+	/**
+	 * Creates a method that returns exactly the given types. Unlike
+	 * createMethodInProgram, this does not add the exceptional return type
+	 * and does not need Soot, e.g., for a program that is loaded from a file
+	 * in which the exceptional return type is already part of the methods.
+	 * @param p
+	 * @param uniqueName
+	 * @param params
+	 * @param returnTypes
+	 * @param sourceLocation
+	 * @return
+	 */
+	public static Method createMethodWithReturnTypes(Program p, String uniqueName, List<Variable> params,
+			List<Type> returnTypes, SourceLocation sourceLocation) {
 		Preconditions.checkArgument(p.lookupMethod(uniqueName) == null,
 				"Method with name " + uniqueName + " already exists");
-		// add the exceptional return type to all methods that are generated.
-		List<Type> returnTypes = new LinkedList<Type>();
-		returnTypes.addAll(outTypes);
-		Method m = new Method(sourceLocation, uniqueName, params, returnTypes);
+		Method m = new Method(sourceLocation, uniqueName, params, new LinkedList<Type>(returnTypes));
 		p.addMethod(m);
 		return m;
 	}
@@ -158,6 +183,7 @@ public class Method extends AbstractBaseGraph<CfgBlock, CfgEdge> implements Node
 		if (this.sink == v) {
 			this.sink = null;
 		}
+		CfgChangeLog.v().blockRemoved(v);
 		return super.removeVertex(v);
 	}
 
@@ -479,46 +505,60 @@ public class Method extends AbstractBaseGraph<CfgBlock, CfgEdge> implements Node
 	/**
 	 * Return the set of live variable at the entry of each block. A variable is
 	 * live between its first and last use. Following the algorithm on p610 of
-	 * the dragon book, 2nd ed.
+	 * the dragon book, 2nd ed, as a backward problem of
+	 * {@link BitVectorDataFlow}. The variables on the labels of the incoming
+	 * and outgoing edges count as used by a block, the variables on the
+	 * outgoing labels are also live at its exit, and the out params are live
+	 * at the exit of the exit blocks.
 	 * 
 	 * @return
 	 */
 	public LiveVars<CfgBlock> computeBlockLiveVariables() {
 		Set<CfgBlock> cfg = this.vertexSet();
 
-		// Reserve the necessary size in the hashmap
-		Map<CfgBlock, Set<Variable>> in = new HashMap<CfgBlock, Set<Variable>>(cfg.size());
-		Map<CfgBlock, Set<Variable>> out = new HashMap<CfgBlock, Set<Variable>>(cfg.size());
-
-		// cache these to save time
+		// compute the use and def sets only once per block.
 		Map<CfgBlock, Set<Variable>> use = new HashMap<CfgBlock, Set<Variable>>(cfg.size());
 		Map<CfgBlock, Set<Variable>> def = new HashMap<CfgBlock, Set<Variable>>(cfg.size());
-
-		// Start by initializing in to empty. The book does this separately for
-		// exit and non exit blocks, but that's not necessary
-		// TODO can exit blocks have variables? E.g. can they return values? In
-		// which case we should actually recurse over all blocks!
+		Map<CfgBlock, Set<Variable>> liveAtExit = new HashMap<CfgBlock, Set<Variable>>(cfg.size());
+		DenseNumbering<Variable> vars = new DenseNumbering<Variable>();
 		for (CfgBlock b : cfg) {
-			in.put(b, new HashSet<Variable>());
 			use.put(b, b.getUseVariables());
 			def.put(b, b.getDefVariables());
-		}
-
-		boolean changed = false;
-
-		do {
-			changed = false;
-			for (CfgBlock b : cfg) {
-				out.put(b, b.computeLiveOut(in));
-				Set<Variable> newIn = SetOperations.union(use.get(b), SetOperations.minus(out.get(b), def.get(b)));
-
-				if (!newIn.equals(in.get(b))) {
-					changed = true;
-					in.put(b, newIn);
+			Set<Variable> exit = new HashSet<Variable>();
+			if (b.isExit()) {
+				exit.addAll(getOutParams());
+			}
+			for (CfgEdge edge : outgoingEdgesOf(b)) {
+				if (edge.getLabel().isPresent()) {
+					exit.addAll(edge.getLabel().get().getUseVariables());
 				}
 			}
-		} while (changed);
+			liveAtExit.put(b, exit);
+			for (Variable v : use.get(b)) {
+				vars.add(v);
+			}
+			for (Variable v : exit) {
+				vars.add(v);
+			}
+		}
+
+		BitVectorDataFlow<CfgBlock> liveness = new BitVectorDataFlow<CfgBlock>(this, Direction.BACKWARD,
+				vars.size());
+		for (CfgBlock b : cfg) {
+			BitVectorDataFlow.orInto(liveness.gen(b), vars.toBits(use.get(b)));
+			// toBits drops the variables that are never used, they need no
+			// kill bit.
+			BitVectorDataFlow.orInto(liveness.kill(b), vars.toBits(def.get(b)));
+			BitVectorDataFlow.orInto(liveness.boundary(b), vars.toBits(liveAtExit.get(b)));
+		}
+		liveness.solve();
 
+		Map<CfgBlock, Set<Variable>> in = new HashMap<CfgBlock, Set<Variable>>(cfg.size());
+		Map<CfgBlock, Set<Variable>> out = new HashMap<CfgBlock, Set<Variable>>(cfg.size());
+		for (CfgBlock b : cfg) {
+			in.put(b, vars.toSet(liveness.before(b)));
+			out.put(b, vars.toSet(liveness.after(b)));
+		}
 		return new LiveVars<CfgBlock>(in, out);
 	}
 
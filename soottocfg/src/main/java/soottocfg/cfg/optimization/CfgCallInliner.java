@@ -26,6 +26,7 @@ import soottocfg.cfg.statement.Statement;
 import soottocfg.cfg.type.ReferenceType;
 import soottocfg.cfg.variable.Variable;
 import soottocfg.soot.transformers.ArrayTransformer;
+import soottocfg.util.PhaseTimer;
 
 /**
  * @author schaef
@@ -144,6 +145,7 @@ public class CfgCallInliner {
 			return;
 		}
 		alreadyInlined.add(method.getMethodName());
+		PhaseTimer.v().checkBudget();
 		enforceSingleInlineableCallPerBlock(method, maxSize, maxOccurences);
 		List<CfgBlock> toRemove = new LinkedList<CfgBlock>();
 		for (CfgBlock b : new HashSet<CfgBlock>(method.vertexSet())) {
@@ -4,7 +4,6 @@
 package soottocfg.cfg.optimization.dataflow;
 
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -34,16 +33,6 @@ import soottocfg.soot.util.SootTranslationHelpers;
  */
 public class ConstPropagator {
 
-	private static boolean cfgEquals(Expression s1, Expression s2) {
-		// TODO: equals currently broken
-		return s1.toString().equals(s2.toString());
-	}
-
-	private static boolean cfgEquals(Statement s1, Statement s2) {
-		// TODO: equals currently broken
-		return s1.toString().equals(s2.toString());
-	}
-
 	public static void main(String[] args) {
 		Method m = createExampleProgram();
 		System.err.println(m);
@@ -73,9 +62,9 @@ public class ConstPropagator {
 			}
 			List<Statement> newStmts = new LinkedList<Statement>();
 			for (Statement s : b.getStatements()) {
-				Map<Variable, Expression> subsitutions = createSubstitutionMap(s.getUseVariables(), rdefs.in.get(s));
+				Map<Variable, Expression> subsitutions = createSubstitutionMap(s.getUseVariables(), rdefs, s, false);
 				Statement newStmt = s.substituteVarWithExpression(subsitutions);
-				changes = !cfgEquals(newStmt, s) ? true : changes;
+				changes = !newStmt.structurallyEquals(s) ? true : changes;
 				newStmts.add(newStmt);
 			}
 			if (changes) {
@@ -89,14 +78,13 @@ public class ConstPropagator {
 		boolean changes = false;
 		if (!b.getStatements().isEmpty()) {
 			Statement lastStmt = b.getStatements().get(b.getStatements().size() - 1);
-			Set<Statement> defStmts = rdefs.out.get(lastStmt);
 			for (CfgEdge e : m.outgoingEdgesOf(b)) {
 				if (e.getLabel().isPresent()) {
 					Expression expr = e.getLabel().get();
-					Map<Variable, Expression> subsitutions = createSubstitutionMap(expr.getUseVariables(), defStmts);
+					Map<Variable, Expression> subsitutions = createSubstitutionMap(expr.getUseVariables(), rdefs, lastStmt, true);
 					if (!subsitutions.isEmpty()) {
 						Expression newExpr = expr.substituteVarWithExpression(subsitutions);						
-						if (!cfgEquals(expr, newExpr)) {
+						if (!expr.equals(newExpr)) {
 							e.setLabel(newExpr);
 							changes = true;
 						}
@@ -107,14 +95,18 @@ public class ConstPropagator {
 		return changes;
 	}
 
-	private static Map<Variable, Expression> createSubstitutionMap(Set<Variable> useVars,
-			Set<Statement> reachingStatements) {
+	/**
+	 * Creates the substitutions for the variables in useVars at the point
+	 * before s, or after s if afterS holds.
+	 */
+	private static Map<Variable, Expression> createSubstitutionMap(Set<Variable> useVars, ReachingDefinitions rdefs,
+			Statement s, boolean afterS) {
 		Map<Variable, Expression> subsitutions = new HashMap<Variable, Expression>();
 		for (Variable v : useVars) {
 //			boolean debug = false;
 //			if (v.getName().contains("cp_$ex__9")) debug=true;
 			
-			Set<Statement> defStmts = getDefStatementsForVar(v, reachingStatements);
+			Set<Statement> defStmts = afterS ? rdefs.getOutDefinitions(s, v) : rdefs.getInDefinitions(s, v);
 //			if (debug) System.err.println("1 " + reachingStatements);
 			if (defStmts.size() == 1) {
 				Statement stmt = defStmts.iterator().next();
@@ -129,24 +121,6 @@ public class ConstPropagator {
 		return subsitutions;
 	}
 
-	/**
-	 * Returns the subset of statements that def the variable v.
-	 * This can be assignments, calls, or pulls.
-	 * 
-	 * @param v
-	 * @param reachingStatements
-	 * @return
-	 */
-	private static Set<Statement> getDefStatementsForVar(Variable v, Set<Statement> reachingStatements) {
-		Set<Statement> res = new HashSet<Statement>();
-		for (Statement s : reachingStatements) {
-			if (s.getDefVariables().contains(v)) {
-				res.add(s);
-			}
-		}
-		return res;
-	}
-
 	/**
 	 * Creates example program from Listing 17.3 on page 356
 	 * 
@@ -4,7 +4,6 @@
 package soottocfg.cfg.optimization.dataflow;
 
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -34,16 +33,6 @@ import soottocfg.soot.util.SootTranslationHelpers;
  */
 public class CopyPropagator {
 
-	private static boolean cfgEquals(Expression s1, Expression s2) {
-		// TODO: equals currently broken
-		return s1.toString().equals(s2.toString());
-	}
-
-	private static boolean cfgEquals(Statement s1, Statement s2) {
-		// TODO: equals currently broken
-		return s1.toString().equals(s2.toString());
-	}
-
 	public static void main(String[] args) {
 		Method m = createExampleProgram();
 		System.err.println(m);
@@ -71,9 +60,9 @@ public class CopyPropagator {
 			}
 			List<Statement> newStmts = new LinkedList<Statement>();
 			for (Statement s : b.getStatements()) {
-				Map<Variable, Variable> subsitutions = createSubstitutionMap(s.getUseVariables(), rdefs.in.get(s));
+				Map<Variable, Variable> subsitutions = createSubstitutionMap(s.getUseVariables(), rdefs, s, false);
 				Statement newStmt = s.substitute(subsitutions);
-				changes = !cfgEquals(newStmt, s) ? true : changes;				
+				changes = !newStmt.structurallyEquals(s) ? true : changes;				
 				newStmts.add(newStmt);
 			}
 			if (changes) {
@@ -87,14 +76,13 @@ public class CopyPropagator {
 		boolean changes = false;
 		if (!b.getStatements().isEmpty()) {
 			Statement lastStmt = b.getStatements().get(b.getStatements().size() - 1);
-			Set<Statement> defStmts = rdefs.out.get(lastStmt);
 			for (CfgEdge e : m.outgoingEdgesOf(b)) {
 				if (e.getLabel().isPresent()) {
 					Expression expr = e.getLabel().get();
-					Map<Variable, Variable> subsitutions = createSubstitutionMap(expr.getUseVariables(), defStmts);
+					Map<Variable, Variable> subsitutions = createSubstitutionMap(expr.getUseVariables(), rdefs, lastStmt, true);
 					if (!subsitutions.isEmpty()) {
 						Expression newExpr = expr.substitute(subsitutions);						
-						if (!cfgEquals(expr, newExpr)) {
+						if (!expr.equals(newExpr)) {
 							e.setLabel(newExpr);
 							changes = true;
 						}
@@ -105,11 +93,15 @@ public class CopyPropagator {
 		return changes;
 	}
 
-	private static Map<Variable, Variable> createSubstitutionMap(Set<Variable> useVars,
-			Set<Statement> reachingStatements) {
+	/**
+	 * Creates the substitutions for the variables in useVars at the point
+	 * before s, or after s if afterS holds.
+	 */
+	private static Map<Variable, Variable> createSubstitutionMap(Set<Variable> useVars, ReachingDefinitions rdefs,
+			Statement s, boolean afterS) {
 		Map<Variable, Variable> subsitutions = new HashMap<Variable, Variable>();
 		for (Variable v : useVars) {
-			Set<Statement> defStmts = getDefStatementsForVar(v, reachingStatements);
+			Set<Statement> defStmts = afterS ? rdefs.getOutDefinitions(s, v) : rdefs.getInDefinitions(s, v);
 			if (defStmts.size() == 1) {
 				Statement stmt = defStmts.iterator().next();
 				if (stmt instanceof AssignStatement
@@ -122,24 +114,6 @@ public class CopyPropagator {
 		return subsitutions;
 	}
 
-	/**
-	 * Returns the subset of statements that def the variable v.
-	 * This can be assignments, calls, or pulls.
-	 * 
-	 * @param v
-	 * @param reachingStatements
-	 * @return
-	 */
-	private static Set<Statement> getDefStatementsForVar(Variable v, Set<Statement> reachingStatements) {
-		Set<Statement> res = new HashSet<Statement>();
-		for (Statement s : reachingStatements) {
-			if (s.getDefVariables().contains(v)) {
-				res.add(s);
-			}
-		}
-		return res;
-	}
-
 	/**
 	 * Creates example program from Listing 17.3 on page 356
 	 * 
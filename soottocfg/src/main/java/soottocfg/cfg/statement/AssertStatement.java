@@ -19,7 +19,7 @@ import soottocfg.cfg.variable.Variable;
 public class AssertStatement extends Statement {
 
 	private static final long serialVersionUID = -2043514337815140767L;
-	private Expression expression;
+	private final Expression expression;
 
 	/**
 	 * @param createdFrom
@@ -53,6 +53,14 @@ public class AssertStatement extends Statement {
 		return new HashSet<IdentifierExpression>();
 	}
 
+	@Override
+	public boolean structurallyEquals(Statement other) {
+		if (other instanceof AssertStatement) {
+			return expression.equals(((AssertStatement) other).expression);
+		}
+		return false;
+	}
+
 	@Override
 	public AssertStatement deepCopy() {
 		return new AssertStatement(getSourceLocation(), expression.deepCopy());
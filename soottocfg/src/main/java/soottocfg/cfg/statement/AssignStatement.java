@@ -23,7 +23,7 @@ import soottocfg.soot.util.SootTranslationHelpers;
 public class AssignStatement extends Statement {
 
 	private static final long serialVersionUID = 6725099779878843508L;
-	private Expression left, right;
+	private final Expression left, right;
 
 	public Expression getLeft() {
 		return left;
@@ -83,6 +83,15 @@ public class AssignStatement extends Statement {
 		return res;
 	}
 
+	@Override
+	public boolean structurallyEquals(Statement other) {
+		if (other instanceof AssignStatement) {
+			AssignStatement o = (AssignStatement) other;
+			return left.equals(o.left) && right.equals(o.right);
+		}
+		return false;
+	}
+
 	@Override
 	public Statement deepCopy() {
 		return new AssignStatement(getSourceLocation(), left.deepCopy(), right.deepCopy());
@@ -23,7 +23,7 @@ public class AssumeStatement extends Statement {
 	 * 
 	 */
 	private static final long serialVersionUID = -4719730863944690585L;
-	private Expression expression;
+	private final Expression expression;
 
 	/**
 	 * @param createdFrom
@@ -58,6 +58,14 @@ public class AssumeStatement extends Statement {
 		return new HashSet<IdentifierExpression>();
 	}
 
+	@Override
+	public boolean structurallyEquals(Statement other) {
+		if (other instanceof AssumeStatement) {
+			return expression.equals(((AssumeStatement) other).expression);
+		}
+		return false;
+	}
+
 	@Override
 	public AssumeStatement deepCopy() {
 		return new AssumeStatement(getSourceLocation(), expression.deepCopy());
@@ -129,6 +129,15 @@ public class CallStatement extends Statement {
 		return res;
 	}
 
+	@Override
+	public boolean structurallyEquals(Statement other) {
+		if (other instanceof CallStatement) {
+			CallStatement o = (CallStatement) other;
+			return method == o.method && arguments.equals(o.arguments) && returnReceiver.equals(o.returnReceiver);
+		}
+		return false;
+	}
+
 	@Override
 	public CallStatement deepCopy() {
 		List<Expression> argCopy = new LinkedList<Expression>();
@@ -86,6 +86,15 @@ public class NewStatement extends Statement {
 		return this.counterVar;
 	}
 	
+	@Override
+	public boolean structurallyEquals(Statement other) {
+		if (other instanceof NewStatement) {
+			NewStatement o = (NewStatement) other;
+			return left.equals(o.left) && classVariable.getName().equals(o.classVariable.getName());
+		}
+		return false;
+	}
+
 	@Override
 	public NewStatement deepCopy() {
 		return new NewStatement(getSourceLocation(), left.deepCopy(), this.classVariable, this.counterVar);
@@ -127,6 +127,20 @@ public class PullStatement extends Statement {
 		return sb.toString();
 	}
 
+	/**
+	 * The pushes that can affect the pull are not compared, they are
+	 * annotations of the PushIdentifierAdder and not part of the statement.
+	 */
+	@Override
+	public boolean structurallyEquals(Statement other) {
+		if (other instanceof PullStatement) {
+			PullStatement o = (PullStatement) other;
+			return classConstant.getName().equals(o.classConstant.getName()) && object.equals(o.object)
+					&& left.equals(o.left) && ghostExpressions.equals(o.ghostExpressions);
+		}
+		return false;
+	}
+
 	@Override
 	public PullStatement deepCopy() {
 		List<IdentifierExpression> leftCopy = new LinkedList<IdentifierExpression>();
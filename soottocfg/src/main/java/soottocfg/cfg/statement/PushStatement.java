@@ -8,6 +8,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.base.Verify;
 
@@ -31,7 +32,8 @@ public class PushStatement extends Statement {
 	private final List<Expression> ghostExpressions;
 	
 	private final int id;	
-	private static int nextID = 0;
+	// shared by all jobs of the JVM, so it must be thread safe.
+	private static final AtomicInteger nextID = new AtomicInteger(0);
 	
 	/**
 	 * @param loc
@@ -89,7 +91,7 @@ public class PushStatement extends Statement {
 	
 	// had to put this in a method to silence findBugs...
 	private static int nextID() {
-		return ++nextID;
+		return nextID.incrementAndGet();
 	}
 	
     public ClassVariable getClassSignature() {
@@ -156,6 +158,16 @@ public class PushStatement extends Statement {
 		return sb.toString();
 	}
 
+	@Override
+	public boolean structurallyEquals(Statement other) {
+		if (other instanceof PushStatement) {
+			PushStatement o = (PushStatement) other;
+			return id == o.id && classConstant.getName().equals(o.classConstant.getName()) && object.equals(o.object)
+					&& right.equals(o.right) && ghostExpressions.equals(o.ghostExpressions);
+		}
+		return false;
+	}
+
 	// TODO check where this is used and what to do with ID
 	@Override
 	public Statement deepCopy() {
@@ -78,6 +78,18 @@ public abstract class Statement implements Node, Serializable {
 		return this.sourceLocation.getLineNumber();
 	}
 	
+	/**
+	 * Returns true if other does the same as this statement, i.e., if it is
+	 * the same kind of statement over equal expressions. Unlike expressions,
+	 * statements keep the identity equals of Object because they are the
+	 * program points in the dataflow analyses, and two copies of, e.g.,
+	 * x := x + 1 in one block are different points.
+	 * 
+	 * @param other
+	 * @return
+	 */
+	public abstract boolean structurallyEquals(Statement other);
+
 	public abstract Statement deepCopy();
 	
 	/**
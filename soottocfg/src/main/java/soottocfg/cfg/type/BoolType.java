@@ -26,6 +26,10 @@ public class BoolType extends PrimitiveType {
 		// TODO Auto-generated constructor stub
 	}
 
+	private Object readResolve() {
+		return instance;
+	}
+
 	public String toString() {
 		return "boolean";
 	}
@@ -21,4 +21,15 @@ public class Type implements Serializable {
 	protected Type() {
 	}
 
+	/**
+	 * Keeps the wildcard type a singleton when a program is deserialized.
+	 * @return
+	 */
+	private Object readResolve() {
+		if (getClass() == Type.class) {
+			return instance;
+		}
+		return this;
+	}
+
 }
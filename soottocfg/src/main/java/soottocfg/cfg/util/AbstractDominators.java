@@ -1,15 +1,17 @@
 /**
- * 
+ *
  */
 package soottocfg.cfg.util;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
 import org.jgrapht.DirectedGraph;
@@ -21,18 +23,33 @@ import com.google.common.base.Verify;
 /**
  * @author schaef
  *
+ *         The (post)dominators are computed with the algorithm of Cooper,
+ *         Harvey, and Kennedy ("A Simple, Fast Dominance Algorithm") on the
+ *         vertices numbered in reverse post-order, which yields the immediate
+ *         dominators directly. The dominator sets are never stored, a
+ *         dominance query is answered in constant time from the pre- and
+ *         post-order numbers of the vertices in the dominator tree.
+ *         Vertices that cannot be reached from the source (or cannot reach
+ *         the sink) are dominated by every vertex because there is no path
+ *         that could avoid one.
  */
 public abstract class AbstractDominators<V> {
 
 	private final DirectedGraph<V, ?> graph;
-	protected Map<V, Set<V>> dominators;
 	protected Map<V, V> iDominators;
 	protected Tree<V> dominatorTree;
 
+	// the number of each vertex that is reached from the source
+	// in reverse post-order of the flow direction.
+	private final Map<V, Integer> index = new HashMap<V, Integer>();
+	private final List<V> vertices = new ArrayList<V>();
+	// pre- and post-order numbers in the dominator tree.
+	private int[] treePre, treePost;
+
 	public AbstractDominators(DirectedGraph<V, ?> g) {
 		graph = g;
 	}
-	
+
 	/**
 	 * Get the directed graph for which the dominators are computed.
 	 * @return
@@ -40,26 +57,34 @@ public abstract class AbstractDominators<V> {
 	public DirectedGraph<V, ?> getGraph() {
 		return graph;
 	}
-	
+
 	/**
-	 * Check if node is dominated by dominator 
+	 * Check if node is dominated by dominator
 	 * @param node
 	 * @param dominator
 	 * @return
 	 */
 	public boolean isDominatedBy(V node, V dominator) {
-		if (!dominators.containsKey(node)) {
+		if (!graph.containsVertex(node)) {
 			throw new IllegalArgumentException("Node is not part of the graph: "+node);
 		}
-		if (!dominators.containsKey(dominator)) {
-			throw new IllegalArgumentException("Node is not part of the graph: "+node);
+		if (!graph.containsVertex(dominator)) {
+			throw new IllegalArgumentException("Node is not part of the graph: "+dominator);
+		}
+		final Integer n = index.get(node);
+		if (n == null) {
+			return true;
 		}
-		return dominators.get(node).contains(dominator);
+		final Integer d = index.get(dominator);
+		if (d == null) {
+			return false;
+		}
+		return treePre[d] <= treePre[n] && treePost[n] <= treePost[d];
 	}
 
 	/**
-	 * Check if node is strictly dominated by dominator 
-	 * (i.e., node!=dominator and dominator dominates node)  
+	 * Check if node is strictly dominated by dominator
+	 * (i.e., node!=dominator and dominator dominates node)
 	 * @param node
 	 * @param dominator
 	 * @return
@@ -86,7 +111,7 @@ public abstract class AbstractDominators<V> {
 		}
 		return false;
 	}
-	
+
 	/**
 	 * Get the immediate dominator for node
 	 * @param node
@@ -98,17 +123,24 @@ public abstract class AbstractDominators<V> {
 		}
 		return iDominators.get(node);
 	}
-	
+
 	/**
 	 * Get the dominators for node
 	 * @param node
 	 * @return
 	 */
 	public Set<V> getDominators(V node) {
-		if (!dominators.containsKey(node)) {
+		if (!graph.containsVertex(node)) {
 			throw new IllegalArgumentException("Node is not part of the graph: "+node);
 		}
-		return new HashSet<V>(dominators.get(node));
+		if (!index.containsKey(node)) {
+			return new HashSet<V>(graph.vertexSet());
+		}
+		Set<V> res = new HashSet<V>();
+		for (V dom = node; dom != null; dom = iDominators.get(dom)) {
+			res.add(dom);
+		}
+		return res;
 	}
 
 	/**
@@ -117,10 +149,14 @@ public abstract class AbstractDominators<V> {
 	 * @return
 	 */
 	public Map<V, Set<V>> getDominators() {
-		return new HashMap<V, Set<V>>(dominators);
+		Map<V, Set<V>> res = new HashMap<V, Set<V>>();
+		for (V node : graph.vertexSet()) {
+			res.put(node, getDominators(node));
+		}
+		return res;
 	}
 
-	
+
 	/**
 	 * Get the dominator tree of the graph.
 	 * @return
@@ -128,110 +164,164 @@ public abstract class AbstractDominators<V> {
 	public Tree<V> getDominatorTree() {
 		return dominatorTree;
 	}
-	
-	/**
-	 * Compute the immediate (post)dominator for each vertex. 
-	 * @param dom Mapping from each vertex to its set of (post)dominators.
-	 * @return Map from vertex to its immediate (post)dominator, or null if 
-	 *         the vertex does not have an immediate (post)dominator
-	 */
-	protected Map<V, V> computeImmediateDominators(Map<V, Set<V>> dom) {
-		Map<V, V> idominators = new HashMap<V, V>();
-		for (Entry<V, Set<V>> entry : dom.entrySet()) {
-			V idom = null;
-			for (V dominator : entry.getValue()) {
-				Set<V> dominatorDiff = new HashSet<V>(entry.getValue());
-				dominatorDiff.removeAll(dom.get(dominator));
-				if (dominatorDiff.size() == 1 && dominatorDiff.iterator().next() == entry.getKey()) {
-					idom = dominator;
-					break;
-				}
-			}			
-			idominators.put(entry.getKey(), idom);
-		}
-		return idominators;
-	}
 
 	/**
-	 * Computes the (post)dominators for all vertices in a graph
-	 * starting from the given source.
-	 * 
+	 * Computes the immediate (post)dominators and the (post)dominator tree
+	 * for all vertices in a graph starting from the given source.
+	 *
 	 * @param source
 	 *            The source vertex to start from (should be either source or
 	 *            sink)
 	 * @param forward
 	 *            true, for computing dominators; false, for computing
 	 *            post-dominators
-	 * @return
 	 */
-	protected Map<V, Set<V>> computeDominators(V source, boolean forward) {
+	protected void computeDominators(V source, boolean forward) {
 		Preconditions.checkArgument(graph.containsVertex(source));
-		Set<V> vertices = graph.vertexSet();
-		Map<V, Set<V>> dominators = new LinkedHashMap<V, Set<V>>(vertices.size());
-
-		// Initialize the set
-		for (V b : vertices) {
-			if (b.equals(source)) {
-				// The Source node only dominates itself
-				Set<V> tmp = new LinkedHashSet<V>();
-				tmp.add(b);
-				dominators.put(b, tmp);
-			} else {
-				// All other nodes are initialized to be the full graph. They
-				// will shrink later
-				Set<V> tmp = new LinkedHashSet<V>(vertices);
-				dominators.put(b, tmp);
+		if (!forward) {
+			for (V b : graph.vertexSet()) {
+				Verify.verify(b.equals(source) || graph.outDegreeOf(b) != 0, "Unexpected outdegree of 0 for "+b);
+			}
+		}
+		numberInReversePostOrder(source, forward);
+		final int n = vertices.size();
+		final int[][] upstream = new int[n][];
+		for (int i = 0; i < n; i++) {
+			V b = vertices.get(i);
+			List<V> preds = forward ? Graphs.predecessorListOf(graph, b) : Graphs.successorListOf(graph, b);
+			int[] tmp = new int[preds.size()];
+			int size = 0;
+			for (V pred : preds) {
+				Integer p = index.get(pred);
+				if (p != null) {
+					tmp[size++] = p;
+				}
 			}
+			upstream[i] = Arrays.copyOf(tmp, size);
 		}
 
+		// the source is its own immediate dominator here, -1 means that
+		// no immediate dominator has been found yet.
+		final int[] idom = new int[n];
+		Arrays.fill(idom, -1);
+		idom[0] = 0;
 		boolean changed;
 		do {
 			changed = false;
-			for (V b : vertices) {
-				// Source node is always only dominated by itself.
-				if (!b.equals(source)) {
-					Set<V> newDom = new HashSet<V>(vertices);
-					// This is a bit ugly way to handle the initialization
-					// of the intersection problem
-					// but it should work
-					if (forward) {
-						//Verify.verify(graph.inDegreeOf(b) != 0, "Unexpected indegree of 0 for " + b);
-						for (V inBlock : Graphs.predecessorListOf(graph, b)) {
-							newDom.retainAll(dominators.get(inBlock));
-						}
-					} else {
-						Verify.verify(graph.outDegreeOf(b) != 0, "Unexpected outdegree of 0 for "+b);
-						for (V inBlock : Graphs.successorListOf(graph, b)) {
-							newDom.retainAll(dominators.get(inBlock));
-						}
-					}
-
-					// every node dominates itself
-					newDom.add(b);
-					if (!newDom.equals(dominators.get(b))) {
-						dominators.put(b, newDom);
-						changed = true;
+			for (int b = 1; b < n; b++) {
+				int newIdom = -1;
+				for (int p : upstream[b]) {
+					if (idom[p] == -1) {
+						continue;
 					}
+					newIdom = newIdom == -1 ? p : intersect(idom, p, newIdom);
+				}
+				if (idom[b] != newIdom) {
+					idom[b] = newIdom;
+					changed = true;
 				}
 			}
 		} while (changed);
 
-		return dominators;
+		iDominators = new HashMap<V, V>();
+		for (V b : graph.vertexSet()) {
+			iDominators.put(b, null);
+		}
+		dominatorTree = new Tree<V>();
+		final int[][] children = new int[n][];
+		final int[] childCount = new int[n];
+		for (int b = 1; b < n; b++) {
+			iDominators.put(vertices.get(b), vertices.get(idom[b]));
+			dominatorTree.addEdge(vertices.get(idom[b]), vertices.get(b));
+			childCount[idom[b]]++;
+		}
+		for (int b = 0; b < n; b++) {
+			children[b] = new int[childCount[b]];
+			childCount[b] = 0;
+		}
+		for (int b = 1; b < n; b++) {
+			children[idom[b]][childCount[idom[b]]++] = b;
+		}
+		numberDominatorTree(children);
 	}
-	
+
 	/**
-	 * Creates a (post)dominator tree from a given map.
-	 * @param immediateDominators Mapping from vertex to its immediate (post)dominator.
-	 * @return A (post)dominator tree.
+	 * Walks up the dominator tree from a and b until the paths meet. Since the
+	 * vertices are numbered in reverse post-order, a dominator always has a
+	 * smaller number than the vertices it dominates.
 	 */
-	protected Tree<V> computeDominatorTree(Map<V, V> immediateDominators) {
-		Tree<V> dominatorTree = new Tree<V>();
-		for (Entry<V,V> entry : immediateDominators.entrySet()) {
-			if (entry.getValue()!=null) {
-				dominatorTree.addEdge(entry.getValue(), entry.getKey());
+	private static int intersect(int[] idom, int a, int b) {
+		while (a != b) {
+			while (a > b) {
+				a = idom[a];
+			}
+			while (b > a) {
+				b = idom[b];
+			}
+		}
+		return a;
+	}
+
+	/**
+	 * Numbers the vertices that can be reached from the source in reverse
+	 * post-order of the flow direction, i.e., the source gets 0.
+	 */
+	private void numberInReversePostOrder(V source, boolean forward) {
+		final Set<V> visited = new HashSet<V>();
+		final LinkedList<V> postOrder = new LinkedList<V>();
+		// iterative depth-first search, the stack holds the vertices
+		// together with the iterator over their successors.
+		final LinkedList<V> stack = new LinkedList<V>();
+		final LinkedList<Iterator<V>> succs = new LinkedList<Iterator<V>>();
+		visited.add(source);
+		stack.push(source);
+		succs.push(successorsOf(source, forward).iterator());
+		while (!stack.isEmpty()) {
+			if (succs.peek().hasNext()) {
+				final V succ = succs.peek().next();
+				if (visited.add(succ)) {
+					stack.push(succ);
+					succs.push(successorsOf(succ, forward).iterator());
+				}
+			} else {
+				postOrder.addFirst(stack.pop());
+				succs.pop();
+			}
+		}
+		for (V b : postOrder) {
+			index.put(b, vertices.size());
+			vertices.add(b);
+		}
+	}
+
+	private List<V> successorsOf(V b, boolean forward) {
+		return forward ? Graphs.successorListOf(graph, b) : Graphs.predecessorListOf(graph, b);
+	}
+
+	/**
+	 * Computes the pre- and post-order numbers of the dominator tree, a
+	 * vertex d dominates n iff n lies in the interval of d.
+	 */
+	private void numberDominatorTree(int[][] children) {
+		final int n = vertices.size();
+		treePre = new int[n];
+		treePost = new int[n];
+		final int[] stack = new int[n];
+		final int[] next = new int[n];
+		int top = 0, pre = 0, post = 0;
+		stack[top++] = 0;
+		treePre[0] = pre++;
+		while (top > 0) {
+			final int b = stack[top - 1];
+			if (next[b] < children[b].length) {
+				final int c = children[b][next[b]++];
+				treePre[c] = pre++;
+				stack[top++] = c;
+			} else {
+				treePost[b] = post++;
+				top--;
 			}
 		}
-		return dominatorTree;
 	}
 
 }
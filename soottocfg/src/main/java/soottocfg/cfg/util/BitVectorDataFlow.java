@@ -0,0 +1,305 @@
+package soottocfg.cfg.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jgrapht.DirectedGraph;
+import org.jgrapht.Graphs;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Solves gen/kill dataflow problems over the vertices of a graph, e.g.,
+ * live variables or reaching definitions. The facts are sets of densely
+ * numbered elements (see {@link DenseNumbering}) that are stored as bit
+ * vectors in long arrays, and the facts of the neighbors are joined by
+ * union. For each vertex v,
+ * <pre>
+ * input(v)  = boundary(v) + union of output(u) for the neighbors u upstream of v
+ * output(v) = gen(v) + (input(v) - kill(v))
+ * </pre>
+ * where the neighbors upstream are the predecessors in a FORWARD problem
+ * and the successors in a BACKWARD problem. The least solution is computed
+ * with a worklist that visits the vertices in reverse post-order of the
+ * flow direction.
+ *
+ * @param <V>
+ *            the vertex type.
+ */
+public class BitVectorDataFlow<V> {
+
+	public enum Direction {
+		FORWARD, BACKWARD
+	}
+
+	private final Direction direction;
+	private final int words;
+	private final Map<V, Integer> index = new HashMap<V, Integer>();
+	// the vertices in the order in which the worklist visits them.
+	private final List<V> order;
+	// for each vertex the vertices upstream and downstream of it.
+	private final int[][] upstream, downstream;
+	private final long[][] gen, kill, boundary, input, output;
+
+	/**
+	 * @param graph
+	 * @param direction
+	 * @param universe
+	 *            the number of elements, i.e., the length of the bit
+	 *            vectors.
+	 */
+	public BitVectorDataFlow(DirectedGraph<V, ?> graph, Direction direction, int universe) {
+		this.direction = direction;
+		this.words = wordsFor(universe);
+		this.order = visitOrder(graph, direction);
+		for (V v : order) {
+			index.put(v, index.size());
+		}
+		final int n = order.size();
+		upstream = new int[n][];
+		downstream = new int[n][];
+		for (V v : order) {
+			final List<V> preds = Graphs.predecessorListOf(graph, v);
+			final List<V> succs = Graphs.successorListOf(graph, v);
+			final boolean forward = direction == Direction.FORWARD;
+			upstream[index.get(v)] = indexes(forward ? preds : succs);
+			downstream[index.get(v)] = indexes(forward ? succs : preds);
+		}
+		gen = new long[n][words];
+		kill = new long[n][words];
+		boundary = new long[n][words];
+		input = new long[n][words];
+		output = new long[n][words];
+	}
+
+	/**
+	 * The elements that v adds to the facts that flow through it.
+	 * @param v
+	 * @return the bit vector, which can be modified before solve.
+	 */
+	public long[] gen(V v) {
+		return gen[indexOf(v)];
+	}
+
+	/**
+	 * The elements that v removes from the facts that flow through it.
+	 * @param v
+	 * @return the bit vector, which can be modified before solve.
+	 */
+	public long[] kill(V v) {
+		return kill[indexOf(v)];
+	}
+
+	/**
+	 * The elements that flow into v independent of its neighbors.
+	 * @param v
+	 * @return the bit vector, which can be modified before solve.
+	 */
+	public long[] boundary(V v) {
+		return boundary[indexOf(v)];
+	}
+
+	/**
+	 * Computes the least solution of the equations.
+	 */
+	public void solve() {
+		final int n = order.size();
+		final boolean[] dirty = new boolean[n];
+		Arrays.fill(dirty, true);
+		final long[] next = new long[words];
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int v = 0; v < n; v++) {
+				if (!dirty[v]) {
+					continue;
+				}
+				dirty[v] = false;
+				final long[] in = input[v];
+				System.arraycopy(boundary[v], 0, in, 0, words);
+				for (int u : upstream[v]) {
+					orInto(in, output[u]);
+				}
+				final long[] g = gen[v], k = kill[v];
+				for (int i = 0; i < words; i++) {
+					next[i] = g[i] | (in[i] & ~k[i]);
+				}
+				if (!Arrays.equals(next, output[v])) {
+					System.arraycopy(next, 0, output[v], 0, words);
+					for (int w : downstream[v]) {
+						dirty[w] = true;
+						changed = true;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The facts at the beginning of v in program order, i.e., the input
+	 * of a FORWARD problem and the output of a BACKWARD problem.
+	 * @param v
+	 * @return
+	 */
+	public long[] before(V v) {
+		return direction == Direction.FORWARD ? input[indexOf(v)] : output[indexOf(v)];
+	}
+
+	/**
+	 * The facts at the end of v in program order, i.e., the output of a
+	 * FORWARD problem and the input of a BACKWARD problem.
+	 * @param v
+	 * @return
+	 */
+	public long[] after(V v) {
+		return direction == Direction.FORWARD ? output[indexOf(v)] : input[indexOf(v)];
+	}
+
+	private int indexOf(V v) {
+		final Integer i = index.get(v);
+		Preconditions.checkArgument(i != null, "Not a vertex of the graph: %s", v);
+		return i;
+	}
+
+	private int[] indexes(List<V> vs) {
+		final int[] res = new int[vs.size()];
+		for (int i = 0; i < res.length; i++) {
+			res[i] = index.get(vs.get(i));
+		}
+		return res;
+	}
+
+	/**
+	 * Returns the vertices in reverse post-order of the flow direction,
+	 * starting from the vertices without upstream neighbors. Vertices that
+	 * cannot be reached from these come last.
+	 */
+	private static <V> List<V> visitOrder(DirectedGraph<V, ?> graph, Direction direction) {
+		final boolean forward = direction == Direction.FORWARD;
+		final Set<V> visited = new HashSet<V>();
+		final LinkedList<V> postOrder = new LinkedList<V>();
+		final List<V> roots = new ArrayList<V>();
+		for (V v : graph.vertexSet()) {
+			if ((forward ? graph.inDegreeOf(v) : graph.outDegreeOf(v)) == 0) {
+				roots.add(v);
+			}
+		}
+		roots.addAll(graph.vertexSet());
+		for (V root : roots) {
+			if (!visited.add(root)) {
+				continue;
+			}
+			// iterative depth-first search, the stack holds the vertices
+			// together with the iterator over their downstream neighbors.
+			final LinkedList<V> stack = new LinkedList<V>();
+			final LinkedList<Iterator<V>> children = new LinkedList<Iterator<V>>();
+			stack.push(root);
+			children.push(downstreamOf(graph, root, forward).iterator());
+			while (!stack.isEmpty()) {
+				if (children.peek().hasNext()) {
+					final V child = children.peek().next();
+					if (visited.add(child)) {
+						stack.push(child);
+						children.push(downstreamOf(graph, child, forward).iterator());
+					}
+				} else {
+					postOrder.addFirst(stack.pop());
+					children.pop();
+				}
+			}
+		}
+		return postOrder;
+	}
+
+	private static <V> List<V> downstreamOf(DirectedGraph<V, ?> graph, V v, boolean forward) {
+		return forward ? Graphs.successorListOf(graph, v) : Graphs.predecessorListOf(graph, v);
+	}
+
+	/*
+	 * Operations on bit vectors.
+	 */
+
+	public static int wordsFor(int universe) {
+		return (universe + 63) >>> 6;
+	}
+
+	public static long[] newBits(int universe) {
+		return new long[wordsFor(universe)];
+	}
+
+	public static void set(long[] bits, int i) {
+		bits[i >>> 6] |= 1L << i;
+	}
+
+	public static void clear(long[] bits, int i) {
+		bits[i >>> 6] &= ~(1L << i);
+	}
+
+	public static boolean get(long[] bits, int i) {
+		return (bits[i >>> 6] & (1L << i)) != 0;
+	}
+
+	/**
+	 * Adds the elements of src to dst.
+	 */
+	public static void orInto(long[] dst, long[] src) {
+		for (int i = 0; i < src.length; i++) {
+			dst[i] |= src[i];
+		}
+	}
+
+	/**
+	 * Removes the elements from dst that are not in src.
+	 */
+	public static void andInto(long[] dst, long[] src) {
+		for (int i = 0; i < src.length; i++) {
+			dst[i] &= src[i];
+		}
+	}
+
+	/**
+	 * Removes the elements of src from dst.
+	 */
+	public static void andNotInto(long[] dst, long[] src) {
+		for (int i = 0; i < src.length; i++) {
+			dst[i] &= ~src[i];
+		}
+	}
+
+	public static boolean intersects(long[] a, long[] b) {
+		for (int i = 0; i < a.length; i++) {
+			if ((a[i] & b[i]) != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the first element in bits that is at least from, or -1 if
+	 * there is none.
+	 */
+	public static int nextSetBit(long[] bits, int from) {
+		int word = from >>> 6;
+		if (word >= bits.length) {
+			return -1;
+		}
+		long w = bits[word] & (-1L << from);
+		while (true) {
+			if (w != 0) {
+				return (word << 6) + Long.numberOfTrailingZeros(w);
+			}
+			if (++word == bits.length) {
+				return -1;
+			}
+			w = bits[word];
+		}
+	}
+}
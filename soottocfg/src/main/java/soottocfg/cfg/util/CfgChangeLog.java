@@ -0,0 +1,92 @@
+package soottocfg.cfg.util;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import soottocfg.cfg.method.CfgBlock;
+import soottocfg.util.JobContext;
+
+/**
+ * Records which blocks were modified or removed while recording is
+ * enabled. The mutators of CfgBlock and Method report into this log,
+ * so the simplification passes do not need to track their edits.
+ * Statements that are changed directly through the list returned by
+ * CfgBlock.getStatements() are not recorded.
+ *
+ * Analyses that are updated incrementally (e.g., the points-to analysis)
+ * drain the log between two rounds of simplification.
+ */
+public class CfgChangeLog {
+
+	public static CfgChangeLog v() {
+		CfgChangeLog instance = JobContext.current().get(CfgChangeLog.class);
+		if (null == instance) {
+			instance = JobContext.current().putIfAbsent(CfgChangeLog.class, new CfgChangeLog());
+		}
+		return instance;
+	}
+
+	public static void resetInstance() {
+		JobContext.current().remove(CfgChangeLog.class);
+	}
+
+	private boolean recording = false;
+	private final Set<CfgBlock> changedBlocks = Collections
+			.newSetFromMap(new IdentityHashMap<CfgBlock, Boolean>());
+	private final Set<CfgBlock> removedBlocks = Collections
+			.newSetFromMap(new IdentityHashMap<CfgBlock, Boolean>());
+
+	private CfgChangeLog() {
+	}
+
+	public void startRecording() {
+		this.recording = true;
+	}
+
+	public void stopRecording() {
+		this.recording = false;
+		this.changedBlocks.clear();
+		this.removedBlocks.clear();
+	}
+
+	public boolean isRecording() {
+		return this.recording;
+	}
+
+	public void blockChanged(CfgBlock b) {
+		if (this.recording && !this.removedBlocks.contains(b)) {
+			this.changedBlocks.add(b);
+		}
+	}
+
+	public void blockRemoved(CfgBlock b) {
+		if (this.recording) {
+			this.changedBlocks.remove(b);
+			this.removedBlocks.add(b);
+		}
+	}
+
+	/**
+	 * Returns the blocks that changed since the last call and clears
+	 * them from the log.
+	 * @return
+	 */
+	public Set<CfgBlock> drainChangedBlocks() {
+		Set<CfgBlock> result = new LinkedHashSet<CfgBlock>(this.changedBlocks);
+		this.changedBlocks.clear();
+		return result;
+	}
+
+	/**
+	 * Returns the blocks that were removed since the last call and clears
+	 * them from the log.
+	 * @return
+	 */
+	public Set<CfgBlock> drainRemovedBlocks() {
+		Set<CfgBlock> result = new LinkedHashSet<CfgBlock>(this.removedBlocks);
+		this.removedBlocks.clear();
+		return result;
+	}
+}
@@ -9,10 +9,9 @@ import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
-import org.jgrapht.Graphs;
+import com.google.common.base.Preconditions;
 
 import soottocfg.cfg.Program;
 import soottocfg.cfg.SourceLocation;
@@ -29,6 +28,7 @@ import soottocfg.cfg.statement.PullStatement;
 import soottocfg.cfg.statement.Statement;
 import soottocfg.cfg.type.IntType;
 import soottocfg.cfg.type.Type;
+import soottocfg.cfg.util.BitVectorDataFlow.Direction;
 import soottocfg.cfg.variable.Variable;
 import soottocfg.soot.util.SootTranslationHelpers;
 
@@ -49,20 +49,96 @@ public class DataFlowUtils  {
 	
 	
 	
+	/**
+	 * The definitions that reach each statement of a method. Only
+	 * statements for which isGenStatement holds count as definitions.
+	 */
 	public static class ReachingDefinitions {
-		public Map<Statement, Set<Statement>> in, out;
-		
+		private final DenseNumbering<Statement> definitions;
+		// for each variable the definitions of it.
+		private final Map<Variable, long[]> defsOf;
+		// the definitions that reach each statement, in statement order.
+		private final Map<Statement, long[]> in;
+
+		private ReachingDefinitions(DenseNumbering<Statement> definitions, Map<Variable, long[]> defsOf,
+				Map<Statement, long[]> in) {
+			this.definitions = definitions;
+			this.defsOf = defsOf;
+			this.in = in;
+		}
+
+		/**
+		 * The definitions that reach s.
+		 * @param s
+		 * @return
+		 */
+		public Set<Statement> getIn(Statement s) {
+			return definitions.toSet(inBits(s));
+		}
+
+		/**
+		 * The definitions that reach the point after s.
+		 * @param s
+		 * @return
+		 */
+		public Set<Statement> getOut(Statement s) {
+			return definitions.toSet(outBits(s));
+		}
+
+		/**
+		 * The definitions of v that reach s.
+		 * @param s
+		 * @param v
+		 * @return
+		 */
+		public Set<Statement> getInDefinitions(Statement s, Variable v) {
+			return definitionsOf(inBits(s), v);
+		}
+
+		/**
+		 * The definitions of v that reach the point after s.
+		 * @param s
+		 * @param v
+		 * @return
+		 */
+		public Set<Statement> getOutDefinitions(Statement s, Variable v) {
+			return definitionsOf(outBits(s), v);
+		}
+
+		private Set<Statement> definitionsOf(long[] reaching, Variable v) {
+			final long[] defs = defsOf.get(v);
+			if (defs == null) {
+				return new HashSet<Statement>();
+			}
+			final long[] res = defs.clone();
+			for (int i = 0; i < res.length; i++) {
+				res[i] &= reaching[i];
+			}
+			return definitions.toSet(res);
+		}
+
+		private long[] inBits(Statement s) {
+			Preconditions.checkArgument(in.containsKey(s), "Not a statement of the method: %s", s);
+			return in.get(s);
+		}
+
+		private long[] outBits(Statement s) {
+			final long[] out = inBits(s).clone();
+			transfer(s, out, definitions, defsOf);
+			return out;
+		}
+
 		@Override
 		public String toString() {			
 			StringBuilder sb = new StringBuilder();
 			sb.append("Reaching Definitions:");
 			sb.append(System.getProperty("line.separator"));
 			List<Statement> statementList = new LinkedList<Statement>(in.keySet());
-			for (Entry<Statement, Set<Statement>> entry : in.entrySet()) {				 
-				sb.append(String.format("%1$5d:  %2$25s  ", statementList.indexOf(entry.getKey()), entry.getKey()));
+			for (Statement s : statementList) {				 
+				sb.append(String.format("%1$5d:  %2$25s  ", statementList.indexOf(s), s));
 				StringBuilder tmp = new StringBuilder();
 				String comma = "In: ";
-				for (Statement inS : entry.getValue()) {
+				for (Statement inS : getIn(s)) {
 					tmp.append(comma);
 					comma = ",";
 					tmp.append(statementList.indexOf(inS));
@@ -71,7 +147,7 @@ public class DataFlowUtils  {
 				
 				tmp = new StringBuilder();
 				comma = "Out: ";
-				for (Statement outS : out.get(entry.getKey())) {
+				for (Statement outS : getOut(s)) {
 					tmp.append(comma);
 					comma = ",";
 					tmp.append(statementList.indexOf(outS));
@@ -83,183 +159,87 @@ public class DataFlowUtils  {
 			return sb.toString();
 		}
 	}
-	
-	public static ReachingDefinitions computeReachingDefinitions(Method m) {
 
-		Map<Statement, Set<Statement>> gen = new LinkedHashMap<Statement, Set<Statement>>();
-		Map<Statement, Set<Statement>> kill = new LinkedHashMap<Statement, Set<Statement>>();
-		computeGenAndKillSets(m, gen, kill);
-		
-		// compute the predecessor-set for all statements
-		Map<Statement, Set<Statement>> predMap = getStatementPredecessorMap(m);
-		
-		Map<Statement, Set<Statement>> in = new LinkedHashMap<Statement, Set<Statement>>();
-		Map<Statement, Set<Statement>> out = new LinkedHashMap<Statement, Set<Statement>>();
-		
-		
-		List<Statement> allStatements = new LinkedList<Statement>(predMap.keySet());
-		for (Statement s : allStatements) {
-			in.put(s, new HashSet<Statement>());
-			out.put(s, new HashSet<Statement>());
-		}
-		boolean changed = true;
-		while(changed) {
-			changed = false;
-			for (Statement s : allStatements) {
-
-				//update the in-sets
-				Set<Statement> newIn = computeInSet(s, predMap, out);
-				if (!in.get(s).equals(newIn) ) {
-					changed = true;
-					in.get(s).clear();
-					in.get(s).addAll(newIn);
-				}
-				//update the out-sets
-				Set<Statement> newOut = new HashSet<Statement>();
-				//gen[s] \cup (in[s] - kill[s])
-				newOut.addAll(in.get(s));
-				newOut.removeAll(kill.get(s));
-				newOut.addAll(gen.get(s));
-				if (!out.get(s).equals(newOut)) {
-					changed = true;
-					out.get(s).clear();
-					out.get(s).addAll(newOut);
-				}
-			}
-		}
-		ReachingDefinitions reach = new ReachingDefinitions();
-		reach.in = in;
-		reach.out = out;
-		return reach;
-	}
-
-	private static Set<Statement> computeInSet(Statement s, Map<Statement, Set<Statement>> predMap, Map<Statement, Set<Statement>> out) {
-		Set<Statement> res = new HashSet<Statement>();
-		for (Statement pre : predMap.get(s)) {
-			if (!out.containsKey(s)) {
-				out.put(s, new HashSet<Statement>());
-			}
-			res.addAll(out.get(pre));
-		}
-		return res;
- 	}
-	
 	/**
-	 * Returns true if s generates an update to a variable.
-	 * @param s
+	 * Computes the reaching definitions as a forward problem of
+	 * {@link BitVectorDataFlow} over the blocks of m, and then the
+	 * definitions that reach each statement from the ones that reach its
+	 * block.
+	 * @param m
 	 * @return
 	 */
-	private static boolean isGenStatement(Statement s) {
-		return s instanceof AssignStatement || s instanceof CallStatement || s instanceof PullStatement || s instanceof NewStatement;
-	}
-	
-	private static void computeGenAndKillSets(Method m, Map<Statement, Set<Statement>> gen, Map<Statement, Set<Statement>> kill) {
-		Map<Variable, Set<Statement>> defs = new HashMap<Variable, Set<Statement>>();
-		// compute defs and gen sets before computing kill sets.
+	public static ReachingDefinitions computeReachingDefinitions(Method m) {
+		final DenseNumbering<Statement> definitions = new DenseNumbering<Statement>();
+		final Map<Variable, long[]> defsOf = new HashMap<Variable, long[]>();
 		for (CfgBlock b : m.vertexSet()) {
 			for (Statement s : b.getStatements()) {
-				// create the defs set.
-				for (Variable v : s.getDefVariables()) {
-					if (!defs.containsKey(v)) {
-						defs.put(v, new HashSet<Statement>());
-					}
-					defs.get(v).add(s);
-				}
-				// create the gen[s] map
-				Set<Statement> genSet = new HashSet<Statement>();
-				gen.put(s, genSet);
 				if (isGenStatement(s)) {
-					gen.get(s).add(s);
-				} // else do nothing.
+					definitions.add(s);
+				}
 			}
 		}
-		// now compute the kill sets
-		for (CfgBlock b : m.vertexSet()) {
-			for (Statement s : b.getStatements()) {
-				Set<Statement> killSet = new HashSet<Statement>();
-				kill.put(s, killSet);
-//				if (s instanceof AssignStatement || s instanceof CallStatement || s instanceof PullStatement) {
-					Set<Statement> defStatements = new HashSet<Statement>();
-					for (Variable v : s.getDefVariables()) {
-						defStatements.addAll(defs.get(v));
-					}
-					defStatements.remove(s);
-					kill.get(s).addAll(defStatements);
-//				} // else do nothing.
+		for (int i = 0; i < definitions.size(); i++) {
+			for (Variable v : definitions.get(i).getDefVariables()) {
+				if (!defsOf.containsKey(v)) {
+					defsOf.put(v, BitVectorDataFlow.newBits(definitions.size()));
+				}
+				BitVectorDataFlow.set(defsOf.get(v), i);
 			}
-		}		
-	}
- 	
-	/**
-	 * Compute the predecessor map that maps each statement in the method 
-	 * body to the set of its predecessor statements.
-	 * @param m
-	 * @return Map from statement to set of predecessor statements 
-	 */
-	private static Map<Statement, Set<Statement>> getStatementPredecessorMap(Method m) {
-		Map<Statement, Set<Statement>> pred = new LinkedHashMap<Statement, Set<Statement>>();
-
-		Map<CfgBlock, Set<Statement>> lastStmt = new HashMap<CfgBlock, Set<Statement>>();
+		}
 
-		List<CfgBlock> blockWithLastStatement = new LinkedList<CfgBlock>();
+		// gen and kill of a block are those of its statements in sequence.
+		final BitVectorDataFlow<CfgBlock> reaching = new BitVectorDataFlow<CfgBlock>(m, Direction.FORWARD,
+				definitions.size());
 		for (CfgBlock b : m.vertexSet()) {
-			lastStmt.put(b, new HashSet<Statement>());
-			if (!b.getStatements().isEmpty()) {
-				Statement last = b.getStatements().get(b.getStatements().size() - 1);
-				lastStmt.get(b).add(last);
-
-				Statement previousStmt = null;
-				for (Statement s : b.getStatements()) {
-					pred.put(s, new HashSet<Statement>());
-					if (previousStmt != null) {
-						pred.get(s).add(previousStmt);
+			final long[] gen = reaching.gen(b);
+			final long[] kill = reaching.kill(b);
+			for (Statement s : b.getStatements()) {
+				for (Variable v : s.getDefVariables()) {
+					if (defsOf.containsKey(v)) {
+						BitVectorDataFlow.orInto(kill, defsOf.get(v));
 					}
-					previousStmt = s;
 				}
-			} else {
-				blockWithLastStatement.add(b);
+				transfer(s, gen, definitions, defsOf);
 			}
 		}
-		
-		while (!blockWithLastStatement.isEmpty()) {
-			CfgBlock current = blockWithLastStatement.remove(0);
-			lastStmt.get(current)
-					.addAll(getPredecessorStatementRecursively(m, lastStmt, current, new HashSet<CfgBlock>()));
-		}
-		// now, the lastStmt map is complete and we can complete the pred map.
+		reaching.solve();
+
+		final Map<Statement, long[]> in = new LinkedHashMap<Statement, long[]>();
 		for (CfgBlock b : m.vertexSet()) {
-			for (CfgBlock pre : Graphs.predecessorListOf(m, b)) {
-				if (!b.getStatements().isEmpty()) {
-					pred.get(b.getStatements().get(0)).addAll(lastStmt.get(pre));
-				}
+			final long[] current = reaching.before(b).clone();
+			for (Statement s : b.getStatements()) {
+				in.put(s, current.clone());
+				transfer(s, current, definitions, defsOf);
 			}
 		}
-
-		return pred;
+		return new ReachingDefinitions(definitions, defsOf, in);
 	}
 
-	private static Set<Statement> getPredecessorStatementRecursively(Method m, Map<CfgBlock, Set<Statement>> lastStmt,
-			CfgBlock current, Set<CfgBlock> visited) {
-		Set<Statement> ret = new HashSet<Statement>();
-		if (lastStmt.containsKey(current) && !lastStmt.get(current).isEmpty()) {
-			return lastStmt.get(current);
-		} else if (visited.contains(current)) {
-			//we are in a loop
-			return ret;
-		}
-
-		Set<CfgBlock> rec_visited = new HashSet<CfgBlock>(visited);
-		rec_visited.add(current);
-		for (CfgBlock pre : Graphs.predecessorListOf(m, current)) {
-			ret.addAll(getPredecessorStatementRecursively(m, lastStmt, pre, rec_visited));
+	/**
+	 * Updates the definitions in bits to those after s:
+	 * gen[s] \cup (bits - kill[s])
+	 */
+	private static void transfer(Statement s, long[] bits, DenseNumbering<Statement> definitions,
+			Map<Variable, long[]> defsOf) {
+		for (Variable v : s.getDefVariables()) {
+			if (defsOf.containsKey(v)) {
+				BitVectorDataFlow.andNotInto(bits, defsOf.get(v));
+			}
 		}
-		if (!lastStmt.containsKey(current)) {
-			lastStmt.put(current, new HashSet<Statement>());
-			lastStmt.get(current).addAll(ret);
+		final int n = definitions.indexOf(s);
+		if (n >= 0) {
+			BitVectorDataFlow.set(bits, n);
 		}
-		return ret;
 	}
 
+	/**
+	 * Returns true if s generates an update to a variable.
+	 * @param s
+	 * @return
+	 */
+	private static boolean isGenStatement(Statement s) {
+		return s instanceof AssignStatement || s instanceof CallStatement || s instanceof PullStatement || s instanceof NewStatement;
+	}
 
 	/**
 	 * Creates example program from Listing 17.3 on page 356
@@ -0,0 +1,84 @@
+package soottocfg.cfg.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Numbers objects densely, starting from 0, in the order in which they
+ * are added. The numbers are the bit positions in the bit vectors of
+ * {@link BitVectorDataFlow}.
+ *
+ * @param <T>
+ */
+public class DenseNumbering<T> {
+
+	private final Map<T, Integer> numbers = new HashMap<T, Integer>();
+	private final List<T> elements = new ArrayList<T>();
+
+	/**
+	 * Returns the number of t, and numbers it first if it has none yet.
+	 * @param t
+	 * @return
+	 */
+	public int add(T t) {
+		Integer n = numbers.get(t);
+		if (n == null) {
+			n = elements.size();
+			numbers.put(t, n);
+			elements.add(t);
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the number of t, or -1 if t has none.
+	 * @param t
+	 * @return
+	 */
+	public int indexOf(T t) {
+		Integer n = numbers.get(t);
+		return n == null ? -1 : n;
+	}
+
+	public T get(int n) {
+		return elements.get(n);
+	}
+
+	public int size() {
+		return elements.size();
+	}
+
+	/**
+	 * Returns the bit vector of the numbered elements of ts. Elements
+	 * without a number are ignored.
+	 * @param ts
+	 * @return
+	 */
+	public long[] toBits(Iterable<T> ts) {
+		final long[] bits = BitVectorDataFlow.newBits(size());
+		for (T t : ts) {
+			final int n = indexOf(t);
+			if (n >= 0) {
+				BitVectorDataFlow.set(bits, n);
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * Returns the elements whose numbers are set in bits.
+	 * @param bits
+	 * @return
+	 */
+	public Set<T> toSet(long[] bits) {
+		final Set<T> set = new HashSet<T>();
+		for (int n = BitVectorDataFlow.nextSetBit(bits, 0); n >= 0; n = BitVectorDataFlow.nextSetBit(bits, n + 1)) {
+			set.add(elements.get(n));
+		}
+		return set;
+	}
+}
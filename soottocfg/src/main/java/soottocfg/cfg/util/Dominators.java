@@ -13,8 +13,6 @@ public class Dominators<V> extends AbstractDominators<V> {
 	
 	public Dominators(DirectedGraph<V, ?> g, V source) {
 		super(g);
-		dominators = computeDominators(source, true);
-		iDominators = computeImmediateDominators(dominators);
-		dominatorTree = computeDominatorTree(iDominators);
+		computeDominators(source, true);
 	}
 }
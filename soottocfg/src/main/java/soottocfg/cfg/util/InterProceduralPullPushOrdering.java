@@ -25,6 +25,7 @@ import soottocfg.cfg.statement.CallStatement;
 import soottocfg.cfg.statement.PullStatement;
 import soottocfg.cfg.statement.PushStatement;
 import soottocfg.cfg.statement.Statement;
+import soottocfg.cfg.util.BitVectorDataFlow.Direction;
 import soottocfg.cfg.variable.ClassVariable;
 import soottocfg.soot.SootToCfg;
 import soottocfg.soot.util.FlowBasedPointsToAnalysis;
@@ -33,6 +34,12 @@ import soottocfg.util.Pair;
 /**
  * @author schaef
  *
+ *         The pushes that influence a pull are the pushes from which the pull
+ *         can be reached in the interprocedural graph without passing a push
+ *         that must shadow them. The pushes that reach each vertex when
+ *         nothing is shadowed are computed for all vertices at once as a
+ *         forward bit-vector problem. The search backwards from a pull is
+ *         only needed where a shadowing push is still upstream.
  */
 public class InterProceduralPullPushOrdering {
 	private Map<Method, Pair<FixedPointObject, FixedPointObject>> methodEntryExit;
@@ -58,6 +65,12 @@ public class InterProceduralPullPushOrdering {
 
 	private final DirectedGraph<FixedPointObject, DefaultEdge> ipgraph;
 
+	// the vertices of the push statements, numbered for the bit vectors.
+	private final DenseNumbering<FixedPointObject> pushes = new DenseNumbering<FixedPointObject>();
+	// the pushes that reach each vertex if no push shadows another one,
+	// computed on the first query.
+	private BitVectorDataFlow<FixedPointObject> reachingPushes = null;
+
 	public InterProceduralPullPushOrdering(Method entryPoint) {
 		methodEntryExit = new HashMap<Method, Pair<FixedPointObject, FixedPointObject>>();
 		ipgraph = new DefaultDirectedGraph<FixedPointObject, DefaultEdge>(DefaultEdge.class);
@@ -69,6 +82,8 @@ public class InterProceduralPullPushOrdering {
 				Verify.verify(!pullMap.containsKey(pull),
 						pull.toString() + " already in there. " + fpo.containingMethod);
 				pullMap.put(pull, fpo);
+			} else if (fpo.stmt.isPresent() && fpo.stmt.get() instanceof PushStatement) {
+				pushes.add(fpo);
 			}
 		}
 	}
@@ -109,23 +124,10 @@ public class InterProceduralPullPushOrdering {
 //			System.err.println("Pull not reachable from program entry: " + pull);
 			return usedSubtypes;
 		}
-		FixedPointObject fpo = pullMap.get(pull);
-		Queue<FixedPointObject> todo = new LinkedList<FixedPointObject>();
-		todo.addAll(Graphs.predecessorListOf(ipgraph, fpo));
-		Set<FixedPointObject> done = new HashSet<FixedPointObject>();
-		while (!todo.isEmpty()) {
-			FixedPointObject cur = todo.remove();
-			done.add(cur);
-			if (cur.stmt.isPresent() && cur.stmt.get() instanceof PushStatement
-					&& (((PushStatement) cur.stmt.get()).getClassSignature().subclassOf(pull.getClassSignature()))) {
+		for (FixedPointObject cur : pushes.toSet(getReachingPushes().before(pullMap.get(pull)))) {
+			if (((PushStatement) cur.stmt.get()).getClassSignature().subclassOf(pull.getClassSignature())) {
 				usedSubtypes.add(((PushStatement) cur.stmt.get()).getClassSignature());
 			}
-			for (FixedPointObject pre : Graphs.predecessorListOf(ipgraph, cur)) {
-				if (!todo.contains(pre) && !done.contains(pre)) {
-					todo.add(pre);
-				}
-			}
-
 		}
 		return usedSubtypes;
 	}
@@ -152,38 +154,87 @@ public class InterProceduralPullPushOrdering {
 		}
 
 		FixedPointObject fpo = pullMap.get(pull);
+		final long[] reaching = getReachingPushes().before(fpo);
+		final long[] influencing = BitVectorDataFlow.newBits(pushes.size());
+		final long[] shadowing = BitVectorDataFlow.newBits(pushes.size());
+		boolean shadowed = false;
+		for (int i = BitVectorDataFlow.nextSetBit(reaching, 0); i >= 0; i = BitVectorDataFlow.nextSetBit(reaching, i + 1)) {
+			PushStatement push = (PushStatement) pushes.get(i).stmt.get();
+			if (mayAlias(push, pull)) {
+				BitVectorDataFlow.set(influencing, i);
+//				System.out.println("Must shadow " + push + " -> " + pull + " ?");
+				if (mustShadow(push, pull)) {
+//					System.out.println("Yes!");
+					BitVectorDataFlow.set(shadowing, i);
+					shadowed = true;
+				}
+			}
+		}
+		if (shadowed) {
+			BitVectorDataFlow.andInto(influencing, getUnshadowedPushes(fpo, shadowing));
+		}
+		ret.addAll(pushes.toSet(influencing));
+//		Verify.verify(!ret.isEmpty(),
+//				"Cannot find a push that affects this pull. This would introduce an assume(false): " + pull);		
+		return ret;
+	}
+
+	/**
+	 * Searches backwards from fpo for the pushes that reach it on a path on
+	 * which they are not followed by a push in shadowing. The search stops
+	 * at the shadowing pushes and at the vertices that no shadowing push
+	 * reaches, because every push that reaches those is unshadowed.
+	 * @param fpo
+	 * @param shadowing
+	 * @return
+	 */
+	private long[] getUnshadowedPushes(FixedPointObject fpo, long[] shadowing) {
+		final long[] ret = BitVectorDataFlow.newBits(pushes.size());
 		Queue<FixedPointObject> todo = new LinkedList<FixedPointObject>();
-		todo.addAll(Graphs.predecessorListOf(ipgraph, fpo));
-		Set<FixedPointObject> done = new HashSet<FixedPointObject>();
+		Set<FixedPointObject> seen = new HashSet<FixedPointObject>();
+		for (FixedPointObject pre : Graphs.predecessorListOf(ipgraph, fpo)) {
+			if (seen.add(pre)) {
+				todo.add(pre);
+			}
+		}
 		while (!todo.isEmpty()) {
 			FixedPointObject cur = todo.remove();
-			done.add(cur);
-			boolean stopTraverse = false;
-			if (cur.stmt.isPresent() && cur.stmt.get() instanceof PushStatement) {
-				PushStatement push = (PushStatement) cur.stmt.get();
-				if (mayAlias(push, pull)) {
-					ret.add(cur);
-//					System.out.println("Must shadow " + push + " -> " + pull + " ?");
-					if (mustShadow(push, pull)) {
-//						System.out.println("Yes!");
-						stopTraverse = true;
-					}
+			final int i = pushes.indexOf(cur);
+			if (i >= 0) {
+				BitVectorDataFlow.set(ret, i);
+				if (BitVectorDataFlow.get(shadowing, i)) {
+					continue;
 				}
 			}
-			
-			if (!stopTraverse) {
-				for (FixedPointObject pre : Graphs.predecessorListOf(ipgraph, cur)) {
-					if (!todo.contains(pre) && !done.contains(pre)) {
-						todo.add(pre);
-					}
+			final long[] reaching = getReachingPushes().before(cur);
+			if (!BitVectorDataFlow.intersects(reaching, shadowing)) {
+				BitVectorDataFlow.orInto(ret, reaching);
+				continue;
+			}
+			for (FixedPointObject pre : Graphs.predecessorListOf(ipgraph, cur)) {
+				if (seen.add(pre)) {
+					todo.add(pre);
 				}
 			}
 		}
-//		Verify.verify(!ret.isEmpty(),
-//				"Cannot find a push that affects this pull. This would introduce an assume(false): " + pull);		
 		return ret;
 	}
 
+	/**
+	 * Returns the pushes that reach each vertex of the graph.
+	 * @return
+	 */
+	private BitVectorDataFlow<FixedPointObject> getReachingPushes() {
+		if (reachingPushes == null) {
+			reachingPushes = new BitVectorDataFlow<FixedPointObject>(ipgraph, Direction.FORWARD, pushes.size());
+			for (int i = 0; i < pushes.size(); i++) {
+				BitVectorDataFlow.set(reachingPushes.gen(pushes.get(i)), i);
+			}
+			reachingPushes.solve();
+		}
+		return reachingPushes;
+	}
+
 	/**
 	 * Returns true if the objects in the push and pull statement may be aliased.
 	 * Current we approximate this by simply checking if their types are compatible.
@@ -13,9 +13,7 @@ public class PostDominators<V> extends AbstractDominators<V> {
 
 	public PostDominators(DirectedGraph<V, ?> g, V sink) {
 		super(g);		
-		dominators = computeDominators(sink, false);
-		iDominators = computeImmediateDominators(dominators);
-		dominatorTree = computeDominatorTree(iDominators);
+		computeDominators(sink, false);
 	}
 
 }
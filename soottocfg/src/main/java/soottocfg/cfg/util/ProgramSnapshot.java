@@ -0,0 +1,183 @@
+package soottocfg.cfg.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import soottocfg.cfg.Program;
+import soottocfg.soot.util.SootTranslationHelpers;
+
+/**
+ * Snapshot of a translated and simplified program, so that a later run on
+ * the same input can skip Soot and the simplifications. The snapshot is
+ * tagged with the main class of the program and a key that the caller
+ * computes from everything the translation depends on (e.g., the class
+ * files and the options). A snapshot with a different key, or one that
+ * was written by an incompatible version, is ignored.
+ *
+ * File format: a header with a magic number, the format version, the main
+ * class, and the key, followed by the deflated serialized program. The
+ * file is read through a memory-mapped buffer.
+ */
+public class ProgramSnapshot {
+
+	private static final int magic = 0x4A485053;
+	private static final int formatVersion = 1;
+
+	private final Path file;
+
+	/**
+	 * @param file
+	 *            The snapshot file.
+	 */
+	public ProgramSnapshot(Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * Returns the name of the main class of the program in the snapshot,
+	 * which is needed to compute the key before the program is loaded.
+	 * @return The main class, or null if there is no compatible snapshot.
+	 * @throws IOException
+	 *             If the snapshot cannot be read.
+	 */
+	public String readMainClass() throws IOException {
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (!readHeader(in)) {
+				return null;
+			}
+			return in.readUTF();
+		}
+	}
+
+	/**
+	 * Loads the program from the snapshot and registers it with the
+	 * {@link SootTranslationHelpers} of the current job, as if it had
+	 * just been translated.
+	 * @param key
+	 *            The key of the current input.
+	 * @return The program, or null if there is no snapshot for the key.
+	 * @throws IOException
+	 *             If the snapshot cannot be read, e.g., because the classes
+	 *             of the program have changed since it was written.
+	 */
+	public Program load(String key) throws IOException {
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			DataInputStream header = new DataInputStream(new ByteBufferInputStream(buffer));
+			if (!readHeader(header)) {
+				return null;
+			}
+			header.readUTF(); // main class
+			if (!key.equals(header.readUTF())) {
+				return null;
+			}
+			Program program;
+			try (ObjectInputStream in = new ObjectInputStream(
+					new InflaterInputStream(new ByteBufferInputStream(buffer), new Inflater(), 1 << 16))) {
+				program = (Program) in.readObject();
+			}
+			SootTranslationHelpers.initialize(program);
+			return program;
+		} catch (ClassNotFoundException | RuntimeException e) {
+			// e.g., the classes of the program have changed since.
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Writes the program to the snapshot file. The snapshot is written to
+	 * a temporary file first and then moved, so concurrent runs never see
+	 * a partial snapshot.
+	 * @param program
+	 * @param mainClass
+	 * @param key
+	 * @throws IOException
+	 *             If the snapshot cannot be written.
+	 */
+	public void save(Program program, String mainClass, String key) throws IOException {
+		Path dir = file.toAbsolutePath().getParent();
+		Files.createDirectories(dir);
+		Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+			DataOutputStream header = new DataOutputStream(out);
+			header.writeInt(magic);
+			header.writeInt(formatVersion);
+			header.writeUTF(mainClass);
+			header.writeUTF(key);
+			header.flush();
+			DeflaterOutputStream deflater = new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED),
+					1 << 16);
+			ObjectOutputStream objects = new ObjectOutputStream(deflater);
+			objects.writeObject(program);
+			objects.flush();
+			deflater.finish();
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static boolean readHeader(DataInputStream in) throws IOException {
+		return in.readInt() == magic && in.readInt() == formatVersion;
+	}
+
+	/**
+	 * Reads from the current position of a buffer, so the header and the
+	 * program can be read from the same mapped buffer one after the other.
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			return buffer.get() & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
@@ -29,9 +29,13 @@ import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
@@ -44,19 +48,26 @@ import com.google.common.reflect.ClassPath;
 import com.google.common.reflect.ClassPath.ClassInfo;
 
 import soot.ArrayType;
+import soot.Body;
+import soot.BodyTransformer;
 import soot.BooleanType;
 import soot.Modifier;
+import soot.Pack;
 import soot.PackManager;
 import soot.RefType;
 import soot.Scene;
 import soot.SootClass;
 import soot.SootField;
 import soot.SootMethod;
+import soot.Transform;
 import soot.Type;
 import soot.VoidType;
 import soot.jimple.Jimple;
 import soot.jimple.JimpleBody;
 import soottocfg.Options;
+import soottocfg.soot.util.LibrarySnapshot;
+import soottocfg.util.PhaseTimer;
+import soottocfg.util.PhaseTimer.Phase;
 
 /**
  * The Soot Runner
@@ -67,6 +78,9 @@ import soottocfg.Options;
 public class SootRunner {
 
 	private final soot.options.Options sootOpt;
+	private static final Set<String> specDirsWritten = new HashSet<String>();
+	private static final String mainSubSignature = "void main(java.lang.String[])";
+	private static final String budgetCheckPhaseName = "jtp.jayhornbudget";
 	// private final List<String> resolvedClassNames;
 
 	public SootRunner() {
@@ -84,7 +98,6 @@ public class SootRunner {
 		if (input.endsWith(".jar")) {
 			// run with JAR file
 			runWithJar(input, classPath);
-			throw new RuntimeException("currently not tested");
 		} else if (input.endsWith(".apk")) {
 			runWithApk(input, classPath);
 			throw new RuntimeException("currently not tested");
@@ -99,7 +112,9 @@ public class SootRunner {
 	}
 
 	/**
-	 * Runs Soot by using a JAR file
+	 * Runs Soot by using a JAR file. The classes are read directly from the
+	 * jar, and the jars in the Class-Path of its manifest (and of theirs)
+	 * are added to the class path.
 	 * 
 	 * @param jarFile
 	 *            JAR file
@@ -109,10 +124,22 @@ public class SootRunner {
 	 */
 	private void runWithJar(String jarFile, String classPath) {
 		try {
+			final File inputJar = new File(jarFile);
+			if (!inputJar.isFile()) {
+				throw new RuntimeException("Cannot read " + jarFile);
+			}
 			// extract dependent JARs
 			List<File> jarFiles = new ArrayList<File>();
-			jarFiles.addAll(extractClassPath(new File(jarFile)));
-			jarFiles.add(new File(jarFile));
+			jarFiles.add(inputJar);
+			for (int i = 0; i < jarFiles.size(); i++) {
+				for (File dependency : extractClassPath(jarFiles.get(i))) {
+					if (!dependency.isFile()) {
+						System.err.println("Class-Path entry not found: " + dependency);
+					} else if (!jarFiles.contains(dependency)) {
+						jarFiles.add(dependency);
+					}
+				}
+			}
 
 			// additional classpath available?
 			String cp = buildClassPath(jarFiles);
@@ -122,9 +149,25 @@ public class SootRunner {
 
 			// set soot-class-path
 			sootOpt.set_soot_classpath(cp);
+			sootOpt.set_src_prec(soot.options.Options.src_prec_only_class);
+
+			if (Options.v().useBuiltInSpecs()) {
+				List<String> processDirs = new LinkedList<String>();
+				processDirs.add(writeSpecPackageOnce().getAbsolutePath());
+				sootOpt.set_process_dir(processDirs);
+			}
 
 			// finally, run soot
-			loadClassesIntoScene(enumClasses(new File(jarFile)));
+			loadClassesIntoScene(enumClasses(inputJar));
+
+			// now set the main class
+			String mainClass = extractMainClass(inputJar);
+			if (mainClass != null && Scene.v().containsClass(mainClass)
+					&& Scene.v().getSootClass(mainClass).declaresMethod(mainSubSignature)) {
+				Scene.v().setMainClass(Scene.v().getSootClass(mainClass));
+			} else {
+				inferMainMethod();
+			}
 
 		} catch (Exception e) {
 			throw e;
@@ -179,9 +222,7 @@ public class SootRunner {
 			processDirs.add(path);
 
 			if (Options.v().useBuiltInSpecs()) {
-				File specDir = new File("spec_stuff/");
-				writeSpecPackageToDisc(specDir);
-				processDirs.add(specDir.getAbsolutePath());
+				processDirs.add(writeSpecPackageOnce().getAbsolutePath());
 			}
 			if (Options.v().checkMixedJavaClassFiles()) {
 				enforceNoSrcPolicy(processDirs);
@@ -259,8 +300,8 @@ public class SootRunner {
 	 * by Soot.
 	 * 
 	 * @param classes
-	 *            additional classes that need to be loaded (e.g., when
-	 *            analyzing jars)
+	 *            additional classes that need to be loaded and analyzed
+	 *            as application classes (e.g., when analyzing jars)
 	 */
 	protected void loadClassesIntoScene(List<String> classes) {
 		sootOpt.set_keep_line_number(true);
@@ -289,6 +330,15 @@ public class SootRunner {
 			// redirect soot output into a stream.
 			ByteArrayOutputStream baos = new ByteArrayOutputStream();
 			soot.G.v().out = new PrintStream(baos, true, "utf-8");
+
+			LibrarySnapshot snapshot = null;
+			if (Options.v().getLibrarySnapshotDir() != null) {
+				snapshot = new LibrarySnapshot(Options.v().getLibrarySnapshotDir(), Scene.v().getSootClassPath(),
+						sootOpt.process_dir());
+				snapshot.load();
+				PhaseTimer.v().count("librarySnapshotClasses", snapshot.getLoadedClassCount());
+			}
+
 			// Now load the soot classes.
 
 			Scene.v().loadBasicClasses();
@@ -298,8 +348,22 @@ public class SootRunner {
 			// //TODO: Is this reachable?
 			// loadNecessaryClasses();
 			// }
+			// the classes from a jar are analyzed like those from a process dir.
+			for (String s : classes) {
+				SootClass sc = Scene.v().getSootClass(s);
+				if (!sc.isPhantom()) {
+					sc.setApplicationClass();
+				}
+			}
+			PhaseTimer.v().checkBudget();
+			addBudgetCheck();
 			PackManager.v().runPacks();
+			PhaseTimer.v().checkBudget();
 			createAssertionClass();
+
+			if (snapshot != null) {
+				snapshot.save();
+			}
 			
 			/*
 			 * TODO: apply some preprocessing stuff like:
@@ -323,6 +387,25 @@ public class SootRunner {
 		}
 	}
 
+	/**
+	 * Adds a body transformer that checks the budget of the current phase
+	 * while Soot transforms the bodies. This may happen on Soot's worker
+	 * threads, so we pass the phase explicitly.
+	 */
+	private void addBudgetCheck() {
+		final Phase loadingPhase = PhaseTimer.v().current();
+		final Pack jtp = PackManager.v().getPack("jtp");
+		if (jtp.get(budgetCheckPhaseName) != null) {
+			jtp.remove(budgetCheckPhaseName);
+		}
+		jtp.add(new Transform(budgetCheckPhaseName, new BodyTransformer() {
+			@Override
+			protected void internalTransform(Body b, String phaseName, Map<String, String> options) {
+				PhaseTimer.v().checkBudget(loadingPhase);
+			}
+		}));
+	}
+
 	// private void loadNecessaryClasses() {
 	// for (String eachClassname : resolvedClassNames) {
 	// final SootClass theClass = Scene.v().loadClassAndSupport(eachClassname);
@@ -436,40 +519,49 @@ public class SootRunner {
 	}
 
 	/**
-	 * Enumerates all classes in a JAR file
+	 * Returns the Main-Class from the JAR's manifest or null.
+	 * 
+	 * @param file
+	 *            JAR file object
+	 * @return Name of the main class or null
+	 */
+	protected String extractMainClass(File file) {
+		try (JarFile jarFile = new JarFile(file)) {
+			Manifest manifest = jarFile.getManifest();
+			if (manifest == null || manifest.getMainAttributes() == null) {
+				return null;
+			}
+			return manifest.getMainAttributes().getValue(Attributes.Name.MAIN_CLASS);
+		} catch (IOException e) {
+			throw new RuntimeException(e.toString());
+		}
+	}
+
+	/**
+	 * Enumerates all classes in a JAR file. Only the central directory of
+	 * the jar is read, so nothing is extracted.
 	 * 
 	 * @param file
 	 *            a Jar file
-	 * @returns list of classes in the Jar file.
+	 * @returns sorted list of classes in the Jar file.
 	 */
 	protected List<String> enumClasses(File file) {
-		List<String> classes = new LinkedList<String>();
-		try {
-			// open JAR file
-			JarFile jarFile = new JarFile(file);
+		List<String> classes = new ArrayList<String>();
+		try (JarFile jarFile = new JarFile(file)) {
 			Enumeration<JarEntry> entries = jarFile.entries();
-
-			// iterate JAR entries
 			while (entries.hasMoreElements()) {
-				JarEntry entry = entries.nextElement();
-				String entryName = entry.getName();
-
-				if (entryName.endsWith(".class")) {
-					// get class
+				String entryName = entries.nextElement().getName();
+				// skip the multi-release versions and the module descriptor.
+				if (entryName.endsWith(".class") && !entryName.startsWith("META-INF/")
+						&& !entryName.endsWith("module-info.class")) {
 					String className = entryName.substring(0, entryName.length() - ".class".length());
-					className = className.replace('/', '.');
-
-					// add class
-					classes.add(className);
+					classes.add(className.replace('/', '.'));
 				}
 			}
-
-			// close JAR file
-			jarFile.close();
-
 		} catch (IOException e) {
 			throw new RuntimeException(e.getMessage());
 		}
+		Collections.sort(classes);
 		return classes;
 	}
 
@@ -477,6 +569,23 @@ public class SootRunner {
 	 * ======= below deals with writing out the spec classes
 	 */
 
+	/**
+	 * Writes the spec classes to spec_stuff/. Scanning the class path
+	 * for them is expensive, so a long running JVM only does it once.
+	 * @return The directory with the spec classes.
+	 */
+	protected File writeSpecPackageOnce() {
+		File specDir = new File("spec_stuff/");
+		// jobs that run in parallel must not read a half-written directory.
+		synchronized (specDirsWritten) {
+			if (!specDirsWritten.contains(specDir.getAbsolutePath()) || !specDir.isDirectory()) {
+				writeSpecPackageToDisc(specDir);
+				specDirsWritten.add(specDir.getAbsolutePath());
+			}
+		}
+		return specDir;
+	}
+
 	/**
 	 * Writes all classes from the soottocfg.spec to targetDir
 	 * so that we can use them later when re-writing the bytecode.
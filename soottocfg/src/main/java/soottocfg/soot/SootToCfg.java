@@ -32,6 +32,7 @@ import soot.jimple.toolkits.scalar.UnreachableCodeEliminator;
 import soottocfg.Options;
 import soottocfg.cfg.Program;
 import soottocfg.cfg.SourceLocation;
+import soottocfg.cfg.ast2cfg.Cfg2AstPrinter;
 import soottocfg.cfg.method.CfgBlock;
 import soottocfg.cfg.method.Method;
 import soottocfg.cfg.optimization.CfgCallInliner;
@@ -41,6 +42,7 @@ import soottocfg.cfg.optimization.dataflow.CopyPropagator;
 import soottocfg.cfg.optimization.dataflow.DeadCodeElimination;
 import soottocfg.cfg.statement.CallStatement;
 import soottocfg.cfg.statement.Statement;
+import soottocfg.cfg.util.CfgChangeLog;
 import soottocfg.cfg.variable.Variable;
 import soottocfg.soot.memory_model.MemoryModel;
 import soottocfg.soot.memory_model.NewMemoryModel;
@@ -58,6 +60,9 @@ import soottocfg.soot.util.FlowBasedPointsToAnalysis;
 import soottocfg.soot.util.MethodInfo;
 import soottocfg.soot.util.SootTranslationHelpers;
 import soottocfg.soot.visitors.SootStmtSwitch;
+import soottocfg.util.JobContext;
+import soottocfg.util.PhaseTimer;
+import soottocfg.util.PhaseTimer.Phase;
 
 /**
  * This is the main class for the translation. It first invokes Soot to load all
@@ -81,8 +86,6 @@ public class SootToCfg {
 	// Create a new program
 	private final Program program = new Program();
 
-	private static FlowBasedPointsToAnalysis pta;
-
 	public SootToCfg() {
 		this(new ArrayList<String>());
 		SootTranslationHelpers.initialize(program);
@@ -106,8 +109,10 @@ public class SootToCfg {
 	 */
 	public void run(String input, String classPath) {
 		// run soot to load all classes.
+		Phase phase = PhaseTimer.v().start("SootLoading");
 		SootRunner runner = new SootRunner();
 		runner.run(input, classPath);
+		phase.stop();
 
 		/*
 		 * Get a reference for the main method. We have to get the
@@ -115,10 +120,17 @@ public class SootToCfg {
 		 * this changes this signature of main.
 		 */
 		final SootMethod mainMethod = Scene.v().getMainMethod();
+		phase = PhaseTimer.v().start("BehaviorPreservingTransformations");
 		performBehaviorPreservingTransformations();
+		phase.stop();
+		phase = PhaseTimer.v().start("AbstractionTransformations");
 		performAbstractionTransformations();
+		phase.stop();
 
+		phase = PhaseTimer.v().start("ConstructCfg");
 		constructCfg();
+		countStatements();
+		phase.stop();
 
 		// now set the entry points.
 		Method m = program.lookupMethod(mainMethod.getSignature());
@@ -130,13 +142,18 @@ public class SootToCfg {
 		}
 
 		// stub
+		phase = PhaseTimer.v().start("Stubbing");
 		CfgStubber stubber = new CfgStubber();
 		stubber.stubUnboundFieldsAndMethods(program);
+		phase.stop();
 
 		// inline method calls
+		phase = PhaseTimer.v().start("Inlining");
 		CfgCallInliner inliner = new CfgCallInliner(program);
 		inliner.inlineFromMain(Options.v().getInlineMaxSize(), Options.v().getInlineCount());
 		removeUnreachableMethods(program);	
+		countStatements();
+		phase.stop();
 		
 		
 		
@@ -146,18 +163,38 @@ public class SootToCfg {
 			return;
 		}
 		
+		// the points-to analysis is computed once and then updated with the
+		// blocks that the simplifications changed in each round.
+		setPointsToAnalysis(null);
+		CfgChangeLog.resetInstance();
+		phase = PhaseTimer.v().start("Simplification");
 		boolean changed = true;
+		int round = 0;
 		while(changed) {
+			Phase roundPhase = PhaseTimer.v().start("Round" + (++round));
+			PhaseTimer.v().checkBudget();
 			changed = applyPullPushSimplification();
 			changed = applyDataFlowSimplifications() ? true : changed;
+			roundPhase.stop();
 		}
+		PhaseTimer.v().count("rounds", round);
+		countStatements();
+		phase.stop();
+		CfgChangeLog.v().stopRecording();
 		// add push IDs
+		phase = PhaseTimer.v().start("PushIdentifiers");
 		PushIdentifierAdder pia = new PushIdentifierAdder();
 		pia.addIDs(program);
+		phase.stop();
+
+		// the program as it is handed to the checker, which Ast2Cfg can load.
+		if (Options.v().outDir() != null) {
+			writeAstFile(".jh");
+		}
 
 		// print CFG
 		if (Options.v().printCFG()) {
-			System.out.println(program);
+			JobContext.current().out().println(program);
 		}
 
 		// reset all the soot stuff.
@@ -168,15 +205,25 @@ public class SootToCfg {
 	private boolean applyPullPushSimplification() {
 		boolean programChanged = false;
 		// alias analysis
-		setPointsToAnalysis(new FlowBasedPointsToAnalysis());
-		if (Options.v().memPrecision() >= Options.MEMPREC_PTA) {
-			getPointsToAnalysis().run(program);
+		Phase phase = PhaseTimer.v().start("PointsToAnalysis");
+		if (getPointsToAnalysis() == null) {
+			setPointsToAnalysis(new FlowBasedPointsToAnalysis());
+			if (Options.v().memPrecision() >= Options.MEMPREC_PTA) {
+				getPointsToAnalysis().run(program);
+				CfgChangeLog.v().startRecording();
+			}
+		} else if (CfgChangeLog.v().isRecording()) {
+			CfgChangeLog log = CfgChangeLog.v();
+			getPointsToAnalysis().update(log.drainChangedBlocks(), log.drainRemovedBlocks());
 		}
+		phase.stop();
 
 		// simplify push-pull
 		if (Options.v().memPrecision() >= Options.MEMPREC_SIMPLIFY) {
+			phase = PhaseTimer.v().start("PushPullSimplifier");
 			PushPullSimplifier pps = new PushPullSimplifier();
 			programChanged = pps.simplify(program);
+			phase.stop();
 			if (Options.v().outDir() != null)
 				writeFile(".simpl.cfg", program.toString());
 		}
@@ -186,9 +233,11 @@ public class SootToCfg {
 	private boolean applyDataFlowSimplifications() {
 		boolean programChanged = false;
 		if (Options.v().optimizeMethods) {
+			Phase phase = PhaseTimer.v().start("DataFlowSimplifications");
 			for (Method method : program.getMethods()) {
 				boolean changed = true;
 				while (changed) {					
+					PhaseTimer.v().checkBudget();
 					changed = false;
 					while (ConstPropagator.constPropagate(method)) {
 						changed = true;
@@ -207,6 +256,7 @@ public class SootToCfg {
 				}
 				method.getLocals().retainAll(allVars);				
 			}			
+			phase.stop();
 		}
 		return programChanged;
 	}
@@ -250,6 +300,7 @@ public class SootToCfg {
 			return;
 		}
 		SootTranslationHelpers.v().setCurrentMethod(sm);
+		PhaseTimer.v().checkBudget();
 
 		try {
 			Body body = null;
@@ -300,15 +351,41 @@ public class SootToCfg {
 	}
 
 	private void performAbstractionTransformations() {
+		Phase phase = PhaseTimer.v().start("StaticInitializerTransformer");
 		StaticInitializerTransformer sit = new StaticInitializerTransformer();
 		sit.applyTransformation();
+		phase.stop();
 
+		phase = PhaseTimer.v().start("ArrayTransformer");
 		ArrayTransformer atrans = new ArrayTransformer();
 		atrans.applyTransformation();
+		phase.stop();
 		if (Options.v().useBuiltInSpecs()) {
+			phase = PhaseTimer.v().start("SpecClassTransformer");
 			SpecClassTransformer spctrans = new SpecClassTransformer();
 			spctrans.applyTransformation();
+			phase.stop();
+		}
+	}
+
+	/**
+	 * Adds the number of methods and statements of the program, and the
+	 * size of the largest method, to the counters of the current phase.
+	 */
+	private void countStatements() {
+		long statements = 0;
+		long maxStatements = 0;
+		for (Method m : program.getMethods()) {
+			long size = 0;
+			for (CfgBlock b : m.vertexSet()) {
+				size += b.getStatements().size();
+			}
+			statements += size;
+			maxStatements = Math.max(maxStatements, size);
 		}
+		PhaseTimer.v().count("methods", program.getMethods().length);
+		PhaseTimer.v().count("statements", statements);
+		PhaseTimer.v().max("maxStatementsPerMethod", maxStatements);
 	}
 
 	/**
@@ -333,6 +410,7 @@ public class SootToCfg {
 				SootTranslationHelpers.v().setCurrentClass(sc);
 				for (SootMethod sm : sc.getMethods()) {
 					if (sm.isConcrete()) {
+						PhaseTimer.v().checkBudget();
 						addDefaultInitializers(sm, sc);
 
 						SootTranslationHelpers.v().setCurrentMethod(sm);
@@ -347,7 +425,10 @@ public class SootToCfg {
 
 						try {
 							// System.out.println(body);
+							Phase phase = PhaseTimer.v().start("UnreachableCodeEliminator");
 							UnreachableCodeEliminator.v().transform(body);
+							phase.stop();
+							phase = PhaseTimer.v().start("DuplicatedCatchDetection");
 							// detect duplicated finally blocks
 							DuplicatedCatchDetection duplicatedUnits = new DuplicatedCatchDetection();
 							Map<Unit, Set<Unit>> duplicatedFinallyUnits = duplicatedUnits
@@ -358,6 +439,7 @@ public class SootToCfg {
 									locations.add(SootTranslationHelpers.v().getSourceLocation(u));
 								}
 							}
+							phase.stop();
 						} catch (RuntimeException e) {
 							e.printStackTrace();
 							throw new RuntimeException("Behavior preserving transformation failed " + sm.getSignature()
@@ -367,15 +449,23 @@ public class SootToCfg {
 				}
 			}
 		}
+		Phase phase = PhaseTimer.v().start("AssertionReconstruction");
 		AssertionReconstruction ar = new AssertionReconstruction();
 		ar.applyTransformation();
+		phase.stop();
+		phase = PhaseTimer.v().start("ExceptionTransformer");
 		ExceptionTransformer em = new ExceptionTransformer(Options.v().excAsAssert());
 		em.applyTransformation();
+		phase.stop();
+		phase = PhaseTimer.v().start("SwitchStatementRemover");
 		SwitchStatementRemover so = new SwitchStatementRemover();
 		so.applyTransformation();
+		phase.stop();
 		if (Options.v().resolveVirtualCalls()) {
+			phase = PhaseTimer.v().start("VirtualCallResolver");
 			VirtualCallResolver vc = new VirtualCallResolver();
 			vc.applyTransformation();
+			phase.stop();
 		}
 	}
 
@@ -464,12 +554,22 @@ public class SootToCfg {
 		}
 	}
 
+	private void writeAstFile(String extension) {
+		Path file = Paths.get(Options.v().outDir().toString() + Options.v().outBaseName() + extension);
+		try {
+			Files.createDirectories(Options.v().outDir());
+			Cfg2AstPrinter.printProgramToFile(program, file.toFile());
+		} catch (Exception e) {
+			System.err.println("Error writing file " + file);
+		}
+	}
+
 	public static FlowBasedPointsToAnalysis getPointsToAnalysis() {
-		return pta;
+		return JobContext.current().get(FlowBasedPointsToAnalysis.class);
 	}
 
-	private static void setPointsToAnalysis(FlowBasedPointsToAnalysis pointsto) {
-		pta = pointsto;
+	public static void setPointsToAnalysis(FlowBasedPointsToAnalysis pointsto) {
+		JobContext.current().put(FlowBasedPointsToAnalysis.class, pointsto);
 	}
 
 	private void removeUnreachableMethods(Program program) {
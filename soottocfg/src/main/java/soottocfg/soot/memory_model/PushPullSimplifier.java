@@ -31,6 +31,7 @@ import soottocfg.cfg.util.LoopFinder;
 import soottocfg.cfg.variable.ClassVariable;
 import soottocfg.cfg.variable.Variable;
 import soottocfg.soot.SootToCfg;
+import soottocfg.util.PhaseTimer;
 
 public class PushPullSimplifier {
 	
@@ -57,6 +58,7 @@ public class PushPullSimplifier {
 			Set<CfgBlock> blocks = m.vertexSet();
 			int simplifications;
 			do {
+				PhaseTimer.v().checkBudget();
 				// intra-block simplification
 				for (CfgBlock block : blocks) {
 					change = simplify(block) ? true : change;
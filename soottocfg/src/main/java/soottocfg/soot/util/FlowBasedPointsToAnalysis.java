@@ -1,11 +1,16 @@
 package soottocfg.soot.util;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.Map.Entry;
 
 import com.google.common.base.Verify;
 
@@ -19,180 +24,487 @@ import soottocfg.cfg.statement.CallStatement;
 import soottocfg.cfg.statement.NewStatement;
 import soottocfg.cfg.statement.Statement;
 import soottocfg.cfg.type.ReferenceType;
+import soottocfg.cfg.variable.ClassVariable;
 import soottocfg.cfg.variable.Variable;
+import soottocfg.util.PhaseTimer;
 
 /**
+ * Flow-insensitive points-to analysis. Every reference variable gets a
+ * dense index, and the assignments and calls of the program are
+ * collected into a constraint graph with an edge from right to
+ * left for each well typed copy. Points-to sets are bit sets over the
+ * allocation sites and are propagated with a worklist, where each node
+ * only pushes the allocation sites it learned since it was last
+ * processed (difference propagation).
+ *
+ * The constraints are kept per block, so after the program has been
+ * simplified the analysis can be updated with only the blocks that
+ * changed (see {@link #update(Collection, Collection)}). New edges and
+ * allocation sites are propagated as usual. For removed edges and sites,
+ * the nodes reachable from them are reset to their own allocation sites
+ * and re-derived from their remaining predecessors.
+ *
  * @author rodykers
  */
 public class FlowBasedPointsToAnalysis {
-	
+
+	// check the budget of the current phase every 1024 worklist steps.
+	private static final int budgetCheckInterval = 0x3FF;
+
+	/**
+	 * Constraints contributed by the statements of one block.
+	 */
+	private static class BlockConstraints {
+		// variable id and allocation site of each NewStatement, in order
+		final List<int[]> sites = new ArrayList<int[]>();
+		// copy edges, see edgeKey
+		final List<Long> edges = new ArrayList<Long>();
+	}
+
 	private int nextAliasClass = 0;
-	private Map<Variable,Set<Integer>> pointsTo = new HashMap<Variable,Set<Integer>>();
-	
+	private final BitSet freeAliasClasses = new BitSet();
+
+	private final Map<Variable, Integer> variableIds = new HashMap<Variable, Integer>();
+	private final List<BitSet> pointsTo = new ArrayList<BitSet>();
+	private final List<BitSet> delta = new ArrayList<BitSet>();
+	// allocation sites of the NewStatements that assign to each variable
+	private final List<BitSet> ownSites = new ArrayList<BitSet>();
+	private final List<IntList> successors = new ArrayList<IntList>();
+	private final List<IntList> predecessors = new ArrayList<IntList>();
+	// number of statements that contribute each copy edge
+	private final Map<Long, Integer> edgeCount = new HashMap<Long, Integer>();
+
+	private final Map<CfgBlock, BlockConstraints> blockConstraints = new IdentityHashMap<CfgBlock, BlockConstraints>();
+
 	public void run(Program program) {
-		// first add allocation site / alias class to all constructor calls
+		List<CfgBlock> blocks = new LinkedList<CfgBlock>();
 		for (Method m : program.getMethods()) {
-			for (CfgBlock b : m.vertexSet()) {
-				for (Statement s : b.getStatements()) {
-					if (s instanceof NewStatement) {
-						NewStatement ns = (NewStatement) s;
-						Set<Integer> pt = getPointsToSet(ns.getLeft());
-						pt.add(nextAliasClass++);
-					}
+			blocks.addAll(m.vertexSet());
+		}
+		update(blocks, Collections.<CfgBlock> emptyList());
+	}
+
+	/**
+	 * Updates the points-to sets after the statements of the blocks in
+	 * {@code changed} have been modified and the blocks in {@code removed}
+	 * have been deleted from the program. Blocks that are not known to the
+	 * analysis yet are added.
+	 * @param changed
+	 * @param removed
+	 */
+	public void update(Collection<CfgBlock> changed, Collection<CfgBlock> removed) {
+		final Map<Long, Integer> edgeChanges = new HashMap<Long, Integer>();
+		final List<int[]> removedSites = new ArrayList<int[]>();
+		final List<int[]> addedSites = new ArrayList<int[]>();
+
+		for (CfgBlock b : removed) {
+			BlockConstraints old = blockConstraints.remove(b);
+			if (old != null) {
+				diff(old, new BlockConstraints(), edgeChanges, removedSites, addedSites);
+			}
+		}
+		for (CfgBlock b : changed) {
+			if (!b.getMethod().containsVertex(b)) {
+				continue;
+			}
+			BlockConstraints old = blockConstraints.get(b);
+			if (old == null) {
+				old = new BlockConstraints();
+			}
+			BlockConstraints current = collectConstraints(b);
+			diff(old, current, edgeChanges, removedSites, addedSites);
+			blockConstraints.put(b, current);
+		}
+
+		// update the constraint graph
+		final BitSet dirty = new BitSet();
+		final List<Long> addedEdges = new ArrayList<Long>();
+		for (Entry<Long, Integer> entry : edgeChanges.entrySet()) {
+			final long key = entry.getKey();
+			final int before = edgeCount.containsKey(key) ? edgeCount.get(key) : 0;
+			final int after = before + entry.getValue();
+			Verify.verify(after >= 0);
+			if (after == 0) {
+				edgeCount.remove(key);
+			} else {
+				edgeCount.put(key, after);
+			}
+			if (before > 0 && after == 0) {
+				successors.get(edgeSource(key)).remove(edgeTarget(key));
+				predecessors.get(edgeTarget(key)).remove(edgeSource(key));
+				dirty.set(edgeTarget(key));
+			} else if (before == 0 && after > 0) {
+				successors.get(edgeSource(key)).add(edgeTarget(key));
+				predecessors.get(edgeTarget(key)).add(edgeSource(key));
+				addedEdges.add(key);
+			}
+		}
+		for (int[] site : removedSites) {
+			ownSites.get(site[0]).clear(site[1]);
+			dirty.set(site[0]);
+		}
+		for (int[] site : addedSites) {
+			ownSites.get(site[0]).set(site[1]);
+		}
+
+		// over-delete everything that may depend on a removed edge or site ...
+		final BitSet reset = reachableFrom(dirty);
+		for (int node = reset.nextSetBit(0); node >= 0; node = reset.nextSetBit(node + 1)) {
+			pointsTo.set(node, (BitSet) ownSites.get(node).clone());
+		}
+		// ... and re-derive it from the predecessors that were not reset.
+		for (int node = reset.nextSetBit(0); node >= 0; node = reset.nextSetBit(node + 1)) {
+			for (int i = 0; i < predecessors.get(node).size(); i++) {
+				final int pred = predecessors.get(node).get(i);
+				if (!reset.get(pred)) {
+					pointsTo.get(node).or(pointsTo.get(pred));
 				}
 			}
+			delta.set(node, (BitSet) pointsTo.get(node).clone());
+		}
+		for (long key : addedEdges) {
+			final int source = edgeSource(key);
+			final int target = edgeTarget(key);
+			if (!reset.get(source) && !reset.get(target)) {
+				final BitSet newSites = (BitSet) pointsTo.get(source).clone();
+				newSites.andNot(pointsTo.get(target));
+				pointsTo.get(target).or(newSites);
+				delta.get(target).or(newSites);
+			}
 		}
-		
-		// then propagate point to sets until we reach a fixpoint
-		int changes;
-		do {
-			changes = 0;
-
-			// go over all assignments and method calls and update points to sets
-			for (Method m : program.getMethods()) {
-				for (CfgBlock b : m.vertexSet()) {
-					for (Statement s : b.getStatements()) {
-						if (s instanceof AssignStatement) {
-							AssignStatement as = (AssignStatement) s;
-							if (refType(as.getLeft()) && refType(as.getRight())
-									&& !(as.getRight() instanceof NullLiteral)) {
-								Variable left = variableFromExpression(as.getLeft());
-								Variable right = variableFromExpression(as.getRight());
-								changes += rightIntoLeft(right, left);
-							}
-						} else if (s instanceof CallStatement) {
-							CallStatement cs = (CallStatement) s;
-							Method target = cs.getCallTarget();
-							List<Variable> params = target.getInParams();
-							List<Expression> args = cs.getArguments();
-							Verify.verify(params.size()==args.size());
-							for (int i = 0; i < params.size(); i++) {
-								Variable left = params.get(i);
-								if (refType(left) && refType(args.get(i))
-										&& !(args.get(i) instanceof NullLiteral)) {
-									Variable right = variableFromExpression(args.get(i));
-									changes += rightIntoLeft(right, left);
-								}
-							}
-							List<Variable> rets = target.getOutParams();
-							List<Expression> rec = cs.getReceiver();
-							Verify.verify(rec.size()==1 || rets.size()==rec.size(),
-									"In "+m.getMethodName()+ " for "+ cs+": "+rets.size()+"!="+rec.size());
-							for (int i = 1; i < rec.size(); i++) {
-								if (refType(rec.get(i)) && refType(rets.get(i-1))) {
-									Variable left = variableFromExpression(rec.get(i));
-									Variable right = rets.get(i-1);
-									changes += rightIntoLeft(right, left);
-								}
-							}
-						}
+		for (int[] site : addedSites) {
+			if (!reset.get(site[0])) {
+				pointsTo.get(site[0]).set(site[1]);
+				delta.get(site[0]).set(site[1]);
+			}
+		}
+
+		// then propagate the points-to sets until we reach a fixpoint
+		propagate();
+
+		// only now the removed sites are gone from all points-to sets.
+		for (int[] site : removedSites) {
+			freeAliasClasses.set(site[1]);
+		}
+	}
+
+	/**
+	 * Collects the allocation sites and copy constraints of all
+	 * assignments and method calls in b.
+	 * @param b
+	 * @return
+	 */
+	private BlockConstraints collectConstraints(CfgBlock b) {
+		BlockConstraints bc = new BlockConstraints();
+		for (Statement s : b.getStatements()) {
+			if (s instanceof NewStatement) {
+				NewStatement ns = (NewStatement) s;
+				// the alias class is assigned in diff.
+				bc.sites.add(new int[] { getVariableId(variableFromExpression(ns.getLeft())), -1 });
+			} else if (s instanceof AssignStatement) {
+				AssignStatement as = (AssignStatement) s;
+				if (refType(as.getLeft()) && refType(as.getRight())
+						&& !(as.getRight() instanceof NullLiteral)) {
+					Variable left = variableFromExpression(as.getLeft());
+					Variable right = variableFromExpression(as.getRight());
+					addEdge(bc, right, left);
+				}
+			} else if (s instanceof CallStatement) {
+				CallStatement cs = (CallStatement) s;
+				Method target = cs.getCallTarget();
+				List<Variable> params = target.getInParams();
+				List<Expression> args = cs.getArguments();
+				Verify.verify(params.size()==args.size());
+				for (int i = 0; i < params.size(); i++) {
+					Variable left = params.get(i);
+					if (refType(left) && refType(args.get(i))
+							&& !(args.get(i) instanceof NullLiteral)) {
+						Variable right = variableFromExpression(args.get(i));
+						addEdge(bc, right, left);
+					}
+				}
+				List<Variable> rets = target.getOutParams();
+				List<Expression> rec = cs.getReceiver();
+				Verify.verify(rec.size()==1 || rets.size()==rec.size(),
+						"In "+b.getMethod().getMethodName()+ " for "+ cs+": "+rets.size()+"!="+rec.size());
+				for (int i = 1; i < rec.size(); i++) {
+					if (refType(rec.get(i)) && refType(rets.get(i-1))) {
+						Variable left = variableFromExpression(rec.get(i));
+						Variable right = rets.get(i-1);
+						addEdge(bc, right, left);
 					}
 				}
 			}
-		
-		} while (changes > 0);
+		}
+		return bc;
 	}
-	
-	private int rightIntoLeft(Variable right, Variable left) {
-		int changes = 0;
+
+	/**
+	 * Adds a copy edge from right to left if the assignment is well typed,
+	 * i.e., if the class of left is a superclass of the class of right.
+	 * Variables without a class variable get no edge. The round-robin
+	 * solver this replaced called superclassOf on them as soon as an
+	 * allocation site reached the edge, which threw a NullPointerException
+	 * and aborted the analysis.
+	 * @param bc
+	 * @param right
+	 * @param left
+	 */
+	private void addEdge(BlockConstraints bc, Variable right, Variable left) {
 		if (refType(left) && refType(right)) {
-			ReferenceType rtleft = (ReferenceType) left.getType();
-			ReferenceType rtright = (ReferenceType) right.getType();
-			Set<Integer> ptleft = getPointsToSet(left);
-			Set<Integer> ptright = getPointsToSet(right);
-			if (!ptleft.containsAll(ptright)){
-				for (Integer allocSite : ptright) {
-					// only consider well typed assignments
-					if (!ptleft.contains(allocSite) 
-							&& rtleft.getClassVariable().superclassOf(rtright.getClassVariable())) {
-						ptleft.add(allocSite);
-						changes++;
+			ClassVariable cvleft = ((ReferenceType) left.getType()).getClassVariable();
+			ClassVariable cvright = ((ReferenceType) right.getType()).getClassVariable();
+			// only consider well typed assignments
+			if (cvright != null && cvleft != null && cvleft.superclassOf(cvright)) {
+				bc.edges.add(edgeKey(getVariableId(right), getVariableId(left)));
+			}
+		}
+	}
+
+	/**
+	 * Computes the difference between the old and the current constraints
+	 * of a block. A NewStatement keeps the alias class of an old one that
+	 * assigns to the same variable, so blocks where only the pulls and
+	 * pushes changed do not produce any difference.
+	 */
+	private void diff(BlockConstraints old, BlockConstraints current, Map<Long, Integer> edgeChanges,
+			List<int[]> removedSites, List<int[]> addedSites) {
+		for (long key : old.edges) {
+			Integer c = edgeChanges.get(key);
+			edgeChanges.put(key, (c == null ? 0 : c) - 1);
+		}
+		for (long key : current.edges) {
+			Integer c = edgeChanges.get(key);
+			edgeChanges.put(key, (c == null ? 0 : c) + 1);
+		}
+
+		List<int[]> unmatched = new LinkedList<int[]>(old.sites);
+		for (int[] site : current.sites) {
+			for (int[] oldSite : unmatched) {
+				if (oldSite[0] == site[0]) {
+					site[1] = oldSite[1];
+					unmatched.remove(oldSite);
+					break;
+				}
+			}
+			if (site[1] < 0) {
+				site[1] = newAliasClass();
+				addedSites.add(site);
+			}
+		}
+		removedSites.addAll(unmatched);
+	}
+
+	private int newAliasClass() {
+		int id = freeAliasClasses.nextSetBit(0);
+		if (id >= 0) {
+			freeAliasClasses.clear(id);
+			return id;
+		}
+		return nextAliasClass++;
+	}
+
+	private BitSet reachableFrom(BitSet roots) {
+		final BitSet reached = (BitSet) roots.clone();
+		final LinkedList<Integer> todo = new LinkedList<Integer>();
+		for (int node = roots.nextSetBit(0); node >= 0; node = roots.nextSetBit(node + 1)) {
+			todo.add(node);
+		}
+		while (!todo.isEmpty()) {
+			final IntList succs = successors.get(todo.removeFirst());
+			for (int i = 0; i < succs.size(); i++) {
+				final int succ = succs.get(i);
+				if (!reached.get(succ)) {
+					reached.set(succ);
+					todo.add(succ);
+				}
+			}
+		}
+		return reached;
+	}
+
+	/**
+	 * Worklist-based difference propagation along the copy edges.
+	 */
+	private void propagate() {
+		final int n = pointsTo.size();
+		if (n == 0) {
+			return;
+		}
+		final int[] worklist = new int[n];
+		final BitSet inWorklist = new BitSet(n);
+		int head = 0, size = 0;
+		for (int i = 0; i < n; i++) {
+			if (!delta.get(i).isEmpty()) {
+				worklist[(head + size++) % n] = i;
+				inWorklist.set(i);
+			}
+		}
+		int steps = 0;
+		while (size > 0) {
+			if ((++steps & budgetCheckInterval) == 0) {
+				PhaseTimer.v().checkBudget();
+			}
+			final int node = worklist[head];
+			head = (head + 1) % n;
+			size--;
+			inWorklist.clear(node);
+
+			final BitSet diff = delta.get(node);
+			delta.set(node, new BitSet());
+			final IntList succs = successors.get(node);
+			for (int i = 0; i < succs.size(); i++) {
+				final int succ = succs.get(i);
+				final BitSet newSites = (BitSet) diff.clone();
+				newSites.andNot(pointsTo.get(succ));
+				if (!newSites.isEmpty()) {
+					pointsTo.get(succ).or(newSites);
+					delta.get(succ).or(newSites);
+					if (!inWorklist.get(succ)) {
+						worklist[(head + size++) % n] = succ;
+						inWorklist.set(succ);
 					}
 				}
 			}
 		}
-		return changes;
 	}
-	
+
 	public boolean mustAlias(Expression ref1, Expression ref2) {
 		ReferenceType rt1 = getReferenceType(ref1);
 		ReferenceType rt2 = getReferenceType(ref2);
-		
+
 		if (rt1.getClassVariable()==null || rt2.getClassVariable()==null) {
 //			System.err.println("Class var not set: " + ref1 + " and " + ref2);
-			return false; 
+			return false;
 		}
-		
-		if (!rt1.getClassVariable().subclassOf(rt2.getClassVariable()) 
+
+		if (!rt1.getClassVariable().subclassOf(rt2.getClassVariable())
 				&& !rt1.getClassVariable().superclassOf(rt2.getClassVariable()))
 			return false;
-		
+
 		if (!(ref1 instanceof NullLiteral || ref2 instanceof NullLiteral)) {
 			Variable v1 = variableFromExpression(ref1);
 			Variable v2 = variableFromExpression(ref2);
 			if (v1.equals(v2))
 				return true;
 		}
-		
-		Set<Integer> pt1 = getPointsToSet(ref1);
-		Set<Integer> pt2 = getPointsToSet(ref2);
-		return pt1.size()==1 && pt2.size()==1 && pt1.containsAll(pt2);
+
+		BitSet pt1 = getPointsToSet(ref1);
+		BitSet pt2 = getPointsToSet(ref2);
+		return pt1.cardinality()==1 && pt2.cardinality()==1 && pt1.equals(pt2);
 	}
-	
+
 	public boolean mayAlias(Expression ref1, Expression ref2) {
 		if (ref1 instanceof NullLiteral || ref2 instanceof NullLiteral)
 			return false;
-		
+
 		ReferenceType rt1 = getReferenceType(ref1);
 		ReferenceType rt2 = getReferenceType(ref2);
-		
+
 		if (rt1.getClassVariable()==null || rt2.getClassVariable()==null) {
 //			System.err.println("Class var not set: " + ref1 + " and " + ref2);
 			return false;
 		}
-		
-		if (!rt1.getClassVariable().subclassOf(rt2.getClassVariable()) 
+
+		if (!rt1.getClassVariable().subclassOf(rt2.getClassVariable())
 				&& !rt1.getClassVariable().superclassOf(rt2.getClassVariable()))
 			return false;
-		
-		Set<Integer> pt1 = getPointsToSet(ref1);
-		Set<Integer> pt2 = getPointsToSet(ref2);
-		
+
+		BitSet pt1 = getPointsToSet(ref1);
+		BitSet pt2 = getPointsToSet(ref2);
+
 		// If we did not collect points to info, err on the safe side
 		if (pt1.isEmpty() || pt2.isEmpty()) return true;
-		
-		return !(Collections.disjoint(pt1,pt2));
+
+		return pt1.intersects(pt2);
 	}
-	
-	private Set<Integer> getPointsToSet(Variable v) {
-		if (!this.pointsTo.containsKey(v))
-			this.pointsTo.put(v, new HashSet<Integer>());	
-		return this.pointsTo.get(v);
+
+	private int getVariableId(Variable v) {
+		Integer id = this.variableIds.get(v);
+		if (id == null) {
+			id = this.pointsTo.size();
+			this.variableIds.put(v, id);
+			this.pointsTo.add(new BitSet());
+			this.delta.add(new BitSet());
+			this.ownSites.add(new BitSet());
+			this.successors.add(new IntList());
+			this.predecessors.add(new IntList());
+		}
+		return id;
+	}
+
+	private static long edgeKey(int source, int target) {
+		return ((long) source << 32) | (target & 0xffffffffL);
+	}
+
+	private static int edgeSource(long key) {
+		return (int) (key >>> 32);
+	}
+
+	private static int edgeTarget(long key) {
+		return (int) key;
 	}
-	
-	private Set<Integer> getPointsToSet(Expression e) {
+
+	private BitSet getPointsToSet(Expression e) {
 		if (e instanceof NullLiteral) {
-			return new HashSet<Integer>();
+			return new BitSet();
+		}
+		Integer id = this.variableIds.get(variableFromExpression(e));
+		if (id == null) {
+			return new BitSet();
 		}
-		return getPointsToSet(variableFromExpression(e));
+		return this.pointsTo.get(id);
 	}
-	
+
 	private Variable variableFromExpression(Expression e) {
 		Verify.verify(e.getUseVariables().size()==1,
 				"Called variableFromExpression on expression that does not contain exactly 1 variable: " + e);
 		return e.getUseVariables().iterator().next();
 	}
-	
+
 	private boolean refType(Expression e1){
 		return (e1.getType() instanceof ReferenceType);
 	}
-	
+
 	private boolean refType(Variable e1){
 		return (e1.getType() instanceof ReferenceType);
 	}
-	
+
 	private ReferenceType getReferenceType(Expression e) {
 		Verify.verify(refType(e), "Called aliasing method on non-reference type");
 		return (ReferenceType) e.getType();
 	}
+
+	/**
+	 * Growable array of ints, used for the adjacency lists of the
+	 * constraint graph.
+	 */
+	private static class IntList {
+		private int[] elements = new int[2];
+		private int size = 0;
+
+		int size() {
+			return size;
+		}
+
+		int get(int i) {
+			return elements[i];
+		}
+
+		void add(int e) {
+			if (size == elements.length) {
+				elements = Arrays.copyOf(elements, 2 * size);
+			}
+			elements[size++] = e;
+		}
+
+		void remove(int e) {
+			for (int i = 0; i < size; i++) {
+				if (elements[i] == e) {
+					elements[i] = elements[--size];
+					return;
+				}
+			}
+		}
+	}
 }
@@ -0,0 +1,528 @@
+package soottocfg.soot.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import soot.ArrayType;
+import soot.BooleanType;
+import soot.ByteType;
+import soot.CharType;
+import soot.DoubleType;
+import soot.FloatType;
+import soot.IntType;
+import soot.LongType;
+import soot.RefType;
+import soot.Scene;
+import soot.ShortType;
+import soot.SootClass;
+import soot.SootField;
+import soot.SootMethod;
+import soot.Type;
+import soot.VoidType;
+
+/**
+ * Snapshot of the signatures of the library classes on the Soot class
+ * path. The snapshot stores the class hierarchy and the field and method
+ * signatures of every library class that Soot resolved, and is keyed by
+ * the checksums of the library jars. Loading a snapshot adds these
+ * classes to the Scene before Soot starts resolving, so Soot does not
+ * parse them from the jars again.
+ *
+ * Only classes below the BODIES level are stored, because the snapshot
+ * has no method bodies. Classes that are not in the snapshot are still
+ * resolved from the jars as usual.
+ *
+ * File format: a string table followed by one record per class. Every
+ * name and type is an index into the string table. The file is read
+ * through a memory-mapped buffer.
+ */
+public class LibrarySnapshot {
+
+	private static final int magic = 0x4A48534C;
+	private static final int formatVersion = 1;
+	private static final String extension = ".libsnapshot";
+
+	private final Path snapshotDir;
+	private final List<File> libraryJars = new ArrayList<File>();
+	private final Set<String> libraryClassNames = new HashSet<String>();
+	private String key = null;
+	private int loadedClasses = 0;
+
+	/**
+	 * @param snapshotDir
+	 *            Directory that holds the snapshots.
+	 * @param sootClassPath
+	 *            The Soot class path. Only the jar files on it are
+	 *            considered library.
+	 * @param processDirs
+	 *            The input of the analysis, which is never part of a
+	 *            snapshot.
+	 */
+	public LibrarySnapshot(Path snapshotDir, String sootClassPath, List<String> processDirs) {
+		this.snapshotDir = snapshotDir;
+		Set<String> inputs = new HashSet<String>();
+		for (String dir : processDirs) {
+			inputs.add(new File(dir).getAbsolutePath());
+		}
+		for (String entry : sootClassPath.split(File.pathSeparator)) {
+			File f = new File(entry);
+			if (entry.endsWith(".jar") && f.isFile() && !inputs.contains(f.getAbsolutePath())) {
+				libraryJars.add(f);
+			}
+		}
+	}
+
+	/**
+	 * Computes the key of the library jars from the names, sizes, and
+	 * CRCs in their zip directories, which is much cheaper than hashing
+	 * the jar files.
+	 * @return
+	 * @throws IOException
+	 */
+	private String computeKey() throws IOException {
+		Hasher hasher = Hashing.sha256().newHasher();
+		hasher.putInt(formatVersion);
+		for (File jar : libraryJars) {
+			try (JarFile jarFile = new JarFile(jar)) {
+				Enumeration<JarEntry> entries = jarFile.entries();
+				while (entries.hasMoreElements()) {
+					JarEntry entry = entries.nextElement();
+					hasher.putString(entry.getName(), StandardCharsets.UTF_8);
+					hasher.putLong(entry.getSize());
+					hasher.putLong(entry.getCrc());
+					if (entry.getName().endsWith(".class")) {
+						String className = entry.getName().substring(0, entry.getName().length() - ".class".length());
+						libraryClassNames.add(className.replace('/', '.'));
+					}
+				}
+			}
+			hasher.putChar(File.pathSeparatorChar);
+		}
+		return hasher.hash().toString();
+	}
+
+	private Path snapshotFile() {
+		return snapshotDir.resolve(key + extension);
+	}
+
+	/**
+	 * Adds the classes of the snapshot to the Scene. Must be called before
+	 * Soot loads any classes.
+	 * @return True if a snapshot was found and loaded.
+	 */
+	public boolean load() {
+		try {
+			if (key == null) {
+				key = computeKey();
+			}
+			Path file = snapshotFile();
+			if (!Files.isRegularFile(file)) {
+				return false;
+			}
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				readSnapshot(buffer);
+			}
+			return true;
+		} catch (IOException | RuntimeException e) {
+			System.err.println("Cannot load library snapshot: " + e.toString());
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the library classes that are currently in the Scene, if there
+	 * are more of them than in the loaded snapshot. Must be called before
+	 * the resolving levels are changed by hand.
+	 */
+	public void save() {
+		try {
+			if (key == null) {
+				key = computeKey();
+			}
+			// classes at HIERARCHY level already have their members, but Soot
+			// only hands them out when resolving levels are ignored.
+			final boolean ignoreLevels = soot.options.Options.v().ignore_resolving_levels();
+			soot.options.Options.v().set_ignore_resolving_levels(true);
+			try {
+				List<SootClass> classes = snapshotClasses();
+				if (classes.size() <= loadedClasses) {
+					return;
+				}
+				Files.createDirectories(snapshotDir);
+				Path tmp = Files.createTempFile(snapshotDir, key, ".tmp");
+				try (OutputStream out = Files.newOutputStream(tmp)) {
+					writeSnapshot(classes, out);
+				}
+				Files.move(tmp, snapshotFile(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				soot.options.Options.v().set_ignore_resolving_levels(ignoreLevels);
+			}
+		} catch (IOException e) {
+			System.err.println("Cannot write library snapshot: " + e.toString());
+		}
+	}
+
+	/**
+	 * Collects the classes that can be stored: library classes from the
+	 * jars below the BODIES level, and the dangling and phantom classes
+	 * they refer to. The result is closed under superclasses, interfaces,
+	 * outer classes, and declared exceptions, so a loaded snapshot never
+	 * refers to a class that is not loaded.
+	 * @return
+	 */
+	private List<SootClass> snapshotClasses() {
+		Map<String, SootClass> candidates = new LinkedHashMap<String, SootClass>();
+		for (SootClass sc : Scene.v().getClasses()) {
+			if (sc.isApplicationClass()) {
+				continue;
+			}
+			if (sc.isPhantom() || sc.resolvingLevel() == SootClass.DANGLING
+					|| (libraryClassNames.contains(sc.getName()) && sc.resolvingLevel() < SootClass.BODIES)) {
+				candidates.put(sc.getName(), sc);
+			}
+		}
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (SootClass sc : new LinkedList<SootClass>(candidates.values())) {
+				if (!isClosed(sc, candidates)) {
+					candidates.remove(sc.getName());
+					changed = true;
+				}
+			}
+		}
+		return new ArrayList<SootClass>(candidates.values());
+	}
+
+	private boolean isClosed(SootClass sc, Map<String, SootClass> classes) {
+		if (sc.hasSuperclass() && !classes.containsKey(sc.getSuperclass().getName())) {
+			return false;
+		}
+		if (sc.hasOuterClass() && !classes.containsKey(sc.getOuterClass().getName())) {
+			return false;
+		}
+		for (SootClass i : sc.getInterfaces()) {
+			if (!classes.containsKey(i.getName())) {
+				return false;
+			}
+		}
+		for (SootMethod m : methods(sc)) {
+			for (SootClass e : m.getExceptions()) {
+				if (!classes.containsKey(e.getName())) {
+					return false;
+				}
+			}
+		}
+		if (sc.resolvingLevel() >= SootClass.SIGNATURES) {
+			// Soot resolves the types in the signatures once a class reaches
+			// SIGNATURES, which it won't do for a class from the snapshot.
+			for (SootField f : fields(sc)) {
+				if (!isKnownType(f.getType(), classes)) {
+					return false;
+				}
+			}
+			for (SootMethod m : methods(sc)) {
+				if (!isKnownType(m.getReturnType(), classes)) {
+					return false;
+				}
+				for (Type t : m.getParameterTypes()) {
+					if (!isKnownType(t, classes)) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	private boolean isKnownType(Type t, Map<String, SootClass> classes) {
+		if (t instanceof ArrayType) {
+			t = ((ArrayType) t).baseType;
+		}
+		return !(t instanceof RefType) || classes.containsKey(((RefType) t).getClassName());
+	}
+
+	private List<SootField> fields(SootClass sc) {
+		List<SootField> fields = new ArrayList<SootField>();
+		if (!sc.isPhantom() && sc.resolvingLevel() >= SootClass.HIERARCHY) {
+			for (SootField f : sc.getFields()) {
+				if (!f.isPhantom()) {
+					fields.add(f);
+				}
+			}
+		}
+		return fields;
+	}
+
+	private List<SootMethod> methods(SootClass sc) {
+		List<SootMethod> methods = new ArrayList<SootMethod>();
+		if (!sc.isPhantom() && sc.resolvingLevel() >= SootClass.HIERARCHY) {
+			for (SootMethod m : sc.getMethods()) {
+				if (!m.isPhantom()) {
+					methods.add(m);
+				}
+			}
+		}
+		return methods;
+	}
+
+	private void writeSnapshot(List<SootClass> classes, OutputStream stream) throws IOException {
+		Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+		for (SootClass sc : classes) {
+			intern(strings, sc.getName());
+			for (SootField f : fields(sc)) {
+				intern(strings, f.getName());
+				intern(strings, f.getType().toString());
+			}
+			for (SootMethod m : methods(sc)) {
+				intern(strings, m.getName());
+				intern(strings, m.getReturnType().toString());
+				for (Type t : m.getParameterTypes()) {
+					intern(strings, t.toString());
+				}
+			}
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+		out.writeInt(magic);
+		out.writeInt(formatVersion);
+		out.writeInt(strings.size());
+		for (String s : strings.keySet()) {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+		out.writeInt(classes.size());
+		for (SootClass sc : classes) {
+			out.writeInt(strings.get(sc.getName()));
+			out.writeInt(sc.getModifiers());
+			out.writeBoolean(sc.isPhantom());
+			out.writeInt(sc.resolvingLevel());
+			out.writeInt(sc.hasSuperclass() ? strings.get(sc.getSuperclass().getName()) : -1);
+			out.writeInt(sc.hasOuterClass() ? strings.get(sc.getOuterClass().getName()) : -1);
+			out.writeInt(sc.getInterfaceCount());
+			for (SootClass i : sc.getInterfaces()) {
+				out.writeInt(strings.get(i.getName()));
+			}
+			List<SootField> fields = fields(sc);
+			out.writeInt(fields.size());
+			for (SootField f : fields) {
+				out.writeInt(strings.get(f.getName()));
+				out.writeInt(strings.get(f.getType().toString()));
+				out.writeInt(f.getModifiers());
+			}
+			List<SootMethod> methods = methods(sc);
+			out.writeInt(methods.size());
+			for (SootMethod m : methods) {
+				out.writeInt(strings.get(m.getName()));
+				out.writeInt(m.getModifiers());
+				out.writeInt(strings.get(m.getReturnType().toString()));
+				out.writeInt(m.getParameterCount());
+				for (Type t : m.getParameterTypes()) {
+					out.writeInt(strings.get(t.toString()));
+				}
+				out.writeInt(m.getExceptions().size());
+				for (SootClass e : m.getExceptions()) {
+					out.writeInt(strings.get(e.getName()));
+				}
+			}
+		}
+		out.flush();
+	}
+
+	private void intern(Map<String, Integer> strings, String s) {
+		if (!strings.containsKey(s)) {
+			strings.put(s, strings.size());
+		}
+	}
+
+	private void readSnapshot(ByteBuffer buffer) {
+		if (buffer.getInt() != magic || buffer.getInt() != formatVersion) {
+			throw new RuntimeException("Not a library snapshot.");
+		}
+		String[] strings = new String[buffer.getInt()];
+		for (int i = 0; i < strings.length; i++) {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			strings[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		// first create all classes, so the hierarchy can refer to them.
+		final int classCount = buffer.getInt();
+		final int start = buffer.position();
+		Map<String, SootClass> classes = new HashMap<String, SootClass>();
+		for (int i = 0; i < classCount; i++) {
+			String name = strings[buffer.getInt()];
+			int modifiers = buffer.getInt();
+			boolean phantom = buffer.get() != 0;
+			skipClassBody(buffer);
+			if (!Scene.v().containsClass(name)) {
+				SootClass sc = new SootClass(name, modifiers);
+				Scene.v().addClass(sc);
+				if (phantom) {
+					sc.setPhantomClass();
+				} else {
+					sc.setLibraryClass();
+				}
+				classes.put(name, sc);
+			}
+		}
+
+		buffer.position(start);
+		for (int i = 0; i < classCount; i++) {
+			SootClass sc = classes.get(strings[buffer.getInt()]);
+			buffer.getInt(); // modifiers
+			buffer.get(); // phantom
+			int level = buffer.getInt();
+			int superclass = buffer.getInt();
+			int outerClass = buffer.getInt();
+			int interfaceCount = buffer.getInt();
+			List<SootClass> interfaces = new ArrayList<SootClass>();
+			for (int j = 0; j < interfaceCount; j++) {
+				interfaces.add(Scene.v().getSootClass(strings[buffer.getInt()]));
+			}
+			List<SootField> fields = new ArrayList<SootField>();
+			int fieldCount = buffer.getInt();
+			for (int j = 0; j < fieldCount; j++) {
+				String name = strings[buffer.getInt()];
+				Type type = typeFromString(strings[buffer.getInt()]);
+				fields.add(new SootField(name, type, buffer.getInt()));
+			}
+			List<SootMethod> methods = new ArrayList<SootMethod>();
+			int methodCount = buffer.getInt();
+			for (int j = 0; j < methodCount; j++) {
+				String name = strings[buffer.getInt()];
+				int modifiers = buffer.getInt();
+				Type returnType = typeFromString(strings[buffer.getInt()]);
+				List<Type> parameterTypes = new ArrayList<Type>();
+				int parameterCount = buffer.getInt();
+				for (int k = 0; k < parameterCount; k++) {
+					parameterTypes.add(typeFromString(strings[buffer.getInt()]));
+				}
+				List<SootClass> exceptions = new ArrayList<SootClass>();
+				int exceptionCount = buffer.getInt();
+				for (int k = 0; k < exceptionCount; k++) {
+					exceptions.add(Scene.v().getSootClass(strings[buffer.getInt()]));
+				}
+				methods.add(new SootMethod(name, parameterTypes, returnType, modifiers, exceptions));
+			}
+			if (sc == null) {
+				// the class was already in the Scene.
+				continue;
+			}
+			if (superclass >= 0) {
+				sc.setSuperclass(Scene.v().getSootClass(strings[superclass]));
+			}
+			if (outerClass >= 0) {
+				sc.setOuterClass(Scene.v().getSootClass(strings[outerClass]));
+			}
+			for (SootClass iface : interfaces) {
+				sc.addInterface(iface);
+			}
+			for (SootField f : fields) {
+				sc.addField(f);
+			}
+			for (SootMethod m : methods) {
+				sc.addMethod(m);
+			}
+			sc.setResolvingLevel(level);
+		}
+		loadedClasses = classCount;
+	}
+
+	private void skipClassBody(ByteBuffer buffer) {
+		buffer.getInt(); // level
+		buffer.getInt(); // superclass
+		buffer.getInt(); // outer class
+		int interfaceCount = buffer.getInt();
+		buffer.position(buffer.position() + 4 * interfaceCount);
+		int fieldCount = buffer.getInt();
+		buffer.position(buffer.position() + 12 * fieldCount);
+		int methodCount = buffer.getInt();
+		for (int j = 0; j < methodCount; j++) {
+			buffer.position(buffer.position() + 12);
+			int parameterCount = buffer.getInt();
+			buffer.position(buffer.position() + 4 * parameterCount);
+			int exceptionCount = buffer.getInt();
+			buffer.position(buffer.position() + 4 * exceptionCount);
+		}
+	}
+
+	/**
+	 * Parses the string representation of a Soot type, e.g.,
+	 * "int" or "java.lang.String[][]".
+	 * @param s
+	 * @return
+	 */
+	private static Type typeFromString(String s) {
+		int dimensions = 0;
+		String base = s;
+		while (base.endsWith("[]")) {
+			base = base.substring(0, base.length() - 2);
+			dimensions++;
+		}
+		Type t;
+		switch (base) {
+		case "boolean":
+			t = BooleanType.v();
+			break;
+		case "byte":
+			t = ByteType.v();
+			break;
+		case "char":
+			t = CharType.v();
+			break;
+		case "short":
+			t = ShortType.v();
+			break;
+		case "int":
+			t = IntType.v();
+			break;
+		case "long":
+			t = LongType.v();
+			break;
+		case "float":
+			t = FloatType.v();
+			break;
+		case "double":
+			t = DoubleType.v();
+			break;
+		case "void":
+			t = VoidType.v();
+			break;
+		default:
+			t = RefType.v(base);
+		}
+		return dimensions > 0 ? ArrayType.v(t, dimensions) : t;
+	}
+
+	public int getLoadedClassCount() {
+		return loadedClasses;
+	}
+}
@@ -52,24 +52,23 @@ import soottocfg.soot.SootRunner;
 import soottocfg.soot.SootToCfg.MemModel;
 import soottocfg.soot.memory_model.MemoryModel;
 import soottocfg.soot.memory_model.NewMemoryModel;
+import soottocfg.util.JobContext;
 
 /**
  * @author schaef
  *
  */
-public enum SootTranslationHelpers {
-	INSTANCE;
+public class SootTranslationHelpers {
 	
 	public static SootTranslationHelpers v() {
-		Preconditions.checkArgument(initialized, "Call SootTranslationHelpers.initialize first!");
-		return INSTANCE;
+		SootTranslationHelpers instance = JobContext.current().get(SootTranslationHelpers.class);
+		Preconditions.checkArgument(instance != null, "Call SootTranslationHelpers.initialize first!");
+		return instance;
 	}
 
 	public static final String HavocClassName = "Havoc_Class";
 	public static final String HavocMethodName = "havoc_";
 
-	private static boolean initialized = false;
-	
 	/**
 	 * Get a method that returns an unknown value of type t.
 	 * 
@@ -93,11 +92,14 @@ public enum SootTranslationHelpers {
 	}
 
 	public static void initialize(Program program) {
-		initialized = true;
-		INSTANCE.reset();
-		
-		INSTANCE.setProgram(program);
-		INSTANCE.setMemoryModelKind(Options.v().memModel());
+		SootTranslationHelpers instance = new SootTranslationHelpers();
+		// the memory model already uses v(), so register first.
+		JobContext.current().put(SootTranslationHelpers.class, instance);
+		instance.setProgram(program);
+		instance.setMemoryModelKind(Options.v().memModel());
+	}
+
+	private SootTranslationHelpers() {
 	}
 
 	private static final String parameterPrefix = "$in_";
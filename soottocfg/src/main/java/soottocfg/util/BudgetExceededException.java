@@ -0,0 +1,25 @@
+package soottocfg.util;
+
+/**
+ * Thrown by {@link PhaseTimer#checkBudget()} when a phase ran longer
+ * or allocated more heap than its budget allows.
+ */
+public class BudgetExceededException extends RuntimeException {
+
+	private static final long serialVersionUID = -4209735180527815642L;
+
+	private final String phase;
+
+	public BudgetExceededException(String phase, String message) {
+		super(message);
+		this.phase = phase;
+	}
+
+	/**
+	 * The path of the phase that exceeded its budget.
+	 * @return
+	 */
+	public String getPhase() {
+		return phase;
+	}
+}
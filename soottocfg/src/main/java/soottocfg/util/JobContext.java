@@ -0,0 +1,162 @@
+package soottocfg.util;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The state of one verification job: the instances of the singletons
+ * (options, statistics, translation helpers, ...), Soot's global object
+ * G (and thereby the Scene), and the stream that receives the output of
+ * the job.
+ *
+ * The singletons look up their instance in the context of the current
+ * thread, so several jobs can run in one JVM at the same time, each on
+ * its own thread. Threads that are started while a context is bound
+ * inherit it. Threads without a bound context share a default context,
+ * which is what a single run uses.
+ *
+ * A job binds a fresh context with:
+ * <pre>
+ * JobContext context = new JobContext(out);
+ * JobContext previous = context.bind();
+ * try {
+ *   ...
+ * } finally {
+ *   JobContext.restore(previous);
+ * }
+ * </pre>
+ */
+public class JobContext {
+
+	private static final JobContext defaultContext = new JobContext(System.out);
+
+	private static final InheritableThreadLocal<JobContext> bound = new InheritableThreadLocal<JobContext>();
+
+	static {
+		soot.G.setGlobalObjectGetter(new soot.G.GlobalObjectGetter() {
+			@Override
+			public soot.G getG() {
+				return current().getSootGlobals();
+			}
+
+			@Override
+			public void reset() {
+				current().resetSootGlobals();
+			}
+		});
+	}
+
+	/**
+	 * Returns the context bound to the current thread, or the default
+	 * context if there is none.
+	 * @return
+	 */
+	public static JobContext current() {
+		JobContext context = bound.get();
+		return context == null ? defaultContext : context;
+	}
+
+	/**
+	 * Binds previous (as returned by {@link #bind()}) to the current
+	 * thread again.
+	 * @param previous
+	 */
+	public static void restore(JobContext previous) {
+		if (previous == null || previous == defaultContext) {
+			bound.remove();
+		} else {
+			bound.set(previous);
+		}
+	}
+
+	private final Map<Class<?>, Object> instances = new HashMap<Class<?>, Object>();
+	private final PrintStream out;
+	private soot.G sootGlobals;
+
+	/**
+	 * @param out
+	 *            the stream for the output of the job.
+	 */
+	public JobContext(PrintStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Binds this context to the current thread.
+	 * @return the context that was current before.
+	 */
+	public JobContext bind() {
+		JobContext previous = current();
+		bound.set(this);
+		return previous;
+	}
+
+	/**
+	 * The stream for the output of the job (System.out for the default
+	 * context).
+	 * @return
+	 */
+	public PrintStream out() {
+		return out;
+	}
+
+	/**
+	 * Returns the instance of the singleton class key in this context,
+	 * or null if there is none yet.
+	 * @param key
+	 * @return
+	 */
+	public synchronized <T> T get(Class<T> key) {
+		return key.cast(instances.get(key));
+	}
+
+	/**
+	 * Sets the instance of the singleton class key in this context. Use
+	 * null to remove it.
+	 * @param key
+	 * @param instance
+	 */
+	public synchronized <T> void put(Class<T> key, T instance) {
+		if (instance == null) {
+			instances.remove(key);
+		} else {
+			instances.put(key, instance);
+		}
+	}
+
+	/**
+	 * Sets the instance of the singleton class key in this context
+	 * unless there already is one.
+	 * @param key
+	 * @param instance
+	 * @return the instance of key in this context.
+	 */
+	public synchronized <T> T putIfAbsent(Class<T> key, T instance) {
+		Object existing = instances.get(key);
+		if (existing != null) {
+			return key.cast(existing);
+		}
+		instances.put(key, instance);
+		return instance;
+	}
+
+	/**
+	 * Removes the instance of the singleton class key from this context.
+	 * @param key
+	 */
+	public synchronized void remove(Class<?> key) {
+		instances.remove(key);
+	}
+
+	private synchronized soot.G getSootGlobals() {
+		if (sootGlobals == null) {
+			sootGlobals = new soot.G();
+		}
+		return sootGlobals;
+	}
+
+	private synchronized void resetSootGlobals() {
+		sootGlobals = null;
+	}
+}
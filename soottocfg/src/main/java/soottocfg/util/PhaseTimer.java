@@ -0,0 +1,491 @@
+package soottocfg.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import soottocfg.Options;
+
+/**
+ * Hierarchical timers for the phases of a run. A phase is started with
+ * {@link #start(String)} and becomes a child of the phase that is
+ * currently open on the same thread. Starting a phase with the name of
+ * an existing child of the current phase adds to that child, so a
+ * phase that runs once per method or per round accumulates its time
+ * and its number of invocations.
+ *
+ * For each phase we record the wall clock time, the bytes allocated by
+ * the thread that ran it (if the JVM supports it), and the heap
+ * high-water mark when it ended. Counters (e.g., number of statements
+ * or clauses) can be attached to the current phase.
+ *
+ * Stopping a phase also stops the phases that were started inside of it
+ * and are still open, e.g., because an exception skipped their stop.
+ * Phases can have time and heap budgets (see soottocfg.Options). The
+ * heap budget bounds how much the retained heap, i.e., the heap in use
+ * after the last garbage collection, has grown since the phase started.
+ * Short-lived garbage does not count, but the work that a phase hands to
+ * other threads does. The heap is shared by all jobs of the JVM, so in
+ * -server mode the growth includes the jobs that run in parallel. Budgets
+ * are enforced cooperatively: starting or stopping a phase, and
+ * {@link #checkBudget()} in long-running loops, throw a
+ * BudgetExceededException if an open phase exceeded its budget.
+ * The usual pattern is:
+ * <pre>
+ * Phase p = PhaseTimer.v().start("Inlining");
+ * ...
+ * p.stop();
+ * </pre>
+ */
+public class PhaseTimer {
+
+
+	public static PhaseTimer v() {
+		PhaseTimer instance = JobContext.current().get(PhaseTimer.class);
+		if (null == instance) {
+			instance = JobContext.current().putIfAbsent(PhaseTimer.class, new PhaseTimer());
+		}
+		return instance;
+	}
+
+	public static void resetInstance() {
+		JobContext.current().remove(PhaseTimer.class);
+	}
+
+	/**
+	 * Budgets for this key apply to every phase without its own budget.
+	 */
+	public static final String anyPhase = "*";
+
+	public static class Phase {
+		private final String name;
+		private final Phase parent;
+		private final Map<String, Phase> children = new LinkedHashMap<String, Phase>();
+		private final Map<String, Long> counters = new LinkedHashMap<String, Long>();
+
+		private long invocations = 0;
+		private long nanos = 0;
+		private long allocatedBytes = 0;
+		private long heapPeakBytes = 0;
+
+		// state of the currently running invocation.
+		private long startNanos;
+		private long startAllocated;
+		private long startRetained;
+		private PhaseTimer owner;
+
+		private Phase(String name, Phase parent) {
+			this.name = name;
+			this.parent = parent;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Phase getParent() {
+			return parent;
+		}
+
+		/**
+		 * Returns the path from the root to this phase, separated by '/'.
+		 * The root itself has the empty path.
+		 * @return
+		 */
+		public String getPath() {
+			if (parent == null) {
+				return "";
+			}
+			String prefix = parent.getPath();
+			return prefix.isEmpty() ? name : prefix + "/" + name;
+		}
+
+		public synchronized List<Phase> getChildren() {
+			return new ArrayList<Phase>(children.values());
+		}
+
+		public synchronized Map<String, Long> getCounters() {
+			return new LinkedHashMap<String, Long>(counters);
+		}
+
+		public synchronized long getInvocations() {
+			return invocations;
+		}
+
+		public synchronized long getNanos() {
+			return nanos;
+		}
+
+		/**
+		 * Bytes allocated by the threads that ran this phase, or -1 if
+		 * the JVM cannot measure thread allocation.
+		 * @return
+		 */
+		public synchronized long getAllocatedBytes() {
+			return allocatedBytes;
+		}
+
+		/**
+		 * Highest heap usage observed since the timer was created, as
+		 * seen at the end of the last invocation of this phase.
+		 * @return
+		 */
+		public synchronized long getHeapPeakBytes() {
+			return heapPeakBytes;
+		}
+
+		/**
+		 * Allocated megabytes per second, or -1 if unknown.
+		 * @return
+		 */
+		public synchronized double getAllocationRate() {
+			if (allocatedBytes < 0 || nanos == 0) {
+				return -1;
+			}
+			return (allocatedBytes / (1024.0 * 1024.0)) / (nanos / 1e9);
+		}
+
+		public synchronized void addCounter(String key, long delta) {
+			Long old = counters.get(key);
+			counters.put(key, old == null ? delta : old + delta);
+		}
+
+		/**
+		 * Keeps the maximum of all values reported for key.
+		 * @param key
+		 * @param value
+		 */
+		public synchronized void maxCounter(String key, long value) {
+			Long old = counters.get(key);
+			if (old == null || old < value) {
+				counters.put(key, value);
+			}
+		}
+
+		/**
+		 * Stops the phase. Throws a BudgetExceededException (after
+		 * stopping) if the phase exceeded its budget.
+		 */
+		public void stop() {
+			if (owner == null) {
+				throw new IllegalStateException("Phase " + getPath() + " is not running.");
+			}
+			final PhaseTimer timer = owner;
+			BudgetExceededException exceeded = null;
+			try {
+				timer.checkBudget(this);
+			} catch (BudgetExceededException e) {
+				exceeded = e;
+			}
+			timer.stop(this);
+			if (exceeded != null) {
+				throw exceeded;
+			}
+		}
+
+		private synchronized Phase child(String childName) {
+			Phase child = children.get(childName);
+			if (child == null) {
+				child = new Phase(childName, this);
+				children.put(childName, child);
+			}
+			return child;
+		}
+	}
+
+	private final Phase root = new Phase("", null);
+	private final ThreadLocal<Deque<Phase>> open = new ThreadLocal<Deque<Phase>>() {
+		@Override
+		protected Deque<Phase> initialValue() {
+			return new ArrayDeque<Phase>();
+		}
+	};
+	private final com.sun.management.ThreadMXBean allocationBean;
+	private final List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+	// the peak usage of each heap pool when the timer was created, and the
+	// highest usage of each pool that this timer has seen. The peaks of the
+	// pools are shared by all jobs in the JVM, so they are never reset.
+	private final long[] peakBaselines;
+	private final long[] observedPeaks;
+
+	private PhaseTimer() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		com.sun.management.ThreadMXBean bean = null;
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			bean = (com.sun.management.ThreadMXBean) threads;
+			if (!bean.isThreadAllocatedMemorySupported()) {
+				bean = null;
+			} else if (!bean.isThreadAllocatedMemoryEnabled()) {
+				bean.setThreadAllocatedMemoryEnabled(true);
+			}
+		}
+		allocationBean = bean;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+				heapPools.add(pool);
+			}
+		}
+		peakBaselines = new long[heapPools.size()];
+		observedPeaks = new long[heapPools.size()];
+		for (int i = 0; i < heapPools.size(); i++) {
+			peakBaselines[i] = heapPools.get(i).getPeakUsage().getUsed();
+			observedPeaks[i] = heapPools.get(i).getUsage().getUsed();
+		}
+	}
+
+	public Phase getRoot() {
+		return root;
+	}
+
+	/**
+	 * Returns the innermost open phase of the current thread, or the
+	 * root if there is none.
+	 * @return
+	 */
+	public Phase current() {
+		Deque<Phase> stack = open.get();
+		return stack.isEmpty() ? root : stack.peek();
+	}
+
+	/**
+	 * Starts a phase as a child of the current phase.
+	 * @param name
+	 * @return
+	 */
+	public Phase start(String name) {
+		return start(current(), name);
+	}
+
+	/**
+	 * Starts a phase as a child of parent. Use this for work that runs
+	 * on other threads but belongs to a phase of the calling thread.
+	 * @param parent
+	 * @param name
+	 * @return
+	 */
+	public Phase start(Phase parent, String name) {
+		if (parent != root) {
+			checkBudget(parent);
+		}
+		Phase phase = parent.child(name);
+		sampleHeap();
+		synchronized (phase) {
+			phase.owner = this;
+			phase.startAllocated = threadAllocatedBytes();
+			phase.startRetained = retainedHeapBytes();
+			phase.startNanos = System.nanoTime();
+		}
+		open.get().push(phase);
+		return phase;
+	}
+
+	private void stop(Phase phase) {
+		Deque<Phase> stack = open.get();
+		if (!stack.contains(phase)) {
+			throw new IllegalStateException("Phase " + phase.getPath() + " was not started on this thread.");
+		}
+		while (stack.peek() != phase) {
+			close(stack.pop());
+		}
+		close(stack.pop());
+	}
+
+	private void close(Phase phase) {
+		long end = System.nanoTime();
+		long allocated = threadAllocatedBytes();
+		long heapPeak = heapPeakBytes();
+		synchronized (phase) {
+			phase.invocations++;
+			phase.nanos += end - phase.startNanos;
+			if (allocated < 0 || phase.startAllocated < 0 || phase.allocatedBytes < 0) {
+				phase.allocatedBytes = -1;
+			} else {
+				phase.allocatedBytes += allocated - phase.startAllocated;
+			}
+			phase.heapPeakBytes = Math.max(phase.heapPeakBytes, heapPeak);
+			phase.owner = null;
+		}
+	}
+
+	/**
+	 * Adds delta to a counter of the current phase.
+	 * @param key
+	 * @param delta
+	 */
+	public void count(String key, long delta) {
+		current().addCounter(key, delta);
+	}
+
+	/**
+	 * Keeps the maximum value of a counter of the current phase.
+	 * @param key
+	 * @param value
+	 */
+	public void max(String key, long value) {
+		current().maxCounter(key, value);
+	}
+
+	/**
+	 * Stops all open phases of the current thread, e.g., after a run was
+	 * aborted.
+	 */
+	public void stopAll() {
+		Deque<Phase> stack = open.get();
+		while (!stack.isEmpty()) {
+			close(stack.pop());
+		}
+	}
+
+	/**
+	 * Throws a BudgetExceededException if one of the open phases of the
+	 * current thread exceeded the time or heap budget that
+	 * soottocfg.Options sets for its name. Long-running loops call this
+	 * regularly, so that a run can be aborted without killing the JVM.
+	 */
+	public void checkBudget() {
+		Phase phase = current();
+		if (phase != root) {
+			checkBudget(phase);
+		}
+	}
+
+	/**
+	 * Like checkBudget(), but checks the given phase and the phases that
+	 * enclose it. Use this on threads that work for a phase that was
+	 * started on another thread.
+	 * @param phase
+	 */
+	public void checkBudget(Phase phase) {
+		Map<String, Long> timeBudgets = Options.v().getTimeBudgets();
+		Map<String, Long> heapBudgets = Options.v().getHeapBudgets();
+		if (timeBudgets.isEmpty() && heapBudgets.isEmpty()) {
+			return;
+		}
+		long now = System.nanoTime();
+		long retained = heapBudgets.isEmpty() ? -1 : retainedHeapBytes();
+		for (Phase p = phase; p != null && p != root; p = p.parent) {
+			long start, startRetained;
+			synchronized (p) {
+				if (p.owner == null) {
+					continue;
+				}
+				start = p.startNanos;
+				startRetained = p.startRetained;
+			}
+			Long millis = budget(timeBudgets, p.name);
+			if (millis != null && now - start > TimeUnit.MILLISECONDS.toNanos(millis)) {
+				throw new BudgetExceededException(p.getPath(),
+						"Phase " + p.getPath() + " exceeded its time budget of " + millis + " ms.");
+			}
+			Long bytes = budget(heapBudgets, p.name);
+			if (bytes != null && retained >= 0 && startRetained >= 0 && retained - startRetained > bytes) {
+				throw new BudgetExceededException(p.getPath(), "Phase " + p.getPath()
+						+ " exceeded its heap budget of " + (bytes / (1024 * 1024)) + " MB.");
+			}
+		}
+	}
+
+	/**
+	 * Returns the time in milliseconds until the first open phase of the
+	 * current thread exceeds its time budget, or Long.MAX_VALUE if none
+	 * of them has a budget. Used to bound calls that cannot check the
+	 * budget themselves, such as solver queries.
+	 * @return
+	 */
+	public long remainingMillis() {
+		Map<String, Long> timeBudgets = Options.v().getTimeBudgets();
+		long remaining = Long.MAX_VALUE;
+		if (timeBudgets.isEmpty()) {
+			return remaining;
+		}
+		long now = System.nanoTime();
+		for (Phase p : open.get()) {
+			Long millis = budget(timeBudgets, p.name);
+			if (millis != null) {
+				long elapsed;
+				synchronized (p) {
+					elapsed = TimeUnit.NANOSECONDS.toMillis(now - p.startNanos);
+				}
+				remaining = Math.min(remaining, Math.max(0, millis - elapsed));
+			}
+		}
+		return remaining;
+	}
+
+	private static Long budget(Map<String, Long> budgets, String name) {
+		Long budget = budgets.get(name);
+		return budget != null ? budget : budgets.get(anyPhase);
+	}
+
+	/**
+	 * Returns the heap in use after the last garbage collection, summed
+	 * over the heap pools, or -1 if the JVM does not report it. Unlike the
+	 * current usage, this does not include garbage that has not been
+	 * collected yet.
+	 * @return
+	 */
+	public long retainedHeapBytes() {
+		long sum = 0;
+		boolean known = false;
+		for (MemoryPoolMXBean pool : heapPools) {
+			if (pool.isValid()) {
+				final MemoryUsage usage = pool.getCollectionUsage();
+				if (usage != null) {
+					sum += usage.getUsed();
+					known = true;
+				}
+			}
+		}
+		return known ? sum : -1;
+	}
+
+	/**
+	 * Sum of the peak usages of all heap pools since the timer was
+	 * created. If the peak of a pool has grown since then, it was reached
+	 * while the timer was running. Otherwise, the highest usage that the
+	 * timer has seen when phases started and stopped is used.
+	 * @return
+	 */
+	public long heapPeakBytes() {
+		sampleHeap();
+		long sum = 0;
+		for (int i = 0; i < heapPools.size(); i++) {
+			final MemoryPoolMXBean pool = heapPools.get(i);
+			if (pool.isValid()) {
+				final long peak = pool.getPeakUsage().getUsed();
+				synchronized (observedPeaks) {
+					sum += peak > peakBaselines[i] ? peak : observedPeaks[i];
+				}
+			}
+		}
+		return sum;
+	}
+
+	private void sampleHeap() {
+		for (int i = 0; i < heapPools.size(); i++) {
+			final MemoryPoolMXBean pool = heapPools.get(i);
+			if (pool.isValid()) {
+				final long used = pool.getUsage().getUsed();
+				synchronized (observedPeaks) {
+					observedPeaks[i] = Math.max(observedPeaks[i], used);
+				}
+			}
+		}
+	}
+
+	private long threadAllocatedBytes() {
+		if (allocationBean == null) {
+			return -1;
+		}
+		return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
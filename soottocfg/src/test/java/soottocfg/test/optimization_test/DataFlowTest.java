@@ -0,0 +1,110 @@
+/**
+ *
+ */
+package soottocfg.test.optimization_test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import soottocfg.cfg.LiveVars;
+import soottocfg.cfg.Program;
+import soottocfg.cfg.SourceLocation;
+import soottocfg.cfg.expression.BinaryExpression;
+import soottocfg.cfg.expression.BinaryExpression.BinaryOperator;
+import soottocfg.cfg.expression.literal.IntegerLiteral;
+import soottocfg.cfg.method.CfgBlock;
+import soottocfg.cfg.method.CfgEdge;
+import soottocfg.cfg.method.Method;
+import soottocfg.cfg.statement.AssignStatement;
+import soottocfg.cfg.statement.Statement;
+import soottocfg.cfg.type.IntType;
+import soottocfg.cfg.type.Type;
+import soottocfg.cfg.util.DataFlowUtils;
+import soottocfg.cfg.util.DataFlowUtils.ReachingDefinitions;
+import soottocfg.cfg.variable.Variable;
+import soottocfg.soot.util.SootTranslationHelpers;
+
+/**
+ * Reaching definitions and live variables on the example program from
+ * Listing 17.3 of Appel's Modern Compiler Implementation.
+ */
+public class DataFlowTest {
+
+	private final SourceLocation loc = SourceLocation.ANALYSIS;
+	private Method m;
+	private Variable a, c;
+	private CfgBlock l0, l1, loop, l2;
+	private Statement d1, d2, d3, d4, d5;
+
+	@Before
+	public void setUp() {
+		Program p = new Program();
+		SootTranslationHelpers.initialize(p);
+		m = Method.createMethodForTestingOnly(p, "test", new LinkedList<Variable>(), new LinkedList<Type>(), loc);
+		a = new Variable("a", IntType.instance());
+		c = new Variable("c", IntType.instance());
+		m.addLocalVariable(a);
+		m.addLocalVariable(c);
+		l0 = new CfgBlock(m);
+		l1 = new CfgBlock(m);
+		loop = new CfgBlock(m);
+		l2 = new CfgBlock(m);
+
+		CfgEdge l1Tol2 = new CfgEdge();
+		l1Tol2.setLabel(new BinaryExpression(loc, BinaryOperator.Gt, c.mkExp(loc), a.mkExp(loc)));
+		CfgEdge l1Toloop = new CfgEdge();
+		l1Toloop.setLabel(new BinaryExpression(loc, BinaryOperator.Le, c.mkExp(loc), a.mkExp(loc)));
+		m.addEdge(l0, l1);
+		m.addEdge(loop, l1);
+		m.addEdge(l1, l2, l1Tol2);
+		m.addEdge(l1, loop, l1Toloop);
+
+		d1 = new AssignStatement(loc, a.mkExp(loc), new IntegerLiteral(loc, 5));
+		d2 = new AssignStatement(loc, c.mkExp(loc), new IntegerLiteral(loc, 1));
+		d3 = new AssignStatement(loc, c.mkExp(loc),
+				new BinaryExpression(loc, BinaryOperator.Plus, c.mkExp(loc), c.mkExp(loc)));
+		d4 = new AssignStatement(loc, a.mkExp(loc),
+				new BinaryExpression(loc, BinaryOperator.Minus, c.mkExp(loc), a.mkExp(loc)));
+		d5 = new AssignStatement(loc, c.mkExp(loc), new IntegerLiteral(loc, 0));
+		l0.addStatement(d1);
+		l0.addStatement(d2);
+		loop.addStatement(d3);
+		l2.addStatement(d4);
+		l2.addStatement(d5);
+	}
+
+	@Test
+	public void testReachingDefinitions() {
+		ReachingDefinitions rd = DataFlowUtils.computeReachingDefinitions(m);
+		Assert.assertEquals(set(), rd.getIn(d1));
+		Assert.assertEquals(set(d1, d2), rd.getOut(d2));
+		Assert.assertEquals(set(d1, d2, d3), rd.getIn(d3));
+		Assert.assertEquals(set(d1, d3), rd.getOut(d3));
+		Assert.assertEquals(set(d1, d2, d3), rd.getIn(d4));
+		Assert.assertEquals(set(d2, d3, d4), rd.getIn(d5));
+		Assert.assertEquals(set(d4, d5), rd.getOut(d5));
+		Assert.assertEquals(set(d2, d3), rd.getInDefinitions(d4, c));
+		Assert.assertEquals(set(d5), rd.getOutDefinitions(d5, c));
+	}
+
+	@Test
+	public void testLiveVariables() {
+		LiveVars<CfgBlock> live = m.computeBlockLiveVariables();
+		Assert.assertEquals(new HashSet<Variable>(), live.liveIn.get(l0));
+		Assert.assertEquals(new HashSet<Variable>(Arrays.asList(a, c)), live.liveOut.get(l0));
+		Assert.assertEquals(new HashSet<Variable>(Arrays.asList(a, c)), live.liveIn.get(l1));
+		Assert.assertEquals(new HashSet<Variable>(Arrays.asList(a, c)), live.liveIn.get(loop));
+		Assert.assertEquals(new HashSet<Variable>(Arrays.asList(a, c)), live.liveIn.get(l2));
+		Assert.assertEquals(new HashSet<Variable>(), live.liveOut.get(l2));
+	}
+
+	private static Set<Statement> set(Statement... statements) {
+		return new HashSet<Statement>(Arrays.asList(statements));
+	}
+}
@@ -3,7 +3,13 @@
  */
 package soottocfg.test.optimization_test;
 
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.Set;
+
 import org.jgrapht.DirectedGraph;
+import org.jgrapht.Graphs;
 import org.jgrapht.graph.DefaultDirectedGraph;
 import org.jgrapht.graph.DefaultEdge;
 import org.junit.Assert;
@@ -12,6 +18,7 @@ import org.junit.Test;
 import soottocfg.cfg.util.DominanceFrontier;
 import soottocfg.cfg.util.Dominators;
 import soottocfg.cfg.util.GraphUtil;
+import soottocfg.cfg.util.PostDominators;
 import soottocfg.cfg.util.Tree;
 
 /**
@@ -96,4 +103,66 @@ public class DominatorTest {
 		Assert.assertTrue(df.getDominanceFrontier().get("6").size()==1 && df.getDominanceFrontier().get("6").iterator().next().equals("7"));
 		Assert.assertTrue(df.getDominanceFrontier().get("7").size()==1 && df.getDominanceFrontier().get("7").iterator().next().equals("2"));
 	}
+
+	/**
+	 * Compares the (post)dominators of random graphs with the definition:
+	 * d dominates n iff n cannot be reached from the source without
+	 * passing d.
+	 */
+	@Test
+	public void testRandomGraphs() {
+		Random random = new Random(42);
+		for (int round = 0; round < 50; round++) {
+			DirectedGraph<Integer, DefaultEdge> graph = new DefaultDirectedGraph<Integer, DefaultEdge>(
+					DefaultEdge.class);
+			final int size = 2 + random.nextInt(20);
+			for (int i = 0; i < size; i++) {
+				graph.addVertex(i);
+			}
+			for (int i = 0; i < 2 * size; i++) {
+				graph.addEdge(random.nextInt(size), random.nextInt(size));
+			}
+			// every vertex but the sink needs a successor for the
+			// post-dominators.
+			for (int i = 0; i < size - 1; i++) {
+				graph.addEdge(i, size - 1);
+			}
+			Dominators<Integer> dom = new Dominators<Integer>(graph, 0);
+			PostDominators<Integer> pdom = new PostDominators<Integer>(graph, size - 1);
+			for (Integer n : graph.vertexSet()) {
+				for (Integer d : graph.vertexSet()) {
+					Assert.assertEquals(!reachableWithout(graph, 0, n, d, true), dom.isDominatedBy(n, d));
+					Assert.assertEquals(!reachableWithout(graph, size - 1, n, d, false), pdom.isDominatedBy(n, d));
+				}
+				if (reachableWithout(graph, 0, n, null, true) && n != 0) {
+					Integer idom = dom.getImmediateDominator(n);
+					Assert.assertEquals(dom.getDominators(idom).size() + 1, dom.getDominators(n).size());
+				}
+			}
+		}
+	}
+
+	private static boolean reachableWithout(DirectedGraph<Integer, DefaultEdge> graph, Integer from, Integer to,
+			Integer avoid, boolean forward) {
+		if (from.equals(avoid)) {
+			return false;
+		}
+		Set<Integer> visited = new HashSet<Integer>();
+		LinkedList<Integer> todo = new LinkedList<Integer>();
+		todo.add(from);
+		visited.add(from);
+		while (!todo.isEmpty()) {
+			Integer current = todo.poll();
+			if (current.equals(to)) {
+				return !to.equals(avoid);
+			}
+			for (Integer next : forward ? Graphs.successorListOf(graph, current)
+					: Graphs.predecessorListOf(graph, current)) {
+				if (!next.equals(avoid) && visited.add(next)) {
+					todo.add(next);
+				}
+			}
+		}
+		return false;
+	}
 }
@@ -0,0 +1,143 @@
+/**
+ *
+ */
+package soottocfg.test.optimization_test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import soottocfg.cfg.SourceLocation;
+import soottocfg.cfg.expression.BinaryExpression;
+import soottocfg.cfg.expression.BinaryExpression.BinaryOperator;
+import soottocfg.cfg.expression.Expression;
+import soottocfg.cfg.expression.IteExpression;
+import soottocfg.cfg.expression.TupleAccessExpression;
+import soottocfg.cfg.expression.UnaryExpression;
+import soottocfg.cfg.expression.UnaryExpression.UnaryOperator;
+import soottocfg.cfg.expression.literal.BooleanLiteral;
+import soottocfg.cfg.expression.literal.IntegerLiteral;
+import soottocfg.cfg.expression.literal.NullLiteral;
+import soottocfg.cfg.statement.AssignStatement;
+import soottocfg.cfg.type.BoolType;
+import soottocfg.cfg.type.IntType;
+import soottocfg.cfg.type.ReferenceType;
+import soottocfg.cfg.variable.Variable;
+import soottocfg.util.JobContext;
+
+/**
+ * The equals and hashCode contract of expressions, and the interning
+ * of expressions per job.
+ */
+public class ExpressionEqualityTest {
+
+	private final SourceLocation loc1 = new SourceLocation("A.java", 1);
+	private final SourceLocation loc2 = new SourceLocation("B.java", 2);
+	private final Variable x = new Variable("x", IntType.instance());
+	private final Variable y = new Variable("y", IntType.instance());
+	private final Variable b = new Variable("b", BoolType.instance());
+	private final Variable r = new Variable("r", new ReferenceType(null));
+
+	/**
+	 * One expression of each kind, built at the given location.
+	 */
+	private List<Expression> examples(SourceLocation loc) {
+		Expression sum = new BinaryExpression(loc, BinaryOperator.Plus, x.mkExp(loc), new IntegerLiteral(loc, 1));
+		return Arrays.asList(x.mkExp(loc), new IntegerLiteral(loc, 42), new BooleanLiteral(loc, true),
+				new NullLiteral(loc), new TupleAccessExpression(loc, r, ReferenceType.RefFieldName), sum,
+				new UnaryExpression(loc, UnaryOperator.Neg, sum),
+				new IteExpression(loc, b.mkExp(loc), sum, y.mkExp(loc)));
+	}
+
+	@Test
+	public void testEqualsIgnoresSourceLocation() {
+		List<Expression> first = examples(loc1);
+		List<Expression> second = examples(loc2);
+		for (int i = 0; i < first.size(); i++) {
+			Expression e1 = first.get(i);
+			Expression e2 = second.get(i);
+			Assert.assertEquals(e1, e1);
+			Assert.assertEquals(e1, e2);
+			Assert.assertEquals(e2, e1);
+			Assert.assertEquals(e1.hashCode(), e2.hashCode());
+			Assert.assertFalse(e1.equals(null));
+			for (int j = 0; j < first.size(); j++) {
+				if (i != j) {
+					Assert.assertNotEquals(e1 + " and " + second.get(j), e1, second.get(j));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testEqualsComparesParts() {
+		Assert.assertNotEquals(x.mkExp(loc1), y.mkExp(loc1));
+		Assert.assertNotEquals(new IntegerLiteral(loc1, 1), new IntegerLiteral(loc1, 2));
+		Assert.assertNotEquals(new BooleanLiteral(loc1, true), new BooleanLiteral(loc1, false));
+		Assert.assertNotEquals(new TupleAccessExpression(loc1, r, ReferenceType.RefFieldName),
+				new TupleAccessExpression(loc1, r, ReferenceType.TypeFieldName));
+		Assert.assertNotEquals(new BinaryExpression(loc1, BinaryOperator.Plus, x.mkExp(loc1), y.mkExp(loc1)),
+				new BinaryExpression(loc1, BinaryOperator.Minus, x.mkExp(loc1), y.mkExp(loc1)));
+		Assert.assertNotEquals(new BinaryExpression(loc1, BinaryOperator.Plus, x.mkExp(loc1), y.mkExp(loc1)),
+				new BinaryExpression(loc1, BinaryOperator.Plus, y.mkExp(loc1), x.mkExp(loc1)));
+		Assert.assertNotEquals(new UnaryExpression(loc1, UnaryOperator.Neg, x.mkExp(loc1)),
+				new UnaryExpression(loc1, UnaryOperator.Neg, y.mkExp(loc1)));
+		Assert.assertNotEquals(new IteExpression(loc1, b.mkExp(loc1), x.mkExp(loc1), y.mkExp(loc1)),
+				new IteExpression(loc1, b.mkExp(loc1), y.mkExp(loc1), x.mkExp(loc1)));
+		// variables with the same name but different types are different.
+		Assert.assertNotEquals(x.mkExp(loc1), new Variable("x", BoolType.instance()).mkExp(loc1));
+	}
+
+	@Test
+	public void testStatementsCompareStructurally() {
+		AssignStatement s1 = new AssignStatement(loc1, x.mkExp(loc1), y.mkExp(loc1));
+		AssignStatement s2 = new AssignStatement(loc2, x.mkExp(loc2), y.mkExp(loc2));
+		Assert.assertTrue(s1.structurallyEquals(s2));
+		Assert.assertFalse(s1.structurallyEquals(new AssignStatement(loc1, y.mkExp(loc1), x.mkExp(loc1))));
+		// statements are program points, so they keep identity equals.
+		Assert.assertNotEquals(s1, s2);
+		Assert.assertTrue(s1.structurallyEquals(s1.deepCopy()));
+	}
+
+	@Test
+	public void testDeepCopyCopies() {
+		for (Expression e : examples(loc1)) {
+			Expression copy = e.deepCopy();
+			Assert.assertEquals(e, copy);
+			Assert.assertEquals(e.hashCode(), copy.hashCode());
+			Assert.assertNotSame(e, copy);
+			Assert.assertSame(loc1, copy.getSourceLocation());
+		}
+	}
+
+	@Test
+	public void testSubstituteSharesPerJob() {
+		final Map<Variable, Variable> subs = new HashMap<Variable, Variable>();
+		subs.put(y, x);
+		final Expression e1 = new BinaryExpression(loc1, BinaryOperator.Plus, y.mkExp(loc1), new IntegerLiteral(loc1, 1));
+		final Expression e2 = new BinaryExpression(loc2, BinaryOperator.Plus, x.mkExp(loc2), new IntegerLiteral(loc2, 1));
+		final Expression canonical;
+		JobContext previous = new JobContext(System.out).bind();
+		try {
+			canonical = e2.substitute(subs);
+			Assert.assertEquals(e2, canonical);
+			Assert.assertSame(canonical, e1.substitute(subs));
+		} finally {
+			JobContext.restore(previous);
+		}
+		// another job does not get the expressions of the first one.
+		previous = new JobContext(System.out).bind();
+		try {
+			Expression other = e1.substitute(subs);
+			Assert.assertEquals(canonical, other);
+			Assert.assertNotSame(canonical, other);
+			Assert.assertSame(other, e2.substitute(subs));
+		} finally {
+			JobContext.restore(previous);
+		}
+	}
+}
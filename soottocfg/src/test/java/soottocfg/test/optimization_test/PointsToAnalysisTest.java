@@ -0,0 +1,318 @@
+/**
+ *
+ */
+package soottocfg.test.optimization_test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import soottocfg.cfg.Program;
+import soottocfg.cfg.expression.Expression;
+import soottocfg.cfg.expression.literal.NullLiteral;
+import soottocfg.cfg.method.CfgBlock;
+import soottocfg.cfg.optimization.CfgCallInliner;
+import soottocfg.cfg.optimization.dataflow.ConstPropagator;
+import soottocfg.cfg.optimization.dataflow.CopyPropagator;
+import soottocfg.cfg.optimization.dataflow.DeadCodeElimination;
+import soottocfg.cfg.method.Method;
+import soottocfg.cfg.statement.AssignStatement;
+import soottocfg.cfg.statement.CallStatement;
+import soottocfg.cfg.statement.NewStatement;
+import soottocfg.cfg.statement.Statement;
+import soottocfg.cfg.type.ReferenceType;
+import soottocfg.cfg.util.CfgChangeLog;
+import soottocfg.cfg.variable.Variable;
+import soottocfg.soot.SootToCfg;
+import soottocfg.soot.memory_model.PushPullSimplifier;
+import soottocfg.soot.util.FlowBasedPointsToAnalysis;
+import soottocfg.test.Util;
+
+/**
+ * Compares the points-to analysis with the original round-robin
+ * fixpoint on the programs of the soottocfg tests, and checks that
+ * updating it after each round of simplification gives the same
+ * aliases as a fresh analysis.
+ */
+@RunWith(Parameterized.class)
+public class PointsToAnalysisTest {
+
+	private static final String userDir = System.getProperty("user.dir") + "/";
+	private static final String testRoot = userDir + "src/test/resources/";
+
+	private File sourceFile;
+
+	@Parameterized.Parameters(name = "{index}: check ({1})")
+	public static Collection<Object[]> data() {
+		List<Object[]> filenames = new LinkedList<Object[]>();
+		for (String dir : new String[] { "translation_tests", "pta_tests" }) {
+			File[] directoryListing = new File(testRoot + dir).listFiles();
+			if (directoryListing == null) {
+				throw new RuntimeException("Test data not found!");
+			}
+			for (File child : directoryListing) {
+				if (child.isFile() && child.getName().endsWith(".java")) {
+					filenames.add(new Object[] { child, child.getName() });
+				}
+			}
+		}
+		return filenames;
+	}
+
+	public PointsToAnalysisTest(File source, String name) {
+		this.sourceFile = source;
+	}
+
+	@Test
+	public void testSameAliasesAsFixpoint() {
+		Program program = translate();
+		FlowBasedPointsToAnalysis pta = new FlowBasedPointsToAnalysis();
+		pta.run(program);
+		FixpointPointsTo fixpoint = new FixpointPointsTo();
+		fixpoint.run(program);
+		for (Method m : program.getMethods()) {
+			List<Variable> vars = referenceVariables(m);
+			for (Variable v1 : vars) {
+				for (Variable v2 : vars) {
+					Expression e1 = v1.mkExp(m.getLocation());
+					Expression e2 = v2.mkExp(m.getLocation());
+					Assert.assertEquals("mayAlias(" + v1 + ", " + v2 + ") in " + m.getMethodName(),
+							fixpoint.mayAlias(v1, v2), pta.mayAlias(e1, e2));
+					Assert.assertEquals("mustAlias(" + v1 + ", " + v2 + ") in " + m.getMethodName(),
+							fixpoint.mustAlias(v1, v2), pta.mustAlias(e1, e2));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testUpdateAfterSimplification() {
+		// translate without simplifications, so that the rounds below
+		// have something to change.
+		soottocfg.Options.v().setMemPrecision(soottocfg.Options.MEMPREC_LOW);
+		soottocfg.Options.v().optimizeMethods = false;
+		try {
+			Program program = translate();
+			FlowBasedPointsToAnalysis pta = new FlowBasedPointsToAnalysis();
+			pta.run(program);
+			SootToCfg.setPointsToAnalysis(pta);
+			CfgChangeLog.resetInstance();
+			CfgChangeLog.v().startRecording();
+
+			new CfgCallInliner(program).inlineFromMain(50, 3);
+			assertSameAliases(program, pta, "inlining");
+			boolean changed = true;
+			for (int round = 1; changed; round++) {
+				changed = new PushPullSimplifier().simplify(program);
+				assertSameAliases(program, pta, "push/pull round " + round);
+				for (Method m : program.getMethods()) {
+					changed = ConstPropagator.constPropagate(m) ? true : changed;
+					changed = CopyPropagator.copyPropagate(m) ? true : changed;
+					changed = DeadCodeElimination.eliminateDeadCode(m) ? true : changed;
+				}
+				assertSameAliases(program, pta, "data-flow round " + round);
+			}
+		} finally {
+			CfgChangeLog.v().stopRecording();
+			SootToCfg.setPointsToAnalysis(null);
+			soottocfg.Options.resetInstance();
+		}
+	}
+
+	/**
+	 * Updates pta with the blocks in the change log and checks that it
+	 * gives the same aliases as a fresh analysis of the program.
+	 */
+	private static void assertSameAliases(Program program, FlowBasedPointsToAnalysis pta, String round) {
+		CfgChangeLog log = CfgChangeLog.v();
+		pta.update(log.drainChangedBlocks(), log.drainRemovedBlocks());
+		FlowBasedPointsToAnalysis fresh = new FlowBasedPointsToAnalysis();
+		fresh.run(program);
+		for (Method m : program.getMethods()) {
+			List<Variable> vars = referenceVariables(m);
+			for (Variable v1 : vars) {
+				for (Variable v2 : vars) {
+					Expression e1 = v1.mkExp(m.getLocation());
+					Expression e2 = v2.mkExp(m.getLocation());
+					Assert.assertEquals("mayAlias(" + v1 + ", " + v2 + ") in " + m.getMethodName() + " after " + round,
+							fresh.mayAlias(e1, e2), pta.mayAlias(e1, e2));
+					Assert.assertEquals("mustAlias(" + v1 + ", " + v2 + ") in " + m.getMethodName() + " after " + round,
+							fresh.mustAlias(e1, e2), pta.mustAlias(e1, e2));
+				}
+			}
+		}
+	}
+
+	private Program translate() {
+		soot.G.reset();
+		SootToCfg soot2cfg = new SootToCfg();
+		File classDir = null;
+		try {
+			classDir = Util.compileJavaFile(this.sourceFile);
+		} catch (IOException e) {
+			e.printStackTrace();
+			Assert.fail();
+		}
+		if (classDir == null) {
+			Assert.fail();
+		}
+		soot2cfg.run(classDir.getAbsolutePath(), null);
+		return soot2cfg.getProgram();
+	}
+
+	/**
+	 * The reference variables of m whose class is known.
+	 */
+	static List<Variable> referenceVariables(Method m) {
+		Set<Variable> vars = new LinkedHashSet<Variable>();
+		vars.addAll(m.getInParams());
+		for (CfgBlock b : m.vertexSet()) {
+			vars.addAll(b.getUseVariables());
+			vars.addAll(b.getDefVariables());
+		}
+		List<Variable> res = new ArrayList<Variable>();
+		for (Variable v : vars) {
+			if (v.getType() instanceof ReferenceType
+					&& ((ReferenceType) v.getType()).getClassVariable() != null) {
+				res.add(v);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * The points-to analysis as it was before the worklist solver: the
+	 * copy constraints are applied to the whole program until nothing
+	 * changes.
+	 */
+	private static class FixpointPointsTo {
+
+		private int nextAliasClass = 0;
+		private Map<Variable, Set<Integer>> pointsTo = new HashMap<Variable, Set<Integer>>();
+
+		void run(Program program) {
+			for (Method m : program.getMethods()) {
+				for (CfgBlock b : m.vertexSet()) {
+					for (Statement s : b.getStatements()) {
+						if (s instanceof NewStatement) {
+							getPointsToSet(variable(((NewStatement) s).getLeft())).add(nextAliasClass++);
+						}
+					}
+				}
+			}
+			int changes;
+			do {
+				changes = 0;
+				for (Method m : program.getMethods()) {
+					for (CfgBlock b : m.vertexSet()) {
+						for (Statement s : b.getStatements()) {
+							if (s instanceof AssignStatement) {
+								AssignStatement as = (AssignStatement) s;
+								if (refType(as.getLeft()) && refType(as.getRight())
+										&& !(as.getRight() instanceof NullLiteral)) {
+									changes += rightIntoLeft(variable(as.getRight()), variable(as.getLeft()));
+								}
+							} else if (s instanceof CallStatement) {
+								CallStatement cs = (CallStatement) s;
+								List<Variable> params = cs.getCallTarget().getInParams();
+								List<Expression> args = cs.getArguments();
+								for (int i = 0; i < params.size(); i++) {
+									if (params.get(i).getType() instanceof ReferenceType && refType(args.get(i))
+											&& !(args.get(i) instanceof NullLiteral)) {
+										changes += rightIntoLeft(variable(args.get(i)), params.get(i));
+									}
+								}
+								List<Variable> rets = cs.getCallTarget().getOutParams();
+								List<Expression> rec = cs.getReceiver();
+								for (int i = 1; i < rec.size(); i++) {
+									if (refType(rec.get(i)) && rets.get(i - 1).getType() instanceof ReferenceType) {
+										changes += rightIntoLeft(rets.get(i - 1), variable(rec.get(i)));
+									}
+								}
+							}
+						}
+					}
+				}
+			} while (changes > 0);
+		}
+
+		private int rightIntoLeft(Variable right, Variable left) {
+			int changes = 0;
+			if (left.getType() instanceof ReferenceType && right.getType() instanceof ReferenceType) {
+				ReferenceType rtleft = (ReferenceType) left.getType();
+				ReferenceType rtright = (ReferenceType) right.getType();
+				Set<Integer> ptleft = getPointsToSet(left);
+				Set<Integer> ptright = getPointsToSet(right);
+				for (Integer allocSite : new ArrayList<Integer>(ptright)) {
+					if (!ptleft.contains(allocSite)
+							&& rtleft.getClassVariable().superclassOf(rtright.getClassVariable())) {
+						ptleft.add(allocSite);
+						changes++;
+					}
+				}
+			}
+			return changes;
+		}
+
+		boolean mustAlias(Variable v1, Variable v2) {
+			if (!related(v1, v2)) {
+				return false;
+			}
+			if (v1.equals(v2)) {
+				return true;
+			}
+			Set<Integer> pt1 = getPointsToSet(v1);
+			Set<Integer> pt2 = getPointsToSet(v2);
+			return pt1.size() == 1 && pt2.size() == 1 && pt1.containsAll(pt2);
+		}
+
+		boolean mayAlias(Variable v1, Variable v2) {
+			if (!related(v1, v2)) {
+				return false;
+			}
+			Set<Integer> pt1 = getPointsToSet(v1);
+			Set<Integer> pt2 = getPointsToSet(v2);
+			if (pt1.isEmpty() || pt2.isEmpty()) {
+				return true;
+			}
+			Set<Integer> common = new HashSet<Integer>(pt1);
+			common.retainAll(pt2);
+			return !common.isEmpty();
+		}
+
+		private static boolean related(Variable v1, Variable v2) {
+			ReferenceType rt1 = (ReferenceType) v1.getType();
+			ReferenceType rt2 = (ReferenceType) v2.getType();
+			return rt1.getClassVariable().subclassOf(rt2.getClassVariable())
+					|| rt1.getClassVariable().superclassOf(rt2.getClassVariable());
+		}
+
+		private Set<Integer> getPointsToSet(Variable v) {
+			if (!pointsTo.containsKey(v)) {
+				pointsTo.put(v, new HashSet<Integer>());
+			}
+			return pointsTo.get(v);
+		}
+
+		private static Variable variable(Expression e) {
+			return e.getUseVariables().iterator().next();
+		}
+
+		private static boolean refType(Expression e) {
+			return e.getType() instanceof ReferenceType;
+		}
+	}
+}
@@ -0,0 +1,60 @@
+/**
+ *
+ */
+package soottocfg.test.optimization_test;
+
+import java.io.File;
+import java.util.LinkedList;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import soottocfg.cfg.Program;
+import soottocfg.cfg.SourceLocation;
+import soottocfg.cfg.expression.BinaryExpression;
+import soottocfg.cfg.expression.BinaryExpression.BinaryOperator;
+import soottocfg.cfg.expression.literal.IntegerLiteral;
+import soottocfg.cfg.method.CfgBlock;
+import soottocfg.cfg.method.Method;
+import soottocfg.cfg.statement.AssignStatement;
+import soottocfg.cfg.type.IntType;
+import soottocfg.cfg.type.Type;
+import soottocfg.cfg.util.ProgramSnapshot;
+import soottocfg.cfg.variable.Variable;
+import soottocfg.soot.util.SootTranslationHelpers;
+
+public class ProgramSnapshotTest {
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		final SourceLocation loc = new SourceLocation("Test.java", 3);
+		Program p = new Program();
+		SootTranslationHelpers.initialize(p);
+		Method m = Method.createMethodForTestingOnly(p, "test", new LinkedList<Variable>(), new LinkedList<Type>(), loc);
+		p.setEntryPoint(m);
+		Variable a = new Variable("a", IntType.instance());
+		m.addLocalVariable(a);
+		CfgBlock b0 = new CfgBlock(m);
+		CfgBlock b1 = new CfgBlock(m);
+		b0.addStatement(new AssignStatement(loc, a.mkExp(loc), IntegerLiteral.one()));
+		b1.addStatement(new AssignStatement(loc, a.mkExp(loc),
+				new BinaryExpression(loc, BinaryOperator.Plus, a.mkExp(loc), IntegerLiteral.one())));
+		m.addEdge(b0, b1);
+
+		File file = File.createTempFile("program", ".snapshot");
+		file.deleteOnExit();
+		ProgramSnapshot snapshot = new ProgramSnapshot(file.toPath());
+		snapshot.save(p, "Test", "key");
+		Assert.assertEquals("Test", snapshot.readMainClass());
+		Assert.assertNull(snapshot.load("other key"));
+
+		Program loaded = snapshot.load("key");
+		Assert.assertNotNull(loaded);
+		Assert.assertEquals(p.toString(), loaded.toString());
+		Method lm = loaded.getEntryPoint();
+		Assert.assertEquals(2, lm.vertexSet().size());
+		Assert.assertEquals(3, lm.getLocation().getLineNumber());
+		// the primitive types must stay singletons.
+		Assert.assertSame(IntType.instance(), lm.getLocals().iterator().next().getType());
+	}
+}
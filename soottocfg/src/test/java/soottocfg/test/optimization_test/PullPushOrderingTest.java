@@ -0,0 +1,247 @@
+/**
+ *
+ */
+package soottocfg.test.optimization_test;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import org.jgrapht.DirectedGraph;
+import org.jgrapht.Graphs;
+import org.jgrapht.graph.DefaultDirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import soottocfg.cfg.Program;
+import soottocfg.cfg.ast2cfg.Ast2Cfg;
+import soottocfg.cfg.method.CfgBlock;
+import soottocfg.cfg.method.CfgEdge;
+import soottocfg.cfg.method.Method;
+import soottocfg.cfg.statement.CallStatement;
+import soottocfg.cfg.statement.PullStatement;
+import soottocfg.cfg.statement.PushStatement;
+import soottocfg.cfg.statement.Statement;
+import soottocfg.cfg.util.InterProceduralPullPushOrdering;
+import soottocfg.cfg.variable.ClassVariable;
+
+/**
+ * Compares the pushes that influence each pull with the backward search
+ * that was used before the bit-vector analysis, on small programs with
+ * shadowing pushes in branches, loops, and callees. A push shadows the
+ * earlier pushes if it pushes the same variable as the pull.
+ */
+@RunWith(Parameterized.class)
+public class PullPushOrderingTest {
+
+	private static final String userDir = System.getProperty("user.dir") + "/";
+	private static final String testRoot = userDir + "src/test/resources/";
+
+	private File sourceFile;
+
+	@Parameterized.Parameters(name = "{index}: check ({1})")
+	public static Collection<Object[]> data() {
+		List<Object[]> filenames = new LinkedList<Object[]>();
+		File[] directoryListing = new File(testRoot + "ordering_tests").listFiles();
+		if (directoryListing == null) {
+			throw new RuntimeException("Test data not found!");
+		}
+		for (File child : directoryListing) {
+			if (child.isFile() && child.getName().endsWith(".jh")) {
+				filenames.add(new Object[] { child, child.getName() });
+			}
+		}
+		return filenames;
+	}
+
+	public PullPushOrderingTest(File source, String name) {
+		this.sourceFile = source;
+	}
+
+	@Test
+	public void testSamePushesAsBackwardSearch() {
+		Program program = new Program();
+		Assert.assertNotNull(new Ast2Cfg(program).loadFile(sourceFile));
+		InterProceduralPullPushOrdering ordering = new VariableOrdering(program.getEntryPoint());
+		BackwardSearch search = new BackwardSearch(program.getEntryPoint());
+		boolean shadowed = false;
+		for (PullStatement pull : pulls(program)) {
+			Set<PushStatement> expected = search.getPushsInfluencing(pull, true);
+			Assert.assertEquals("Pushes for " + pull, expected, ordering.getPushsInfluencing(pull));
+			Assert.assertEquals("Types for " + pull, search.getPossibleTypes(pull),
+					ordering.getBrutalOverapproximationOfPossibleType(pull));
+			shadowed = shadowed || !expected.equals(search.getPushsInfluencing(pull, false));
+		}
+		// otherwise, the test does not cover the shadowing.
+		Assert.assertTrue(shadowed);
+	}
+
+	private static List<PullStatement> pulls(Program program) {
+		List<PullStatement> res = new LinkedList<PullStatement>();
+		for (Method m : program.getMethods()) {
+			for (CfgBlock b : m.vertexSet()) {
+				for (Statement s : b.getStatements()) {
+					if (s instanceof PullStatement) {
+						res.add((PullStatement) s);
+					}
+				}
+			}
+		}
+		return res;
+	}
+
+	private static boolean mayAlias(PushStatement push, PullStatement pull) {
+		ClassVariable pushCv = push.getClassSignature();
+		ClassVariable pullCv = pull.getClassSignature();
+		return pushCv.subclassOf(pullCv) || pushCv.superclassOf(pullCv);
+	}
+
+	private static boolean mustShadow(PushStatement push, PullStatement pull) {
+		return push.getObject().equals(pull.getObject());
+	}
+
+	/**
+	 * The ordering with the aliasing of the test instead of the one of
+	 * the points-to analysis.
+	 */
+	private static class VariableOrdering extends InterProceduralPullPushOrdering {
+		VariableOrdering(Method entryPoint) {
+			super(entryPoint);
+		}
+
+		@Override
+		protected boolean mayAlias(PushStatement push, PullStatement pull) {
+			return PullPushOrderingTest.mayAlias(push, pull);
+		}
+
+		@Override
+		protected boolean mustShadow(PushStatement push, PullStatement pull) {
+			return PullPushOrderingTest.mustShadow(push, pull);
+		}
+	}
+
+	/**
+	 * The interprocedural graph and the backward search from each pull as
+	 * they were before the bit-vector analysis.
+	 */
+	private static class BackwardSearch {
+
+		private static class Node {
+			Statement stmt = null;
+		}
+
+		private final Map<Method, Node[]> methodEntryExit = new HashMap<Method, Node[]>();
+		private final Map<PullStatement, Node> pullMap = new HashMap<PullStatement, Node>();
+		private final DirectedGraph<Node, DefaultEdge> ipgraph = new DefaultDirectedGraph<Node, DefaultEdge>(
+				DefaultEdge.class);
+
+		BackwardSearch(Method entryPoint) {
+			build(entryPoint);
+			for (Node n : ipgraph.vertexSet()) {
+				if (n.stmt instanceof PullStatement) {
+					pullMap.put((PullStatement) n.stmt, n);
+				}
+			}
+		}
+
+		Set<PushStatement> getPushsInfluencing(PullStatement pull, boolean shadowing) {
+			Set<PushStatement> ret = new HashSet<PushStatement>();
+			if (!pullMap.containsKey(pull)) {
+				return ret;
+			}
+			Queue<Node> todo = new LinkedList<Node>();
+			todo.addAll(Graphs.predecessorListOf(ipgraph, pullMap.get(pull)));
+			Set<Node> done = new HashSet<Node>();
+			while (!todo.isEmpty()) {
+				Node cur = todo.remove();
+				done.add(cur);
+				boolean stopTraverse = false;
+				if (cur.stmt instanceof PushStatement) {
+					PushStatement push = (PushStatement) cur.stmt;
+					if (mayAlias(push, pull)) {
+						ret.add(push);
+						stopTraverse = shadowing && mustShadow(push, pull);
+					}
+				}
+				if (!stopTraverse) {
+					for (Node pre : Graphs.predecessorListOf(ipgraph, cur)) {
+						if (!todo.contains(pre) && !done.contains(pre)) {
+							todo.add(pre);
+						}
+					}
+				}
+			}
+			return ret;
+		}
+
+		Set<ClassVariable> getPossibleTypes(PullStatement pull) {
+			Set<ClassVariable> usedSubtypes = new HashSet<ClassVariable>();
+			usedSubtypes.add(pull.getClassSignature());
+			for (PushStatement push : getPushsInfluencing(pull, false)) {
+				if (push.getClassSignature().subclassOf(pull.getClassSignature())) {
+					usedSubtypes.add(push.getClassSignature());
+				}
+			}
+			return usedSubtypes;
+		}
+
+		private Node[] build(Method method) {
+			if (methodEntryExit.containsKey(method)) {
+				return methodEntryExit.get(method);
+			}
+			final Node entry = new Node();
+			final Node exit = new Node();
+			ipgraph.addVertex(entry);
+			ipgraph.addVertex(exit);
+			methodEntryExit.put(method, new Node[] { entry, exit });
+
+			Map<CfgBlock, Node> entryNode = new HashMap<CfgBlock, Node>();
+			Map<CfgBlock, Node> exitNode = new HashMap<CfgBlock, Node>();
+			for (CfgBlock cur : method.vertexSet()) {
+				Node n;
+				if (cur == method.getSource()) {
+					n = entry;
+				} else {
+					n = new Node();
+					ipgraph.addVertex(n);
+				}
+				entryNode.put(cur, n);
+				for (Statement st : cur.getStatements()) {
+					if (st instanceof CallStatement) {
+						Node[] callee = build(((CallStatement) st).getCallTarget());
+						ipgraph.addEdge(n, callee[0]);
+						n = new Node();
+						ipgraph.addVertex(n);
+						ipgraph.addEdge(callee[1], n);
+					} else if (st instanceof PushStatement || st instanceof PullStatement) {
+						n.stmt = st;
+						Node next = new Node();
+						ipgraph.addVertex(next);
+						ipgraph.addEdge(n, next);
+						n = next;
+					}
+				}
+				exitNode.put(cur, n);
+				if (Graphs.successorListOf(method, cur).isEmpty()) {
+					ipgraph.addEdge(n, exit);
+				}
+			}
+			for (CfgEdge edge : method.edgeSet()) {
+				ipgraph.addEdge(exitNode.get(method.getEdgeSource(edge)), entryNode.get(method.getEdgeTarget(edge)));
+			}
+			if (method.edgeSet().isEmpty()) {
+				ipgraph.addEdge(entry, exit);
+			}
+			return methodEntryExit.get(method);
+		}
+	}
+}
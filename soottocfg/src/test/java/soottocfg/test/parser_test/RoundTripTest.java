@@ -0,0 +1,104 @@
+/**
+ *
+ */
+package soottocfg.test.parser_test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import soottocfg.cfg.Program;
+import soottocfg.cfg.SourceLocation;
+import soottocfg.cfg.ast2cfg.Ast2Cfg;
+import soottocfg.cfg.ast2cfg.Cfg2AstPrinter;
+import soottocfg.cfg.expression.BinaryExpression;
+import soottocfg.cfg.expression.BinaryExpression.BinaryOperator;
+import soottocfg.cfg.expression.literal.IntegerLiteral;
+import soottocfg.cfg.method.CfgBlock;
+import soottocfg.cfg.method.Method;
+import soottocfg.cfg.statement.AssignStatement;
+import soottocfg.cfg.statement.CallStatement;
+import soottocfg.cfg.statement.PullStatement;
+import soottocfg.cfg.statement.Statement;
+import soottocfg.cfg.type.IntType;
+import soottocfg.cfg.type.Type;
+import soottocfg.cfg.variable.Variable;
+import soottocfg.soot.util.SootTranslationHelpers;
+
+public class RoundTripTest {
+
+	private static final String userDir = System.getProperty("user.dir") + "/";
+	private static final String testRoot = userDir + "src/test/resources/";
+
+	@Test
+	public void testLoadProgram() throws IOException {
+		Program p = load(new File(testRoot + "parser_tests/simple03.jh"));
+		Method main = p.getEntryPoint();
+		Assert.assertNotNull(main);
+		Assert.assertEquals("main", main.getMethodName());
+		Assert.assertEquals(3, main.vertexSet().size());
+		Assert.assertEquals(2, main.edgeSet().size());
+		Assert.assertEquals("Entry", main.getSource().getLabel());
+		Assert.assertEquals(1, p.lookupMethod("make").getOutParams().size());
+		Assert.assertEquals(1, p.getGlobalVariables().size());
+		// the padding of receivers and arguments is dropped.
+		List<Statement> entry = main.getSource().getStatements();
+		Assert.assertEquals(1, ((CallStatement) entry.get(0)).getReceiver().size());
+		Assert.assertTrue(((CallStatement) entry.get(1)).getArguments().isEmpty());
+		Assert.assertTrue(((CallStatement) entry.get(1)).getReceiver().isEmpty());
+		Assert.assertEquals(1, ((PullStatement) entry.get(2)).getLeft().size());
+		// printing and loading again gives the same text.
+		String text = Cfg2AstPrinter.printProgramToString(p);
+		Assert.assertEquals(text, Cfg2AstPrinter.printProgramToString(load(write(text))));
+	}
+
+	@Test
+	public void testNamesAndLiterals() throws IOException {
+		final SourceLocation loc = new SourceLocation("Test.java", 3);
+		Program p = new Program();
+		SootTranslationHelpers.initialize(p);
+		Method m = Method.createMethodForTestingOnly(p, "<Test: void main(java.lang.String[])>",
+				new LinkedList<Variable>(), Arrays.asList(new Type[] { IntType.instance() }), loc);
+		p.setEntryPoint(m);
+		Variable a = new Variable("$a", IntType.instance());
+		Variable ret = new Variable("int", IntType.instance());
+		m.addLocalVariable(a);
+		m.setOutParam(Arrays.asList(new Variable[] { ret }));
+		CfgBlock b0 = new CfgBlock(m);
+		CfgBlock b1 = new CfgBlock(m);
+		b0.addStatement(new AssignStatement(loc, a.mkExp(loc), new IntegerLiteral(loc, -(1L << 40) - 7)));
+		b1.addStatement(new AssignStatement(loc, ret.mkExp(loc),
+				new BinaryExpression(loc, BinaryOperator.Minus, a.mkExp(loc), new IntegerLiteral(loc, Integer.MIN_VALUE))));
+		m.addEdge(b0, b1);
+
+		Program loaded = load(write(Cfg2AstPrinter.printProgramToString(p)));
+		Method lm = loaded.getEntryPoint();
+		Assert.assertEquals(m.getMethodName(), lm.getMethodName());
+		Assert.assertEquals(ret.getName(), lm.getOutParams().get(0).getName());
+		Assert.assertEquals(2, lm.vertexSet().size());
+		AssignStatement asgn = (AssignStatement) lm.getSource().getStatements().get(0);
+		Assert.assertEquals(Long.valueOf(-(1L << 40) - 7), ((IntegerLiteral) asgn.getRight()).getValue());
+		// source lines are not part of the text, so compare the printed programs.
+		Assert.assertEquals(Cfg2AstPrinter.printProgramToString(p), Cfg2AstPrinter.printProgramToString(loaded));
+	}
+
+	private static File write(String text) throws IOException {
+		File file = File.createTempFile("program", ".jh");
+		file.deleteOnExit();
+		Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	private static Program load(File file) {
+		Program p = new Program();
+		Assert.assertNotNull(new Ast2Cfg(p).loadFile(file));
+		return p;
+	}
+}
@@ -0,0 +1,80 @@
+package soottocfg.test.soot_test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import soottocfg.cfg.Program;
+import soottocfg.cfg.variable.ClassVariable;
+import soottocfg.cfg.variable.Variable;
+import soottocfg.soot.SootToCfg;
+import soottocfg.test.Util;
+
+/**
+ * Translates a jar whose manifest names the main class and a library jar
+ * in its Class-Path.
+ */
+public class JarInputTest {
+
+	private static final String userDir = System.getProperty("user.dir") + "/";
+	private static final String testRoot = userDir + "src/test/resources/";
+
+	@Test
+	public void testJarWithClassPath() throws IOException {
+		File classDir = Util.compileJavaFiles(new File[] { new File(testRoot + "jar_tests/JarMain.java"),
+				new File(testRoot + "jar_tests/JarLib.java") });
+		File jarDir = Files.createTempDirectory("jayhorn_jars").toFile();
+		try {
+			Manifest libManifest = new Manifest();
+			libManifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+			writeJar(new File(jarDir, "lib.jar"), libManifest, classDir, "jar_tests/JarLib.class");
+
+			Manifest appManifest = new Manifest();
+			appManifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+			appManifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, "jar_tests.JarMain");
+			appManifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, "lib.jar");
+			File appJar = new File(jarDir, "app.jar");
+			writeJar(appJar, appManifest, classDir, "jar_tests/JarMain.class");
+
+			soot.G.reset();
+			SootToCfg soot2cfg = new SootToCfg();
+			soot2cfg.run(appJar.getAbsolutePath(), null);
+			Program program = soot2cfg.getProgram();
+			Assert.assertTrue(program.getEntryPoint().getMethodName().startsWith("<jar_tests.JarMain: void main("));
+			Assert.assertNotNull(program.lookupMethod("<jar_tests.JarLib: int twice()>"));
+			// the fields of the library class are only known if its jar was
+			// found through the Class-Path.
+			ClassVariable lib = null;
+			for (ClassVariable cv : program.getClassVariables()) {
+				if (cv.getName().equals("jar_tests/JarLib")) {
+					lib = cv;
+				}
+			}
+			Assert.assertNotNull(lib);
+			boolean hasValue = false;
+			for (Variable field : lib.getAssociatedFields()) {
+				hasValue = hasValue || field.getName().equals("value");
+			}
+			Assert.assertTrue("JarLib was not read from lib.jar", hasValue);
+		} finally {
+			Util.delete(jarDir);
+			Util.delete(classDir);
+		}
+	}
+
+	private static void writeJar(File jar, Manifest manifest, File classDir, String entry) throws IOException {
+		try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest)) {
+			out.putNextEntry(new JarEntry(entry));
+			Files.copy(new File(classDir, entry).toPath(), out);
+			out.closeEntry();
+		}
+	}
+}
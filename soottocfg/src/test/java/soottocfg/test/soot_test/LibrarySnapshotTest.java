@@ -0,0 +1,86 @@
+package soottocfg.test.soot_test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import soottocfg.soot.SootToCfg;
+import soottocfg.test.Util;
+import soottocfg.util.PhaseTimer;
+import soottocfg.util.PhaseTimer.Phase;
+
+public class LibrarySnapshotTest {
+
+	private static final String userDir = System.getProperty("user.dir") + "/";
+	private static final String testRoot = userDir + "src/test/resources/";
+	private static final Pattern pullIds = Pattern.compile("(.*:= pull\\(.*\\))\\[([0-9, ]+)\\]");
+
+	@Test
+	public void testColdAndWarmRun() throws IOException {
+		File classDir = Util.compileJavaFile(new File(testRoot + "pta_tests/PtaCopies.java"));
+		Path snapshotDir = Files.createTempDirectory("jayhorn_libsnapshot");
+		snapshotDir.toFile().deleteOnExit();
+		try {
+			soottocfg.Options.v().setLibrarySnapshotDir(snapshotDir);
+			String cold = translate(classDir);
+			Assert.assertEquals(0, loadedClasses(PhaseTimer.v().getRoot()));
+			Assert.assertTrue("No snapshot was written", snapshotDir.toFile().list().length > 0);
+
+			String warm = translate(classDir);
+			Assert.assertTrue("The snapshot was not used", loadedClasses(PhaseTimer.v().getRoot()) > 0);
+			Assert.assertEquals(cold, warm);
+		} finally {
+			soottocfg.Options.resetInstance();
+			for (File f : snapshotDir.toFile().listFiles()) {
+				f.delete();
+			}
+			Util.delete(classDir);
+		}
+	}
+
+	private static String translate(File classDir) {
+		soot.G.reset();
+		PhaseTimer.resetInstance();
+		SootToCfg soot2cfg = new SootToCfg();
+		soot2cfg.run(classDir.getAbsolutePath(), null);
+		return normalize(soot2cfg.getProgram().toString());
+	}
+
+	/**
+	 * Push IDs and the suffixes of fresh names come from counters that
+	 * are not reset between runs, and the locals are printed in hash
+	 * order. So the names are made uniform, the lists of push IDs of the
+	 * pulls are replaced by their size, and the lines are sorted.
+	 */
+	private static String normalize(String program) {
+		List<String> lines = new ArrayList<String>();
+		for (String line : program.split("\n")) {
+			line = line.replaceAll("_[0-9]+", "_N");
+			Matcher m = pullIds.matcher(line);
+			if (m.matches()) {
+				line = m.group(1) + "[" + m.group(2).split(",").length + " pushes]";
+			}
+			lines.add(line);
+		}
+		Collections.sort(lines);
+		return lines.toString();
+	}
+
+	private static long loadedClasses(Phase phase) {
+		Long count = phase.getCounters().get("librarySnapshotClasses");
+		long sum = count == null ? 0 : count;
+		for (Phase child : phase.getChildren()) {
+			sum += loadedClasses(child);
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,13 @@
+package jar_tests;
+
+public class JarLib {
+	private final int value;
+
+	public JarLib(int value) {
+		this.value = value;
+	}
+
+	public int twice() {
+		return value + value;
+	}
+}
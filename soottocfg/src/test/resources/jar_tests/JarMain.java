@@ -0,0 +1,8 @@
+package jar_tests;
+
+public class JarMain {
+	public static void main(String[] args) {
+		JarLib lib = new JarLib(args.length);
+		assert lib.twice() == 2 * args.length;
+	}
+}
@@ -0,0 +1,28 @@
+package pta_tests;
+
+import java.util.Random;
+
+public class PtaCopies {
+	int i;
+	PtaCopies next;
+
+	static PtaCopies pick(PtaCopies a, PtaCopies b, boolean first) {
+		return first ? a : b;
+	}
+
+	public static void main(String[] args) {
+		Random r = new Random();
+		PtaCopies a = new PtaCopies();
+		PtaCopies b = new PtaCopies();
+		PtaCopies c = new PtaCopies();
+		a.next = b;
+		b.next = c;
+		if (r.nextBoolean()) {
+			a = c;
+		}
+		PtaCopies d = pick(a, b, r.nextBoolean());
+		d.i = 41;
+		c.next.i = 42;
+		assert b.i >= 0;
+	}
+}
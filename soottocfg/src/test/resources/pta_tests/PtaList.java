@@ -0,0 +1,30 @@
+package pta_tests;
+
+public class PtaList {
+	int value;
+	PtaList tail;
+
+	PtaList(int value, PtaList tail) {
+		this.value = value;
+		this.tail = tail;
+	}
+
+	static int sum(PtaList l) {
+		int s = 0;
+		while (l != null) {
+			s += l.value;
+			l = l.tail;
+		}
+		return s;
+	}
+
+	public static void main(String[] args) {
+		PtaList l = null;
+		for (int i = 0; i < args.length; i++) {
+			l = new PtaList(i, l);
+		}
+		PtaList other = new PtaList(1, null);
+		assert sum(other) == 1;
+		assert sum(l) >= 0;
+	}
+}
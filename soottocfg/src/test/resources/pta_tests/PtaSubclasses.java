@@ -0,0 +1,39 @@
+package pta_tests;
+
+import java.util.Random;
+
+public class PtaSubclasses {
+	static class Shape {
+		int size;
+	}
+
+	static class Circle extends Shape {
+		int radius;
+	}
+
+	static class Square extends Shape {
+		int side;
+	}
+
+	static Shape make(boolean round) {
+		if (round) {
+			return new Circle();
+		}
+		return new Square();
+	}
+
+	public static void main(String[] args) {
+		Random r = new Random();
+		Shape s = make(r.nextBoolean());
+		Circle c = new Circle();
+		Shape t = c;
+		if (s instanceof Square) {
+			((Square) s).side = 2;
+		}
+		t.size = 3;
+		c.radius = 4;
+		Shape[] shapes = new Shape[] { s, t };
+		shapes[r.nextInt(2)].size = 5;
+		assert c.radius == 4;
+	}
+}